@@ -15,6 +15,7 @@
  */
 package com.alibaba.csp.sentinel.dashboard.config;
 
+import java.io.File;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 
@@ -63,6 +64,68 @@ public class DashboardConfig {
      * Auto remove unhealthy machine after specific period in millisecond.
      */
     public static final String CONFIG_AUTO_REMOVE_MACHINE_MILLIS = "sentinel.dashboard.autoRemoveMachineMillis";
+    /**
+     * Type of the metrics repository: {@code ring} (default), {@code memory} or {@code file}.
+     */
+    public static final String CONFIG_METRIC_REPOSITORY = "sentinel.dashboard.metric.repository";
+    /**
+     * Retention of per-second metrics in minutes.
+     */
+    public static final String CONFIG_METRIC_SECOND_RETENTION_MINUTES = "sentinel.dashboard.metric.secondRetentionMinutes";
+    /**
+     * Retention of metrics rolled up to 10 seconds in hours.
+     */
+    public static final String CONFIG_METRIC_TEN_SECONDS_RETENTION_HOURS = "sentinel.dashboard.metric.tenSecondsRetentionHours";
+    /**
+     * Retention of metrics rolled up to 1 minute in days, {@code 1} by default. Every resource seen keeps up to
+     * one point per minute of it in memory, with the {@code ring} metrics repository.
+     */
+    public static final String CONFIG_METRIC_MINUTE_RETENTION_DAYS = "sentinel.dashboard.metric.minuteRetentionDays";
+    /**
+     * Directory of the metric segment files of the {@code file} metrics repository.
+     */
+    public static final String CONFIG_METRIC_FILE_DIR = "sentinel.dashboard.metric.fileDir";
+    /**
+     * Retention of the metric segment files in days.
+     */
+    public static final String CONFIG_METRIC_FILE_RETENTION_DAYS = "sentinel.dashboard.metric.fileRetentionDays";
+    /**
+     * Max number of resources of an app written as series of their own, the metrics of the other resources
+     * are folded into a single series.
+     */
+    public static final String CONFIG_METRIC_MAX_RESOURCES_PER_APP = "sentinel.dashboard.metric.maxResourcesPerApp";
+    /**
+     * Max number of app names, and of resource names of each app, in the metric name dictionaries, 65536 by
+     * default. Only names of stored series are held, the other names are not shared.
+     */
+    public static final String CONFIG_METRIC_MAX_NAMES = "sentinel.dashboard.metric.maxNames";
+    /**
+     * Max heap in MB used by the metrics held in memory, beyond which the metrics of the apps not viewed lately
+     * are downsampled and then removed, {@code 0} (the default) for no budget.
+     */
+    public static final String CONFIG_METRIC_MEMORY_BUDGET_MB = "sentinel.dashboard.metric.memoryBudgetMb";
+    /**
+     * Whether to keep the connections of metric pulls alive and reuse them, {@code false} by default.
+     * Only helps when the transport of the clients keeps connections open after a response.
+     */
+    public static final String CONFIG_METRIC_FETCH_KEEP_ALIVE = "sentinel.dashboard.metric.fetchKeepAlive";
+    /**
+     * Comma separated {@code host:port} of all dashboard nodes sharing the metric fetching, empty for a single node.
+     */
+    public static final String CONFIG_METRIC_CLUSTER_MEMBERS = "sentinel.dashboard.metric.cluster.members";
+    /**
+     * {@code host:port} of this dashboard node, as listed in the cluster members.
+     */
+    public static final String CONFIG_METRIC_CLUSTER_SELF = "sentinel.dashboard.metric.cluster.self";
+    /**
+     * Secret shared by the dashboard nodes of a cluster, required by the queries they forward to each other.
+     */
+    public static final String CONFIG_METRIC_CLUSTER_TOKEN = "sentinel.dashboard.metric.cluster.token";
+    /**
+     * Secret required by the metrics pushed to the dashboard, sent in the {@code X-Sentinel-Metric-Push-Token}
+     * header. Pushes are refused when not set.
+     */
+    public static final String CONFIG_METRIC_PUSH_TOKEN = "sentinel.dashboard.metric.push.token";
 
     private static final ConcurrentMap<String, Object> cacheMap = new ConcurrentHashMap<>();
     
@@ -134,6 +197,63 @@ public class DashboardConfig {
         return getConfigInt(CONFIG_UNHEALTHY_MACHINE_MILLIS, DEFAULT_MACHINE_HEALTHY_TIMEOUT_MS, 30000);
     }
     
+    public static int getMetricSecondRetentionMinutes() {
+        return getConfigInt(CONFIG_METRIC_SECOND_RETENTION_MINUTES, 10, 1);
+    }
+
+    public static int getMetricTenSecondsRetentionHours() {
+        return getConfigInt(CONFIG_METRIC_TEN_SECONDS_RETENTION_HOURS, 6, 1);
+    }
+
+    public static int getMetricMinuteRetentionDays() {
+        return getConfigInt(CONFIG_METRIC_MINUTE_RETENTION_DAYS, 1, 1);
+    }
+
+    public static String getMetricFileDir() {
+        String dir = getConfigStr(CONFIG_METRIC_FILE_DIR);
+        if (dir == null) {
+            dir = System.getProperty("user.home") + File.separator + "logs" + File.separator + "csp"
+                + File.separator + "sentinel-dashboard-metrics";
+        }
+        return dir;
+    }
+
+    public static int getMetricFileRetentionDays() {
+        return getConfigInt(CONFIG_METRIC_FILE_RETENTION_DAYS, 7, 1);
+    }
+
+    public static int getMetricMaxResourcesPerApp() {
+        return getConfigInt(CONFIG_METRIC_MAX_RESOURCES_PER_APP, 10000, 100);
+    }
+
+    public static int getMetricMaxNames() {
+        return getConfigInt(CONFIG_METRIC_MAX_NAMES, 1 << 16, 1024);
+    }
+
+    public static int getMetricMemoryBudgetMb() {
+        return getConfigInt(CONFIG_METRIC_MEMORY_BUDGET_MB, 0, 16);
+    }
+
+    public static boolean isMetricFetchKeepAlive() {
+        return Boolean.parseBoolean(getConfigStr(CONFIG_METRIC_FETCH_KEEP_ALIVE));
+    }
+
+    public static String getMetricClusterMembers() {
+        return getConfigStr(CONFIG_METRIC_CLUSTER_MEMBERS);
+    }
+
+    public static String getMetricClusterSelf() {
+        return getConfigStr(CONFIG_METRIC_CLUSTER_SELF);
+    }
+
+    public static String getMetricClusterToken() {
+        return getConfigStr(CONFIG_METRIC_CLUSTER_TOKEN);
+    }
+
+    public static String getMetricPushToken() {
+        return getConfigStr(CONFIG_METRIC_PUSH_TOKEN);
+    }
+
     public static void clearCache() {
         cacheMap.clear();
     }
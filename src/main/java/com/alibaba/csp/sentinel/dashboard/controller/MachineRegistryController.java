@@ -15,19 +15,39 @@
  */
 package com.alibaba.csp.sentinel.dashboard.controller;
 
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+import javax.servlet.http.HttpServletRequest;
+
+import com.alibaba.csp.sentinel.dashboard.config.DashboardConfig;
+import com.alibaba.csp.sentinel.dashboard.discovery.AppInfo;
 import com.alibaba.csp.sentinel.dashboard.discovery.AppManagement;
 import com.alibaba.csp.sentinel.util.StringUtil;
 
 import com.alibaba.csp.sentinel.dashboard.discovery.MachineInfo;
 import com.alibaba.csp.sentinel.dashboard.domain.Result;
+import com.alibaba.csp.sentinel.dashboard.metric.MetricFetcher;
+import com.alibaba.csp.sentinel.dashboard.metric.MetricShardRouter;
 
 import org.apache.http.conn.util.InetAddressUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.stereotype.Controller;
+import org.springframework.util.StreamUtils;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
 
@@ -37,15 +57,32 @@ public class MachineRegistryController {
 
     private final Logger logger = LoggerFactory.getLogger(MachineRegistryController.class);
 
+    /**
+     * Max size of a pushed batch as sent, and once inflated.
+     */
+    private static final long MAX_PUSH_BYTES = 4 * 1024 * 1024;
+    private static final long MAX_PUSH_INFLATED_BYTES = 32 * 1024 * 1024;
+
     @Autowired
     private AppManagement appManagement;
+    @Autowired
+    private MetricShardRouter shardRouter;
+    @Autowired
+    private MetricFetcher metricFetcher;
 
     @ResponseBody
     @RequestMapping("/machine")
     public Result<?> receiveHeartBeat(String app,
                                       @RequestParam(value = "app_type", required = false, defaultValue = "0")
                                           Integer appType, Long version, String v, String hostname, String ip,
-                                      Integer port) {
+                                      Integer port,
+                                      @RequestHeader(value = MetricShardRouter.RELAY_HEADER, required = false)
+                                          String relayed,
+                                      @RequestHeader(value = MetricShardRouter.TOKEN_HEADER, required = false)
+                                          String clusterToken) {
+        if (relayed != null && !shardRouter.isValidToken(clusterToken)) {
+            return Result.ofFail(-1, "invalid shard token");
+        }
         if (StringUtil.isBlank(app) || app.length() > 256) {
             return Result.ofFail(-1, "invalid appName");
         }
@@ -79,10 +116,143 @@ public class MachineRegistryController {
             machineInfo.setLastHeartbeat(System.currentTimeMillis());
             machineInfo.setVersion(sentinelVersion);
             appManagement.addMachine(machineInfo);
+            if (relayed == null && shardRouter.isEnabled()) {
+                // clients only report to one node, which shares the heartbeat with the others
+                Map<String, Object> params = new LinkedHashMap<>();
+                params.put("app", app);
+                params.put("app_type", appType);
+                params.put("version", version);
+                params.put("v", sentinelVersion);
+                params.put("hostname", hostname);
+                params.put("ip", ip);
+                params.put("port", port);
+                shardRouter.relayHeartbeat(params);
+            }
             return Result.ofSuccessMsg("success");
         } catch (Exception e) {
             logger.error("Receive heartbeat error", e);
             return Result.ofFail(-1, e.getMessage());
         }
     }
+
+    /**
+     * Receive a batch of metrics of an app, pushed rather than pulled from each machine. The body holds lines in
+     * the format of the {@code metric} command of the clients, possibly of many machines, as {@code text/plain}
+     * and optionally with {@code Content-Encoding: gzip}. Pushes are refused unless they carry the configured
+     * {@link DashboardConfig#CONFIG_METRIC_PUSH_TOKEN}. A registered machine pushing its own metrics gives its
+     * {@code ip} and {@code port}, and is not pulled meanwhile; a batch of no given machine pauses no pull.
+     */
+    @ResponseBody
+    @RequestMapping(value = "/metric", method = RequestMethod.POST)
+    public Result<?> receiveMetric(String app, String ip, Integer port,
+                                   @RequestHeader(value = MetricShardRouter.PUSH_TOKEN_HEADER, required = false)
+                                       String pushToken,
+                                   @RequestHeader(value = HttpHeaders.CONTENT_ENCODING, required = false)
+                                       String contentEncoding,
+                                   @RequestHeader(value = MetricShardRouter.RELAY_HEADER, required = false)
+                                       String relayed,
+                                   @RequestHeader(value = MetricShardRouter.TOKEN_HEADER, required = false)
+                                       String clusterToken,
+                                   HttpServletRequest request) {
+        if (relayed != null && !shardRouter.isValidToken(clusterToken)) {
+            return Result.ofFail(-1, "invalid shard token");
+        }
+        String expectedToken = DashboardConfig.getMetricPushToken();
+        if (StringUtil.isEmpty(expectedToken)) {
+            return Result.ofFail(-1, "metric push is disabled");
+        }
+        if (pushToken == null || !MessageDigest.isEqual(expectedToken.getBytes(StandardCharsets.UTF_8),
+            pushToken.getBytes(StandardCharsets.UTF_8))) {
+            return Result.ofFail(-1, "invalid push token");
+        }
+        if (StringUtil.isBlank(app) || app.length() > 256) {
+            return Result.ofFail(-1, "invalid appName");
+        }
+        MachineInfo machine = null;
+        if (ip != null || port != null) {
+            AppInfo appInfo = appManagement.getDetailApp(app);
+            machine = ip == null || port == null || appInfo == null ? null : appInfo.getMachine(ip, port).orElse(null);
+            if (machine == null) {
+                return Result.ofFail(-1, "machine not registered: " + ip + ":" + port);
+            }
+        }
+        boolean gzip = "gzip".equalsIgnoreCase(contentEncoding);
+        if (contentEncoding != null && !gzip && !"identity".equalsIgnoreCase(contentEncoding)) {
+            return Result.ofFail(-1, "unsupported content encoding: " + contentEncoding);
+        }
+        if (request.getContentLengthLong() > MAX_PUSH_BYTES) {
+            return Result.ofFail(-1, "metric batch too large");
+        }
+        try (InputStream body = new LimitedInputStream(request.getInputStream(), MAX_PUSH_BYTES)) {
+            if (relayed == null && !shardRouter.isLocal(app)) {
+                Map<String, Object> params = new LinkedHashMap<>();
+                params.put("app", app);
+                params.put("ip", ip);
+                params.put("port", port);
+                shardRouter.forwardPush(params, pushToken, request.getContentType(), contentEncoding,
+                    StreamUtils.copyToByteArray(body));
+                return Result.ofSuccessMsg("success");
+            }
+            Charset charset = request.getCharacterEncoding() == null ? null
+                : Charset.forName(request.getCharacterEncoding());
+            // a batch failing half way is dropped as a whole, as it is only buffered once parsed
+            try (InputStream in = gzip ? new LimitedInputStream(new GZIPInputStream(body), MAX_PUSH_INFLATED_BYTES)
+                : body) {
+                return Result.ofSuccess(metricFetcher.receivePush(app, machine, in, charset));
+            }
+        } catch (IOException e) {
+            logger.warn("Receive metric of {} error: {}", app, e.getMessage());
+            return Result.ofFail(-1, "failed to receive metrics: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Fails reading past a max number of bytes, rather than buffering whatever a client sends.
+     */
+    private static final class LimitedInputStream extends FilterInputStream {
+
+        private long remaining;
+
+        LimitedInputStream(InputStream in, long maxBytes) {
+            super(in);
+            this.remaining = maxBytes;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                consumed(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                consumed(n);
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            consumed(skipped);
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        private void consumed(long n) throws IOException {
+            remaining -= n;
+            if (remaining < 0) {
+                throw new IOException("metric batch too large");
+            }
+        }
+    }
 }
@@ -15,29 +15,43 @@
  */
 package com.alibaba.csp.sentinel.dashboard.controller;
 
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.TreeMap;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
+import com.alibaba.csp.sentinel.concurrent.NamedThreadFactory;
 import com.alibaba.csp.sentinel.dashboard.domain.Result;
+import com.alibaba.csp.sentinel.dashboard.metric.AppFetchSchedule;
+import com.alibaba.csp.sentinel.dashboard.metric.MachineFetchBreaker;
+import com.alibaba.csp.sentinel.dashboard.metric.MetricFetcher;
+import com.alibaba.csp.sentinel.dashboard.metric.MetricShardRouter;
+import com.alibaba.csp.sentinel.dashboard.metric.MetricStreamHub;
 import com.alibaba.csp.sentinel.dashboard.repository.metric.MetricsRepository;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.MediaType;
 import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import com.alibaba.csp.sentinel.util.StringUtil;
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONObject;
+import com.alibaba.fastjson.parser.Feature;
 
 import com.alibaba.csp.sentinel.dashboard.datasource.entity.MetricEntity;
-import com.alibaba.csp.sentinel.dashboard.domain.vo.MetricVo;
+import com.alibaba.csp.sentinel.dashboard.domain.vo.MetricSeriesVo;
 
 /**
  * @author leyou
@@ -49,20 +63,71 @@ public class MetricController {
     private static Logger logger = LoggerFactory.getLogger(MetricController.class);
 
     private static final long maxQueryIntervalMs = 1000 * 60 * 60;
+    /**
+     * Downsampled queries return a bounded number of points whatever their range.
+     */
+    private static final long maxDownsampledQueryIntervalMs = 1000 * 60 * 60 * 24;
+    /**
+     * Pages of at least this many resources read their series in parallel.
+     */
+    private static final int PARALLEL_QUERY_MIN_RESOURCES = 8;
+
+    @SuppressWarnings("PMD.ThreadPoolCreationRule")
+    private final ExecutorService queryExecutor = Executors.newFixedThreadPool(
+        Runtime.getRuntime().availableProcessors(), new NamedThreadFactory("sentinel-dashboard-metric-query", true));
 
     @Autowired
     private MetricsRepository<MetricEntity> metricStore;
+    @Autowired
+    private MetricFetcher metricFetcher;
+    @Autowired
+    private MetricShardRouter shardRouter;
+    @Autowired
+    private MetricStreamHub streamHub;
 
+    /**
+     * @param since     if present, only the metrics from this timestamp on are queried, see
+     *                  {@link #queryByAppAndResource(String, String, Long, Long, Long, String, Integer, WebRequest)}
+     * @param format    {@link MetricSeriesVo#COLUMNAR_FORMAT} for series of parallel arrays rather than points
+     * @param maxPoints if present, each series is downsampled to this number of points, and may span a day
+     */
     @ResponseBody
     @RequestMapping("/queryTopResourceMetric.json")
     public Result<?> queryTopResourceMetric(final String app,
                                             Integer pageIndex,
                                             Integer pageSize,
                                             Boolean desc,
-                                            Long startTime, Long endTime, String searchKey) {
+                                            Long startTime, Long endTime, String searchKey, Long since,
+                                            String format, Integer maxPoints, WebRequest webRequest) {
+        return queryTopResourceMetric(app, pageIndex, pageSize, desc, startTime, endTime, searchKey, since,
+            format, maxPoints, webRequest, false);
+    }
+
+    /**
+     * Query forwarded by another dashboard node, answered from the metrics of this node.
+     */
+    @ResponseBody
+    @RequestMapping("/shard/queryTopResourceMetric.json")
+    public Result<?> shardQueryTopResourceMetric(
+        @RequestHeader(value = MetricShardRouter.TOKEN_HEADER, required = false) String token, String app,
+        Integer pageIndex, Integer pageSize, Boolean desc, Long startTime, Long endTime, String searchKey,
+        String format, Integer maxPoints) {
+        if (!shardRouter.isValidToken(token)) {
+            return Result.ofFail(-1, "invalid shard token");
+        }
+        return queryTopResourceMetric(app, pageIndex, pageSize, desc, startTime, endTime, searchKey, null, format,
+            maxPoints, null, true);
+    }
+
+    private Result<?> queryTopResourceMetric(String app, Integer pageIndex, Integer pageSize, Boolean desc,
+                                             Long startTime, Long endTime, String searchKey, Long since,
+                                             String format, Integer maxPoints, WebRequest webRequest,
+                                             boolean forwarded) {
         if (StringUtil.isEmpty(app)) {
             return Result.ofFail(-1, "app can't be null or empty");
         }
+        int queryHash = Objects.hash(app, pageIndex, pageSize, desc, startTime, endTime, searchKey, since, format,
+            maxPoints);
         if (pageIndex == null || pageIndex <= 0) {
             pageIndex = 1;
         }
@@ -81,95 +146,230 @@ public class MetricController {
         if (startTime == null) {
             startTime = endTime - 1000 * 60 * 5;
         }
-        if (endTime - startTime > maxQueryIntervalMs) {
+        if (since != null && since > startTime) {
+            startTime = since;
+        }
+        if (maxPoints != null && maxPoints > 0) {
+            if (endTime - startTime > maxDownsampledQueryIntervalMs) {
+                return Result.ofFail(-1, "time intervalMs is too big, must <= 24h");
+            }
+        } else if (endTime - startTime > maxQueryIntervalMs) {
             return Result.ofFail(-1, "time intervalMs is too big, must <= 1h");
         }
-        List<String> resources = metricStore.listResourcesOfApp(app);
-        logger.debug("queryTopResourceMetric(), resources.size()={}", resources.size());
+        if (!forwarded && !shardRouter.isLocal(app)) {
+            Map<String, Object> params = new LinkedHashMap<>();
+            params.put("app", app);
+            params.put("pageIndex", pageIndex);
+            params.put("pageSize", pageSize);
+            params.put("desc", desc);
+            params.put("startTime", startTime);
+            params.put("endTime", endTime);
+            params.put("searchKey", searchKey);
+            params.put("format", format);
+            params.put("maxPoints", maxPoints);
+            return forwardToOwner(app, "/metric/shard/queryTopResourceMetric.json", params);
+        }
+        metricFetcher.markViewed(app);
+        if (checkNotModified(webRequest, app, queryHash)) {
+            return null;
+        }
+        int totalCount = metricStore.countResourcesOfApp(app, null);
+        logger.debug("queryTopResourceMetric(), totalCount={}", totalCount);
 
-        if (resources == null || resources.isEmpty()) {
+        if (totalCount == 0) {
             return Result.ofSuccess(null);
         }
-        if (!desc) {
-            Collections.reverse(resources);
-        }
         if (StringUtil.isNotEmpty(searchKey)) {
-            List<String> searched = new ArrayList<>();
-            for (String resource : resources) {
-                if (resource.contains(searchKey)) {
-                    searched.add(resource);
-                }
-            }
-            resources = searched;
+            totalCount = metricStore.countResourcesOfApp(app, searchKey);
         }
-        int totalPage = (resources.size() + pageSize - 1) / pageSize;
+        int totalPage = (totalCount + pageSize - 1) / pageSize;
         List<String> topResource = new ArrayList<>();
         if (pageIndex <= totalPage) {
-            topResource = resources.subList((pageIndex - 1) * pageSize,
-                Math.min(pageIndex * pageSize, resources.size()));
+            topResource = metricStore.listTopResourcesOfApp(app, searchKey, (pageIndex - 1) * pageSize,
+                pageSize, desc);
         }
-        final Map<String, Iterable<MetricVo>> map = new ConcurrentHashMap<>();
         logger.debug("topResource={}", topResource);
-        long time = System.currentTimeMillis();
-        for (final String resource : topResource) {
-            List<MetricEntity> entities = metricStore.queryByAppAndResourceBetween(
-                app, resource, startTime, endTime);
-            logger.debug("resource={}, entities.size()={}", resource, entities == null ? "null" : entities.size());
-            List<MetricVo> vos = MetricVo.fromMetricEntities(entities, resource);
-            Iterable<MetricVo> vosSorted = sortMetricVoAndDistinct(vos);
-            map.put(resource, vosSorted);
-        }
-        logger.debug("queryTopResourceMetric() total query time={} ms", System.currentTimeMillis() - time);
         Map<String, Object> resultMap = new HashMap<>(16);
-        resultMap.put("totalCount", resources.size());
+        resultMap.put("totalCount", totalCount);
         resultMap.put("totalPage", totalPage);
         resultMap.put("pageIndex", pageIndex);
         resultMap.put("pageSize", pageSize);
-
-        Map<String, Iterable<MetricVo>> map2 = new LinkedHashMap<>();
-        // order matters.
-        for (String identity : topResource) {
-            map2.put(identity, map.get(identity));
-        }
-        resultMap.put("metric", map2);
+        // queried while the response is written, in the order of the resources
+        resultMap.put("metric", MetricSeriesVo.byResource(metricStore, app, topResource, startTime, endTime,
+            topResource.size() >= PARALLEL_QUERY_MIN_RESOURCES ? queryExecutor : null).format(format)
+            .downsample(maxPoints));
         return Result.ofSuccess(resultMap);
     }
 
+    /**
+     * Charts refresh with the metrics since the newest timestamp they hold, included as it may have been merged
+     * since. The response carries an {@code ETag} tied to the version of the metrics of the app, and is
+     * {@code 304 Not Modified} if nothing was written to the app since the same query was answered.
+     *
+     * @param since     if present, only the metrics from this timestamp on are queried
+     * @param format    {@link MetricSeriesVo#COLUMNAR_FORMAT} for a series of parallel arrays rather than points
+     * @param maxPoints if present, the series is downsampled to this number of points, and may span a day
+     */
     @ResponseBody
     @RequestMapping("/queryByAppAndResource.json")
-    public Result<?> queryByAppAndResource(String app, String identity, Long startTime, Long endTime) {
+    public Result<?> queryByAppAndResource(String app, String identity, Long startTime, Long endTime, Long since,
+                                           String format, Integer maxPoints, WebRequest webRequest) {
+        return queryByAppAndResource(app, identity, startTime, endTime, since, format, maxPoints, webRequest,
+            false);
+    }
+
+    /**
+     * Query forwarded by another dashboard node, answered from the metrics of this node.
+     */
+    @ResponseBody
+    @RequestMapping("/shard/queryByAppAndResource.json")
+    public Result<?> shardQueryByAppAndResource(
+        @RequestHeader(value = MetricShardRouter.TOKEN_HEADER, required = false) String token, String app,
+        String identity, Long startTime, Long endTime, String format, Integer maxPoints) {
+        if (!shardRouter.isValidToken(token)) {
+            return Result.ofFail(-1, "invalid shard token");
+        }
+        return queryByAppAndResource(app, identity, startTime, endTime, null, format, maxPoints, null, true);
+    }
+
+    private Result<?> queryByAppAndResource(String app, String identity, Long startTime, Long endTime, Long since,
+                                            String format, Integer maxPoints, WebRequest webRequest,
+                                            boolean forwarded) {
         if (StringUtil.isEmpty(app)) {
             return Result.ofFail(-1, "app can't be null or empty");
         }
         if (StringUtil.isEmpty(identity)) {
             return Result.ofFail(-1, "identity can't be null or empty");
         }
+        int queryHash = Objects.hash(app, identity, startTime, endTime, since, format, maxPoints);
         if (endTime == null) {
             endTime = System.currentTimeMillis();
         }
         if (startTime == null) {
             startTime = endTime - 1000 * 60;
         }
-        if (endTime - startTime > maxQueryIntervalMs) {
+        if (since != null && since > startTime) {
+            startTime = since;
+        }
+        if (maxPoints != null && maxPoints > 0) {
+            if (endTime - startTime > maxDownsampledQueryIntervalMs) {
+                return Result.ofFail(-1, "time intervalMs is too big, must <= 24h");
+            }
+        } else if (endTime - startTime > maxQueryIntervalMs) {
             return Result.ofFail(-1, "time intervalMs is too big, must <= 1h");
         }
-        List<MetricEntity> entities = metricStore.queryByAppAndResourceBetween(
-            app, identity, startTime, endTime);
-        List<MetricVo> vos = MetricVo.fromMetricEntities(entities, identity);
-        return Result.ofSuccess(sortMetricVoAndDistinct(vos));
+        if (!forwarded && !shardRouter.isLocal(app)) {
+            Map<String, Object> params = new LinkedHashMap<>();
+            params.put("app", app);
+            params.put("identity", identity);
+            params.put("startTime", startTime);
+            params.put("endTime", endTime);
+            params.put("format", format);
+            params.put("maxPoints", maxPoints);
+            return forwardToOwner(app, "/metric/shard/queryByAppAndResource.json", params);
+        }
+        metricFetcher.markViewed(app);
+        if (checkNotModified(webRequest, app, queryHash)) {
+            return null;
+        }
+        return Result.ofSuccess(MetricSeriesVo.of(metricStore, app, identity, startTime, endTime).format(format)
+            .downsample(maxPoints));
     }
 
-    private Iterable<MetricVo> sortMetricVoAndDistinct(List<MetricVo> vos) {
-        if (vos == null) {
-            return null;
+    /**
+     * Stream the metrics written for the app, or only for the given resources, as server-sent events instead of
+     * polling the queries above, see {@link MetricStreamHub}. Only the dashboard node storing the app streams it.
+     */
+    @RequestMapping(value = "/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter stream(String app,
+                             @RequestParam(value = "resource", required = false) List<String> resources,
+                             String format) {
+        if (StringUtil.isEmpty(app)) {
+            return MetricStreamHub.unavailable("app can't be null or empty");
         }
-        Map<Long, MetricVo> map = new TreeMap<>();
-        for (MetricVo vo : vos) {
-            MetricVo oldVo = map.get(vo.getTimestamp());
-            if (oldVo == null || vo.getGmtCreate() > oldVo.getGmtCreate()) {
-                map.put(vo.getTimestamp(), vo);
-            }
+        if (!shardRouter.isLocal(app)) {
+            return MetricStreamHub.unavailable("metrics of " + app + " are stored by another dashboard node");
+        }
+        metricFetcher.markViewed(app);
+        return streamHub.subscribe(app, resources, format);
+    }
+
+    @ResponseBody
+    @RequestMapping("/fetchSchedule.json")
+    public Result<List<AppFetchSchedule>> fetchSchedule() {
+        return Result.ofSuccess(metricFetcher.getFetchSchedules());
+    }
+
+    @ResponseBody
+    @RequestMapping("/pipelineStats.json")
+    public Result<Map<String, Object>> pipelineStats() {
+        return Result.ofSuccess(metricFetcher.getPipelineStats());
+    }
+
+    /**
+     * Memory held by the metrics of each app, and the budget trimming them.
+     *
+     * @param topResources max number of resources with the most points listed for each app, 10 by default
+     */
+    @ResponseBody
+    @RequestMapping("/footprint.json")
+    public Result<Map<String, Object>> footprint(Integer topResources) {
+        if (topResources == null) {
+            topResources = 10;
+        }
+        if (topResources < 0 || topResources > 1000) {
+            return Result.ofFail(-1, "topResources should be in [0, 1000]");
+        }
+        return Result.ofSuccess(metricFetcher.getFootprint(topResources));
+    }
+
+    @ResponseBody
+    @RequestMapping("/fetchBreakers.json")
+    public Result<List<MachineFetchBreaker>> fetchBreakers() {
+        return Result.ofSuccess(metricFetcher.getFetchBreakers());
+    }
+
+    /**
+     * Tag the response with the version of the metrics of the app and the query as sent, and check the tag the
+     * client holds. The version is read before the metrics are, so a write racing with the query can only make
+     * the next request miss the check.
+     *
+     * @param webRequest request of a client, null if forwarded by another dashboard node
+     * @return true if the response is {@code 304 Not Modified}
+     */
+    private boolean checkNotModified(WebRequest webRequest, String app, int queryHash) {
+        long version = metricStore.versionOfApp(app);
+        if (webRequest == null || version < 0) {
+            return false;
+        }
+        return webRequest.checkNotModified(
+            "\"" + Long.toHexString(version) + "-" + Integer.toHexString(queryHash) + "\"");
+    }
+
+    /**
+     * The metrics of an app are only stored by the dashboard node fetching it, see {@link MetricShardRouter}.
+     */
+    private Result<?> forwardToOwner(String app, String path, Map<String, Object> params) {
+        String owner = shardRouter.ownerOf(app);
+        try {
+            return resultOf(shardRouter.forward(owner, path, params));
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Failed to query metrics of {} from dashboard node {}", app, owner, e);
+            return Result.ofFail(-1, "failed to query metrics from dashboard node " + owner);
         }
-        return map.values();
     }
+
+    /**
+     * Fields are parsed in order, so that a forwarded ranking keeps the order of its resources.
+     */
+    static Result<?> resultOf(String body) {
+        JSONObject json = JSON.parseObject(body, Feature.OrderedField);
+        Result<Object> result = new Result<>();
+        result.setSuccess(json.getBooleanValue("success"));
+        result.setCode(json.getIntValue("code"));
+        result.setMsg(json.getString("msg"));
+        result.setData(json.get("data"));
+        return result;
+    }
+
 }
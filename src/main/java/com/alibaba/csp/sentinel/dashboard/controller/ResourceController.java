@@ -16,6 +16,7 @@
 package com.alibaba.csp.sentinel.dashboard.controller;
 
 import java.util.List;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
 import com.alibaba.csp.sentinel.util.StringUtil;
@@ -23,8 +24,11 @@ import com.alibaba.csp.sentinel.command.vo.NodeVo;
 
 import com.alibaba.csp.sentinel.dashboard.domain.ResourceTreeNode;
 import com.alibaba.csp.sentinel.dashboard.client.SentinelApiClient;
+import com.alibaba.csp.sentinel.dashboard.datasource.entity.MetricEntity;
 import com.alibaba.csp.sentinel.dashboard.domain.Result;
 import com.alibaba.csp.sentinel.dashboard.domain.vo.ResourceVo;
+import com.alibaba.csp.sentinel.dashboard.repository.metric.MetricsRepository;
+import com.alibaba.csp.sentinel.dashboard.repository.metric.ResourceSearchIndex;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -45,6 +49,9 @@ public class ResourceController {
     @Autowired
     private SentinelApiClient httpFetcher;
 
+    @Autowired
+    private MetricsRepository<MetricEntity> metricStore;
+
     /**
      * Fetch real time statistics info of the machine.
      *
@@ -53,11 +60,12 @@ public class ResourceController {
      * @param type      one of [root, default, cluster], 'root' means fetching from tree root node, 'default' means
      *                  fetching from tree default node, 'cluster' means fetching from cluster node.
      * @param searchKey key to search
+     * @param app       app of the machine, if present the key is searched in the resource index of the app
      * @return node statistics info.
      */
     @GetMapping("/machineResource.json")
     public Result<List<ResourceVo>> fetchResourceChainListOfMachine(String ip, Integer port, String type,
-                                                                    String searchKey) {
+                                                                    String searchKey, String app) {
         if (StringUtil.isEmpty(ip) || port == null) {
             return Result.ofFail(-1, "invalid param, give ip, port");
         }
@@ -72,7 +80,7 @@ public class ResourceController {
                 return Result.ofSuccess(null);
             }
             ResourceTreeNode treeNode = ResourceTreeNode.fromNodeVoList(nodeVos);
-            treeNode.searchIgnoreCase(searchKey);
+            treeNode.search(resourceMatcher(app, searchKey, nodeVos.size()));
             return Result.ofSuccess(ResourceVo.fromResourceTreeNode(treeNode));
         } else {
             // Normal (cluster node).
@@ -81,11 +89,27 @@ public class ResourceController {
                 return Result.ofSuccess(null);
             }
             if (StringUtil.isNotEmpty(searchKey)) {
-                nodeVos = nodeVos.stream().filter(node -> node.getResource()
-                    .toLowerCase().contains(searchKey.toLowerCase()))
+                Predicate<String> matcher = resourceMatcher(app, searchKey, nodeVos.size());
+                nodeVos = nodeVos.stream().filter(node -> matcher.test(node.getResource()))
                     .collect(Collectors.toList());
             }
             return Result.ofSuccess(ResourceVo.fromNodeVoList(nodeVos));
         }
     }
+
+    /**
+     * Match resources containing the key ignoring case, from the resource index of the app when there is one and
+     * the resources to match outnumber those a search of the index checks.
+     */
+    private Predicate<String> resourceMatcher(String app, String searchKey, int candidates) {
+        ResourceSearchIndex index = StringUtil.isBlank(app) ? null : metricStore.resourceIndexOf(app);
+        if (index != null) {
+            return index.matcherOf(searchKey, true, candidates);
+        }
+        if (StringUtil.isEmpty(searchKey)) {
+            return resource -> true;
+        }
+        String lowerCaseKey = searchKey.toLowerCase();
+        return resource -> resource.toLowerCase().contains(lowerCaseKey);
+    }
 }
@@ -85,6 +85,21 @@ public class MetricEntity {
         this.successQps += successQps;
     }
 
+    /**
+     * Add a metric of the same resource and second, such as the one of another batch of machines.
+     * {@link #rt} being the rt sum, the average stays weighted by success qps.
+     *
+     * @param other metric to add
+     */
+    public synchronized void addMetric(MetricEntity other) {
+        this.passQps += other.getPassQps();
+        this.blockQps += other.getBlockQps();
+        this.exceptionQps += other.getExceptionQps();
+        this.successQps += other.getSuccessQps();
+        this.rt += other.getRt();
+        this.count += other.getCount();
+    }
+
     /**
      * {@link #rt} = {@code avgRt * successQps}
      *
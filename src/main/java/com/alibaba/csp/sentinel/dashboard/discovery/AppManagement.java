@@ -18,6 +18,7 @@ package com.alibaba.csp.sentinel.dashboard.discovery;
 import java.util.List;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import javax.annotation.PostConstruct;
 
@@ -35,6 +36,8 @@ public class AppManagement implements MachineDiscovery {
 
     private MachineDiscovery machineDiscovery;
 
+    private final List<MachineRemovalListener> removalListeners = new CopyOnWriteArrayList<>();
+
     @PostConstruct
     public void init() {
         machineDiscovery = context.getBean(SimpleMachineDiscovery.class);
@@ -52,7 +55,11 @@ public class AppManagement implements MachineDiscovery {
     
     @Override
     public boolean removeMachine(String app, String ip, int port) {
-        return machineDiscovery.removeMachine(app, ip, port);
+        boolean removed = machineDiscovery.removeMachine(app, ip, port);
+        if (removed) {
+            notifyMachineRemoved(app, ip, port);
+        }
+        return removed;
     }
 
     @Override
@@ -67,7 +74,23 @@ public class AppManagement implements MachineDiscovery {
     
     @Override
     public void removeApp(String app) {
+        AppInfo appInfo = machineDiscovery.getDetailApp(app);
         machineDiscovery.removeApp(app);
+        if (appInfo != null) {
+            for (MachineInfo machine : appInfo.getMachines()) {
+                notifyMachineRemoved(app, machine.getIp(), machine.getPort());
+            }
+        }
+    }
+
+    public void addMachineRemovalListener(MachineRemovalListener listener) {
+        removalListeners.add(listener);
+    }
+
+    private void notifyMachineRemoved(String app, String ip, int port) {
+        for (MachineRemovalListener listener : removalListeners) {
+            listener.onMachineRemoved(app, ip, port);
+        }
     }
 
     public boolean isValidMachineOfApp(String app, String ip) {
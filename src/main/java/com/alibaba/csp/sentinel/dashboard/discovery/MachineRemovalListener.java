@@ -0,0 +1,31 @@
+/*
+ * Copyright 1999-2018 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.discovery;
+
+/**
+ * Listener notified by {@link AppManagement} after a machine left the registry, either removed on its own
+ * or together with its app.
+ */
+@FunctionalInterface
+public interface MachineRemovalListener {
+
+    /**
+     * @param app the application name of the machine
+     * @param ip machine IP
+     * @param port machine port
+     */
+    void onMachineRemoved(String app, String ip, int port);
+}
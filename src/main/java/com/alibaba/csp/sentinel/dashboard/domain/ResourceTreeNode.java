@@ -19,6 +19,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Predicate;
 
 import com.alibaba.csp.sentinel.command.vo.NodeVo;
 
@@ -87,25 +88,33 @@ public class ResourceTreeNode {
     }
 
     public void searchIgnoreCase(String searchKey) {
-        search(this, searchKey);
+        // empty matches all
+        if (searchKey == null || searchKey.isEmpty()) {
+            search(resource -> true);
+        } else {
+            String lowerCaseKey = searchKey.toLowerCase();
+            search(resource -> resource.toLowerCase().contains(lowerCaseKey));
+        }
+    }
+
+    /**
+     * @param matcher matcher of the resources to show, such as one of a
+     *                {@link com.alibaba.csp.sentinel.dashboard.repository.metric.ResourceSearchIndex}
+     */
+    public void search(Predicate<String> matcher) {
+        search(this, matcher);
     }
 
     /**
-     * This node is visible only when searchKey matches this.resource or at least
+     * This node is visible only when the matcher matches this.resource or at least
      * one of this's children is visible
      */
-    private boolean search(ResourceTreeNode node, String searchKey) {
-        // empty matches all
-        if (searchKey == null || searchKey.isEmpty() ||
-            node.resource.toLowerCase().contains(searchKey.toLowerCase())) {
-            node.visible = true;
-        } else {
-            node.visible = false;
-        }
+    private boolean search(ResourceTreeNode node, Predicate<String> matcher) {
+        node.visible = matcher.test(node.resource);
 
         boolean found = false;
         for (ResourceTreeNode c : node.children) {
-            found |= search(c, searchKey);
+            found |= search(c, matcher);
         }
         node.visible |= found;
         return node.visible;
@@ -0,0 +1,268 @@
+/*
+ * Copyright 1999-2018 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.domain.vo;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import com.alibaba.csp.sentinel.dashboard.repository.metric.MetricSeriesDownsampler;
+import com.alibaba.csp.sentinel.dashboard.repository.metric.MetricSeriesVisitor;
+import com.alibaba.csp.sentinel.dashboard.repository.metric.MetricsRepository;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonSerializable;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.jsontype.TypeSerializer;
+
+/**
+ * <p>
+ * Metrics of resources queried while the response is written, each point going from the
+ * {@link MetricsRepository#queryByAppAndResourcesBetween batch query} straight to the JSON generator, in the
+ * format of {@link MetricVo} but without building one per point.
+ * </p>
+ * <p>
+ * Written as an array of the points of one resource, or an object of such arrays by resource.
+ * </p>
+ * <p>
+ * In the {@link #COLUMNAR_FORMAT columnar} format, a series is instead an object of parallel arrays, without
+ * the fields repeated for every point:
+ * </p>
+ * <pre>
+ * {"base": 1600000000000, "delta": [0, 1000, 1000, 2000], "passQps": [...], "blockQps": [...],
+ *  "successQps": [...], "exceptionQps": [...], "rt": [...]}
+ * </pre>
+ * <p>
+ * where the timestamp of a point is the base plus the deltas up to its own, and rt is the average as in
+ * {@link MetricVo}.
+ * </p>
+ * <p>
+ * Series may be {@link MetricSeriesDownsampler downsampled} to a max number of points each.
+ * </p>
+ */
+public class MetricSeriesVo implements JsonSerializable {
+
+    public static final String COLUMNAR_FORMAT = "columnar";
+
+    private final MetricsRepository<?> repository;
+    private final String app;
+    private final List<String> resources;
+    private final long startTime;
+    private final long endTime;
+    private final Executor executor;
+    private final boolean byResource;
+    private final boolean columnar;
+    private final Integer maxPoints;
+
+    private MetricSeriesVo(MetricsRepository<?> repository, String app, List<String> resources, long startTime,
+                           long endTime, Executor executor, boolean byResource, boolean columnar,
+                           Integer maxPoints) {
+        this.repository = repository;
+        this.app = app;
+        this.resources = resources;
+        this.startTime = startTime;
+        this.endTime = endTime;
+        this.executor = executor;
+        this.byResource = byResource;
+        this.columnar = columnar;
+        this.maxPoints = maxPoints;
+    }
+
+    /**
+     * @param executor if not null, the series are read in parallel on it
+     */
+    public static MetricSeriesVo byResource(MetricsRepository<?> repository, String app, List<String> resources,
+                                            long startTime, long endTime, Executor executor) {
+        return new MetricSeriesVo(repository, app, resources, startTime, endTime, executor, true, false, null);
+    }
+
+    public static MetricSeriesVo of(MetricsRepository<?> repository, String app, String resource, long startTime,
+                                    long endTime) {
+        return new MetricSeriesVo(repository, app, Collections.singletonList(resource), startTime, endTime, null,
+            false, false, null);
+    }
+
+    /**
+     * @param format {@link #COLUMNAR_FORMAT} for the columnar format, anything else for points
+     * @return the same metrics in given format
+     */
+    public MetricSeriesVo format(String format) {
+        return new MetricSeriesVo(repository, app, resources, startTime, endTime, executor, byResource,
+            COLUMNAR_FORMAT.equals(format), maxPoints);
+    }
+
+    /**
+     * @param maxPoints max number of points of each series, all points if null or not positive
+     * @return the same metrics downsampled to given number of points
+     */
+    public MetricSeriesVo downsample(Integer maxPoints) {
+        return new MetricSeriesVo(repository, app, resources, startTime, endTime, executor, byResource, columnar,
+            maxPoints);
+    }
+
+    @Override
+    public void serialize(JsonGenerator gen, SerializerProvider serializers) throws IOException {
+        if (byResource) {
+            gen.writeStartObject();
+        }
+        ColumnarSeries columns = columnar ? new ColumnarSeries() : null;
+        try {
+            repository.queryByAppAndResourcesBetween(app, resources, startTime, endTime, executor,
+                MetricSeriesDownsampler.wrap(new MetricSeriesVisitor() {
+                    private String current;
+
+                    @Override
+                    public void startSeries(String resource) {
+                        current = resource;
+                        try {
+                            if (byResource) {
+                                gen.writeFieldName(resource);
+                            }
+                            if (columns != null) {
+                                columns.clear();
+                            } else {
+                                gen.writeStartArray();
+                            }
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    }
+
+                    @Override
+                    public void visitPoint(long timestamp, long gmtCreate, long passQps, long successQps,
+                                           long blockQps, long exceptionQps, double rt, int count) {
+                        if (columns != null) {
+                            columns.add(timestamp, passQps, successQps, blockQps, exceptionQps, rt);
+                            return;
+                        }
+                        try {
+                            writePoint(gen, current, timestamp, gmtCreate, passQps, successQps, blockQps,
+                                exceptionQps, rt, count);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    }
+
+                    @Override
+                    public void endSeries(String resource) {
+                        try {
+                            if (columns != null) {
+                                columns.write(gen);
+                            } else {
+                                gen.writeEndArray();
+                            }
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    }
+                }, maxPoints));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        if (byResource) {
+            gen.writeEndObject();
+        }
+    }
+
+    /**
+     * Same fields as {@link MetricVo#fromMetricEntity}, including the average rt.
+     */
+    private void writePoint(JsonGenerator gen, String resource, long timestamp, long gmtCreate, long passQps,
+                            long successQps, long blockQps, long exceptionQps, double rt, int count)
+        throws IOException {
+        gen.writeStartObject();
+        gen.writeNullField("id");
+        gen.writeStringField("app", app);
+        gen.writeNumberField("timestamp", timestamp);
+        gen.writeNumberField("gmtCreate", gmtCreate);
+        gen.writeStringField("resource", resource);
+        gen.writeNumberField("passQps", passQps);
+        gen.writeNumberField("blockQps", blockQps);
+        gen.writeNumberField("successQps", successQps);
+        gen.writeNumberField("exceptionQps", exceptionQps);
+        gen.writeNumberField("rt", successQps != 0 ? rt / successQps : 0D);
+        gen.writeNumberField("count", count);
+        gen.writeEndObject();
+    }
+
+    /**
+     * Points of the series being written in the columnar format, reused from one series to the next.
+     */
+    private static final class ColumnarSeries {
+
+        private long[] timestamps = new long[64];
+        private long[] passQps = new long[64];
+        private long[] blockQps = new long[64];
+        private long[] successQps = new long[64];
+        private long[] exceptionQps = new long[64];
+        private double[] rt = new double[64];
+        private int size;
+
+        void clear() {
+            size = 0;
+        }
+
+        void add(long timestamp, long pass, long success, long block, long exception, double rtSum) {
+            if (size == timestamps.length) {
+                int capacity = size * 2;
+                timestamps = Arrays.copyOf(timestamps, capacity);
+                passQps = Arrays.copyOf(passQps, capacity);
+                blockQps = Arrays.copyOf(blockQps, capacity);
+                successQps = Arrays.copyOf(successQps, capacity);
+                exceptionQps = Arrays.copyOf(exceptionQps, capacity);
+                rt = Arrays.copyOf(rt, capacity);
+            }
+            timestamps[size] = timestamp;
+            passQps[size] = pass;
+            blockQps[size] = block;
+            successQps[size] = success;
+            exceptionQps[size] = exception;
+            rt[size] = success != 0 ? rtSum / success : 0D;
+            size++;
+        }
+
+        void write(JsonGenerator gen) throws IOException {
+            gen.writeStartObject();
+            gen.writeNumberField("base", size > 0 ? timestamps[0] : 0);
+            gen.writeFieldName("delta");
+            gen.writeStartArray();
+            for (int i = 0; i < size; i++) {
+                gen.writeNumber(i == 0 ? 0 : timestamps[i] - timestamps[i - 1]);
+            }
+            gen.writeEndArray();
+            gen.writeFieldName("passQps");
+            gen.writeArray(passQps, 0, size);
+            gen.writeFieldName("blockQps");
+            gen.writeArray(blockQps, 0, size);
+            gen.writeFieldName("successQps");
+            gen.writeArray(successQps, 0, size);
+            gen.writeFieldName("exceptionQps");
+            gen.writeArray(exceptionQps, 0, size);
+            gen.writeFieldName("rt");
+            gen.writeArray(rt, 0, size);
+            gen.writeEndObject();
+        }
+    }
+
+    @Override
+    public void serializeWithType(JsonGenerator gen, SerializerProvider serializers, TypeSerializer typeSer)
+        throws IOException {
+        serialize(gen, serializers);
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 1999-2018 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.metric;
+
+/**
+ * Snapshot of how the metrics of an app are scheduled to be fetched.
+ */
+public class AppFetchSchedule {
+
+    private final String app;
+    private final boolean viewed;
+    private final long intervalMs;
+    private final long nextDueMs;
+    private final long lagMs;
+    private final boolean fetching;
+
+    AppFetchSchedule(String app, boolean viewed, long intervalMs, long nextDueMs, long lagMs, boolean fetching) {
+        this.app = app;
+        this.viewed = viewed;
+        this.intervalMs = intervalMs;
+        this.nextDueMs = nextDueMs;
+        this.lagMs = lagMs;
+        this.fetching = fetching;
+    }
+
+    public String getApp() {
+        return app;
+    }
+
+    /**
+     * @return whether the metrics of the app have been queried recently
+     */
+    public boolean isViewed() {
+        return viewed;
+    }
+
+    public long getIntervalMs() {
+        return intervalMs;
+    }
+
+    public long getNextDueMs() {
+        return nextDueMs;
+    }
+
+    /**
+     * @return time between the moment the last fetch was due and its completion
+     */
+    public long getLagMs() {
+        return lagMs;
+    }
+
+    public boolean isFetching() {
+        return fetching;
+    }
+
+    @Override
+    public String toString() {
+        return "AppFetchSchedule{" +
+            "app='" + app + '\'' +
+            ", viewed=" + viewed +
+            ", intervalMs=" + intervalMs +
+            ", nextDueMs=" + nextDueMs +
+            ", lagMs=" + lagMs +
+            ", fetching=" + fetching +
+            '}';
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright 1999-2018 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.metric;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * <p>
+ * Space-Saving top-k sketch: a fixed number of monitored items, each with a count that overestimates its
+ * weight by at most its error. An item not monitored replaces the one of the smallest count, inheriting that
+ * count as its error, so heavy items stay monitored whatever the number of distinct items.
+ * </p>
+ * <p>
+ * The items are kept in a min-heap on their count, so an offer is {@code O(log k)}. The heap grows up to the
+ * capacity as items come. Not thread safe.
+ * </p>
+ */
+final class HeavyHitterSketch {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final int capacity;
+    private final Map<String, Integer> positions = new HashMap<>();
+    private String[] items;
+    private long[] counts;
+    private long[] errors;
+    private int size;
+
+    HeavyHitterSketch(int capacity) {
+        this.capacity = capacity;
+        int initial = Math.min(capacity, INITIAL_CAPACITY);
+        this.items = new String[initial];
+        this.counts = new long[initial];
+        this.errors = new long[initial];
+    }
+
+    void offer(String item, long weight) {
+        Integer at = positions.get(item);
+        if (at != null) {
+            counts[at] += weight;
+            siftDown(at);
+        } else if (size < capacity) {
+            if (size == items.length) {
+                int grown = Math.min(capacity, size * 2);
+                items = Arrays.copyOf(items, grown);
+                counts = Arrays.copyOf(counts, grown);
+                errors = Arrays.copyOf(errors, grown);
+            }
+            set(size, item, weight, 0);
+            siftUp(size++);
+        } else {
+            // replace the smallest count, at the root
+            positions.remove(items[0]);
+            set(0, item, counts[0] + weight, counts[0]);
+            siftDown(0);
+        }
+    }
+
+    /**
+     * An item is heavy if monitored and at least half of its count is guaranteed, which all items are as long
+     * as there are no more distinct items than the capacity.
+     */
+    boolean isHeavy(String item) {
+        Integer at = positions.get(item);
+        return at != null && counts[at] - errors[at] >= errors[at];
+    }
+
+    /**
+     * @return the count of given item, an overestimate of its weight, 0 if not monitored
+     */
+    long countOf(String item) {
+        Integer at = positions.get(item);
+        return at == null ? 0 : counts[at];
+    }
+
+    /**
+     * Halve all counts and errors, so that the counts follow recent weights. Halving keeps the heap order.
+     */
+    void decay() {
+        for (int i = 0; i < size; i++) {
+            counts[i] >>= 1;
+            errors[i] >>= 1;
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    private void set(int at, String item, long count, long error) {
+        items[at] = item;
+        counts[at] = count;
+        errors[at] = error;
+        positions.put(item, at);
+    }
+
+    private void siftUp(int at) {
+        while (at > 0) {
+            int parent = (at - 1) >>> 1;
+            if (counts[parent] <= counts[at]) {
+                return;
+            }
+            swap(at, parent);
+            at = parent;
+        }
+    }
+
+    private void siftDown(int at) {
+        while (true) {
+            int child = 2 * at + 1;
+            if (child >= size) {
+                return;
+            }
+            if (child + 1 < size && counts[child + 1] < counts[child]) {
+                child++;
+            }
+            if (counts[at] <= counts[child]) {
+                return;
+            }
+            swap(at, child);
+            at = child;
+        }
+    }
+
+    private void swap(int i, int j) {
+        String item = items[i];
+        long count = counts[i];
+        long error = errors[i];
+        items[i] = items[j];
+        counts[i] = counts[j];
+        errors[i] = errors[j];
+        items[j] = item;
+        counts[j] = count;
+        errors[j] = error;
+        positions.put(items[i], i);
+        positions.put(items[j], j);
+    }
+}
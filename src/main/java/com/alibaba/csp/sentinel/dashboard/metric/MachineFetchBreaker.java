@@ -0,0 +1,100 @@
+/*
+ * Copyright 1999-2018 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.metric;
+
+/**
+ * Snapshot of the breaker guarding the metric fetches of a machine.
+ */
+public class MachineFetchBreaker {
+
+    public enum State {
+        /**
+         * The machine is fetched as usual.
+         */
+        CLOSED,
+        /**
+         * The machine is not fetched until {@link #getRetryAtMs()}.
+         */
+        OPEN,
+        /**
+         * A single fetch is probing whether the machine answers again.
+         */
+        HALF_OPEN
+    }
+
+    private final String app;
+    private final String ip;
+    private final int port;
+    private final State state;
+    private final int failures;
+    private final long backoffMs;
+    private final long retryAtMs;
+
+    MachineFetchBreaker(String app, String ip, int port, State state, int failures, long backoffMs,
+                        long retryAtMs) {
+        this.app = app;
+        this.ip = ip;
+        this.port = port;
+        this.state = state;
+        this.failures = failures;
+        this.backoffMs = backoffMs;
+        this.retryAtMs = retryAtMs;
+    }
+
+    public String getApp() {
+        return app;
+    }
+
+    public String getIp() {
+        return ip;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * @return consecutive failed fetches
+     */
+    public int getFailures() {
+        return failures;
+    }
+
+    public long getBackoffMs() {
+        return backoffMs;
+    }
+
+    public long getRetryAtMs() {
+        return retryAtMs;
+    }
+
+    @Override
+    public String toString() {
+        return "MachineFetchBreaker{" +
+            "app='" + app + '\'' +
+            ", ip='" + ip + '\'' +
+            ", port=" + port +
+            ", state=" + state +
+            ", failures=" + failures +
+            ", backoffMs=" + backoffMs +
+            ", retryAtMs=" + retryAtMs +
+            '}';
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright 1999-2018 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.metric;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import com.alibaba.csp.sentinel.dashboard.datasource.entity.MetricEntity;
+
+/**
+ * <p>
+ * Metrics of all machines of an app in one fetch, aggregated by {@code (resource, second)} and
+ * ignoring ip and port.
+ * </p>
+ * <p>
+ * The key is {@code resource.hashCode() << 32 | second} in an open addressing table with primitive value
+ * columns, so adding a line allocates nothing; {@link MetricEntity} instances are only built once
+ * the fetch completes. Resources of the same key are told apart by their names. The key only depends on the
+ * name, so the lines of a resource add up under one key whatever names are interned meanwhile.
+ * </p>
+ * <p>
+ * Each machine is parsed into an aggregation of its own, {@link #merge(MetricAggregation) merged} into the
+ * one of the app only once its response is complete, so a machine is either fully in a write or not at all.
+ * </p>
+ */
+final class MetricAggregation {
+
+    private static final long EMPTY = -1L;
+    private static final int INITIAL_CAPACITY = 256;
+
+    private long[] keys;
+    private String[] resources;
+    private long[] passQps;
+    private long[] blockQps;
+    private long[] successQps;
+    private long[] exceptionQps;
+    /**
+     * Sum of {@code avgRt * successQps}, see {@link MetricEntity#addRtAndSuccessQps(double, Long)}.
+     */
+    private double[] rt;
+    private int[] count;
+    private int size;
+    private long latestSecond = -1;
+    private boolean sealed;
+
+    MetricAggregation() {
+        allocate(INITIAL_CAPACITY);
+    }
+
+    synchronized void add(String resource, long timestamp, long pass, long block, long success, long exception,
+                          double avgRt) {
+        long second = timestamp / 1000;
+        long key = ((long)resource.hashCode() << 32) | (second & 0xFFFFFFFFL);
+        add(key, resource, pass, block, success, exception, avgRt * success, 1);
+    }
+
+    /**
+     * Add all metrics of given aggregation, unless this one has been {@link #seal() sealed}.
+     *
+     * @return false if sealed
+     */
+    synchronized boolean merge(MetricAggregation other) {
+        if (sealed) {
+            return false;
+        }
+        synchronized (other) {
+            for (int slot = 0; slot < other.keys.length; slot++) {
+                if (other.keys[slot] != EMPTY) {
+                    add(other.keys[slot], other.resources[slot], other.passQps[slot], other.blockQps[slot],
+                        other.successQps[slot], other.exceptionQps[slot], other.rt[slot], other.count[slot]);
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reject further {@link #merge(MetricAggregation) merges}, once the metrics are about to be written.
+     */
+    synchronized void seal() {
+        sealed = true;
+    }
+
+    private void add(long key, String resource, long pass, long block, long success, long exception, double rtSum,
+                     int samples) {
+        int mask = keys.length - 1;
+        int slot = mix(key) & mask;
+        while (keys[slot] != EMPTY && (keys[slot] != key || !resources[slot].equals(resource))) {
+            slot = (slot + 1) & mask;
+        }
+        if (keys[slot] == EMPTY) {
+            keys[slot] = key;
+            resources[slot] = resource;
+            size++;
+        }
+        passQps[slot] += pass;
+        blockQps[slot] += block;
+        successQps[slot] += success;
+        exceptionQps[slot] += exception;
+        rt[slot] += rtSum;
+        count[slot] += samples;
+        latestSecond = Math.max(latestSecond, key & 0xFFFFFFFFL);
+        if (size * 2 > keys.length) {
+            rehash(keys.length * 2);
+        }
+    }
+
+    synchronized int size() {
+        return size;
+    }
+
+    /**
+     * @return the latest timestamp aggregated, -1 if none
+     */
+    synchronized long latestTimestamp() {
+        return latestSecond < 0 ? -1 : latestSecond * 1000;
+    }
+
+    /**
+     * Build the aggregated metrics of given app.
+     */
+    synchronized List<MetricEntity> toEntities(String app, Date gmtCreate) {
+        List<MetricEntity> entities = new ArrayList<>(size);
+        for (int slot = 0; slot < keys.length; slot++) {
+            if (keys[slot] == EMPTY) {
+                continue;
+            }
+            MetricEntity entity = new MetricEntity();
+            entity.setApp(app);
+            entity.setResource(resources[slot]);
+            entity.setTimestamp(new Date((keys[slot] & 0xFFFFFFFFL) * 1000));
+            entity.setGmtCreate(gmtCreate);
+            entity.setGmtModified(gmtCreate);
+            entity.setPassQps(passQps[slot]);
+            entity.setBlockQps(blockQps[slot]);
+            entity.setSuccessQps(successQps[slot]);
+            entity.setExceptionQps(exceptionQps[slot]);
+            entity.setRt(rt[slot]);
+            entity.setCount(count[slot]);
+            entities.add(entity);
+        }
+        return entities;
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        String[] oldResources = resources;
+        long[] oldPass = passQps;
+        long[] oldBlock = blockQps;
+        long[] oldSuccess = successQps;
+        long[] oldException = exceptionQps;
+        double[] oldRt = rt;
+        int[] oldCount = count;
+
+        allocate(capacity);
+        int mask = capacity - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] == EMPTY) {
+                continue;
+            }
+            int slot = mix(oldKeys[i]) & mask;
+            while (keys[slot] != EMPTY) {
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = oldKeys[i];
+            resources[slot] = oldResources[i];
+            passQps[slot] = oldPass[i];
+            blockQps[slot] = oldBlock[i];
+            successQps[slot] = oldSuccess[i];
+            exceptionQps[slot] = oldException[i];
+            rt[slot] = oldRt[i];
+            count[slot] = oldCount[i];
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        Arrays.fill(keys, EMPTY);
+        resources = new String[capacity];
+        passQps = new long[capacity];
+        blockQps = new long[capacity];
+        successQps = new long[capacity];
+        exceptionQps = new long[capacity];
+        rt = new double[capacity];
+        count = new int[capacity];
+    }
+
+    private static int mix(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int)(h ^ (h >>> 32));
+    }
+}
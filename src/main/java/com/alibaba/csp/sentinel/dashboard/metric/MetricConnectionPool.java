@@ -0,0 +1,109 @@
+/*
+ * Copyright 1999-2018 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.metric;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.nio.reactor.IOReactorException;
+import org.apache.http.protocol.HTTP;
+
+/**
+ * <p>
+ * Connections used to pull metrics from the machines.
+ * </p>
+ * <p>
+ * Every machine is a route of its own and is pulled at most once per second, so a few connections per
+ * route are enough; the total is sized from the number of live machines instead of a fixed ceiling.
+ * </p>
+ * <p>
+ * With keep-alive enabled connections are returned to the pool and reused by the next pull. The pool can
+ * not close the connections of a single route, so connections of removed machines are evicted as idle:
+ * live machines are pulled at least every {@link MetricFetchScheduler#MAX_INTERVAL_MS}, so only a machine
+ * that is no longer pulled, or whose pulls keep failing, stays idle for {@link #REMOVED_MACHINE_IDLE_MS}.
+ * </p>
+ */
+final class MetricConnectionPool {
+
+    /**
+     * Pulls of a machine may overlap when it answers slower than the fetch interval.
+     */
+    static final int MAX_PER_ROUTE = 4;
+    static final int MIN_TOTAL = 64;
+    /**
+     * Idle time after which a connection is considered to belong to a machine that is no longer pulled,
+     * twice the longest interval between two pulls of a machine.
+     */
+    static final long REMOVED_MACHINE_IDLE_MS = MetricFetchScheduler.MAX_INTERVAL_MS * 2;
+    /**
+     * Upper bound of the keep-alive of pooled connections, whatever the machine announces.
+     */
+    static final long MAX_KEEP_ALIVE_MS = 30_000;
+
+    private final PoolingNHttpClientConnectionManager connManager;
+    private final boolean keepAlive;
+
+    MetricConnectionPool(IOReactorConfig ioConfig, boolean keepAlive) throws IOReactorException {
+        this.connManager = new PoolingNHttpClientConnectionManager(new DefaultConnectingIOReactor(ioConfig));
+        this.keepAlive = keepAlive;
+        connManager.setDefaultMaxPerRoute(MAX_PER_ROUTE);
+        connManager.setMaxTotal(MIN_TOTAL);
+    }
+
+    PoolingNHttpClientConnectionManager getConnectionManager() {
+        return connManager;
+    }
+
+    boolean isKeepAlive() {
+        return keepAlive;
+    }
+
+    ConnectionKeepAliveStrategy keepAliveStrategy() {
+        return (response, context) -> {
+            long duration = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+            return duration > 0 ? Math.min(duration, MAX_KEEP_ALIVE_MS) : MAX_KEEP_ALIVE_MS;
+        };
+    }
+
+    void prepare(HttpGet httpGet) {
+        if (!keepAlive) {
+            httpGet.setHeader(HTTP.CONN_DIRECTIVE, HTTP.CONN_CLOSE);
+        }
+    }
+
+    /**
+     * Size the pool from the number of machines currently registered.
+     */
+    void resize(int liveMachines) {
+        int total = Math.max(MIN_TOTAL, liveMachines * MAX_PER_ROUTE);
+        if (total != connManager.getMaxTotal()) {
+            connManager.setMaxTotal(total);
+        }
+    }
+
+    /**
+     * Close expired connections and those idle for longer than given time.
+     */
+    void evictIdle(long idleMs) {
+        connManager.closeExpiredConnections();
+        connManager.closeIdleConnections(idleMs, TimeUnit.MILLISECONDS);
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright 1999-2018 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.metric;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+import com.alibaba.csp.sentinel.dashboard.discovery.MachineInfo;
+import com.alibaba.csp.sentinel.dashboard.metric.MachineFetchBreaker.State;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * Circuit breaker of each machine: after {@link #FAILURE_THRESHOLD} consecutive fetches failing to connect or
+ * timing out, the machine is left alone for a backoff, from {@link #MIN_BACKOFF_MS} doubling up to
+ * {@link #MAX_BACKOFF_MS}, after which a single fetch probes it. A machine that answers is fetched as usual again,
+ * catching up from its {@link MetricFetchPositions position}.
+ * </p>
+ * <p>
+ * Unreachable machines thus stop holding connections and I/O threads until they age out, and the fetches of
+ * the other apps keep their pace.
+ * </p>
+ */
+final class MetricFetchBreakers {
+
+    private static final Logger logger = LoggerFactory.getLogger(MetricFetchBreakers.class);
+
+    static final int FAILURE_THRESHOLD = 3;
+    static final long MIN_BACKOFF_MS = 2000;
+    static final long MAX_BACKOFF_MS = 60_000;
+
+    private final Map<String, Breaker> breakers = new ConcurrentHashMap<>();
+    private final LongSupplier clock;
+
+    private static final class Breaker {
+        final String app;
+        final String ip;
+        final int port;
+        int failures;
+        long backoffMs;
+        long retryAtMs;
+        boolean probing;
+
+        Breaker(String app, String ip, int port) {
+            this.app = app;
+            this.ip = ip;
+            this.port = port;
+        }
+
+        State state() {
+            if (failures < FAILURE_THRESHOLD) {
+                return State.CLOSED;
+            }
+            return probing ? State.HALF_OPEN : State.OPEN;
+        }
+    }
+
+    MetricFetchBreakers(LongSupplier clock) {
+        this.clock = clock;
+    }
+
+    /**
+     * A fetch allowed to a machine must be followed by {@link #onSuccess(MachineInfo)} or
+     * {@link #onFailure(MachineInfo)}.
+     *
+     * @return whether given machine may be fetched now
+     */
+    boolean tryAcquire(MachineInfo machine) {
+        Breaker breaker = breakers.get(keyOf(machine.getApp(), machine.getIp(), machine.getPort()));
+        if (breaker == null) {
+            return true;
+        }
+        synchronized (breaker) {
+            if (breaker.failures < FAILURE_THRESHOLD) {
+                return true;
+            }
+            if (breaker.probing || clock.getAsLong() < breaker.retryAtMs) {
+                return false;
+            }
+            breaker.probing = true;
+            return true;
+        }
+    }
+
+    /**
+     * The machine answered, whatever its response.
+     */
+    void onSuccess(MachineInfo machine) {
+        Breaker breaker = breakers.remove(keyOf(machine.getApp(), machine.getIp(), machine.getPort()));
+        if (breaker != null && breaker.state() != State.CLOSED) {
+            logger.info("Metric fetch of {} recovered after {} failures", machine.toLogString(), breaker.failures);
+        }
+    }
+
+    /**
+     * The machine could not be reached, or did not answer in time.
+     */
+    void onFailure(MachineInfo machine) {
+        Breaker breaker = breakers.computeIfAbsent(keyOf(machine.getApp(), machine.getIp(), machine.getPort()),
+            k -> new Breaker(machine.getApp(), machine.getIp(), machine.getPort()));
+        synchronized (breaker) {
+            breaker.failures++;
+            if (breaker.failures < FAILURE_THRESHOLD) {
+                return;
+            }
+            boolean opening = breaker.backoffMs == 0;
+            breaker.backoffMs = opening ? MIN_BACKOFF_MS : Math.min(breaker.backoffMs * 2, MAX_BACKOFF_MS);
+            breaker.retryAtMs = clock.getAsLong() + breaker.backoffMs;
+            breaker.probing = false;
+            if (opening) {
+                logger.warn("Metric fetch of {} failed {} times, retrying with backoff", machine.toLogString(),
+                    breaker.failures);
+            }
+        }
+    }
+
+    void remove(String app, String ip, int port) {
+        breakers.remove(keyOf(app, ip, port));
+    }
+
+    /**
+     * @return the machines which failed lately
+     */
+    List<MachineFetchBreaker> snapshot() {
+        List<MachineFetchBreaker> snapshot = new ArrayList<>(breakers.size());
+        for (Breaker breaker : breakers.values()) {
+            synchronized (breaker) {
+                snapshot.add(new MachineFetchBreaker(breaker.app, breaker.ip, breaker.port, breaker.state(),
+                    breaker.failures, breaker.backoffMs, breaker.retryAtMs));
+            }
+        }
+        return snapshot;
+    }
+
+    private static String keyOf(String app, String ip, int port) {
+        return app + '@' + ip + ':' + port;
+    }
+}
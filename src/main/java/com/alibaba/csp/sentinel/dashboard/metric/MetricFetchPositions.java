@@ -0,0 +1,112 @@
+/*
+ * Copyright 1999-2018 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.metric;
+
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.alibaba.csp.sentinel.dashboard.datasource.entity.MetricPositionEntity;
+import com.alibaba.csp.sentinel.dashboard.discovery.MachineInfo;
+
+/**
+ * <p>
+ * Fetch position of each machine: the last second whose metrics have been fetched from it successfully.
+ * </p>
+ * <p>
+ * A machine that failed or answered too late is asked again for the seconds it missed, at most
+ * {@link #MAX_WINDOW_MS} per fetch and never older than {@link #MAX_CATCH_UP_MS}, while machines that
+ * answered are only asked for new seconds.
+ * </p>
+ */
+final class MetricFetchPositions {
+
+    /**
+     * Seconds fetched from a machine seen for the first time, its position starts before them.
+     */
+    static final long INITIAL_WINDOW_MS = 1000 * 15;
+    static final long MAX_WINDOW_MS = 1000 * 30;
+    static final long MAX_CATCH_UP_MS = 1000 * 60 * 5;
+
+    private final Map<String, MetricPositionEntity> positions = new ConcurrentHashMap<>();
+
+    /**
+     * @param endTime end of the metrics available now, in milliseconds
+     * @return first millisecond of the next window of given machine, after {@code endTime} if it is up to date
+     */
+    long windowStart(MachineInfo machine, long endTime) {
+        MetricPositionEntity position = positions.computeIfAbsent(
+            keyOf(machine.getApp(), machine.getIp(), machine.getPort()),
+            k -> newPosition(machine, endTime - INITIAL_WINDOW_MS));
+        return Math.max(lastFetchOf(position) + 1000, endTime - MAX_CATCH_UP_MS);
+    }
+
+    /**
+     * @return last millisecond of the window starting at given time
+     */
+    static long windowEnd(long start, long endTime) {
+        return Math.min(endTime, start + MAX_WINDOW_MS - 1000);
+    }
+
+    /**
+     * Record the metrics of given machine have been fetched until given time.
+     */
+    void advance(MachineInfo machine, long lastFetch) {
+        MetricPositionEntity position = positions.computeIfAbsent(
+            keyOf(machine.getApp(), machine.getIp(), machine.getPort()), k -> newPosition(machine, lastFetch));
+        synchronized (position) {
+            if (position.getLastFetch().getTime() < lastFetch) {
+                position.setLastFetch(new Date(lastFetch));
+                position.setGmtModified(new Date());
+            }
+        }
+    }
+
+    MetricPositionEntity get(String app, String ip, int port) {
+        return positions.get(keyOf(app, ip, port));
+    }
+
+    void remove(String app, String ip, int port) {
+        positions.remove(keyOf(app, ip, port));
+    }
+
+    int size() {
+        return positions.size();
+    }
+
+    private static long lastFetchOf(MetricPositionEntity position) {
+        synchronized (position) {
+            return position.getLastFetch().getTime();
+        }
+    }
+
+    private static MetricPositionEntity newPosition(MachineInfo machine, long lastFetch) {
+        MetricPositionEntity position = new MetricPositionEntity();
+        Date now = new Date();
+        position.setGmtCreate(now);
+        position.setGmtModified(now);
+        position.setApp(machine.getApp());
+        position.setIp(machine.getIp());
+        position.setPort(machine.getPort());
+        position.setHostname(machine.getHostname());
+        position.setLastFetch(new Date(lastFetch));
+        return position;
+    }
+
+    private static String keyOf(String app, String ip, int port) {
+        return app + '@' + ip + ':' + port;
+    }
+}
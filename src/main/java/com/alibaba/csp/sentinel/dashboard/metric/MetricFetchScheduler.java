@@ -0,0 +1,261 @@
+/*
+ * Copyright 1999-2018 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.metric;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+/**
+ * <p>
+ * Decides when the metrics of each app are fetched, using a hashed timing wheel of {@link #TICK_MS} ticks.
+ * </p>
+ * <p>
+ * Apps get a phase from the hash of their name so that they are spread evenly instead of all firing on
+ * the same tick; intervals are whole seconds, so the phase is kept when the interval changes. Apps whose
+ * metrics have been queried in the last {@link #VIEWED_TTL_MS} are fetched every second, the others every
+ * {@link #DEFAULT_INTERVAL_MS}, backing off to {@link #MAX_INTERVAL_MS} while its fetches return nothing.
+ * An app is never fetched twice concurrently, and the interval grows to the measured lag of its last fetch,
+ * up to {@link #MAX_INTERVAL_MS} as well.
+ * </p>
+ * <p>
+ * Time is passed in by the caller, {@link #advance(long)} is expected to be called every tick; completion
+ * of fetches is timed with the given clock.
+ * </p>
+ */
+final class MetricFetchScheduler {
+
+    static final long TICK_MS = 100;
+    static final long VIEWED_INTERVAL_MS = 1000;
+    static final long DEFAULT_INTERVAL_MS = 5000;
+    /**
+     * Must stay below the oldest metrics a fetch asks for, see {@code MetricFetcher}.
+     */
+    static final long MAX_INTERVAL_MS = 10_000;
+    static final long VIEWED_TTL_MS = 30_000;
+    private static final int WHEEL_SIZE = 128;
+
+    interface FetchAction {
+        /**
+         * Start fetching the metrics of given app.
+         *
+         * @return future of the number of metrics fetched, {@code null} if there was nothing to fetch yet
+         */
+        CompletableFuture<Integer> fetch(String app);
+    }
+
+    private final FetchAction action;
+    private final LongSupplier clock;
+    private final List<List<Entry>> wheel = new ArrayList<>(WHEEL_SIZE);
+    private final Map<String, Entry> entries = new HashMap<>();
+    private final Map<String, Long> lastViewedMs = new ConcurrentHashMap<>();
+    private long currentTick = -1;
+    /**
+     * Fetches put off because the previous fetch of the app was still running.
+     */
+    private long deferred;
+
+    MetricFetchScheduler(FetchAction action, LongSupplier clock) {
+        this.action = action;
+        this.clock = clock;
+        for (int i = 0; i < WHEEL_SIZE; i++) {
+            wheel.add(new ArrayList<>());
+        }
+    }
+
+    /**
+     * Schedule the apps not known yet, and forget those which are gone.
+     */
+    synchronized void syncApps(Collection<String> apps, long nowMs) {
+        start(nowMs);
+        Set<String> current = new HashSet<>(apps);
+        entries.keySet().retainAll(current);
+        lastViewedMs.keySet().retainAll(current);
+        for (String app : current) {
+            if (!entries.containsKey(app)) {
+                Entry entry = new Entry(app);
+                entries.put(app, entry);
+                long phaseTicks = Math.floorMod(app.hashCode(), DEFAULT_INTERVAL_MS / TICK_MS);
+                schedule(entry, (tickOf(nowMs) + 1 + phaseTicks) * TICK_MS);
+            }
+        }
+    }
+
+    /**
+     * Fetch the app every second from now on, until it is not viewed for {@link #VIEWED_TTL_MS}.
+     */
+    void markViewed(String app, long nowMs) {
+        lastViewedMs.put(app, nowMs);
+        synchronized (this) {
+            Entry entry = entries.get(app);
+            if (entry == null || entry.nextDueMs <= nowMs + VIEWED_INTERVAL_MS) {
+                return;
+            }
+            // bring the next fetch within a second, keeping the phase
+            long dueMs = entry.nextDueMs - (entry.nextDueMs - nowMs - 1) / VIEWED_INTERVAL_MS * VIEWED_INTERVAL_MS;
+            wheel.get(entry.slot).remove(entry);
+            schedule(entry, dueMs);
+        }
+    }
+
+    /**
+     * Fire the fetches due until given time.
+     */
+    void advance(long nowMs) {
+        List<Entry> due = new ArrayList<>();
+        synchronized (this) {
+            start(nowMs);
+            long nowTick = tickOf(nowMs);
+            while (currentTick < nowTick) {
+                currentTick++;
+                collectDue(wheel.get((int)(currentTick % WHEEL_SIZE)), nowMs, due);
+            }
+        }
+        for (Entry entry : due) {
+            fire(entry);
+        }
+    }
+
+    synchronized List<AppFetchSchedule> snapshot(long nowMs) {
+        List<AppFetchSchedule> schedules = new ArrayList<>(entries.size());
+        for (Entry entry : entries.values()) {
+            schedules.add(new AppFetchSchedule(entry.app, isViewed(entry.app, nowMs), entry.intervalMs,
+                entry.nextDueMs, entry.lagMs, entry.fetching));
+        }
+        schedules.sort((a, b) -> a.getApp().compareTo(b.getApp()));
+        return schedules;
+    }
+
+    synchronized long getDeferred() {
+        return deferred;
+    }
+
+    private void collectDue(List<Entry> slot, long nowMs, List<Entry> due) {
+        List<Entry> fired = null;
+        for (Entry entry : slot) {
+            if (entry.rounds > 0) {
+                entry.rounds--;
+            } else {
+                if (fired == null) {
+                    fired = new ArrayList<>();
+                }
+                fired.add(entry);
+            }
+        }
+        if (fired == null) {
+            return;
+        }
+        slot.removeAll(fired);
+        for (Entry entry : fired) {
+            if (entries.get(entry.app) != entry) {
+                // app removed
+                continue;
+            }
+            long dueMs = entry.nextDueMs;
+            if (entry.fetching) {
+                // the last fetch is still running, try again a second later
+                deferred++;
+                schedule(entry, dueMs + VIEWED_INTERVAL_MS);
+                continue;
+            }
+            entry.intervalMs = intervalOf(entry, nowMs);
+            entry.fetching = true;
+            entry.lastDueMs = dueMs;
+            schedule(entry, dueMs + entry.intervalMs);
+            due.add(entry);
+        }
+    }
+
+    private void fire(Entry entry) {
+        CompletableFuture<Integer> future;
+        try {
+            future = action.fetch(entry.app);
+        } catch (RuntimeException e) {
+            future = new CompletableFuture<>();
+            future.completeExceptionally(e);
+        }
+        future.whenComplete((points, ex) -> completed(entry, points, ex, clock.getAsLong()));
+    }
+
+    private synchronized void completed(Entry entry, Integer points, Throwable ex, long nowMs) {
+        entry.fetching = false;
+        entry.lagMs = nowMs - entry.lastDueMs;
+        if (ex != null || (points != null && points == 0)) {
+            entry.idleFetches++;
+        } else if (points != null) {
+            entry.idleFetches = 0;
+        }
+    }
+
+    private long intervalOf(Entry entry, long nowMs) {
+        long interval;
+        if (isViewed(entry.app, nowMs)) {
+            interval = VIEWED_INTERVAL_MS;
+        } else {
+            interval = entry.idleFetches > 0 ? MAX_INTERVAL_MS : DEFAULT_INTERVAL_MS;
+        }
+        // do not fire faster than fetches complete
+        long lagSeconds = (entry.lagMs + VIEWED_INTERVAL_MS - 1) / VIEWED_INTERVAL_MS;
+        interval = Math.max(interval, lagSeconds * VIEWED_INTERVAL_MS);
+        return Math.min(interval, MAX_INTERVAL_MS);
+    }
+
+    private boolean isViewed(String app, long nowMs) {
+        Long viewedMs = lastViewedMs.get(app);
+        return viewedMs != null && nowMs - viewedMs < VIEWED_TTL_MS;
+    }
+
+    private void start(long nowMs) {
+        if (currentTick < 0) {
+            currentTick = tickOf(nowMs) - 1;
+        }
+    }
+
+    private void schedule(Entry entry, long dueMs) {
+        long dueTick = Math.max(tickOf(dueMs), currentTick + 1);
+        entry.nextDueMs = dueMs;
+        entry.slot = (int)(dueTick % WHEEL_SIZE);
+        entry.rounds = (dueTick - currentTick - 1) / WHEEL_SIZE;
+        wheel.get(entry.slot).add(entry);
+    }
+
+    private static long tickOf(long ms) {
+        return ms / TICK_MS;
+    }
+
+    private static final class Entry {
+        private final String app;
+        private long intervalMs = DEFAULT_INTERVAL_MS;
+        private long nextDueMs;
+        private long lastDueMs;
+        private long lagMs;
+        private int idleFetches;
+        private boolean fetching;
+        private int slot;
+        private long rounds;
+
+        private Entry(String app) {
+            this.app = app;
+        }
+    }
+}
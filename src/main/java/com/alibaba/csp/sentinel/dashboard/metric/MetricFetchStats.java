@@ -0,0 +1,194 @@
+/*
+ * Copyright 1999-2018 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.metric;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>
+ * Counters of the metric pipeline itself, so that one can tell when the dashboard falls behind: fetch cycles
+ * of each app, outcome and latency of the pulls, lines parsed and tasks put off.
+ * </p>
+ * <p>
+ * Recording is lock free, a report is only built on demand.
+ * </p>
+ */
+final class MetricFetchStats {
+
+    /**
+     * Upper bounds of the buckets of the pull latency histogram, in milliseconds.
+     */
+    static final long[] LATENCY_BOUNDS_MS = {5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000};
+    private static final long RATE_INTERVAL_MS = 1000;
+    private static final double RATE_AVERAGE_MS = 60_000;
+
+    final LongAdder pullsSucceeded = new LongAdder();
+    final LongAdder pullsFailed = new LongAdder();
+    /**
+     * Pulls aborted at the deadline of their fetch.
+     */
+    final LongAdder pullsAborted = new LongAdder();
+    /**
+     * Pulls not sent because the breaker of the machine was open.
+     */
+    final LongAdder pullsSkipped = new LongAdder();
+    /**
+     * Writes put off to the next fetch of their app because the queue of the workers was full.
+     */
+    final LongAdder writesDeferred = new LongAdder();
+    /**
+     * Flushes of pushed metrics and trims of the store put off because the queue of the workers was full.
+     */
+    final LongAdder tasksDeferred = new LongAdder();
+    final LongAdder writeErrors = new LongAdder();
+    final LongAdder linesParsed = new LongAdder();
+
+    private final AtomicLongArray latencyBuckets = new AtomicLongArray(LATENCY_BOUNDS_MS.length + 1);
+    private final LongAdder latencySumMs = new LongAdder();
+    private final Map<String, AppCycles> apps = new ConcurrentHashMap<>();
+
+    private long rateSampleMs = -1;
+    private long rateSampleLines;
+    private double linesPerSecond;
+    private double linesPerSecondAvg;
+
+    private static final class AppCycles {
+        long cycles;
+        long totalMs;
+        long lastMs;
+        long maxMs;
+    }
+
+    void recordLatency(long latencyMs) {
+        int bucket = 0;
+        while (bucket < LATENCY_BOUNDS_MS.length && latencyMs > LATENCY_BOUNDS_MS[bucket]) {
+            bucket++;
+        }
+        latencyBuckets.incrementAndGet(bucket);
+        latencySumMs.add(latencyMs);
+    }
+
+    /**
+     * Record a fetch of given app, from its start until its metrics are written.
+     */
+    void recordCycle(String app, long durationMs) {
+        AppCycles cycles = apps.computeIfAbsent(app, a -> new AppCycles());
+        synchronized (cycles) {
+            cycles.cycles++;
+            cycles.totalMs += durationMs;
+            cycles.lastMs = durationMs;
+            cycles.maxMs = Math.max(cycles.maxMs, durationMs);
+        }
+    }
+
+    void retainApps(Collection<String> live) {
+        apps.keySet().retainAll(live);
+    }
+
+    /**
+     * Sample the rate of parsed lines, called at least every {@link #RATE_INTERVAL_MS}.
+     */
+    synchronized void tick(long nowMs) {
+        long lines = linesParsed.sum();
+        if (rateSampleMs < 0) {
+            rateSampleMs = nowMs;
+            rateSampleLines = lines;
+            return;
+        }
+        long elapsed = nowMs - rateSampleMs;
+        if (elapsed < RATE_INTERVAL_MS) {
+            return;
+        }
+        linesPerSecond = (lines - rateSampleLines) * 1000.0 / elapsed;
+        // exponentially weighted over about a minute
+        double alpha = 1 - Math.exp(-elapsed / RATE_AVERAGE_MS);
+        linesPerSecondAvg += alpha * (linesPerSecond - linesPerSecondAvg);
+        rateSampleMs = nowMs;
+        rateSampleLines = lines;
+    }
+
+    Map<String, Object> report() {
+        Map<String, Object> report = new LinkedHashMap<>();
+        Map<String, Object> pulls = new LinkedHashMap<>();
+        pulls.put("succeeded", pullsSucceeded.sum());
+        pulls.put("failed", pullsFailed.sum());
+        pulls.put("aborted", pullsAborted.sum());
+        pulls.put("skippedByBreaker", pullsSkipped.sum());
+        report.put("pulls", pulls);
+        report.put("pullLatencyMs", latencyReport());
+        Map<String, Object> lines = new LinkedHashMap<>();
+        lines.put("parsed", linesParsed.sum());
+        synchronized (this) {
+            lines.put("perSecond", Math.round(linesPerSecond));
+            lines.put("perSecondAvg1m", Math.round(linesPerSecondAvg));
+        }
+        report.put("lines", lines);
+        report.put("writesDeferred", writesDeferred.sum());
+        report.put("tasksDeferred", tasksDeferred.sum());
+        report.put("writeErrors", writeErrors.sum());
+        return report;
+    }
+
+    private Map<String, Object> latencyReport() {
+        Map<String, Object> histogram = new LinkedHashMap<>();
+        Map<String, Long> buckets = new LinkedHashMap<>();
+        long count = 0;
+        for (int i = 0; i < latencyBuckets.length(); i++) {
+            long n = latencyBuckets.get(i);
+            count += n;
+            buckets.put(i < LATENCY_BOUNDS_MS.length ? "le" + LATENCY_BOUNDS_MS[i] : "inf", n);
+        }
+        histogram.put("count", count);
+        histogram.put("sum", latencySumMs.sum());
+        histogram.put("buckets", buckets);
+        return histogram;
+    }
+
+    /**
+     * @param lagMs time since the newest second written of each app
+     * @return the fetch cycles and lag of each app, by name
+     */
+    List<Map<String, Object>> appReport(Map<String, Long> lagMs) {
+        Set<String> names = new TreeSet<>(apps.keySet());
+        names.addAll(lagMs.keySet());
+        List<Map<String, Object>> report = new ArrayList<>(names.size());
+        for (String name : names) {
+            Map<String, Object> app = new LinkedHashMap<>();
+            app.put("app", name);
+            AppCycles cycles = apps.get(name);
+            if (cycles != null) {
+                synchronized (cycles) {
+                    app.put("cycles", cycles.cycles);
+                    app.put("lastCycleMs", cycles.lastMs);
+                    app.put("avgCycleMs", cycles.cycles == 0 ? 0 : cycles.totalMs / cycles.cycles);
+                    app.put("maxCycleMs", cycles.maxMs);
+                }
+            }
+            app.put("lagMs", lagMs.get(name));
+            report.add(app);
+        }
+        return report;
+    }
+}
@@ -15,37 +15,50 @@
  */
 package com.alibaba.csp.sentinel.dashboard.metric;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.net.ConnectException;
 import java.net.SocketTimeoutException;
 import java.nio.charset.Charset;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.ThreadPoolExecutor.DiscardPolicy;
+import java.util.concurrent.ThreadPoolExecutor.AbortPolicy;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 
+import javax.annotation.PostConstruct;
+
 import com.alibaba.csp.sentinel.Constants;
 import com.alibaba.csp.sentinel.concurrent.NamedThreadFactory;
 import com.alibaba.csp.sentinel.config.SentinelConfig;
+import com.alibaba.csp.sentinel.dashboard.config.DashboardConfig;
 import com.alibaba.csp.sentinel.dashboard.datasource.entity.MetricEntity;
 import com.alibaba.csp.sentinel.dashboard.discovery.AppInfo;
 import com.alibaba.csp.sentinel.dashboard.discovery.AppManagement;
 import com.alibaba.csp.sentinel.dashboard.discovery.MachineInfo;
-import com.alibaba.csp.sentinel.node.metric.MetricNode;
 import com.alibaba.csp.sentinel.util.StringUtil;
 
+import com.alibaba.csp.sentinel.dashboard.repository.metric.MetricAppFootprint;
+import com.alibaba.csp.sentinel.dashboard.repository.metric.MetricNameDictionary;
 import com.alibaba.csp.sentinel.dashboard.repository.metric.MetricsRepository;
+import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.concurrent.FutureCallback;
@@ -54,8 +67,7 @@ import org.apache.http.impl.client.DefaultRedirectStrategy;
 import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
 import org.apache.http.impl.nio.client.HttpAsyncClients;
 import org.apache.http.impl.nio.reactor.IOReactorConfig;
-import org.apache.http.protocol.HTTP;
-import org.apache.http.util.EntityUtils;
+import org.apache.http.nio.reactor.IOReactorException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -71,54 +83,96 @@ public class MetricFetcher {
 
     public static final String NO_METRICS = "No metrics";
     private static final int HTTP_OK = 200;
-    private static final long MAX_LAST_FETCH_INTERVAL_MS = 1000 * 15;
-    private static final long FETCH_INTERVAL_SECOND = 6;
+    /**
+     * Metrics of the last seconds may still be written by the clients.
+     */
+    private static final long FETCH_DELAY_MS = 1000 * 2;
+    private static final long APP_SYNC_INTERVAL_MS = 1000;
+    private static final long PUSH_FLUSH_INTERVAL_MS = 1000;
+    private static final long MEMORY_TRIM_INTERVAL_MS = 1000 * 10;
     private static final Charset DEFAULT_CHARSET = Charset.forName(SentinelConfig.charset());
     private final static String METRIC_URL_PATH = "metric";
     private static Logger logger = LoggerFactory.getLogger(MetricFetcher.class);
-    private final long intervalSecond = 1;
+    /**
+     * Parsers are not thread-safe, responses are handled by the I/O threads of the http client.
+     */
+    private static final ThreadLocal<MetricLineParser> LINE_PARSER = ThreadLocal.withInitial(MetricLineParser::new);
 
+    /**
+     * Last second written of each app, which its lag is measured from.
+     */
     private Map<String, AtomicLong> appLastFetchTime = new ConcurrentHashMap<>();
+    private final MetricFetchPositions positions = new MetricFetchPositions();
+    private final MetricFetchBreakers breakers = new MetricFetchBreakers(System::currentTimeMillis);
+    private final MetricFetchStats stats = new MetricFetchStats();
+    private final ResourceCardinalityGuard cardinalityGuard = new ResourceCardinalityGuard(
+        DashboardConfig.getMetricMaxResourcesPerApp());
+    private final MetricPushBuffer pushBuffer = new MetricPushBuffer(positions);
+    /**
+     * Fetched metrics of each app not written because the queue of the workers was full, written with the next
+     * fetch of the app.
+     */
+    private final Map<String, MetricAggregation> deferredWrites = new ConcurrentHashMap<>();
+    private final AtomicBoolean pushFlushing = new AtomicBoolean();
+    /**
+     * Budget of the metric store, see {@link MetricsRepository#trimToBudget(long)}, {@code 0} for none.
+     */
+    private final long memoryBudgetBytes = DashboardConfig.getMetricMemoryBudgetMb() * 1024L * 1024;
+    private final AtomicBoolean memoryTrimming = new AtomicBoolean();
+    private final AtomicLong memoryTrims = new AtomicLong();
+    private final AtomicLong bytesTrimmed = new AtomicLong();
 
     @Autowired
     private MetricsRepository<MetricEntity> metricStore;
     @Autowired
     private AppManagement appManagement;
+    @Autowired
+    private MetricShardRouter shardRouter;
+    @Autowired
+    private MetricStreamHub streamHub;
 
     private CloseableHttpAsyncClient httpclient;
+    private final MetricConnectionPool connectionPool;
 
     @SuppressWarnings("PMD.ThreadPoolCreationRule")
     private ScheduledExecutorService fetchScheduleService = Executors.newScheduledThreadPool(1,
         new NamedThreadFactory("sentinel-dashboard-metrics-fetch-task", true));
-    private ExecutorService fetchService;
     private ExecutorService fetchWorker;
+    private final MetricFetchScheduler scheduler = new MetricFetchScheduler(this::doFetchAppMetric,
+        System::currentTimeMillis);
+    private long lastAppSyncMs;
+    private long lastPushFlushMs;
+    private long lastMemoryTrimMs;
 
     public MetricFetcher() {
-        int cores = Runtime.getRuntime().availableProcessors() * 2;
+        // requests are started by the scheduler thread, workers only write aggregated metrics
+        int cores = Runtime.getRuntime().availableProcessors();
         long keepAliveTime = 0;
         int queueSize = 2048;
-        RejectedExecutionHandler handler = new DiscardPolicy();
-        fetchService = new ThreadPoolExecutor(cores, cores,
-            keepAliveTime, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(queueSize),
-            new NamedThreadFactory("sentinel-dashboard-metrics-fetchService", true), handler);
+        // never write in the calling thread, which is an I/O thread or the scheduler: callers put the task off
         fetchWorker = new ThreadPoolExecutor(cores, cores,
             keepAliveTime, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(queueSize),
-            new NamedThreadFactory("sentinel-dashboard-metrics-fetchWorker",true), handler);
+            new NamedThreadFactory("sentinel-dashboard-metrics-fetchWorker",true), new AbortPolicy());
         IOReactorConfig ioConfig = IOReactorConfig.custom()
             .setConnectTimeout(3000)
             .setSoTimeout(3000)
             .setIoThreadCount(Runtime.getRuntime().availableProcessors() * 2)
             .build();
 
+        try {
+            connectionPool = new MetricConnectionPool(ioConfig, DashboardConfig.isMetricFetchKeepAlive());
+        } catch (IOReactorException e) {
+            throw new IllegalStateException("Failed to create the I/O reactor of metric fetcher", e);
+        }
+
         httpclient = HttpAsyncClients.custom()
             .setRedirectStrategy(new DefaultRedirectStrategy() {
                 @Override
                 protected boolean isRedirectable(final String method) {
                     return false;
                 }
-            }).setMaxConnTotal(4000)
-            .setMaxConnPerRoute(1000)
-            .setDefaultIOReactorConfig(ioConfig)
+            }).setConnectionManager(connectionPool.getConnectionManager())
+            .setKeepAliveStrategy(connectionPool.keepAliveStrategy())
             .build();
         httpclient.start();
         start();
@@ -127,48 +181,282 @@ public class MetricFetcher {
     private void start() {
         fetchScheduleService.scheduleAtFixedRate(() -> {
             try {
-                fetchAllApp();
+                fetchDueApps();
             } catch (Exception e) {
-                logger.info("fetchAllApp error:", e);
+                logger.info("fetchDueApps error:", e);
             }
-        }, 10, intervalSecond, TimeUnit.SECONDS);
+        }, 10_000, MetricFetchScheduler.TICK_MS, TimeUnit.MILLISECONDS);
+        if (connectionPool.isKeepAlive()) {
+            fetchScheduleService.scheduleAtFixedRate(
+                () -> connectionPool.evictIdle(MetricConnectionPool.MAX_KEEP_ALIVE_MS),
+                MetricConnectionPool.MAX_KEEP_ALIVE_MS, MetricConnectionPool.MAX_KEEP_ALIVE_MS, TimeUnit.MILLISECONDS);
+        }
     }
 
-    private void writeMetric(Map<String, MetricEntity> map) {
-        if (map.isEmpty()) {
-            return;
+    @PostConstruct
+    public void init() {
+        appManagement.addMachineRemovalListener(positions::remove);
+        appManagement.addMachineRemovalListener(breakers::remove);
+        if (connectionPool.isKeepAlive()) {
+            // the pull of a removed machine may have just returned its connection, wait until it is idle
+            appManagement.addMachineRemovalListener((app, ip, port) -> fetchScheduleService.schedule(
+                () -> connectionPool.evictIdle(MetricConnectionPool.REMOVED_MACHINE_IDLE_MS),
+                MetricConnectionPool.REMOVED_MACHINE_IDLE_MS * 2, TimeUnit.MILLISECONDS));
+        }
+    }
+
+    /**
+     * Merge the metrics with what is stored: pull cycles and push flushes of an app may run at the same time and
+     * write the same seconds, each for its own machines, whose {@link MetricFetchPositions positions} keep a second
+     * from being written twice. Resources beyond the cardinality limit of the app are folded, see
+     * {@link ResourceCardinalityGuard}.
+     *
+     * @return the latest timestamp written, -1 if none
+     */
+    private long writeMetric(String app, MetricAggregation aggregation) {
+        if (aggregation.size() == 0) {
+            return -1;
         }
-        Date date = new Date();
-        for (MetricEntity entity : map.values()) {
-            entity.setGmtCreate(date);
-            entity.setGmtModified(date);
+        List<String> released = new ArrayList<>();
+        List<MetricEntity> entities = cardinalityGuard.guard(app, aggregation.toEntities(app, new Date()),
+            System.currentTimeMillis(), released);
+        if (!released.isEmpty()) {
+            metricStore.removeResourcesOfApp(app, released);
         }
-        metricStore.saveAll(map.values());
+        long latest = -1;
+        for (MetricEntity entity : entities) {
+            latest = Math.max(latest, entity.getTimestamp().getTime());
+        }
+        metricStore.mergeAll(entities);
+        streamHub.publish(app, entities);
+        return latest;
     }
 
     /**
-     * Traverse each APP, and then pull the metric of all machines for that APP.
+     * Fetch the metrics of the apps that are due, see {@link MetricFetchScheduler}.
      */
-    private void fetchAllApp() {
-        List<String> apps = appManagement.getAppNames();
-        if (apps == null) {
-            return;
+    private void fetchDueApps() {
+        long now = System.currentTimeMillis();
+        if (now - lastAppSyncMs >= APP_SYNC_INTERVAL_MS) {
+            lastAppSyncMs = now;
+            syncApps(now);
+            // streamed apps are viewed as long as their stream is open
+            for (String app : streamHub.getSubscribedApps()) {
+                scheduler.markViewed(app, now);
+            }
         }
-        for (final String app : apps) {
-            fetchService.submit(() -> {
-                try {
-                    doFetchAppMetric(app);
-                } catch (Exception e) {
-                    logger.error("fetchAppMetric error", e);
+        if (now - lastPushFlushMs >= PUSH_FLUSH_INTERVAL_MS && pushFlushing.compareAndSet(false, true)) {
+            lastPushFlushMs = now;
+            try {
+                fetchWorker.execute(() -> {
+                    try {
+                        flushPushes(now);
+                    } finally {
+                        pushFlushing.set(false);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // the pushed metrics wait in the buffer for the next flush
+                stats.tasksDeferred.increment();
+                pushFlushing.set(false);
+            }
+        }
+        if (memoryBudgetBytes > 0 && now - lastMemoryTrimMs >= MEMORY_TRIM_INTERVAL_MS
+            && memoryTrimming.compareAndSet(false, true)) {
+            lastMemoryTrimMs = now;
+            try {
+                fetchWorker.execute(() -> {
+                    try {
+                        trimMetricStore();
+                    } finally {
+                        memoryTrimming.set(false);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                stats.tasksDeferred.increment();
+                memoryTrimming.set(false);
+            }
+        }
+        scheduler.advance(now);
+        stats.tick(now);
+    }
+
+    /**
+     * Write the metrics pushed since the last flush. Flushes never overlap one another, but may overlap the
+     * writes of pull cycles; all of them merge into the stored seconds.
+     */
+    private void flushPushes(long now) {
+        for (Map.Entry<String, MetricAggregation> entry : pushBuffer.drain(now).entrySet()) {
+            String app = entry.getKey();
+            AtomicLong lastWritten = appLastFetchTime.computeIfAbsent(app, a -> new AtomicLong(-1));
+            try {
+                long latest = writeMetric(app, entry.getValue());
+                lastWritten.accumulateAndGet(latest, Math::max);
+            } catch (Exception e) {
+                stats.writeErrors.increment();
+                logger.error("write pushed metric of " + app + " error", e);
+            }
+        }
+    }
+
+    /**
+     * Keep the metric store within its memory budget rather than let it exhaust the heap, at the expense of the
+     * metrics of the apps not viewed lately.
+     */
+    private void trimMetricStore() {
+        try {
+            long freed = metricStore.trimToBudget(memoryBudgetBytes);
+            if (freed > 0) {
+                memoryTrims.incrementAndGet();
+                bytesTrimmed.addAndGet(freed);
+                logger.warn("Metric store over its budget of {} bytes, trimmed {} bytes of cold apps",
+                    memoryBudgetBytes, freed);
+            }
+        } catch (Exception e) {
+            logger.error("trim metric store error", e);
+        }
+    }
+
+    /**
+     * Aggregate a batch of metric lines pushed for given app, in the format of the {@code metric} command of
+     * the clients and possibly from many machines. The batch is written with the next flush, within
+     * {@link #PUSH_FLUSH_INTERVAL_MS}. The machine reporting the batch, if given, is not pulled while it keeps
+     * pushing; a batch of no given machine pauses no pull, so it must only hold metrics of machines not pulled.
+     *
+     * @param machine registered machine reporting the batch, null if not known
+     * @return the number of lines aggregated
+     */
+    public int receivePush(String app, MachineInfo machine, InputStream in, Charset charset) throws IOException {
+        MetricAggregation batch = new MetricAggregation();
+        int lines = LINE_PARSER.get().parse(in, charset != null ? charset : DEFAULT_CHARSET,
+            new MetricLineParser.Handler() {
+                @Override
+                public void handle(long timestamp, String resource, long passQps, long blockQps, long successQps,
+                                   long exceptionQps, double rt) {
+                    handleLine(batch, timestamp, resource, passQps, blockQps, successQps, exceptionQps, rt);
+                }
+
+                @Override
+                public void onMalformedLine(String line) {
+                    logger.warn("Malformed pushed metric line, app: {}, line: {}", app, line);
                 }
             });
+        pushBuffer.offer(app, machine, batch, System.currentTimeMillis());
+        stats.linesParsed.add(lines);
+        return lines;
+    }
+
+    private void syncApps(long now) {
+        List<String> allApps = appManagement.getAppNames();
+        if (allApps == null) {
+            return;
+        }
+        // other dashboard nodes fetch the apps they own
+        List<String> apps = new ArrayList<>(allApps.size());
+        int liveMachines = 0;
+        for (String app : allApps) {
+            if (!shardRouter.isLocal(app)) {
+                continue;
+            }
+            apps.add(app);
+            AppInfo appInfo = appManagement.getDetailApp(app);
+            if (appInfo != null) {
+                liveMachines += appInfo.getMachines().size();
+            }
+        }
+        connectionPool.resize(liveMachines);
+        scheduler.syncApps(apps, now);
+        stats.retainApps(apps);
+    }
+
+    /**
+     * Fetch the metrics of given app every second while they are being viewed.
+     */
+    public void markViewed(String app) {
+        scheduler.markViewed(app, System.currentTimeMillis());
+    }
+
+    /**
+     * @return the fetch schedule of every app, for tuning
+     */
+    public List<AppFetchSchedule> getFetchSchedules() {
+        return scheduler.snapshot(System.currentTimeMillis());
+    }
+
+    /**
+     * @return report of the metric pipeline itself: fetch cycles and lag of each app, outcome and latency of the
+     * pulls, lines parsed, tasks put off, resource cardinality of each app and size of the metric store
+     */
+    public Map<String, Object> getPipelineStats() {
+        long now = System.currentTimeMillis();
+        Map<String, Object> report = stats.report();
+        report.put("fetchesDeferred", scheduler.getDeferred());
+        report.put("heartbeatRelaysDropped", shardRouter.getDroppedRelays());
+        report.put("streamSubscribers", streamHub.getSubscriberCount());
+        Map<String, Long> lagMs = new HashMap<>();
+        List<String> apps = appManagement.getAppNames();
+        for (Map.Entry<String, AtomicLong> entry : appLastFetchTime.entrySet()) {
+            long lastWritten = entry.getValue().get();
+            boolean live = (apps != null && apps.contains(entry.getKey()))
+                || pushBuffer.isPushing(entry.getKey(), now);
+            if (lastWritten >= 0 && live) {
+                lagMs.put(entry.getKey(), now - lastWritten);
+            }
         }
+        report.put("apps", stats.appReport(lagMs));
+        report.put("resourceCardinality", cardinalityGuard.report());
+        Map<String, Object> store = new LinkedHashMap<>();
+        store.put("series", metricStore.countSeries());
+        store.put("points", metricStore.countPoints());
+        store.put("names", MetricNameDictionary.countNames());
+        store.put("namesRejected", MetricNameDictionary.countRejected());
+        report.put("store", store);
+        return report;
     }
 
     /**
-     * fetch metric between [startTime, endTime], both side inclusive
+     * @param topResources max number of resources with the most points listed for each app
+     * @return report of the memory held by the metric store: totals, budget and trims, and footprint of each app
      */
-    private void fetchOnce(String app, long startTime, long endTime, int maxWaitSeconds) {
+    public Map<String, Object> getFootprint(int topResources) {
+        List<MetricAppFootprint> apps = metricStore.footprintOfApps(topResources);
+        long series = 0;
+        long points = 0;
+        long estimatedBytes = 0;
+        for (MetricAppFootprint app : apps) {
+            series += app.getSeries();
+            points += app.getPoints();
+            estimatedBytes += app.getEstimatedBytes();
+        }
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("series", series);
+        report.put("points", points);
+        report.put("estimatedBytes", estimatedBytes);
+        report.put("budgetBytes", memoryBudgetBytes);
+        report.put("trims", memoryTrims.get());
+        report.put("bytesTrimmed", bytesTrimmed.get());
+        report.put("apps", apps);
+        return report;
+    }
+
+    /**
+     * @return the breaker of each machine which failed lately
+     */
+    public List<MachineFetchBreaker> getFetchBreakers() {
+        return breakers.snapshot();
+    }
+
+    /**
+     * Fetch metric of each machine from its {@link MetricFetchPositions position} until endTime, both side
+     * inclusive.
+     * <p>
+     * Requests to all machines of the app are started without waiting; the returned future completes with
+     * the number of metrics once those that arrived before the deadline have been written, or {@code null}
+     * if all machines are up to date. Requests still running at the deadline are aborted, the positions of
+     * their machines stay where they were.
+     * </p>
+     */
+    private CompletableFuture<Integer> fetchOnce(String app, long endTime, int maxWaitSeconds) {
         if (maxWaitSeconds <= 0) {
             throw new IllegalArgumentException("maxWaitSeconds must > 0, but " + maxWaitSeconds);
         }
@@ -177,123 +465,205 @@ public class MetricFetcher {
         if (appInfo.isDead()) {
             logger.info("Dead app removed: {}", app);
             appManagement.removeApp(app);
-            return;
+            cardinalityGuard.removeApp(app);
+            MetricNameDictionary.removeApp(app);
+            deferredWrites.remove(app);
+            return CompletableFuture.completedFuture(0);
         }
         Set<MachineInfo> machines = appInfo.getMachines();
         logger.debug("enter fetchOnce(" + app + "), machines.size()=" + machines.size()
-            + ", time intervalMs [" + startTime + ", " + endTime + "]");
+            + ", endTime " + endTime);
         if (machines.isEmpty()) {
-            return;
+            return CompletableFuture.completedFuture(0);
         }
-        final String msg = "fetch";
         AtomicLong unhealthy = new AtomicLong();
         final AtomicLong success = new AtomicLong();
         final AtomicLong fail = new AtomicLong();
 
         long start = System.currentTimeMillis();
-        /** app_resource_timeSecond -> metric */
-        final Map<String, MetricEntity> metricMap = new ConcurrentHashMap<>(16);
-        final CountDownLatch latch = new CountDownLatch(machines.size());
+        final MetricAggregation aggregation = new MetricAggregation();
+        AtomicLong lastWritten = appLastFetchTime.computeIfAbsent(app, a -> new AtomicLong(-1));
+        int upToDate = 0;
+        int broken = 0;
+        List<CompletableFuture<Void>> pulls = new ArrayList<>(machines.size());
         for (final MachineInfo machine : machines) {
             // auto remove
             if (machine.isDead()) {
-                latch.countDown();
-                appManagement.getDetailApp(app).removeMachine(machine.getIp(), machine.getPort());
+                appManagement.removeMachine(app, machine.getIp(), machine.getPort());
                 logger.info("Dead machine removed: {}:{} of {}", machine.getIp(), machine.getPort(), app);
                 continue;
             }
             if (!machine.isHealthy()) {
-                latch.countDown();
                 unhealthy.incrementAndGet();
                 continue;
             }
+            // machines pushing their metrics need no pull
+            long startTime = pushBuffer.isPushing(app, machine, start) ? Long.MAX_VALUE
+                : positions.windowStart(machine, endTime);
+            if (startTime > endTime) {
+                upToDate++;
+                continue;
+            }
+            if (!breakers.tryAcquire(machine)) {
+                broken++;
+                stats.pullsSkipped.increment();
+                continue;
+            }
+            long windowEnd = MetricFetchPositions.windowEnd(startTime, endTime);
             final String url = "http://" + machine.getIp() + ":" + machine.getPort() + "/" + METRIC_URL_PATH
-                + "?startTime=" + startTime + "&endTime=" + endTime + "&refetch=" + false;
-            final HttpGet httpGet = new HttpGet(url);
-            httpGet.setHeader(HTTP.CONN_DIRECTIVE, HTTP.CONN_CLOSE);
-            httpclient.execute(httpGet, new FutureCallback<HttpResponse>() {
-                @Override
-                public void completed(final HttpResponse response) {
+                + "?startTime=" + startTime + "&endTime=" + windowEnd + "&refetch=" + false;
+            pulls.add(fetchMachine(url, machine, windowEnd, aggregation, success, fail));
+        }
+        if (pulls.isEmpty()) {
+            // machines behind an open breaker are fetched again once it lets a probe through
+            return CompletableFuture.completedFuture(upToDate > 0 || broken > 0 ? null : 0);
+        }
+        MetricAggregation deferred = deferredWrites.remove(app);
+        if (deferred != null) {
+            aggregation.merge(deferred);
+        }
+        CompletableFuture<Void> all = CompletableFuture.allOf(pulls.toArray(new CompletableFuture[0]));
+        ScheduledFuture<?> deadline = fetchScheduleService.schedule(() -> {
+            for (CompletableFuture<Void> pull : pulls) {
+                pull.cancel(false);
+            }
+        }, maxWaitSeconds, TimeUnit.SECONDS);
+        CompletableFuture<Integer> written = new CompletableFuture<>();
+        all.whenComplete((v, ex) -> {
+            deadline.cancel(false);
+            // machines answering from now on are fetched again next time
+            aggregation.seal();
+            try {
+                fetchWorker.execute(() -> {
                     try {
-                        handleResponse(response, machine, metricMap);
-                        success.incrementAndGet();
+                        long latest = writeMetric(app, aggregation);
+                        lastWritten.accumulateAndGet(latest, Math::max);
                     } catch (Exception e) {
-                        logger.error(msg + " metric " + url + " error:", e);
-                    } finally {
-                        latch.countDown();
+                        stats.writeErrors.increment();
+                        logger.error("write metric of " + app + " error", e);
                     }
-                }
+                    long cost = System.currentTimeMillis() - start;
+                    stats.recordCycle(app, cost);
+                    logger.debug("Fetched metric of {} until {}, machines: {}, success: {}, fail: {}, "
+                        + "unhealthy: {}, cost: {} ms", app, endTime, machines.size(), success, fail, unhealthy, cost);
+                    written.complete(aggregation.size());
+                });
+            } catch (RejectedExecutionException e) {
+                // this is an I/O thread, which must not write: the metrics are written with the next fetch
+                deferWrite(app, aggregation);
+                written.complete(aggregation.size());
+            }
+        });
+        return written;
+    }
 
-                @Override
-                public void failed(final Exception ex) {
-                    latch.countDown();
-                    fail.incrementAndGet();
-                    httpGet.abort();
-                    if (ex instanceof SocketTimeoutException) {
-                        logger.error("Failed to fetch metric from <{}>: socket timeout", url);
-                    } else if (ex instanceof ConnectException) {
-                        logger.error("Failed to fetch metric from <{}> (ConnectionException: {})", url, ex.getMessage());
+    private void deferWrite(String app, MetricAggregation aggregation) {
+        stats.writesDeferred.increment();
+        deferredWrites.merge(app, aggregation, (earlier, later) -> {
+            MetricAggregation merged = new MetricAggregation();
+            merged.merge(earlier);
+            merged.merge(later);
+            return merged;
+        });
+    }
+
+    /**
+     * Start the request of one machine. The future completes when the response has been aggregated or the
+     * request failed; cancelling it aborts the request. The position of the machine advances to windowEnd
+     * only if its whole response made it into the aggregation. Machines failing to answer are reported to
+     * their {@link MetricFetchBreakers breaker}.
+     */
+    private CompletableFuture<Void> fetchMachine(final String url, final MachineInfo machine, final long windowEnd,
+                                                 final MetricAggregation aggregation, final AtomicLong success,
+                                                 final AtomicLong fail) {
+        final String msg = "fetch";
+        final HttpGet httpGet = new HttpGet(url);
+        connectionPool.prepare(httpGet);
+        final CompletableFuture<Void> pull = new CompletableFuture<>();
+        pull.whenComplete((v, ex) -> {
+            if (ex instanceof CancellationException) {
+                stats.pullsAborted.increment();
+                httpGet.abort();
+            }
+        });
+        final long startNanos = System.nanoTime();
+        httpclient.execute(httpGet, new FutureCallback<HttpResponse>() {
+            @Override
+            public void completed(final HttpResponse response) {
+                stats.recordLatency(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+                breakers.onSuccess(machine);
+                try {
+                    MetricAggregation machineAggregation = new MetricAggregation();
+                    if (handleResponse(response, machine, machineAggregation)
+                        && aggregation.merge(machineAggregation)) {
+                        positions.advance(machine, windowEnd);
+                        success.incrementAndGet();
+                        stats.pullsSucceeded.increment();
                     } else {
-                        logger.error(msg + " metric " + url + " error", ex);
+                        fail.incrementAndGet();
+                        stats.pullsFailed.increment();
                     }
+                } catch (Exception e) {
+                    logger.error(msg + " metric " + url + " error:", e);
+                } finally {
+                    pull.complete(null);
                 }
+            }
 
-                @Override
-                public void cancelled() {
-                    latch.countDown();
-                    fail.incrementAndGet();
-                    httpGet.abort();
+            @Override
+            public void failed(final Exception ex) {
+                breakers.onFailure(machine);
+                pull.complete(null);
+                fail.incrementAndGet();
+                stats.pullsFailed.increment();
+                httpGet.abort();
+                if (ex instanceof SocketTimeoutException) {
+                    logger.error("Failed to fetch metric from <{}>: socket timeout", url);
+                } else if (ex instanceof ConnectException) {
+                    logger.error("Failed to fetch metric from <{}> (ConnectionException: {})", url, ex.getMessage());
+                } else {
+                    logger.error(msg + " metric " + url + " error", ex);
                 }
-            });
-        }
-        try {
-            latch.await(maxWaitSeconds, TimeUnit.SECONDS);
-        } catch (Exception e) {
-            logger.info(msg + " metric, wait http client error:", e);
-        }
-        //long cost = System.currentTimeMillis() - start;
-        //logger.info("finished " + msg + " metric for " + app + ", time intervalMs [" + startTime + ", " + endTime
-        //    + "], total machines=" + machines.size() + ", dead=" + dead + ", fetch success="
-        //    + success + ", fetch fail=" + fail + ", time cost=" + cost + " ms");
-        writeMetric(metricMap);
+            }
+
+            @Override
+            public void cancelled() {
+                // aborted at the deadline of the fetch
+                breakers.onFailure(machine);
+                pull.complete(null);
+                fail.incrementAndGet();
+                httpGet.abort();
+            }
+        });
+        return pull;
     }
 
-    private void doFetchAppMetric(final String app) {
-        long now = System.currentTimeMillis();
-        long lastFetchMs = now - MAX_LAST_FETCH_INTERVAL_MS;
-        if (appLastFetchTime.containsKey(app)) {
-            lastFetchMs = Math.max(lastFetchMs, appLastFetchTime.get(app).get() + 1000);
-        }
+    /**
+     * Fetch the metrics of given app up to {@link #FETCH_DELAY_MS} ago.
+     *
+     * @return future of the number of metrics fetched, {@code null} if there is nothing to fetch yet
+     */
+    private CompletableFuture<Integer> doFetchAppMetric(final String app) {
         // trim milliseconds
-        lastFetchMs = lastFetchMs / 1000 * 1000;
-        long endTime = lastFetchMs + FETCH_INTERVAL_SECOND * 1000;
-        if (endTime > now - 1000 * 2) {
-            // too near
-            return;
-        }
-        // update last_fetch in advance.
-        appLastFetchTime.computeIfAbsent(app, a -> new AtomicLong()).set(endTime);
-        final long finalLastFetchMs = lastFetchMs;
-        final long finalEndTime = endTime;
+        long endTime = (System.currentTimeMillis() - FETCH_DELAY_MS) / 1000 * 1000;
         try {
-            // do real fetch async
-            fetchWorker.submit(() -> {
-                try {
-                    fetchOnce(app, finalLastFetchMs, finalEndTime, 5);
-                } catch (Exception e) {
-                    logger.info("fetchOnce(" + app + ") error", e);
-                }
-            });
+            return fetchOnce(app, endTime, 5);
         } catch (Exception e) {
-            logger.info("submit fetchOnce(" + app + ") fail, intervalMs [" + lastFetchMs + ", " + endTime + "]", e);
+            logger.info("fetchOnce(" + app + ") error, endTime " + endTime, e);
+            CompletableFuture<Integer> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
         }
     }
 
-    private void handleResponse(final HttpResponse response, MachineInfo machine,
-                                Map<String, MetricEntity> metricMap) throws Exception {
+    /**
+     * @return whether the machine answered
+     */
+    private boolean handleResponse(final HttpResponse response, MachineInfo machine,
+                                   MetricAggregation aggregation) throws Exception {
         int code = response.getStatusLine().getStatusCode();
         if (code != HTTP_OK) {
-            return;
+            return false;
         }
         Charset charset = null;
         try {
@@ -304,59 +674,39 @@ public class MetricFetcher {
             }
         } catch (Exception ignore) {
         }
-        String body = EntityUtils.toString(response.getEntity(), charset != null ? charset : DEFAULT_CHARSET);
-        if (StringUtil.isEmpty(body) || body.startsWith(NO_METRICS)) {
-            //logger.info(machine.getApp() + ":" + machine.getIp() + ":" + machine.getPort() + ", bodyStr is empty");
-            return;
-        }
-        String[] lines = body.split("\n");
-        //logger.info(machine.getApp() + ":" + machine.getIp() + ":" + machine.getPort() +
-        //    ", bodyStr.length()=" + body.length() + ", lines=" + lines.length);
-        handleBody(lines, machine, metricMap);
-    }
-
-    private void handleBody(String[] lines, MachineInfo machine, Map<String, MetricEntity> map) {
-        //logger.info("handleBody() lines=" + lines.length + ", machine=" + machine);
-        if (lines.length < 1) {
-            return;
+        HttpEntity entity = response.getEntity();
+        if (entity == null) {
+            return true;
         }
+        try (InputStream in = entity.getContent()) {
+            int lines = LINE_PARSER.get().parse(in, charset != null ? charset : DEFAULT_CHARSET,
+                new MetricLineParser.Handler() {
+                    @Override
+                    public void handle(long timestamp, String resource, long passQps, long blockQps,
+                                       long successQps, long exceptionQps, double rt) {
+                        handleLine(aggregation, timestamp, resource, passQps, blockQps, successQps, exceptionQps,
+                            rt);
+                    }
 
-        for (String line : lines) {
-            try {
-                MetricNode node = MetricNode.fromThinString(line);
-                if (shouldFilterOut(node.getResource())) {
-                    continue;
-                }
-                /*
-                 * aggregation metrics by app_resource_timeSecond, ignore ip and port.
-                 */
-                String key = buildMetricKey(machine.getApp(), node.getResource(), node.getTimestamp());
-
-                MetricEntity metricEntity = map.computeIfAbsent(key, s -> {
-                    MetricEntity initMetricEntity = new MetricEntity();
-                    initMetricEntity.setApp(machine.getApp());
-                    initMetricEntity.setTimestamp(new Date(node.getTimestamp()));
-                    initMetricEntity.setPassQps(0L);
-                    initMetricEntity.setBlockQps(0L);
-                    initMetricEntity.setRtAndSuccessQps(0, 0L);
-                    initMetricEntity.setExceptionQps(0L);
-                    initMetricEntity.setCount(0);
-                    initMetricEntity.setResource(node.getResource());
-                    return initMetricEntity;
+                    @Override
+                    public void onMalformedLine(String line) {
+                        logger.warn("Malformed metric line, machine: {}, line: {}", machine.toLogString(), line);
+                    }
                 });
-                metricEntity.addPassQps(node.getPassQps());
-                metricEntity.addBlockQps(node.getBlockQps());
-                metricEntity.addRtAndSuccessQps(node.getRt(), node.getSuccessQps());
-                metricEntity.addExceptionQps(node.getExceptionQps());
-                metricEntity.addCount(1);
-            } catch (Exception e) {
-                logger.warn("handleBody line exception, machine: {}, line: {}", machine.toLogString(), line);
-            }
+            stats.linesParsed.add(lines);
         }
+        return true;
     }
 
-    private String buildMetricKey(String app, String resource, long timestamp) {
-        return app + "__" + resource + "__" + (timestamp / 1000);
+    private void handleLine(MetricAggregation aggregation, long timestamp, String resource, long passQps,
+                            long blockQps, long successQps, long exceptionQps, double rt) {
+        if (shouldFilterOut(resource)) {
+            return;
+        }
+        /*
+         * aggregation metrics by resource and timeSecond, ignore ip and port.
+         */
+        aggregation.add(resource, timestamp, passQps, blockQps, successQps, exceptionQps, rt);
     }
 
     private boolean shouldFilterOut(String resource) {
@@ -0,0 +1,322 @@
+/*
+ * Copyright 1999-2018 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.metric;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * <p>
+ * Streaming parser of the thin metric lines returned by the {@code metric} command of a machine,
+ * see {@code MetricNode#toThinString()}:
+ * </p>
+ * <pre>timestamp|resource|passQps|blockQps|successQps|exceptionQps|rt|occupiedPassQps|concurrency|classification</pre>
+ * <p>
+ * Lines are parsed straight from the bytes of the response, without building a String per body, per line
+ * or per field. Resource names are decoded once and then looked up by their bytes, so a known resource
+ * costs no allocation at all.
+ * </p>
+ * <p>This class is not thread-safe, use one instance per thread.</p>
+ */
+final class MetricLineParser {
+
+    private static final int DEFAULT_BUFFER_SIZE = 8192;
+    private static final int MIN_FIELDS = 7;
+    private static final byte[] NO_METRICS = MetricFetcher.NO_METRICS.getBytes(StandardCharsets.UTF_8);
+
+    private final ResourceNames resourceNames;
+    private byte[] buf;
+
+    /**
+     * Start offsets of the fields of the current line, the end of a field is the start of the next one
+     * minus the separator.
+     */
+    private final int[] fieldStarts = new int[MIN_FIELDS + 1];
+
+    MetricLineParser() {
+        this(DEFAULT_BUFFER_SIZE);
+    }
+
+    MetricLineParser(int bufferSize) {
+        this.buf = new byte[bufferSize];
+        this.resourceNames = new ResourceNames();
+    }
+
+    /**
+     * Parse all lines of given stream. Malformed lines are reported and skipped, a body starting with
+     * {@link MetricFetcher#NO_METRICS} has no line.
+     *
+     * @return number of lines handled
+     */
+    int parse(InputStream in, Charset charset, Handler handler) throws IOException {
+        int lines = 0;
+        // The current line starts at start, the read bytes end at end.
+        int start = 0;
+        int end = 0;
+        int fields = 1;
+        int resourceHash = 1;
+        boolean first = true;
+        fieldStarts[0] = 0;
+        // Fields and the hash of the resource are collected in the same pass that looks for line breaks.
+        for (int i = 0; ; i++) {
+            if (i == end) {
+                if (start > 0) {
+                    // Move the partial line to the head.
+                    System.arraycopy(buf, start, buf, 0, end - start);
+                    for (int f = 0; f < fields; f++) {
+                        fieldStarts[f] -= start;
+                    }
+                    i -= start;
+                    end -= start;
+                    start = 0;
+                }
+                if (end == buf.length) {
+                    buf = Arrays.copyOf(buf, buf.length * 2);
+                }
+                int read = in.read(buf, end, buf.length - end);
+                if (read <= 0) {
+                    // The last line without a line break.
+                    if (start < end && !(first && startsWith(buf, start, end, NO_METRICS))
+                        && parseLine(start, end, fields, resourceHash, charset, handler)) {
+                        lines++;
+                    }
+                    return lines;
+                }
+                end += read;
+            }
+            byte b = buf[i];
+            if (b == '\n') {
+                if (first) {
+                    first = false;
+                    if (startsWith(buf, start, i, NO_METRICS)) {
+                        return 0;
+                    }
+                }
+                if (parseLine(start, i, fields, resourceHash, charset, handler)) {
+                    lines++;
+                }
+                start = i + 1;
+                fields = 1;
+                fieldStarts[0] = start;
+                resourceHash = 1;
+            } else if (b == '|') {
+                if (fields <= MIN_FIELDS) {
+                    fieldStarts[fields++] = i + 1;
+                }
+            } else if (fields == 2) {
+                resourceHash = 31 * resourceHash + b;
+            }
+        }
+    }
+
+    private boolean parseLine(int start, int end, int fields, int resourceHash, Charset charset,
+                              Handler handler) {
+        if (end > start && buf[end - 1] == '\r') {
+            end--;
+        }
+        if (end == start) {
+            return false;
+        }
+        if (fields < MIN_FIELDS) {
+            handler.onMalformedLine(new String(buf, start, end - start, charset));
+            return false;
+        }
+        // The end of the rt field, when it is the last one.
+        int rtEnd = fields > MIN_FIELDS ? fieldStarts[MIN_FIELDS] - 1 : end;
+
+        long timestamp = parseLong(fieldStarts[0], fieldStarts[1] - 1);
+        long passQps = parseLong(fieldStarts[2], fieldStarts[3] - 1);
+        long blockQps = parseLong(fieldStarts[3], fieldStarts[4] - 1);
+        long successQps = parseLong(fieldStarts[4], fieldStarts[5] - 1);
+        long exceptionQps = parseLong(fieldStarts[5], fieldStarts[6] - 1);
+        double rt = parseDouble(fieldStarts[6], rtEnd);
+        int resourceStart = fieldStarts[1];
+        int resourceLength = fieldStarts[2] - 1 - resourceStart;
+        if (timestamp < 0 || passQps < 0 || blockQps < 0 || successQps < 0 || exceptionQps < 0 || rt < 0
+            || resourceLength <= 0) {
+            handler.onMalformedLine(new String(buf, start, end - start, charset));
+            return false;
+        }
+        String resource = resourceNames.get(buf, resourceStart, resourceLength, resourceHash, charset);
+        handler.handle(timestamp, resource, passQps, blockQps, successQps, exceptionQps, rt);
+        return true;
+    }
+
+    /**
+     * @return the non-negative number, or {@code -1} if malformed
+     */
+    private long parseLong(int start, int end) {
+        if (start >= end || end - start > 18) {
+            return -1;
+        }
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            int digit = buf[i] - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    /**
+     * Parse a non-negative decimal such as {@code 12} or {@code 12.5}.
+     *
+     * @return the number, or {@code -1} if malformed
+     */
+    private double parseDouble(int start, int end) {
+        int dot = indexOf(buf, start, end, (byte)'.');
+        if (dot < 0) {
+            return parseLong(start, end);
+        }
+        long integral = parseLong(start, dot);
+        if (integral < 0 || dot + 1 == end) {
+            return -1;
+        }
+        long fraction = parseLong(dot + 1, end);
+        if (fraction < 0) {
+            return -1;
+        }
+        return integral + fraction / Math.pow(10, end - dot - 1);
+    }
+
+    private static int indexOf(byte[] bytes, int from, int to, byte b) {
+        for (int i = from; i < to; i++) {
+            if (bytes[i] == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean startsWith(byte[] bytes, int from, int to, byte[] prefix) {
+        if (to - from < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (bytes[from + i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Receives the parsed lines.
+     */
+    interface Handler {
+
+        void handle(long timestamp, String resource, long passQps, long blockQps, long successQps,
+                    long exceptionQps, double rt);
+
+        default void onMalformedLine(String line) {}
+    }
+
+    /**
+     * Open addressing table of the decoded resource names, keyed by their bytes.
+     */
+    private static final class ResourceNames {
+
+        private static final int INITIAL_CAPACITY = 256;
+        /**
+         * The table is dropped when it grows beyond this, rather than keeping names of gone resources forever.
+         */
+        private static final int MAX_SIZE = 1 << 16;
+
+        private byte[][] keys = new byte[INITIAL_CAPACITY][];
+        private String[] names = new String[INITIAL_CAPACITY];
+        private int size;
+
+        /**
+         * @param hash {@link #hash(byte[], int, int)} of the name
+         */
+        String get(byte[] bytes, int offset, int length, int hash, Charset charset) {
+            int mask = keys.length - 1;
+            int slot = spread(hash) & mask;
+            while (keys[slot] != null) {
+                if (equals(keys[slot], bytes, offset, length)) {
+                    return names[slot];
+                }
+                slot = (slot + 1) & mask;
+            }
+            if (size >= MAX_SIZE) {
+                clear();
+                return get(bytes, offset, length, hash, charset);
+            }
+            byte[] key = Arrays.copyOfRange(bytes, offset, offset + length);
+            String name = new String(key, charset);
+            keys[slot] = key;
+            names[slot] = name;
+            if (++size * 2 > keys.length) {
+                rehash(keys.length * 2);
+            }
+            return name;
+        }
+
+        private void clear() {
+            keys = new byte[INITIAL_CAPACITY][];
+            names = new String[INITIAL_CAPACITY];
+            size = 0;
+        }
+
+        private void rehash(int capacity) {
+            byte[][] oldKeys = keys;
+            String[] oldNames = names;
+            keys = new byte[capacity][];
+            names = new String[capacity];
+            int mask = capacity - 1;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] == null) {
+                    continue;
+                }
+                int slot = spread(hash(oldKeys[i], 0, oldKeys[i].length)) & mask;
+                while (keys[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                names[slot] = oldNames[i];
+            }
+        }
+
+        static int hash(byte[] bytes, int offset, int length) {
+            int h = 1;
+            for (int i = offset; i < offset + length; i++) {
+                h = 31 * h + bytes[i];
+            }
+            return h;
+        }
+
+        private static int spread(int h) {
+            return h ^ (h >>> 16);
+        }
+
+        private static boolean equals(byte[] key, byte[] bytes, int offset, int length) {
+            if (key.length != length) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (key[i] != bytes[offset + i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 1999-2018 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.metric;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.alibaba.csp.sentinel.dashboard.discovery.MachineInfo;
+
+/**
+ * <p>
+ * Metrics pushed in batches, aggregated per app until {@link #drain(long) drained} by the next write, the same
+ * way the responses of the machines of an app are aggregated in one fetch.
+ * </p>
+ * <p>
+ * An app is pushing while a batch arrived within {@link #PUSH_TTL_MS}. Only the machines which reported the
+ * batches themselves are not pulled meanwhile: a batch of no given machine pauses no pull. The fetch position of
+ * such a machine follows its pushes, so once it stops pushing it is only pulled for the seconds it did not push.
+ * </p>
+ */
+final class MetricPushBuffer {
+
+    static final long PUSH_TTL_MS = 10_000;
+
+    private final Map<String, Pending> apps = new ConcurrentHashMap<>();
+    private final MetricFetchPositions positions;
+
+    MetricPushBuffer(MetricFetchPositions positions) {
+        this.positions = positions;
+    }
+
+    private static final class Pending {
+        volatile MetricAggregation aggregation = new MetricAggregation();
+        volatile long lastPushMs;
+        final Map<String, Long> machines = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * @param machine registered machine reporting the batch, null if not known
+     */
+    void offer(String app, MachineInfo machine, MetricAggregation batch, long nowMs) {
+        // under the lock of the entry, so that an expiring entry cannot swallow the batch
+        apps.compute(app, (k, pending) -> {
+            if (pending == null) {
+                pending = new Pending();
+            }
+            pending.lastPushMs = nowMs;
+            if (machine != null) {
+                pending.machines.put(machine.toHostPort(), nowMs);
+            }
+            // sealed by a concurrent drain, the next one is fresh
+            while (!pending.aggregation.merge(batch)) {
+                Thread.yield();
+            }
+            return pending;
+        });
+        long latest = batch.latestTimestamp();
+        if (machine != null && latest >= 0) {
+            positions.advance(machine, latest);
+        }
+    }
+
+    /**
+     * @return whether given app pushed its metrics lately
+     */
+    boolean isPushing(String app, long nowMs) {
+        Pending pending = apps.get(app);
+        return pending != null && nowMs - pending.lastPushMs <= PUSH_TTL_MS;
+    }
+
+    /**
+     * @return whether given machine of given app pushed its metrics itself lately
+     */
+    boolean isPushing(String app, MachineInfo machine, long nowMs) {
+        Pending pending = apps.get(app);
+        Long lastPushMs = pending == null ? null : pending.machines.get(machine.toHostPort());
+        return lastPushMs != null && nowMs - lastPushMs <= PUSH_TTL_MS;
+    }
+
+    /**
+     * Take the metrics pushed since the last drain, and forget the apps and machines which stopped pushing.
+     *
+     * @return sealed aggregation of each app with metrics
+     */
+    Map<String, MetricAggregation> drain(long nowMs) {
+        Map<String, MetricAggregation> drained = new HashMap<>();
+        for (Map.Entry<String, Pending> entry : apps.entrySet()) {
+            Pending pending = entry.getValue();
+            MetricAggregation aggregation = pending.aggregation;
+            pending.aggregation = new MetricAggregation();
+            aggregation.seal();
+            pending.machines.values().removeIf(lastPushMs -> nowMs - lastPushMs > PUSH_TTL_MS);
+            if (aggregation.size() > 0) {
+                drained.put(entry.getKey(), aggregation);
+            }
+        }
+        for (String app : apps.keySet()) {
+            apps.computeIfPresent(app, (k, pending) ->
+                nowMs - pending.lastPushMs > PUSH_TTL_MS && pending.aggregation.size() == 0 ? null : pending);
+        }
+        return drained;
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 1999-2018 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.metric;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Plain HTTP calls between dashboard nodes, which are few and rare compared to the metric pulls.
+ */
+final class MetricShardClient {
+
+    private MetricShardClient() {}
+
+    /**
+     * @return the body of a 200 response
+     * @throws IOException if the node cannot be reached or answers anything else
+     */
+    static String get(String member, String path, Map<String, ?> params, Map<String, String> headers,
+                      int timeoutMs) throws IOException {
+        return send(member, path, params, headers, null, timeoutMs);
+    }
+
+    /**
+     * @return the body of a 200 response
+     * @throws IOException if the node cannot be reached or answers anything else
+     */
+    static String post(String member, String path, Map<String, ?> params, Map<String, String> headers, byte[] body,
+                       int timeoutMs) throws IOException {
+        return send(member, path, params, headers, body, timeoutMs);
+    }
+
+    private static String send(String member, String path, Map<String, ?> params, Map<String, String> headers,
+                               byte[] body, int timeoutMs) throws IOException {
+        StringBuilder url = new StringBuilder("http://").append(member).append(path);
+        if (params != null) {
+            char separator = '?';
+            for (Map.Entry<String, ?> param : params.entrySet()) {
+                if (param.getValue() == null) {
+                    continue;
+                }
+                url.append(separator).append(encode(param.getKey())).append('=')
+                    .append(encode(String.valueOf(param.getValue())));
+                separator = '&';
+            }
+        }
+        HttpURLConnection connection = (HttpURLConnection)new URL(url.toString()).openConnection();
+        try {
+            connection.setConnectTimeout(timeoutMs);
+            connection.setReadTimeout(timeoutMs);
+            connection.setInstanceFollowRedirects(false);
+            // forwarded metric queries are compressed like the ones of the pages
+            connection.setRequestProperty("Accept-Encoding", "gzip");
+            if (headers != null) {
+                for (Map.Entry<String, String> header : headers.entrySet()) {
+                    connection.setRequestProperty(header.getKey(), header.getValue());
+                }
+            }
+            if (body != null) {
+                connection.setRequestMethod("POST");
+                connection.setDoOutput(true);
+                connection.setFixedLengthStreamingMode(body.length);
+                try (OutputStream out = connection.getOutputStream()) {
+                    out.write(body);
+                }
+            }
+            int status = connection.getResponseCode();
+            if (status != HttpURLConnection.HTTP_OK) {
+                throw new IOException("HTTP " + status + " from " + member + path);
+            }
+            try (InputStream in = "gzip".equalsIgnoreCase(connection.getContentEncoding())
+                ? new GZIPInputStream(connection.getInputStream()) : connection.getInputStream()) {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                byte[] buffer = new byte[8192];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, read);
+                }
+                return new String(out.toByteArray(), StandardCharsets.UTF_8);
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private static String encode(String s) throws UnsupportedEncodingException {
+        return URLEncoder.encode(s, "UTF-8");
+    }
+}
@@ -0,0 +1,238 @@
+/*
+ * Copyright 1999-2018 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.metric;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.PreDestroy;
+
+import com.alibaba.csp.sentinel.concurrent.NamedThreadFactory;
+import com.alibaba.csp.sentinel.dashboard.config.DashboardConfig;
+import com.alibaba.csp.sentinel.util.StringUtil;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+/**
+ * <p>
+ * Splits the metric fetching of apps between dashboard nodes by consistent hashing of the app name over the
+ * {@link MetricShardMembership#liveMembers() live members}, so each app is fetched and stored by one node only
+ * and a node joining or leaving only moves its share of the apps.
+ * </p>
+ * <p>
+ * Heartbeats are {@link #relayHeartbeat(Map) relayed} to the other nodes, so every node knows every machine and
+ * can serve the pages of any app, while metric queries and pushed metrics of an app are forwarded to the node
+ * owning it.
+ * </p>
+ * <p>
+ * Without {@link DashboardConfig#CONFIG_METRIC_CLUSTER_MEMBERS} the dashboard runs alone and owns every app.
+ * </p>
+ */
+@Component
+public class MetricShardRouter {
+
+    private static final Logger logger = LoggerFactory.getLogger(MetricShardRouter.class);
+
+    /**
+     * Header carrying {@link DashboardConfig#CONFIG_METRIC_CLUSTER_TOKEN} on calls between nodes.
+     */
+    public static final String TOKEN_HEADER = "X-Sentinel-Dashboard-Token";
+    /**
+     * Header marking a relayed heartbeat or pushed batch, which is not relayed again. Only honoured along with
+     * {@link #TOKEN_HEADER}.
+     */
+    public static final String RELAY_HEADER = "X-Sentinel-Dashboard-Relay";
+    /**
+     * Header carrying {@link DashboardConfig#CONFIG_METRIC_PUSH_TOKEN} on pushed batches.
+     */
+    public static final String PUSH_TOKEN_HEADER = "X-Sentinel-Metric-Push-Token";
+
+    private static final int FORWARD_TIMEOUT_MS = 5000;
+    private static final int RELAY_TIMEOUT_MS = 1000;
+
+    private final MetricShardMembership membership;
+    private final String token;
+    private volatile ConsistentHashRing ring = new ConsistentHashRing(Collections.<String>emptyList());
+
+    private final LongAdder droppedRelays = new LongAdder();
+    @SuppressWarnings("PMD.ThreadPoolCreationRule")
+    private final ExecutorService relayService = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+        new ArrayBlockingQueue<>(4096), new NamedThreadFactory("sentinel-dashboard-heartbeat-relay", true),
+        (task, executor) -> droppedRelays.increment());
+
+    public MetricShardRouter() {
+        this(createMembership(), DashboardConfig.getMetricClusterToken());
+    }
+
+    MetricShardRouter(MetricShardMembership membership, String token) {
+        this.membership = membership;
+        this.token = token;
+    }
+
+    private static MetricShardMembership createMembership() {
+        String members = DashboardConfig.getMetricClusterMembers();
+        if (StringUtil.isBlank(members)) {
+            return null;
+        }
+        List<String> list = new ArrayList<>();
+        for (String member : members.split(",")) {
+            if (StringUtil.isNotBlank(member)) {
+                list.add(member.trim());
+            }
+        }
+        String self = DashboardConfig.getMetricClusterSelf();
+        if (StringUtil.isBlank(self) || !list.contains(self.trim())) {
+            throw new IllegalArgumentException(DashboardConfig.CONFIG_METRIC_CLUSTER_SELF
+                + " must be one of " + DashboardConfig.CONFIG_METRIC_CLUSTER_MEMBERS + ": " + self);
+        }
+        if (StringUtil.isBlank(DashboardConfig.getMetricClusterToken())) {
+            throw new IllegalArgumentException(DashboardConfig.CONFIG_METRIC_CLUSTER_TOKEN + " must be set");
+        }
+        return new StaticMetricShardMembership(self.trim(), list);
+    }
+
+    public boolean isEnabled() {
+        return membership != null;
+    }
+
+    /**
+     * @return the node fetching and storing the metrics of given app, null if not {@link #isEnabled() enabled}
+     */
+    public String ownerOf(String app) {
+        if (membership == null) {
+            return null;
+        }
+        String owner = currentRing().ownerOf(app);
+        return owner == null ? membership.self() : owner;
+    }
+
+    public boolean isLocal(String app) {
+        return membership == null || membership.self().equals(ownerOf(app));
+    }
+
+    /**
+     * @return the sorted live members, empty if not {@link #isEnabled() enabled}
+     */
+    public List<String> liveMembers() {
+        if (membership == null) {
+            return Collections.emptyList();
+        }
+        return currentRing().getMembers();
+    }
+
+    private ConsistentHashRing currentRing() {
+        List<String> live = membership.liveMembers();
+        ConsistentHashRing current = ring;
+        if (!current.getMembers().equals(live)) {
+            current = new ConsistentHashRing(live);
+            ring = current;
+            logger.info("Metric shard members changed: {}", live);
+        }
+        return current;
+    }
+
+    public boolean isValidToken(String token) {
+        return this.token != null && token != null && MessageDigest.isEqual(
+            this.token.getBytes(StandardCharsets.UTF_8), token.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Call given path on another node, with the cluster token.
+     *
+     * @return the body of the response
+     */
+    public String forward(String member, String path, Map<String, ?> params) throws IOException {
+        return MetricShardClient.get(member, path, params,
+            Collections.singletonMap(TOKEN_HEADER, token), FORWARD_TIMEOUT_MS);
+    }
+
+    /**
+     * Relay a heartbeat received by this node to the other live nodes, in the background.
+     */
+    public void relayHeartbeat(Map<String, ?> params) {
+        if (membership == null) {
+            return;
+        }
+        for (String member : liveMembers()) {
+            if (member.equals(membership.self())) {
+                continue;
+            }
+            relayService.execute(() -> {
+                try {
+                    MetricShardClient.get(member, "/registry/machine", params, relayHeaders(), RELAY_TIMEOUT_MS);
+                } catch (IOException e) {
+                    logger.debug("Failed to relay heartbeat to {}", member, e);
+                }
+            });
+        }
+    }
+
+    /**
+     * Forward a batch of metrics pushed to this node to the node owning the app, as received with its params and
+     * push token.
+     */
+    public void forwardPush(Map<String, ?> params, String pushToken, String contentType, String contentEncoding,
+                            byte[] body) throws IOException {
+        Map<String, String> headers = relayHeaders();
+        headers.put(PUSH_TOKEN_HEADER, pushToken);
+        if (contentType != null) {
+            headers.put("Content-Type", contentType);
+        }
+        if (contentEncoding != null) {
+            headers.put("Content-Encoding", contentEncoding);
+        }
+        MetricShardClient.post(ownerOf((String)params.get("app")), "/registry/metric", params, headers, body,
+            FORWARD_TIMEOUT_MS);
+    }
+
+    /**
+     * Relays carry the cluster token, without which nodes do not take them as relays.
+     */
+    private Map<String, String> relayHeaders() {
+        Map<String, String> headers = new HashMap<>();
+        headers.put(RELAY_HEADER, "true");
+        headers.put(TOKEN_HEADER, token);
+        return headers;
+    }
+
+    /**
+     * @return heartbeats not relayed because the other nodes were too slow to take them
+     */
+    public long getDroppedRelays() {
+        return droppedRelays.sum();
+    }
+
+    @PreDestroy
+    public void close() {
+        relayService.shutdownNow();
+        if (membership instanceof StaticMetricShardMembership) {
+            ((StaticMetricShardMembership)membership).close();
+        }
+    }
+}
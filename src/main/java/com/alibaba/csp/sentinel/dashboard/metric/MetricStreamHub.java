@@ -0,0 +1,435 @@
+/*
+ * Copyright 1999-2018 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.metric;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.PreDestroy;
+
+import com.alibaba.csp.sentinel.concurrent.NamedThreadFactory;
+import com.alibaba.csp.sentinel.dashboard.datasource.entity.MetricEntity;
+import com.alibaba.csp.sentinel.dashboard.domain.vo.MetricSeriesVo;
+import com.alibaba.csp.sentinel.dashboard.repository.metric.MetricsRepository;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter.SseEventBuilder;
+
+/**
+ * <p>
+ * Pushes the seconds {@link MetricFetcher} writes to the dashboard pages subscribed to an app, as server-sent
+ * events, so open pages do not poll the metric queries.
+ * </p>
+ * <p>
+ * A write is fanned out once: its seconds are read back from the store, where late ones have been merged, and
+ * serialized once for each distinct set of resources and format sent, the subscribers of a page all sharing one. The
+ * fan-out runs on a single thread of its own; writes to an app arriving while its previous one is still queued
+ * are coalesced into it, so a slow round never piles up work.
+ * </p>
+ * <p>
+ * The fan-out never sends itself, as a send blocks while the page does not read: events are queued for each
+ * subscriber, up to {@link #MAX_QUEUED_EVENTS}, and sent by a few sender threads, one subscriber at a time on
+ * each. The stream of a subscriber falling behind, or whose send is blocked for longer than
+ * {@link #SEND_TIMEOUT_MS}, is ended; the page opens a new one.
+ * </p>
+ * <p>
+ * Events are named {@value #METRIC_EVENT}, their data is the metrics by resource like the {@code metric} of
+ * {@code /metric/queryTopResourceMetric.json}. A stream which can't be served, for an app stored by another
+ * dashboard node or past {@link #MAX_SUBSCRIBERS}, sends a single {@value #UNAVAILABLE_EVENT} event and ends,
+ * for the page to fall back to polling.
+ * </p>
+ */
+@Component
+public class MetricStreamHub {
+
+    private static final Logger logger = LoggerFactory.getLogger(MetricStreamHub.class);
+
+    public static final String METRIC_EVENT = "metric";
+    public static final String UNAVAILABLE_EVENT = "unavailable";
+
+    /**
+     * Streams end after this, the browser opens a new one.
+     */
+    private static final long STREAM_TIMEOUT_MS = 1000 * 60 * 30;
+    private static final long KEEPALIVE_INTERVAL_MS = 1000 * 15;
+    static final int MAX_SUBSCRIBERS = 512;
+    static final int MAX_QUEUED_EVENTS = 16;
+    static final long SEND_TIMEOUT_MS = 1000 * 10;
+    private static final int SENDER_THREADS = 4;
+
+    private final MetricsRepository<MetricEntity> metricStore;
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    /**
+     * {@code app -> subscribers}
+     */
+    private final Map<String, Set<Subscriber>> subscribers = new ConcurrentHashMap<>();
+    private final AtomicInteger subscriberCount = new AtomicInteger();
+    /**
+     * {@code app -> write not sent yet}
+     */
+    private final Map<String, PendingWrite> pendingWrites = new ConcurrentHashMap<>();
+
+    @SuppressWarnings("PMD.ThreadPoolCreationRule")
+    private final ScheduledExecutorService streamService = new ScheduledThreadPoolExecutor(1,
+        new NamedThreadFactory("sentinel-dashboard-metric-stream", true));
+    /**
+     * Its queue holds at most one task per subscriber.
+     */
+    @SuppressWarnings("PMD.ThreadPoolCreationRule")
+    private final ExecutorService sendService = new ThreadPoolExecutor(SENDER_THREADS, SENDER_THREADS, 0,
+        TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(),
+        new NamedThreadFactory("sentinel-dashboard-metric-stream-send", true));
+    private final long sendTimeoutMs;
+
+    @Autowired
+    public MetricStreamHub(MetricsRepository<MetricEntity> metricStore) {
+        this(metricStore, SEND_TIMEOUT_MS);
+    }
+
+    MetricStreamHub(MetricsRepository<MetricEntity> metricStore, long sendTimeoutMs) {
+        this.metricStore = metricStore;
+        this.sendTimeoutMs = sendTimeoutMs;
+        streamService.scheduleAtFixedRate(this::keepAlive, KEEPALIVE_INTERVAL_MS, KEEPALIVE_INTERVAL_MS,
+            TimeUnit.MILLISECONDS);
+        long checkIntervalMs = Math.max(1, sendTimeoutMs / 2);
+        streamService.scheduleAtFixedRate(this::dropBlockedSubscribers, checkIntervalMs, checkIntervalMs,
+            TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @param resources resources to stream, null or empty for all resources of the app
+     * @param format    format of the metrics, see {@link MetricSeriesVo#format(String)}
+     */
+    public SseEmitter subscribe(String app, Collection<String> resources, String format) {
+        if (subscriberCount.get() >= MAX_SUBSCRIBERS) {
+            return unavailable("too many metric stream subscribers");
+        }
+        SseEmitter emitter = new SseEmitter(STREAM_TIMEOUT_MS);
+        subscribe(app, resources, format, emitter);
+        return emitter;
+    }
+
+    void subscribe(String app, Collection<String> resources, String format, SseEmitter emitter) {
+        Subscriber subscriber = new Subscriber(app, emitter,
+            resources == null || resources.isEmpty() ? null : new HashSet<>(resources),
+            MetricSeriesVo.COLUMNAR_FORMAT.equals(format) ? MetricSeriesVo.COLUMNAR_FORMAT : null);
+        subscribers.compute(app, (k, set) -> {
+            if (set == null) {
+                set = ConcurrentHashMap.newKeySet();
+            }
+            set.add(subscriber);
+            return set;
+        });
+        subscriberCount.incrementAndGet();
+        Runnable unsubscribe = () -> unsubscribe(app, subscriber);
+        emitter.onCompletion(unsubscribe);
+        emitter.onTimeout(unsubscribe);
+        emitter.onError(e -> unsubscribe.run());
+    }
+
+    private void unsubscribe(String app, Subscriber subscriber) {
+        subscribers.computeIfPresent(app, (k, set) -> {
+            if (set.remove(subscriber)) {
+                subscriberCount.decrementAndGet();
+            }
+            return set.isEmpty() ? null : set;
+        });
+    }
+
+    /**
+     * A stream ending right away with an {@value #UNAVAILABLE_EVENT} event.
+     */
+    public static SseEmitter unavailable(String reason) {
+        SseEmitter emitter = new SseEmitter();
+        try {
+            emitter.send(SseEmitter.event().name(UNAVAILABLE_EVENT).data(reason));
+            emitter.complete();
+        } catch (IOException e) {
+            emitter.completeWithError(e);
+        }
+        return emitter;
+    }
+
+    /**
+     * Stream the written metrics of an app to its subscribers, if any. Called by the writer, which is never
+     * blocked by the sending.
+     */
+    void publish(String app, List<MetricEntity> written) {
+        if (written.isEmpty() || !subscribers.containsKey(app)) {
+            return;
+        }
+        boolean[] queued = new boolean[1];
+        pendingWrites.compute(app, (k, pending) -> {
+            if (pending == null) {
+                pending = new PendingWrite();
+                queued[0] = true;
+            }
+            pending.add(written);
+            return pending;
+        });
+        if (queued[0]) {
+            try {
+                streamService.execute(() -> send(app));
+            } catch (RuntimeException e) {
+                pendingWrites.remove(app);
+            }
+        }
+    }
+
+    private void send(String app) {
+        PendingWrite write = pendingWrites.remove(app);
+        Set<Subscriber> appSubscribers = subscribers.get(app);
+        if (write == null || appSubscribers == null) {
+            return;
+        }
+        // one payload per distinct set of resources and format sent
+        Map<List<String>, String> payloads = new HashMap<>();
+        for (Subscriber subscriber : appSubscribers) {
+            List<String> resources = subscriber.select(write.resources);
+            if (resources.isEmpty()) {
+                continue;
+            }
+            List<String> key = new ArrayList<>(resources);
+            key.add(subscriber.format);
+            String payload = payloads.computeIfAbsent(key, k -> serialize(app, resources, subscriber.format, write));
+            if (payload != null) {
+                enqueue(subscriber, SseEmitter.event().name(METRIC_EVENT).data(payload));
+            }
+        }
+    }
+
+    private void enqueue(Subscriber subscriber, SseEventBuilder event) {
+        if (subscriber.closed) {
+            return;
+        }
+        if (subscriber.queued.incrementAndGet() > MAX_QUEUED_EVENTS) {
+            logger.info("Metric stream subscriber of {} too slow, stream ended", subscriber.app);
+            drop(subscriber);
+            return;
+        }
+        subscriber.outbox.add(event);
+        startDraining(subscriber);
+    }
+
+    private void startDraining(Subscriber subscriber) {
+        if (subscriber.draining.compareAndSet(false, true)) {
+            try {
+                sendService.execute(() -> drain(subscriber));
+            } catch (RejectedExecutionException e) {
+                // shut down
+                subscriber.draining.set(false);
+            }
+        }
+    }
+
+    /**
+     * Send the queued events of a subscriber, on a sender thread.
+     */
+    private void drain(Subscriber subscriber) {
+        synchronized (subscriber) {
+            subscriber.sender = Thread.currentThread();
+        }
+        try {
+            do {
+                SseEventBuilder event;
+                while (!subscriber.closed && (event = subscriber.outbox.poll()) != null) {
+                    subscriber.queued.decrementAndGet();
+                    subscriber.sendingSinceMs = System.currentTimeMillis();
+                    try {
+                        subscriber.emitter.send(event);
+                    } catch (IOException | IllegalStateException e) {
+                        // the page is gone, the container ends the stream
+                        unsubscribe(subscriber.app, subscriber);
+                        subscriber.closed = true;
+                    } finally {
+                        subscriber.sendingSinceMs = 0;
+                    }
+                }
+                subscriber.draining.set(false);
+                // an event may have been queued after the last poll, while draining was still set
+            } while (!subscriber.closed && !subscriber.outbox.isEmpty()
+                && subscriber.draining.compareAndSet(false, true));
+            if (subscriber.closed) {
+                subscriber.outbox.clear();
+                subscriber.emitter.complete();
+            }
+        } finally {
+            synchronized (subscriber) {
+                if (subscriber.sender == Thread.currentThread()) {
+                    subscriber.sender = null;
+                }
+                // an interrupt meant for a blocked send must not hit the next task of this thread
+                Thread.interrupted();
+            }
+        }
+    }
+
+    /**
+     * End the stream of a subscriber; a send it is blocked in is interrupted, and the stream completed once the
+     * sender is done with it.
+     */
+    private void drop(Subscriber subscriber) {
+        subscriber.closed = true;
+        unsubscribe(subscriber.app, subscriber);
+        synchronized (subscriber) {
+            if (subscriber.sender != null) {
+                subscriber.sender.interrupt();
+            }
+        }
+        startDraining(subscriber);
+    }
+
+    private void dropBlockedSubscribers() {
+        long now = System.currentTimeMillis();
+        for (Set<Subscriber> appSubscribers : subscribers.values()) {
+            for (Subscriber subscriber : appSubscribers) {
+                long sendingSinceMs = subscriber.sendingSinceMs;
+                if (sendingSinceMs > 0 && now - sendingSinceMs > sendTimeoutMs) {
+                    logger.info("Metric stream subscriber of {} blocked, stream ended", subscriber.app);
+                    drop(subscriber);
+                }
+            }
+        }
+    }
+
+    private String serialize(String app, List<String> resources, String format, PendingWrite write) {
+        try {
+            return mapper.writeValueAsString(MetricSeriesVo.byResource(metricStore, app, resources,
+                write.startTime, write.endTime, null).format(format));
+        } catch (JsonProcessingException e) {
+            logger.warn("Failed to serialize streamed metrics of {}", app, e);
+            return null;
+        }
+    }
+
+    private void keepAlive() {
+        for (Set<Subscriber> appSubscribers : subscribers.values()) {
+            for (Subscriber subscriber : appSubscribers) {
+                enqueue(subscriber, SseEmitter.event().comment("keepalive"));
+            }
+        }
+    }
+
+    /**
+     * @return the apps streamed to at least one subscriber
+     */
+    Set<String> getSubscribedApps() {
+        return subscribers.keySet();
+    }
+
+    public int getSubscriberCount() {
+        return subscriberCount.get();
+    }
+
+    @PreDestroy
+    public void close() {
+        streamService.shutdownNow();
+        sendService.shutdownNow();
+        for (Set<Subscriber> appSubscribers : subscribers.values()) {
+            for (Subscriber subscriber : appSubscribers) {
+                subscriber.emitter.complete();
+            }
+        }
+    }
+
+    private static final class Subscriber {
+
+        final String app;
+        final SseEmitter emitter;
+        /**
+         * Null for all resources.
+         */
+        final Set<String> resources;
+        final String format;
+
+        final Queue<SseEventBuilder> outbox = new ConcurrentLinkedQueue<>();
+        final AtomicInteger queued = new AtomicInteger();
+        final AtomicBoolean draining = new AtomicBoolean();
+        /**
+         * Start of the send in progress, {@code 0} if none.
+         */
+        volatile long sendingSinceMs;
+        /**
+         * Thread draining the events, guarded by this.
+         */
+        Thread sender;
+        volatile boolean closed;
+
+        Subscriber(String app, SseEmitter emitter, Set<String> resources, String format) {
+            this.app = app;
+            this.emitter = emitter;
+            this.resources = resources;
+            this.format = format;
+        }
+
+        /**
+         * @return the written resources this subscriber wants, sorted
+         */
+        List<String> select(Set<String> written) {
+            List<String> selected = new ArrayList<>(written.size());
+            for (String resource : written) {
+                if (resources == null || resources.contains(resource)) {
+                    selected.add(resource);
+                }
+            }
+            selected.sort(null);
+            return selected;
+        }
+    }
+
+    /**
+     * Resources and time range of the writes to an app queued for sending.
+     */
+    private static final class PendingWrite {
+
+        final Set<String> resources = new HashSet<>();
+        long startTime = Long.MAX_VALUE;
+        long endTime = Long.MIN_VALUE;
+
+        void add(List<MetricEntity> written) {
+            for (MetricEntity entity : written) {
+                resources.add(entity.getResource());
+                startTime = Math.min(startTime, entity.getTimestamp().getTime());
+                endTime = Math.max(endTime, entity.getTimestamp().getTime());
+            }
+        }
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright 1999-2018 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.metric;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.alibaba.csp.sentinel.dashboard.datasource.entity.MetricEntity;
+
+/**
+ * <p>
+ * Bounds the number of resources of an app written as series of their own, for apps putting path variables
+ * such as {@code /order/12345} into resource names, which would otherwise get a new series for every URL.
+ * </p>
+ * <p>
+ * Each app keeps up to a max number of resources, and tracks the traffic of all resources in a
+ * {@link HeavyHitterSketch} of twice that size. A resource not kept yet is kept as long as there is room. Once
+ * the max is reached, it is only kept if it is a heavy hitter and the least recently written resource kept has
+ * been idle for {@link #RELEASE_IDLE_MS}, which is then released. The metrics of all other resources are folded
+ * into the series of {@link #OTHERS_RESOURCE}. Apps with fewer resources than the max are not affected.
+ * </p>
+ * <p>
+ * The distinct resources of each app are counted with a {@link CardinalityEstimator}.
+ * </p>
+ */
+final class ResourceCardinalityGuard {
+
+    /**
+     * Resource of the metrics folded from the resources not kept.
+     */
+    static final String OTHERS_RESOURCE = "__others__";
+
+    /**
+     * Kept resources idle for this long may give their room to a heavy hitter.
+     */
+    static final long RELEASE_IDLE_MS = 1000 * 60 * 30;
+    private static final long DECAY_INTERVAL_MS = 1000 * 60;
+
+    private final int maxResources;
+    private final Map<String, AppResources> apps = new ConcurrentHashMap<>();
+
+    ResourceCardinalityGuard(int maxResources) {
+        this.maxResources = maxResources;
+    }
+
+    /**
+     * Fold the metrics of the resources not kept into the series of {@link #OTHERS_RESOURCE}.
+     *
+     * @param released filled with the kept resources released to make room, whose series may be removed
+     * @return the metrics to write
+     */
+    List<MetricEntity> guard(String app, List<MetricEntity> entities, long now, List<String> released) {
+        return apps.computeIfAbsent(app, e -> new AppResources(maxResources)).guard(entities, now, released);
+    }
+
+    void removeApp(String app) {
+        apps.remove(app);
+    }
+
+    /**
+     * @return {@code app -> {cardinality, series, foldedPoints}}: estimate of the distinct resources seen, resources
+     * kept as series of their own and points folded into {@link #OTHERS_RESOURCE}
+     */
+    Map<String, Map<String, Long>> report() {
+        Map<String, Map<String, Long>> report = new TreeMap<>();
+        for (Map.Entry<String, AppResources> entry : apps.entrySet()) {
+            report.put(entry.getKey(), entry.getValue().report());
+        }
+        return report;
+    }
+
+    private static final class AppResources {
+
+        private final int maxResources;
+        private final HeavyHitterSketch sketch;
+        private final CardinalityEstimator cardinality = new CardinalityEstimator();
+        /**
+         * {@code resource -> last written}, least recently written first
+         */
+        private final LinkedHashMap<String, Long> kept = new LinkedHashMap<>(16, 0.75f, true);
+        private long lastDecayMs;
+        private long foldedPoints;
+
+        AppResources(int maxResources) {
+            this.maxResources = maxResources;
+            this.sketch = new HeavyHitterSketch(maxResources * 2);
+        }
+
+        synchronized List<MetricEntity> guard(List<MetricEntity> entities, long now, List<String> released) {
+            if (now - lastDecayMs >= DECAY_INTERVAL_MS) {
+                lastDecayMs = now;
+                sketch.decay();
+            }
+            for (MetricEntity entity : entities) {
+                String resource = entity.getResource();
+                sketch.offer(resource, Math.max(1, nullToZero(entity.getPassQps())
+                    + nullToZero(entity.getBlockQps())));
+                cardinality.add(resource);
+            }
+
+            Map<String, Boolean> decisions = new HashMap<>();
+            Map<Long, MetricEntity> others = new TreeMap<>();
+            List<MetricEntity> results = new ArrayList<>(entities.size());
+            for (MetricEntity entity : entities) {
+                String resource = entity.getResource();
+                if (OTHERS_RESOURCE.equals(resource)
+                    || decisions.computeIfAbsent(resource, e -> keep(resource, now, released))) {
+                    results.add(entity);
+                    continue;
+                }
+                foldedPoints++;
+                MetricEntity folded = others.get(entity.getTimestamp().getTime());
+                if (folded == null) {
+                    folded = MetricEntity.copyOf(entity);
+                    folded.setResource(OTHERS_RESOURCE);
+                    folded.setGmtCreate(entity.getGmtCreate());
+                    folded.setGmtModified(entity.getGmtModified());
+                    others.put(entity.getTimestamp().getTime(), folded);
+                } else {
+                    folded.addMetric(entity);
+                }
+            }
+            results.addAll(others.values());
+            return results;
+        }
+
+        private boolean keep(String resource, long now, List<String> released) {
+            if (kept.containsKey(resource)) {
+                kept.put(resource, now);
+                return true;
+            }
+            if (kept.size() >= maxResources) {
+                // the sketch only decides which resources replace kept ones
+                if (!sketch.isHeavy(resource)) {
+                    return false;
+                }
+                Iterator<Map.Entry<String, Long>> eldest = kept.entrySet().iterator();
+                Map.Entry<String, Long> idle = eldest.next();
+                if (now - idle.getValue() < RELEASE_IDLE_MS) {
+                    return false;
+                }
+                released.add(idle.getKey());
+                eldest.remove();
+            }
+            kept.put(resource, now);
+            return true;
+        }
+
+        synchronized Map<String, Long> report() {
+            Map<String, Long> report = new LinkedHashMap<>();
+            report.put("cardinality", cardinality.estimate());
+            report.put("series", (long)kept.size());
+            report.put("foldedPoints", foldedPoints);
+            return report;
+        }
+
+        private static long nullToZero(Long value) {
+            return value == null ? 0 : value;
+        }
+    }
+}
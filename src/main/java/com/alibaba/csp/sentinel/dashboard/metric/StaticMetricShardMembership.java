@@ -0,0 +1,107 @@
+/*
+ * Copyright 1999-2018 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.metric;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.alibaba.csp.sentinel.concurrent.NamedThreadFactory;
+import com.alibaba.csp.sentinel.dashboard.config.DashboardConfig;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Membership from the configured list of dashboard nodes, see {@link DashboardConfig#CONFIG_METRIC_CLUSTER_MEMBERS}.
+ * <p>
+ * Each node probes the {@code /version} of the others every {@link #PROBE_INTERVAL_MS}, so the nodes agree on
+ * the live members without a coordinator, within a probe interval. A node that stops answering loses its apps to
+ * the next nodes on the ring until it answers again.
+ * </p>
+ */
+final class StaticMetricShardMembership implements MetricShardMembership {
+
+    private static final Logger logger = LoggerFactory.getLogger(StaticMetricShardMembership.class);
+
+    static final long PROBE_INTERVAL_MS = 2000;
+    private static final int PROBE_TIMEOUT_MS = 1000;
+
+    private final String self;
+    private final List<String> members;
+    private final Map<String, Boolean> alive = new ConcurrentHashMap<>();
+
+    @SuppressWarnings("PMD.ThreadPoolCreationRule")
+    private final ScheduledExecutorService probeService = Executors.newSingleThreadScheduledExecutor(
+        new NamedThreadFactory("sentinel-dashboard-metric-shard-probe", true));
+
+    StaticMetricShardMembership(String self, List<String> members) {
+        this.self = self;
+        List<String> sorted = new ArrayList<>(members);
+        Collections.sort(sorted);
+        this.members = Collections.unmodifiableList(sorted);
+        for (String member : members) {
+            // assume the others are up until probed, rather than fetching their apps twice on startup
+            alive.put(member, Boolean.TRUE);
+        }
+        probeService.scheduleWithFixedDelay(this::probe, 0, PROBE_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public String self() {
+        return self;
+    }
+
+    @Override
+    public List<String> liveMembers() {
+        List<String> live = new ArrayList<>(members.size());
+        for (String member : members) {
+            if (self.equals(member) || alive.get(member)) {
+                live.add(member);
+            }
+        }
+        return live;
+    }
+
+    private void probe() {
+        for (String member : members) {
+            if (self.equals(member)) {
+                continue;
+            }
+            boolean up;
+            try {
+                MetricShardClient.get(member, "/version", null, null, PROBE_TIMEOUT_MS);
+                up = true;
+            } catch (IOException e) {
+                up = false;
+            }
+            Boolean was = alive.put(member, up);
+            if (was != null && was != up) {
+                logger.warn("Dashboard node {} is {}", member, up ? "up" : "down");
+            }
+        }
+    }
+
+    void close() {
+        probeService.shutdownNow();
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 1999-2018 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.repository.metric;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Time of the last query of the metrics of each app, telling the cold apps, whose metrics are trimmed first
+ * when the repository is over its memory budget, from the ones being viewed.
+ */
+final class AppReads {
+
+    /**
+     * Apps queried within this long are being viewed, their metrics are not trimmed.
+     */
+    static final long VIEWED_MS = 1000 * 60;
+
+    private final Map<String, Long> lastReads = new ConcurrentHashMap<>();
+
+    void touch(String app, long nowMs) {
+        lastReads.put(app, nowMs);
+    }
+
+    /**
+     * @return time of the last query of the app, {@code 0} if never queried
+     */
+    long get(String app) {
+        Long lastRead = lastReads.get(app);
+        return lastRead == null ? 0 : lastRead;
+    }
+
+    void remove(String app) {
+        lastReads.remove(app);
+    }
+
+    /**
+     * @param bytesOfApps estimate of the heap used by the metrics of each app
+     * @return the apps not being viewed, least recently queried first, then the largest first
+     */
+    List<String> coldestFirst(Map<String, Long> bytesOfApps, long nowMs) {
+        // a snapshot, so that the order holds while the apps are queried
+        Map<String, Long> lastReadOfApps = new HashMap<>(bytesOfApps.size());
+        for (String app : bytesOfApps.keySet()) {
+            long lastRead = get(app);
+            if (nowMs - lastRead >= VIEWED_MS) {
+                lastReadOfApps.put(app, lastRead);
+            }
+        }
+        List<String> apps = new ArrayList<>(lastReadOfApps.keySet());
+        apps.sort(Comparator.<String>comparingLong(lastReadOfApps::get)
+            .thenComparing(Comparator.<String>comparingLong(bytesOfApps::get).reversed()));
+        return apps;
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright 1999-2018 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.repository.metric;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Versions of the metrics of each app, see {@link MetricsRepository#versionOfApp(String)}.
+ * <p>
+ * A version is bumped once the metrics are written. It is set, rather than raised, to a fresh number: every
+ * number is used by a single writer, so a version seen before a concurrent write is never seen again once that
+ * write completed, whichever writer sets its version last.
+ * </p>
+ */
+final class AppVersions {
+
+    private final Map<String, Long> versions = new ConcurrentHashMap<>();
+    private final AtomicLong nextVersion = new AtomicLong();
+
+    void bump(String app) {
+        versions.put(app, nextVersion.incrementAndGet());
+    }
+
+    /**
+     * Bump the previous app of a batch once the batch moves on to another app, so a batch written app by app
+     * bumps each app once. The last app is left to the caller.
+     *
+     * @return the current app
+     */
+    String bumpOnAppChange(String previousApp, String app) {
+        if (previousApp != null && !previousApp.equals(app)) {
+            bump(previousApp);
+        }
+        return app;
+    }
+
+    /**
+     * @return version of the app, {@code 0} if none was written
+     */
+    long get(String app) {
+        Long version = versions.get(app);
+        return version == null ? 0 : version;
+    }
+}
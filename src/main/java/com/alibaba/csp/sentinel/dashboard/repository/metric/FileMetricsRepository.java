@@ -0,0 +1,308 @@
+/*
+ * Copyright 1999-2018 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.repository.metric;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PreDestroy;
+
+import com.alibaba.csp.sentinel.concurrent.NamedThreadFactory;
+import com.alibaba.csp.sentinel.dashboard.config.DashboardConfig;
+import com.alibaba.csp.sentinel.dashboard.datasource.entity.MetricEntity;
+import com.alibaba.csp.sentinel.util.StringUtil;
+import com.alibaba.csp.sentinel.util.TimeUtil;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+/**
+ * <p>Persists metrics in compressed, append-only segment files on local disk.</p>
+ * <p>
+ * Metric history survives restarts and is bounded by {@link DashboardConfig#getMetricFileRetentionDays()}
+ * rather than by the heap, see {@link MetricSegmentStore}. The recent points are also kept in a small
+ * {@link RingBufferMetricsRepository} to rank resources of the last minute.
+ * </p>
+ */
+@Component
+@ConditionalOnProperty(name = DashboardConfig.CONFIG_METRIC_REPOSITORY, havingValue = "file")
+public class FileMetricsRepository implements MetricsRepository<MetricEntity> {
+
+    private static final Logger logger = LoggerFactory.getLogger(FileMetricsRepository.class);
+
+    private static final long SEGMENT_MILLIS = 60 * 60 * 1000;
+    private static final int BLOCK_POINTS = 60;
+    private static final int FLUSH_INTERVAL_SECONDS = 10;
+
+    private final MetricSegmentStore store;
+    private final RingBufferMetricsRepository recent = new RingBufferMetricsRepository(
+        new MetricTier[] {new MetricTier(1, MetricSeries.RANK_WINDOW_SECONDS * 2)});
+    private final AppVersions versions = new AppVersions();
+
+    @SuppressWarnings("PMD.ThreadPoolCreationRule")
+    private final ScheduledExecutorService flushService = Executors.newScheduledThreadPool(1,
+        new NamedThreadFactory("sentinel-dashboard-metrics-segment-flush", true));
+
+    public FileMetricsRepository() throws IOException {
+        this(new MetricSegmentStore(Paths.get(DashboardConfig.getMetricFileDir()), SEGMENT_MILLIS,
+            DashboardConfig.getMetricFileRetentionDays() * 24L * 60 * 60, BLOCK_POINTS));
+        flushService.scheduleAtFixedRate(() -> {
+            long now = TimeUtil.currentTimeMillis();
+            try {
+                store.flush(now);
+                store.expire(now / 1000);
+            } catch (Throwable e) {
+                logger.error("Failed to flush metric segments", e);
+            }
+        }, FLUSH_INTERVAL_SECONDS, FLUSH_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    FileMetricsRepository(MetricSegmentStore store) {
+        this.store = store;
+    }
+
+    @Override
+    public void save(MetricEntity entity) {
+        if (doSave(entity)) {
+            versions.bump(entity.getApp());
+        }
+    }
+
+    private boolean doSave(MetricEntity entity) {
+        if (entity == null || StringUtil.isBlank(entity.getApp()) || entity.getResource() == null
+            || entity.getTimestamp() == null) {
+            return false;
+        }
+        recent.save(entity);
+        try {
+            store.append(entity.getApp(), entity.getResource(), entity.getTimestamp().getTime() / 1000,
+                nullToZero(entity.getPassQps()), nullToZero(entity.getSuccessQps()),
+                nullToZero(entity.getBlockQps()), nullToZero(entity.getExceptionQps()), entity.getRt(),
+                entity.getCount(), TimeUtil.currentTimeMillis());
+        } catch (IOException e) {
+            logger.error("Failed to append metric of {}:{}", entity.getApp(), entity.getResource(), e);
+        }
+        return true;
+    }
+
+    @Override
+    public void saveAll(Iterable<MetricEntity> metrics) {
+        if (metrics == null) {
+            return;
+        }
+        String app = null;
+        for (MetricEntity entity : metrics) {
+            if (doSave(entity)) {
+                app = versions.bumpOnAppChange(app, entity.getApp());
+            }
+        }
+        if (app != null) {
+            versions.bump(app);
+        }
+    }
+
+    /**
+     * Segments are append-only: the stored points of each resource are read once over the range of the
+     * merged seconds, and the sums appended, the last write of a second winning.
+     */
+    @Override
+    public synchronized void mergeAll(Iterable<MetricEntity> metrics) {
+        if (metrics == null) {
+            return;
+        }
+        Map<String, Map<String, List<MetricEntity>>> byResource = new HashMap<>();
+        for (MetricEntity entity : metrics) {
+            if (entity == null || StringUtil.isBlank(entity.getApp()) || entity.getResource() == null
+                || entity.getTimestamp() == null) {
+                continue;
+            }
+            byResource.computeIfAbsent(entity.getApp(), k -> new HashMap<>())
+                .computeIfAbsent(entity.getResource(), k -> new ArrayList<>()).add(entity);
+        }
+        for (Map.Entry<String, Map<String, List<MetricEntity>>> app : byResource.entrySet()) {
+            for (Map.Entry<String, List<MetricEntity>> resource : app.getValue().entrySet()) {
+                mergeResource(app.getKey(), resource.getKey(), resource.getValue());
+            }
+            versions.bump(app.getKey());
+        }
+    }
+
+    private void mergeResource(String app, String resource, List<MetricEntity> entities) {
+        long startTime = Long.MAX_VALUE;
+        long endTime = Long.MIN_VALUE;
+        for (MetricEntity entity : entities) {
+            startTime = Math.min(startTime, entity.getTimestamp().getTime());
+            endTime = Math.max(endTime, entity.getTimestamp().getTime());
+        }
+        Map<Long, MetricEntity> stored = new HashMap<>();
+        for (MetricEntity entity : queryByAppAndResourceBetween(app, resource, startTime, endTime)) {
+            stored.put(entity.getTimestamp().getTime(), entity);
+        }
+        // several entities of the same second add up as well
+        Map<Long, MetricEntity> merged = new LinkedHashMap<>();
+        for (MetricEntity entity : entities) {
+            long timestamp = entity.getTimestamp().getTime();
+            MetricEntity old = merged.containsKey(timestamp) ? merged.get(timestamp) : stored.get(timestamp);
+            if (old == null) {
+                merged.put(timestamp, MetricEntity.copyOf(entity));
+            } else {
+                old.addMetric(entity);
+                old.setGmtModified(entity.getGmtModified());
+                merged.put(timestamp, old);
+            }
+        }
+        for (MetricEntity entity : merged.values()) {
+            doSave(entity);
+        }
+    }
+
+    @Override
+    public List<MetricEntity> queryByAppAndResourceBetween(String app, String resource,
+                                                           long startTime, long endTime) {
+        List<MetricEntity> results = new ArrayList<>();
+        if (StringUtil.isBlank(app) || resource == null) {
+            return results;
+        }
+        try {
+            store.forEach(app, resource, (startTime + 999) / 1000, endTime / 1000,
+                (second, passQps, successQps, blockQps, exceptionQps, rt, count) -> {
+                    MetricEntity entity = new MetricEntity();
+                    Date timestamp = new Date(second * 1000);
+                    entity.setApp(app);
+                    entity.setResource(resource);
+                    entity.setTimestamp(timestamp);
+                    entity.setGmtCreate(timestamp);
+                    entity.setGmtModified(timestamp);
+                    entity.setPassQps(passQps);
+                    entity.setSuccessQps(successQps);
+                    entity.setBlockQps(blockQps);
+                    entity.setExceptionQps(exceptionQps);
+                    entity.setRt(rt);
+                    entity.setCount(count);
+                    results.add(entity);
+                });
+        } catch (IOException e) {
+            logger.error("Failed to read metrics of {}:{}", app, resource, e);
+            return new ArrayList<>();
+        }
+        // Points come in write order: sort by time and keep the last one written for each second.
+        results.sort(Comparator.comparing(MetricEntity::getTimestamp));
+        List<MetricEntity> deduplicated = new ArrayList<>(results.size());
+        for (int i = 0; i < results.size(); i++) {
+            if (i + 1 < results.size() && results.get(i + 1).getTimestamp().equals(results.get(i).getTimestamp())) {
+                continue;
+            }
+            deduplicated.add(results.get(i));
+        }
+        return deduplicated;
+    }
+
+    @Override
+    public void queryByAppAndResourcesBetween(String app, List<String> resources, long startTime, long endTime,
+                                              Executor executor, MetricSeriesVisitor visitor) {
+        MetricSeriesQuery.run(resources, executor, (resource, out) -> MetricSeriesQuery.visitDistinct(resource,
+            queryByAppAndResourceBetween(app, resource, startTime, endTime), out), visitor);
+    }
+
+    @Override
+    public List<String> listResourcesOfApp(String app) {
+        return recent.listResourcesOfApp(app);
+    }
+
+    @Override
+    public List<String> listTopResourcesOfApp(String app, String searchKey, int offset, int limit, boolean desc) {
+        return recent.listTopResourcesOfApp(app, searchKey, offset, limit, desc);
+    }
+
+    @Override
+    public int countResourcesOfApp(String app, String searchKey) {
+        return recent.countResourcesOfApp(app, searchKey);
+    }
+
+    /**
+     * Only the recent points are removed, the segments keep the older ones until their retention.
+     */
+    @Override
+    public void removeResourcesOfApp(String app, Collection<String> resources) {
+        recent.removeResourcesOfApp(app, resources);
+    }
+
+    @Override
+    public ResourceSearchIndex resourceIndexOf(String app) {
+        return recent.resourceIndexOf(app);
+    }
+
+    /**
+     * Bumped once the points are appended to the segments, which queries read, rather than to the recent ones.
+     */
+    @Override
+    public long versionOfApp(String app) {
+        if (StringUtil.isBlank(app)) {
+            return -1;
+        }
+        return versions.get(app);
+    }
+
+    /**
+     * Only the recent points are held in memory, the older ones are in the segment files.
+     */
+    @Override
+    public long countSeries() {
+        return recent.countSeries();
+    }
+
+    @Override
+    public long countPoints() {
+        return recent.countPoints();
+    }
+
+    @Override
+    public List<MetricAppFootprint> footprintOfApps(int topResources) {
+        return recent.footprintOfApps(topResources);
+    }
+
+    /**
+     * Only the recent points are trimmed, the segments are bounded by their retention rather than the budget.
+     */
+    @Override
+    public long trimToBudget(long budgetBytes) {
+        return recent.trimToBudget(budgetBytes);
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        flushService.shutdown();
+        store.close();
+    }
+
+    private static long nullToZero(Long value) {
+        return value == null ? 0 : value;
+    }
+}
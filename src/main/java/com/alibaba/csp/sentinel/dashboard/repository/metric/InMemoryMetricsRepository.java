@@ -15,18 +15,22 @@
  */
 package com.alibaba.csp.sentinel.dashboard.repository.metric;
 
+import com.alibaba.csp.sentinel.dashboard.config.DashboardConfig;
 import com.alibaba.csp.sentinel.dashboard.datasource.entity.MetricEntity;
 import com.alibaba.csp.sentinel.util.StringUtil;
 import com.alibaba.csp.sentinel.util.TimeUtil;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.stereotype.Component;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.stream.Collectors;
 
@@ -37,9 +41,18 @@ import java.util.stream.Collectors;
  * @author Eric Zhao
  */
 @Component
+@ConditionalOnProperty(name = DashboardConfig.CONFIG_METRIC_REPOSITORY, havingValue = "memory")
 public class InMemoryMetricsRepository implements MetricsRepository<MetricEntity> {
 
     private static final long MAX_METRIC_LIVE_TIME_MS = 1000 * 60 * 5;
+    /**
+     * Bytes of a point: the entity, its dates and counters, and its entry in the map of its series.
+     */
+    private static final int POINT_BYTES = 264;
+    /**
+     * Bytes of a series: its map and its entry in the map of its app.
+     */
+    private static final int SERIES_BYTES = 96;
 
     /**
      * {@code app -> resource -> timestamp -> metric}
@@ -48,6 +61,12 @@ public class InMemoryMetricsRepository implements MetricsRepository<MetricEntity
 
     private final ReentrantReadWriteLock readWriteLock = new ReentrantReadWriteLock();
 
+    private final AppVersions versions = new AppVersions();
+
+    private final AppReads reads = new AppReads();
+
+    private final MetricNameDictionary appNames = MetricNameDictionary.shared();
+
 
     @Override
     public void save(MetricEntity entity) {
@@ -56,14 +75,25 @@ public class InMemoryMetricsRepository implements MetricsRepository<MetricEntity
         }
         readWriteLock.writeLock().lock();
         try {
-            allMetrics.computeIfAbsent(entity.getApp(), e -> new HashMap<>(16))
-                    .computeIfAbsent(entity.getResource(), e -> new LinkedHashMap<Long, MetricEntity>() {
-                        @Override
-                        protected boolean removeEldestEntry(Entry<Long, MetricEntity> eldest) {
-                            // Metric older than {@link #MAX_METRIC_LIVE_TIME_MS} will be removed.
-                            return eldest.getKey() < TimeUtil.currentTimeMillis() - MAX_METRIC_LIVE_TIME_MS;
-                        }
-                    }).put(entity.getTimestamp().getTime(), entity);
+            // the keys are the single instance of each name, interned as they are added
+            Map<String, LinkedHashMap<Long, MetricEntity>> resourceMap = allMetrics.get(entity.getApp());
+            if (resourceMap == null) {
+                resourceMap = new HashMap<>(16);
+                allMetrics.put(appNames.intern(entity.getApp()), resourceMap);
+            }
+            LinkedHashMap<Long, MetricEntity> metrics = resourceMap.get(entity.getResource());
+            if (metrics == null) {
+                metrics = new LinkedHashMap<Long, MetricEntity>() {
+                    @Override
+                    protected boolean removeEldestEntry(Entry<Long, MetricEntity> eldest) {
+                        // Metric older than {@link #MAX_METRIC_LIVE_TIME_MS} will be removed.
+                        return eldest.getKey() < TimeUtil.currentTimeMillis() - MAX_METRIC_LIVE_TIME_MS;
+                    }
+                };
+                resourceMap.put(MetricNameDictionary.ofApp(entity.getApp()).intern(entity.getResource()), metrics);
+            }
+            metrics.put(entity.getTimestamp().getTime(), entity);
+            versions.bump(entity.getApp());
         } finally {
             readWriteLock.writeLock().unlock();
         }
@@ -83,6 +113,37 @@ public class InMemoryMetricsRepository implements MetricsRepository<MetricEntity
         }
     }
 
+    @Override
+    public void mergeAll(Iterable<MetricEntity> metrics) {
+        if (metrics == null) {
+            return;
+        }
+        readWriteLock.writeLock().lock();
+        try {
+            for (MetricEntity entity : metrics) {
+                if (entity == null || StringUtil.isBlank(entity.getApp())) {
+                    continue;
+                }
+                MetricEntity old = null;
+                Map<String, LinkedHashMap<Long, MetricEntity>> resourceMap = allMetrics.get(entity.getApp());
+                if (resourceMap != null && resourceMap.get(entity.getResource()) != null) {
+                    old = resourceMap.get(entity.getResource()).get(entity.getTimestamp().getTime());
+                }
+                if (old == null) {
+                    save(entity);
+                } else {
+                    // stored entities may be held by readers, replace rather than update in place
+                    MetricEntity merged = MetricEntity.copyOf(old);
+                    merged.addMetric(entity);
+                    merged.setGmtModified(entity.getGmtModified());
+                    save(merged);
+                }
+            }
+        } finally {
+            readWriteLock.writeLock().unlock();
+        }
+    }
+
     @Override
     public List<MetricEntity> queryByAppAndResourceBetween(String app, String resource,
                                                            long startTime, long endTime) {
@@ -90,16 +151,17 @@ public class InMemoryMetricsRepository implements MetricsRepository<MetricEntity
         if (StringUtil.isBlank(app)) {
             return results;
         }
-        Map<String, LinkedHashMap<Long, MetricEntity>> resourceMap = allMetrics.get(app);
-        if (resourceMap == null) {
-            return results;
-        }
-        LinkedHashMap<Long, MetricEntity> metricsMap = resourceMap.get(resource);
-        if (metricsMap == null) {
-            return results;
-        }
+        reads.touch(app, TimeUtil.currentTimeMillis());
         readWriteLock.readLock().lock();
         try {
+            Map<String, LinkedHashMap<Long, MetricEntity>> resourceMap = allMetrics.get(app);
+            if (resourceMap == null) {
+                return results;
+            }
+            LinkedHashMap<Long, MetricEntity> metricsMap = resourceMap.get(resource);
+            if (metricsMap == null) {
+                return results;
+            }
             for (Entry<Long, MetricEntity> entry : metricsMap.entrySet()) {
                 if (entry.getKey() >= startTime && entry.getKey() <= endTime) {
                     results.add(entry.getValue());
@@ -111,22 +173,30 @@ public class InMemoryMetricsRepository implements MetricsRepository<MetricEntity
         }
     }
 
+    @Override
+    public void queryByAppAndResourcesBetween(String app, List<String> resources, long startTime, long endTime,
+                                              Executor executor, MetricSeriesVisitor visitor) {
+        MetricSeriesQuery.run(resources, executor, (resource, out) -> MetricSeriesQuery.visitDistinct(resource,
+            queryByAppAndResourceBetween(app, resource, startTime, endTime), out), visitor);
+    }
+
     @Override
     public List<String> listResourcesOfApp(String app) {
         List<String> results = new ArrayList<>();
         if (StringUtil.isBlank(app)) {
             return results;
         }
-        // resource -> timestamp -> metric
-        Map<String, LinkedHashMap<Long, MetricEntity>> resourceMap = allMetrics.get(app);
-        if (resourceMap == null) {
-            return results;
-        }
+        reads.touch(app, TimeUtil.currentTimeMillis());
         final long minTimeMs = System.currentTimeMillis() - 1000 * 60;
         Map<String, MetricEntity> resourceCount = new ConcurrentHashMap<>(32);
 
         readWriteLock.readLock().lock();
         try {
+            // resource -> timestamp -> metric
+            Map<String, LinkedHashMap<Long, MetricEntity>> resourceMap = allMetrics.get(app);
+            if (resourceMap == null) {
+                return results;
+            }
             for (Entry<String, LinkedHashMap<Long, MetricEntity>> resourceMetrics : resourceMap.entrySet()) {
                 for (Entry<Long, MetricEntity> metrics : resourceMetrics.getValue().entrySet()) {
                     if (metrics.getKey() < minTimeMs) {
@@ -163,4 +233,133 @@ public class InMemoryMetricsRepository implements MetricsRepository<MetricEntity
             readWriteLock.readLock().unlock();
         }
     }
+
+    @Override
+    public void removeResourcesOfApp(String app, Collection<String> resources) {
+        if (StringUtil.isBlank(app)) {
+            return;
+        }
+        readWriteLock.writeLock().lock();
+        try {
+            Map<String, LinkedHashMap<Long, MetricEntity>> resourceMap = allMetrics.get(app);
+            if (resourceMap != null) {
+                MetricNameDictionary resourceNames = MetricNameDictionary.ofApp(app);
+                for (String resource : resources) {
+                    if (resourceMap.remove(resource) != null) {
+                        resourceNames.remove(resource);
+                    }
+                }
+                versions.bump(app);
+            }
+        } finally {
+            readWriteLock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public long versionOfApp(String app) {
+        if (StringUtil.isBlank(app)) {
+            return -1;
+        }
+        return versions.get(app);
+    }
+
+    @Override
+    public long countSeries() {
+        readWriteLock.readLock().lock();
+        try {
+            long series = 0;
+            for (Map<String, LinkedHashMap<Long, MetricEntity>> resourceMap : allMetrics.values()) {
+                series += resourceMap.size();
+            }
+            return series;
+        } finally {
+            readWriteLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public long countPoints() {
+        readWriteLock.readLock().lock();
+        try {
+            long points = 0;
+            for (Map<String, LinkedHashMap<Long, MetricEntity>> resourceMap : allMetrics.values()) {
+                for (LinkedHashMap<Long, MetricEntity> metrics : resourceMap.values()) {
+                    points += metrics.size();
+                }
+            }
+            return points;
+        } finally {
+            readWriteLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<MetricAppFootprint> footprintOfApps(int topResources) {
+        List<MetricAppFootprint> footprints = new ArrayList<>();
+        readWriteLock.readLock().lock();
+        try {
+            for (Entry<String, Map<String, LinkedHashMap<Long, MetricEntity>>> entry : allMetrics.entrySet()) {
+                Map<String, Long> pointsOfResources = new HashMap<>(entry.getValue().size());
+                long points = 0;
+                for (Entry<String, LinkedHashMap<Long, MetricEntity>> metrics : entry.getValue().entrySet()) {
+                    pointsOfResources.put(metrics.getKey(), (long)metrics.getValue().size());
+                    points += metrics.getValue().size();
+                }
+                footprints.add(new MetricAppFootprint(entry.getKey(), pointsOfResources.size(), points,
+                    estimateBytes(pointsOfResources.size(), points), reads.get(entry.getKey()),
+                    MetricAppFootprint.topResourcesOf(pointsOfResources, topResources)));
+            }
+        } finally {
+            readWriteLock.readLock().unlock();
+        }
+        footprints.sort(MetricAppFootprint.LARGEST_FIRST);
+        return footprints;
+    }
+
+    /**
+     * There are no coarser tiers to downsample to, the cold apps are removed.
+     */
+    @Override
+    public long trimToBudget(long budgetBytes) {
+        readWriteLock.writeLock().lock();
+        try {
+            Map<String, Long> bytesOfApps = new HashMap<>(allMetrics.size());
+            long total = 0;
+            for (Entry<String, Map<String, LinkedHashMap<Long, MetricEntity>>> entry : allMetrics.entrySet()) {
+                long bytes = estimateBytes(entry.getValue());
+                bytesOfApps.put(entry.getKey(), bytes);
+                total += bytes;
+            }
+            long freed = 0;
+            if (total <= budgetBytes) {
+                return freed;
+            }
+            for (String app : reads.coldestFirst(bytesOfApps, TimeUtil.currentTimeMillis())) {
+                if (total - freed <= budgetBytes) {
+                    break;
+                }
+                allMetrics.remove(app);
+                versions.bump(app);
+                reads.remove(app);
+                MetricNameDictionary.removeApp(app);
+                freed += bytesOfApps.get(app);
+            }
+            return freed;
+        } finally {
+            readWriteLock.writeLock().unlock();
+        }
+    }
+
+    private static long estimateBytes(Map<String, LinkedHashMap<Long, MetricEntity>> resourceMap) {
+        long points = 0;
+        for (LinkedHashMap<Long, MetricEntity> metrics : resourceMap.values()) {
+            points += metrics.size();
+        }
+        return estimateBytes(resourceMap.size(), points);
+    }
+
+    private static long estimateBytes(long series, long points) {
+        return series * SERIES_BYTES + points * POINT_BYTES;
+    }
 }
@@ -0,0 +1,127 @@
+/*
+ * Copyright 1999-2018 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.repository.metric;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Snapshot of the memory held by the metrics of an app in a repository, see
+ * {@link MetricsRepository#footprintOfApps(int)}.
+ */
+public class MetricAppFootprint {
+
+    static final Comparator<MetricAppFootprint> LARGEST_FIRST = Comparator
+        .comparingLong(MetricAppFootprint::getEstimatedBytes).reversed()
+        .thenComparing(MetricAppFootprint::getApp);
+
+    private final String app;
+    private final long series;
+    private final long points;
+    private final long estimatedBytes;
+    private final long lastReadMs;
+    private final Map<String, Long> topResources;
+
+    MetricAppFootprint(String app, long series, long points, long estimatedBytes, long lastReadMs,
+                       Map<String, Long> topResources) {
+        this.app = app;
+        this.series = series;
+        this.points = points;
+        this.estimatedBytes = estimatedBytes;
+        this.lastReadMs = lastReadMs;
+        this.topResources = topResources;
+    }
+
+    public String getApp() {
+        return app;
+    }
+
+    public long getSeries() {
+        return series;
+    }
+
+    /**
+     * @return number of points kept, over all tiers
+     */
+    public long getPoints() {
+        return points;
+    }
+
+    /**
+     * @return estimate of the heap used by the metrics of the app
+     */
+    public long getEstimatedBytes() {
+        return estimatedBytes;
+    }
+
+    /**
+     * @return time of the last query of the metrics of the app, {@code 0} if never queried
+     */
+    public long getLastReadMs() {
+        return lastReadMs;
+    }
+
+    /**
+     * @return {@code resource -> points} of the resources with the most points, the most first
+     */
+    public Map<String, Long> getTopResources() {
+        return topResources;
+    }
+
+    /**
+     * @return {@code resource -> points} of the given number of resources with the most points, the most first
+     */
+    static Map<String, Long> topResourcesOf(Map<String, Long> pointsOfResources, int limit) {
+        Comparator<Map.Entry<String, Long>> most = Map.Entry.<String, Long>comparingByValue().reversed()
+            .thenComparing(Map.Entry.comparingByKey());
+        Map<String, Long> top = new LinkedHashMap<>();
+        if (limit <= 0) {
+            return top;
+        }
+        // The heap head is the least of the kept resources.
+        PriorityQueue<Map.Entry<String, Long>> heap = new PriorityQueue<>(Math.min(limit, 1024), most.reversed());
+        for (Map.Entry<String, Long> entry : pointsOfResources.entrySet()) {
+            if (heap.size() < limit) {
+                heap.offer(entry);
+            } else if (most.compare(entry, heap.peek()) < 0) {
+                heap.poll();
+                heap.offer(entry);
+            }
+        }
+        List<Map.Entry<String, Long>> sorted = new ArrayList<>(heap);
+        sorted.sort(most);
+        for (Map.Entry<String, Long> entry : sorted) {
+            top.put(entry.getKey(), entry.getValue());
+        }
+        return top;
+    }
+
+    @Override
+    public String toString() {
+        return "MetricAppFootprint{" +
+            "app='" + app + '\'' +
+            ", series=" + series +
+            ", points=" + points +
+            ", estimatedBytes=" + estimatedBytes +
+            ", lastReadMs=" + lastReadMs +
+            ", topResources=" + topResources +
+            '}';
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 1999-2018 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.repository.metric;
+
+import java.util.Arrays;
+
+/**
+ * Points of a single series not yet written to a segment file, kept in write order as columns.
+ * <p>This class is not thread-safe, callers must guard it.</p>
+ */
+final class MetricBlock {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private long[] seconds = new long[INITIAL_CAPACITY];
+    private long[] passQps = new long[INITIAL_CAPACITY];
+    private long[] successQps = new long[INITIAL_CAPACITY];
+    private long[] blockQps = new long[INITIAL_CAPACITY];
+    private long[] exceptionQps = new long[INITIAL_CAPACITY];
+    private double[] rt = new double[INITIAL_CAPACITY];
+    private int[] count = new int[INITIAL_CAPACITY];
+    private int size;
+    private long minSecond = Long.MAX_VALUE;
+    private long maxSecond = Long.MIN_VALUE;
+
+    void add(long second, long pass, long success, long block, long exception, double rtSum, int cnt) {
+        if (size == seconds.length) {
+            int capacity = size * 2;
+            seconds = Arrays.copyOf(seconds, capacity);
+            passQps = Arrays.copyOf(passQps, capacity);
+            successQps = Arrays.copyOf(successQps, capacity);
+            blockQps = Arrays.copyOf(blockQps, capacity);
+            exceptionQps = Arrays.copyOf(exceptionQps, capacity);
+            rt = Arrays.copyOf(rt, capacity);
+            count = Arrays.copyOf(count, capacity);
+        }
+        seconds[size] = second;
+        passQps[size] = pass;
+        successQps[size] = success;
+        blockQps[size] = block;
+        exceptionQps[size] = exception;
+        rt[size] = rtSum;
+        count[size] = cnt;
+        size++;
+        minSecond = Math.min(minSecond, second);
+        maxSecond = Math.max(maxSecond, second);
+    }
+
+    /**
+     * Visit the points within {@code [startSecond, endSecond]} in write order.
+     */
+    void forEach(long startSecond, long endSecond, MetricRing.Visitor visitor) {
+        if (size == 0 || maxSecond < startSecond || minSecond > endSecond) {
+            return;
+        }
+        for (int i = 0; i < size; i++) {
+            if (seconds[i] >= startSecond && seconds[i] <= endSecond) {
+                visitor.visit(seconds[i], passQps[i], successQps[i], blockQps[i], exceptionQps[i], rt[i], count[i]);
+            }
+        }
+    }
+
+    void clear() {
+        size = 0;
+        minSecond = Long.MAX_VALUE;
+        maxSecond = Long.MIN_VALUE;
+    }
+
+    int size() {
+        return size;
+    }
+
+    long getMinSecond() {
+        return minSecond;
+    }
+
+    long getMaxSecond() {
+        return maxSecond;
+    }
+
+    long secondAt(int i) {
+        return seconds[i];
+    }
+
+    long passQpsAt(int i) {
+        return passQps[i];
+    }
+
+    long successQpsAt(int i) {
+        return successQps[i];
+    }
+
+    long blockQpsAt(int i) {
+        return blockQps[i];
+    }
+
+    long exceptionQpsAt(int i) {
+        return exceptionQps[i];
+    }
+
+    double rtAt(int i) {
+        return rt[i];
+    }
+
+    int countAt(int i) {
+        return count[i];
+    }
+}
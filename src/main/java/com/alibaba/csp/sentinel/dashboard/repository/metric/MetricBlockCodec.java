@@ -0,0 +1,289 @@
+/*
+ * Copyright 1999-2018 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.repository.metric;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * <p>Binary format of a block of points of one series in a segment file.</p>
+ * <p>
+ * A block is framed as {@code [int payloadLength][int crc32][payload]}, the payload being:
+ * </p>
+ * <pre>
+ * varint appLength, app (UTF-8), varint resourceLength, resource (UTF-8)
+ * varint points, varlong minSecond, varlong maxSecond
+ * seconds:   first second, then the first delta, then delta-of-deltas (zigzag varints)
+ * pass, success, block and exception qps: deltas from the previous point (zigzag varints)
+ * rt:        bits XOR the bits of the previous point, bit-reversed (varlong)
+ * count:     deltas from the previous point (zigzag varints)
+ * </pre>
+ * <p>
+ * Points are reported every second with slowly changing counters, so most deltas, and nearly all
+ * delta-of-deltas of the seconds, fit in a single byte.
+ * </p>
+ */
+final class MetricBlockCodec {
+
+    static final int FRAME_HEADER_BYTES = 8;
+
+    static byte[] encode(String app, String resource, MetricBlock block) {
+        Output out = new Output(64 + block.size() * 8);
+        out.writeString(app);
+        out.writeString(resource);
+        int n = block.size();
+        out.writeVarLong(n);
+        out.writeVarLong(block.getMinSecond());
+        out.writeVarLong(block.getMaxSecond());
+
+        long prevSecond = 0;
+        long prevDelta = 0;
+        for (int i = 0; i < n; i++) {
+            long second = block.secondAt(i);
+            if (i == 0) {
+                out.writeVarLong(second);
+            } else {
+                long delta = second - prevSecond;
+                out.writeZigZag(i == 1 ? delta : delta - prevDelta);
+                prevDelta = delta;
+            }
+            prevSecond = second;
+        }
+        long prev = 0;
+        for (int i = 0; i < n; i++) {
+            out.writeZigZag(block.passQpsAt(i) - prev);
+            prev = block.passQpsAt(i);
+        }
+        prev = 0;
+        for (int i = 0; i < n; i++) {
+            out.writeZigZag(block.successQpsAt(i) - prev);
+            prev = block.successQpsAt(i);
+        }
+        prev = 0;
+        for (int i = 0; i < n; i++) {
+            out.writeZigZag(block.blockQpsAt(i) - prev);
+            prev = block.blockQpsAt(i);
+        }
+        prev = 0;
+        for (int i = 0; i < n; i++) {
+            out.writeZigZag(block.exceptionQpsAt(i) - prev);
+            prev = block.exceptionQpsAt(i);
+        }
+        prev = 0;
+        for (int i = 0; i < n; i++) {
+            long bits = Double.doubleToLongBits(block.rtAt(i));
+            // Close values share the sign, exponent and high mantissa bits, integral ones also
+            // end with zero bits: reversed, the XOR is a small number.
+            out.writeVarLong(Long.reverse(bits ^ prev));
+            prev = bits;
+        }
+        prev = 0;
+        for (int i = 0; i < n; i++) {
+            out.writeZigZag(block.countAt(i) - prev);
+            prev = block.countAt(i);
+        }
+        return out.toFrame();
+    }
+
+    /**
+     * Read the header of the frame starting at the position of given buffer, and move the position
+     * to the next frame.
+     *
+     * @return the header, or null if the frame is truncated or corrupted
+     */
+    static Header readHeader(ByteBuffer buffer) {
+        int offset = buffer.position();
+        if (buffer.remaining() < FRAME_HEADER_BYTES) {
+            return null;
+        }
+        int length = buffer.getInt();
+        int crc = buffer.getInt();
+        if (length <= 0 || length > buffer.remaining()) {
+            return null;
+        }
+        ByteBuffer payload = buffer.slice();
+        payload.limit(length);
+        CRC32 crc32 = new CRC32();
+        crc32.update(payload.duplicate());
+        if ((int)crc32.getValue() != crc) {
+            return null;
+        }
+        try {
+            String app = readString(payload);
+            String resource = readString(payload);
+            int points = (int)readVarLong(payload);
+            long minSecond = readVarLong(payload);
+            long maxSecond = readVarLong(payload);
+            buffer.position(buffer.position() + length);
+            return new Header(app, resource, points, minSecond, maxSecond, offset, FRAME_HEADER_BYTES + length);
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Visit the points within {@code [startSecond, endSecond]} of the frame starting at the position
+     * of given buffer, in write order.
+     */
+    static void decode(ByteBuffer frame, long startSecond, long endSecond, MetricRing.Visitor visitor) {
+        frame.position(frame.position() + FRAME_HEADER_BYTES);
+        skipString(frame);
+        skipString(frame);
+        int n = (int)readVarLong(frame);
+        readVarLong(frame);
+        readVarLong(frame);
+
+        long[] seconds = new long[n];
+        long delta = 0;
+        for (int i = 0; i < n; i++) {
+            if (i == 0) {
+                seconds[i] = readVarLong(frame);
+            } else {
+                delta = i == 1 ? readZigZag(frame) : delta + readZigZag(frame);
+                seconds[i] = seconds[i - 1] + delta;
+            }
+        }
+        long[] passQps = readDeltas(frame, n);
+        long[] successQps = readDeltas(frame, n);
+        long[] blockQps = readDeltas(frame, n);
+        long[] exceptionQps = readDeltas(frame, n);
+        double[] rt = new double[n];
+        long bits = 0;
+        for (int i = 0; i < n; i++) {
+            bits ^= Long.reverse(readVarLong(frame));
+            rt[i] = Double.longBitsToDouble(bits);
+        }
+        long[] count = readDeltas(frame, n);
+        for (int i = 0; i < n; i++) {
+            if (seconds[i] >= startSecond && seconds[i] <= endSecond) {
+                visitor.visit(seconds[i], passQps[i], successQps[i], blockQps[i], exceptionQps[i], rt[i],
+                    (int)count[i]);
+            }
+        }
+    }
+
+    private static long[] readDeltas(ByteBuffer in, int n) {
+        long[] values = new long[n];
+        long prev = 0;
+        for (int i = 0; i < n; i++) {
+            prev += readZigZag(in);
+            values[i] = prev;
+        }
+        return values;
+    }
+
+    private static String readString(ByteBuffer in) {
+        int length = (int)readVarLong(in);
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void skipString(ByteBuffer in) {
+        int length = (int)readVarLong(in);
+        in.position(in.position() + length);
+    }
+
+    private static long readZigZag(ByteBuffer in) {
+        long v = readVarLong(in);
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    private static long readVarLong(ByteBuffer in) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.get();
+            value |= (long)(b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalStateException("Malformed varint");
+    }
+
+    /**
+     * Header of a block, with the position of its frame in the segment file.
+     */
+    static final class Header {
+
+        final String app;
+        final String resource;
+        final int points;
+        final long minSecond;
+        final long maxSecond;
+        final int offset;
+        final int length;
+
+        Header(String app, String resource, int points, long minSecond, long maxSecond, int offset, int length) {
+            this.app = app;
+            this.resource = resource;
+            this.points = points;
+            this.minSecond = minSecond;
+            this.maxSecond = maxSecond;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    private static final class Output {
+
+        private byte[] buf;
+        private int size = FRAME_HEADER_BYTES;
+
+        Output(int capacity) {
+            buf = new byte[Math.max(capacity, 64)];
+        }
+
+        void writeString(String value) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeVarLong(bytes.length);
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, buf, size, bytes.length);
+            size += bytes.length;
+        }
+
+        void writeZigZag(long value) {
+            writeVarLong((value << 1) ^ (value >> 63));
+        }
+
+        void writeVarLong(long value) {
+            ensure(10);
+            while ((value & ~0x7FL) != 0) {
+                buf[size++] = (byte)((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buf[size++] = (byte)value;
+        }
+
+        byte[] toFrame() {
+            int length = size - FRAME_HEADER_BYTES;
+            CRC32 crc32 = new CRC32();
+            crc32.update(buf, FRAME_HEADER_BYTES, length);
+            ByteBuffer.wrap(buf).putInt(length).putInt((int)crc32.getValue());
+            return Arrays.copyOf(buf, size);
+        }
+
+        private void ensure(int more) {
+            if (size + more > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(buf.length * 2, size + more));
+            }
+        }
+    }
+
+    private MetricBlockCodec() {}
+}
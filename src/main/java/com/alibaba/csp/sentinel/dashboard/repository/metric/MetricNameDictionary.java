@@ -0,0 +1,190 @@
+/*
+ * Copyright 1999-2018 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.repository.metric;
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.alibaba.csp.sentinel.dashboard.config.DashboardConfig;
+
+/**
+ * <p>
+ * Dictionary of the app names, or of the resource names of one app, of the metrics: each name gets a single
+ * instance and a stable, dense int id.
+ * </p>
+ * <p>
+ * Names are only added by the repositories, as the series they key are created, and removed with those series,
+ * so the names of resources folded by the fetch, or released to make room for others, never keep room. The keys of the repository are the single instance of each name, so
+ * lookups of that instance hit its cached hash code and the identity check of {@link String#equals(Object)}.
+ * The fetch aggregation keys on the names themselves, as names are added to the dictionary during a fetch.
+ * </p>
+ * <p>
+ * Each app has a dictionary of its own resources, see {@link #ofApp(String)}, so an app flooding distinct
+ * resources never takes ids away from the others, and its dictionary is dropped with the app. A dictionary is
+ * bounded, by {@link DashboardConfig#getMetricMaxNames()} names (65536 by default): once full, other names get
+ * {@link #NO_ID} and are used as they are until names are removed, so a flood of distinct names costs no more
+ * than without the dictionary. The ids of removed names are given to the next names added.
+ * </p>
+ */
+public final class MetricNameDictionary {
+
+    /**
+     * Id of the names not in the dictionary.
+     */
+    public static final int NO_ID = -1;
+
+    private static final MetricNameDictionary SHARED = new MetricNameDictionary(
+        DashboardConfig.getMetricMaxNames());
+    /**
+     * {@code app -> dictionary of the resources of the app}
+     */
+    private static final Map<String, MetricNameDictionary> APPS = new ConcurrentHashMap<>();
+
+    private final int capacity;
+    private final Map<String, Name> names = new ConcurrentHashMap<>();
+    private final AtomicInteger nextId = new AtomicInteger();
+    private final Queue<Integer> freeIds = new ConcurrentLinkedQueue<>();
+    private final LongAdder rejected = new LongAdder();
+
+    public MetricNameDictionary(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * @return the dictionary of the app names, shared by the fetch and the repositories
+     */
+    public static MetricNameDictionary shared() {
+        return SHARED;
+    }
+
+    /**
+     * @return the dictionary of the resource names of given app, shared by the fetch and the repositories
+     */
+    public static MetricNameDictionary ofApp(String app) {
+        MetricNameDictionary names = APPS.get(app);
+        if (names == null) {
+            names = APPS.computeIfAbsent(app, e -> new MetricNameDictionary(DashboardConfig.getMetricMaxNames()));
+        }
+        return names;
+    }
+
+    /**
+     * Drop the dictionary of the resource names of given app, once its metrics are gone.
+     */
+    public static void removeApp(String app) {
+        APPS.remove(app);
+    }
+
+    /**
+     * @return count of the names held by the dictionary of the app names and by those of the resource names
+     */
+    public static long countNames() {
+        long count = SHARED.size();
+        for (MetricNameDictionary names : APPS.values()) {
+            count += names.size();
+        }
+        return count;
+    }
+
+    /**
+     * @return count of the names not added because their dictionary was full, over all dictionaries
+     */
+    public static long countRejected() {
+        long count = SHARED.getRejected();
+        for (MetricNameDictionary names : APPS.values()) {
+            count += names.getRejected();
+        }
+        return count;
+    }
+
+    /**
+     * @return id of given name, {@link #NO_ID} if the name has not been added
+     */
+    public int idOf(String name) {
+        Name entry = name == null ? null : names.get(name);
+        return entry == null ? NO_ID : entry.id;
+    }
+
+    /**
+     * Add given name if not there yet.
+     *
+     * @return the instance of given name held by the dictionary, the given one if the dictionary is full
+     */
+    public String intern(String name) {
+        Name entry = lookup(name);
+        return entry == null ? name : entry.value;
+    }
+
+    /**
+     * Remove given name, once the series it keys are gone. A series created again keeps the instance it was
+     * created with, which is just not shared anymore.
+     */
+    public void remove(String name) {
+        Name entry = name == null ? null : names.remove(name);
+        if (entry != null) {
+            freeIds.add(entry.id);
+        }
+    }
+
+    public int size() {
+        return names.size();
+    }
+
+    /**
+     * @return count of lookups of names not added because the dictionary was full
+     */
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    private Name lookup(String name) {
+        if (name == null) {
+            return null;
+        }
+        Name entry = names.get(name);
+        if (entry != null) {
+            return entry;
+        }
+        if (nextId.get() >= capacity && freeIds.isEmpty()) {
+            rejected.increment();
+            return null;
+        }
+        entry = names.computeIfAbsent(name, e -> {
+            Integer freeId = freeIds.poll();
+            int id = freeId != null ? freeId : nextId.getAndIncrement();
+            return id < capacity ? new Name(name, id) : null;
+        });
+        if (entry == null) {
+            rejected.increment();
+        }
+        return entry;
+    }
+
+    private static final class Name {
+
+        final String value;
+        final int id;
+
+        Name(String value, int id) {
+            this.value = value;
+            this.id = id;
+        }
+    }
+}
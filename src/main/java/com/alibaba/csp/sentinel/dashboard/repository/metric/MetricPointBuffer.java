@@ -0,0 +1,90 @@
+/*
+ * Copyright 1999-2018 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.repository.metric;
+
+import java.util.Arrays;
+
+/**
+ * Points of one series, in primitive columns, for series read ahead or {@link MetricSeriesDownsampler downsampled}.
+ */
+final class MetricPointBuffer implements MetricSeriesVisitor {
+
+    private long[] longs = new long[6 * 64];
+    private double[] rt = new double[64];
+    private int[] count = new int[64];
+    private int size;
+
+    @Override
+    public void startSeries(String resource) {}
+
+    @Override
+    public void visitPoint(long timestamp, long gmtCreate, long passQps, long successQps, long blockQps,
+                           long exceptionQps, double rt, int count) {
+        if (size == this.rt.length) {
+            longs = Arrays.copyOf(longs, longs.length * 2);
+            this.rt = Arrays.copyOf(this.rt, size * 2);
+            this.count = Arrays.copyOf(this.count, size * 2);
+        }
+        int base = size * 6;
+        longs[base] = timestamp;
+        longs[base + 1] = gmtCreate;
+        longs[base + 2] = passQps;
+        longs[base + 3] = successQps;
+        longs[base + 4] = blockQps;
+        longs[base + 5] = exceptionQps;
+        this.rt[size] = rt;
+        this.count[size] = count;
+        size++;
+    }
+
+    @Override
+    public void endSeries(String resource) {}
+
+    int size() {
+        return size;
+    }
+
+    void clear() {
+        size = 0;
+    }
+
+    long timestampAt(int i) {
+        return longs[i * 6];
+    }
+
+    long passQpsAt(int i) {
+        return longs[i * 6 + 2];
+    }
+
+    long blockQpsAt(int i) {
+        return longs[i * 6 + 4];
+    }
+
+    void replay(MetricSeriesVisitor visitor) {
+        for (int i = 0; i < size; i++) {
+            replay(i, visitor);
+        }
+    }
+
+    /**
+     * Pass the point at given index to the visitor.
+     */
+    void replay(int i, MetricSeriesVisitor visitor) {
+        int base = i * 6;
+        visitor.visitPoint(longs[base], longs[base + 1], longs[base + 2], longs[base + 3], longs[base + 4],
+            longs[base + 5], rt[i], count[i]);
+    }
+}
@@ -0,0 +1,361 @@
+/*
+ * Copyright 1999-2018 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.repository.metric;
+
+import java.util.Arrays;
+
+/**
+ * <p>Columnar ring buffer holding the metrics of a single resource at a fixed resolution.</p>
+ * <p>
+ * Each counter is kept in its own primitive column and the bucket {@code second / resolution}
+ * lives in slot {@code bucket % capacity}, so saving is an array write and a range query is
+ * index arithmetic. The buffer starts small and doubles (up to {@code maxCapacity}) only when
+ * a bucket still within retention would be overwritten, so sparse resources do not pay for the
+ * whole retention window.
+ * </p>
+ * <p>
+ * A rollup ring (resolution above one second) also counts the seconds summed into each bucket,
+ * and reports per-second averages of all counters, the count of the summed metrics included, so that its
+ * points read like the per-second ones.
+ * </p>
+ * <p>This class is not thread-safe, callers must guard it.</p>
+ */
+class MetricRing {
+
+    private static final long EMPTY = -1L;
+    private static final int INITIAL_CAPACITY = 16;
+    /**
+     * Bytes of a slot over all columns: 5 longs, a double and an int, and an int more for rollup rings.
+     */
+    private static final int SLOT_BYTES = 8 * 6 + 4;
+    /**
+     * Bytes of the ring object and the headers of its arrays.
+     */
+    private static final int OVERHEAD_BYTES = 48 + 16 * 8;
+
+    private final int resolution;
+    /**
+     * Retention of the ring in buckets.
+     */
+    private final int maxCapacity;
+
+    private long[] buckets;
+    private long[] passQps;
+    private long[] successQps;
+    private long[] blockQps;
+    private long[] exceptionQps;
+    /**
+     * Sum of rt of all success qps, see {@code MetricEntity#rt}.
+     */
+    private double[] rt;
+    private int[] count;
+    /**
+     * Number of seconds summed into each bucket, only for rollup rings.
+     */
+    private int[] samples;
+
+    private long newestBucket = EMPTY;
+
+    MetricRing(int maxCapacity) {
+        this(1, maxCapacity);
+    }
+
+    MetricRing(int resolution, int maxCapacity) {
+        if (resolution <= 0) {
+            throw new IllegalArgumentException("resolution must > 0, but " + resolution);
+        }
+        if (maxCapacity <= 0) {
+            throw new IllegalArgumentException("maxCapacity must > 0, but " + maxCapacity);
+        }
+        this.resolution = resolution;
+        this.maxCapacity = maxCapacity;
+        allocate(Math.min(INITIAL_CAPACITY, maxCapacity));
+    }
+
+    /**
+     * Write the point of given second, replacing the previous point of the same bucket.
+     * Points older than the retention window (relative to the newest point) are dropped.
+     *
+     * @return true if the point is written
+     */
+    boolean put(long second, long pass, long success, long block, long exception, double rtSum, int cnt) {
+        int slot = acquire(second);
+        if (slot < 0) {
+            return false;
+        }
+        passQps[slot] = pass;
+        successQps[slot] = success;
+        blockQps[slot] = block;
+        exceptionQps[slot] = exception;
+        rt[slot] = rtSum;
+        count[slot] = cnt;
+        if (samples != null) {
+            samples[slot] = 1;
+        }
+        return true;
+    }
+
+    /**
+     * Add the deltas to the bucket of given second, starting a new bucket if it is absent.
+     *
+     * @return true if the deltas are added
+     */
+    boolean add(long second, long pass, long success, long block, long exception, double rtSum, int cnt,
+                int sampleCount) {
+        int slot = acquire(second);
+        if (slot < 0) {
+            return false;
+        }
+        passQps[slot] += pass;
+        successQps[slot] += success;
+        blockQps[slot] += block;
+        exceptionQps[slot] += exception;
+        rt[slot] += rtSum;
+        count[slot] += cnt;
+        if (samples != null) {
+            samples[slot] += sampleCount;
+        }
+        return true;
+    }
+
+    /**
+     * Visit the buckets starting within {@code [startSecond, endSecond]} in time order.
+     * The second passed to the visitor is the start of the bucket.
+     */
+    void forEach(long startSecond, long endSecond, Visitor visitor) {
+        if (newestBucket == EMPTY) {
+            return;
+        }
+        long from = Math.max(ceilDiv(startSecond, resolution), newestBucket - maxCapacity + 1);
+        long to = Math.min(Math.floorDiv(endSecond, resolution), newestBucket);
+        for (long bucket = from; bucket <= to; bucket++) {
+            int slot = slotOf(bucket);
+            if (buckets[slot] != bucket) {
+                continue;
+            }
+            int n = samples == null ? 1 : samples[slot];
+            if (n <= 1) {
+                visitor.visit(bucket * resolution, passQps[slot], successQps[slot], blockQps[slot],
+                    exceptionQps[slot], rt[slot], count[slot]);
+            } else {
+                visitor.visit(bucket * resolution, average(passQps[slot], n), average(successQps[slot], n),
+                    average(blockQps[slot], n), average(exceptionQps[slot], n), rt[slot] / n,
+                    (int)average(count[slot], n));
+            }
+        }
+    }
+
+    /**
+     * @return slot of the bucket of given second, or {@code -1} if absent
+     */
+    int indexOf(long second) {
+        if (second < 0) {
+            return -1;
+        }
+        long bucket = second / resolution;
+        int slot = slotOf(bucket);
+        return buckets[slot] == bucket ? slot : -1;
+    }
+
+    long passQpsAt(int slot) {
+        return passQps[slot];
+    }
+
+    long successQpsAt(int slot) {
+        return successQps[slot];
+    }
+
+    long blockQpsAt(int slot) {
+        return blockQps[slot];
+    }
+
+    long exceptionQpsAt(int slot) {
+        return exceptionQps[slot];
+    }
+
+    double rtAt(int slot) {
+        return rt[slot];
+    }
+
+    int countAt(int slot) {
+        return count[slot];
+    }
+
+    /**
+     * @return start second of the newest bucket, or {@code -1} if empty
+     */
+    long getNewestSecond() {
+        return newestBucket == EMPTY ? EMPTY : newestBucket * resolution;
+    }
+
+    int getResolution() {
+        return resolution;
+    }
+
+    int getMaxCapacity() {
+        return maxCapacity;
+    }
+
+    /**
+     * @return retention of the ring in seconds
+     */
+    long getRetentionSeconds() {
+        return (long)maxCapacity * resolution;
+    }
+
+    int capacity() {
+        return buckets.length;
+    }
+
+    /**
+     * @return estimate of the heap used by the ring, which depends on its capacity rather than its size
+     */
+    long estimateBytes() {
+        return OVERHEAD_BYTES + (long)buckets.length * (samples == null ? SLOT_BYTES : SLOT_BYTES + 4);
+    }
+
+    /**
+     * Drop all points and shrink back to the initial capacity.
+     */
+    void reset() {
+        allocate(Math.min(INITIAL_CAPACITY, maxCapacity));
+        newestBucket = EMPTY;
+    }
+
+    /**
+     * @return number of buckets within the retention window
+     */
+    int size() {
+        if (newestBucket == EMPTY) {
+            return 0;
+        }
+        int size = 0;
+        for (int slot = 0; slot < buckets.length; slot++) {
+            if (isLive(slot, newestBucket)) {
+                size++;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Find the slot for the bucket of given second, growing the ring or recycling an expired
+     * slot if needed.
+     *
+     * @return the slot, or {@code -1} if the second is out of retention
+     */
+    private int acquire(long second) {
+        if (second < 0) {
+            return -1;
+        }
+        long bucket = second / resolution;
+        long newest = Math.max(newestBucket, bucket);
+        if (bucket <= newest - maxCapacity) {
+            return -1;
+        }
+        int slot = slotOf(bucket);
+        while (isLive(slot, newest) && buckets[slot] != bucket && buckets.length < maxCapacity) {
+            grow(newest);
+            slot = slotOf(bucket);
+        }
+        if (buckets[slot] != bucket) {
+            clear(slot);
+            buckets[slot] = bucket;
+        }
+        newestBucket = newest;
+        return slot;
+    }
+
+    private boolean isLive(int slot, long newest) {
+        return buckets[slot] != EMPTY && buckets[slot] > newest - maxCapacity;
+    }
+
+    private int slotOf(long bucket) {
+        return (int)(bucket % buckets.length);
+    }
+
+    private void clear(int slot) {
+        passQps[slot] = 0;
+        successQps[slot] = 0;
+        blockQps[slot] = 0;
+        exceptionQps[slot] = 0;
+        rt[slot] = 0;
+        count[slot] = 0;
+        if (samples != null) {
+            samples[slot] = 0;
+        }
+    }
+
+    private void grow(long newest) {
+        long[] oldBuckets = buckets;
+        long[] oldPass = passQps;
+        long[] oldSuccess = successQps;
+        long[] oldBlock = blockQps;
+        long[] oldException = exceptionQps;
+        double[] oldRt = rt;
+        int[] oldCount = count;
+        int[] oldSamples = samples;
+
+        allocate((int)Math.min((long)oldBuckets.length * 2, maxCapacity));
+        for (int i = 0; i < oldBuckets.length; i++) {
+            if (oldBuckets[i] == EMPTY || oldBuckets[i] <= newest - maxCapacity) {
+                continue;
+            }
+            int slot = slotOf(oldBuckets[i]);
+            buckets[slot] = oldBuckets[i];
+            passQps[slot] = oldPass[i];
+            successQps[slot] = oldSuccess[i];
+            blockQps[slot] = oldBlock[i];
+            exceptionQps[slot] = oldException[i];
+            rt[slot] = oldRt[i];
+            count[slot] = oldCount[i];
+            if (samples != null) {
+                samples[slot] = oldSamples[i];
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        buckets = new long[capacity];
+        Arrays.fill(buckets, EMPTY);
+        passQps = new long[capacity];
+        successQps = new long[capacity];
+        blockQps = new long[capacity];
+        exceptionQps = new long[capacity];
+        rt = new double[capacity];
+        count = new int[capacity];
+        if (resolution > 1) {
+            samples = new int[capacity];
+        }
+    }
+
+    private static long average(long sum, int n) {
+        return Math.round((double)sum / n);
+    }
+
+    private static long ceilDiv(long x, long y) {
+        return -Math.floorDiv(-x, y);
+    }
+
+    /**
+     * Receives the columns of one point.
+     */
+    @FunctionalInterface
+    interface Visitor {
+        void visit(long second, long passQps, long successQps, long blockQps, long exceptionQps,
+                   double rt, int count);
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 1999-2018 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.repository.metric;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>A sealed segment file, memory-mapped read-only.</p>
+ * <p>
+ * The block index is built once when the segment is opened and never changes afterwards, so queries
+ * need no lock: each one decodes from its own view of the mapped buffer.
+ * </p>
+ */
+final class MetricSegment {
+
+    private final Path file;
+    private final ByteBuffer buffer;
+    /**
+     * {@code app -> resource -> blocks} in write order.
+     */
+    private final Map<String, Map<String, List<MetricBlockCodec.Header>>> index;
+    private final long minSecond;
+    private final long maxSecond;
+
+    private MetricSegment(Path file, ByteBuffer buffer, Map<String, Map<String, List<MetricBlockCodec.Header>>> index,
+                          long minSecond, long maxSecond) {
+        this.file = file;
+        this.buffer = buffer;
+        this.index = index;
+        this.minSecond = minSecond;
+        this.maxSecond = maxSecond;
+    }
+
+    /**
+     * Map given segment file and index its blocks, up to the first truncated or corrupted one.
+     */
+    static MetricSegment open(Path file) throws IOException {
+        MappedByteBuffer mapped;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        Map<String, Map<String, List<MetricBlockCodec.Header>>> index = new HashMap<>();
+        long minSecond = Long.MAX_VALUE;
+        long maxSecond = Long.MIN_VALUE;
+        // Stop at the first truncated or corrupted frame, a crash may have left a partial one behind.
+        ByteBuffer scan = mapped.duplicate();
+        MetricBlockCodec.Header header;
+        while ((header = MetricBlockCodec.readHeader(scan)) != null) {
+            index.computeIfAbsent(header.app, e -> new HashMap<>())
+                .computeIfAbsent(header.resource, e -> new ArrayList<>())
+                .add(header);
+            minSecond = Math.min(minSecond, header.minSecond);
+            maxSecond = Math.max(maxSecond, header.maxSecond);
+        }
+        return new MetricSegment(file, mapped, index, minSecond, maxSecond);
+    }
+
+    /**
+     * Visit the points of given series within {@code [startSecond, endSecond]} in write order.
+     */
+    void forEach(String app, String resource, long startSecond, long endSecond, MetricRing.Visitor visitor) {
+        if (maxSecond < startSecond || minSecond > endSecond) {
+            return;
+        }
+        Map<String, List<MetricBlockCodec.Header>> resources = index.get(app);
+        List<MetricBlockCodec.Header> blocks = resources == null ? null : resources.get(resource);
+        if (blocks == null) {
+            return;
+        }
+        for (MetricBlockCodec.Header block : blocks) {
+            if (block.maxSecond < startSecond || block.minSecond > endSecond) {
+                continue;
+            }
+            ByteBuffer frame = buffer.duplicate();
+            frame.position(block.offset);
+            MetricBlockCodec.decode(frame, startSecond, endSecond, visitor);
+        }
+    }
+
+    Path getFile() {
+        return file;
+    }
+
+    long getMinSecond() {
+        return minSecond;
+    }
+
+    long getMaxSecond() {
+        return maxSecond;
+    }
+
+    boolean isEmpty() {
+        return index.isEmpty();
+    }
+}
@@ -0,0 +1,295 @@
+/*
+ * Copyright 1999-2018 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.repository.metric;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>Append-only store of per-second points in segment files under one directory.</p>
+ * <p>
+ * Points are buffered per series and appended to the active segment as compressed blocks (see
+ * {@link MetricBlockCodec}) once a block is full or on {@link #flush(long)}. The active segment is
+ * sealed after {@code segmentMillis}: it is then memory-mapped and indexed once as a
+ * {@link MetricSegment}, and removed as a whole when its newest point leaves the retention.
+ * </p>
+ * <p>
+ * Writes and the active segment are guarded by the store; a query only holds it to take a snapshot
+ * of the sealed segments and to copy its points of the active segment, then decodes sealed
+ * segments without any lock.
+ * </p>
+ */
+final class MetricSegmentStore implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(MetricSegmentStore.class);
+
+    static final String SEGMENT_SUFFIX = ".seg";
+    /**
+     * Segments are sealed early at this size, so block offsets fit in an int and a segment in a mapping.
+     */
+    private static final long MAX_SEGMENT_BYTES = 1L << 30;
+
+    private final Path dir;
+    private final long segmentMillis;
+    private final long retentionSeconds;
+    private final int blockPoints;
+
+    /**
+     * Sealed segments, oldest first. Replaced as a whole, never modified.
+     */
+    private List<MetricSegment> sealed;
+
+    private Path activeFile;
+    private FileChannel activeChannel;
+    private long activeCreatedMs;
+    private long activeSize;
+    /**
+     * {@code app -> resource -> series} of the active segment.
+     */
+    private final Map<String, Map<String, ActiveSeries>> active = new HashMap<>();
+
+    /**
+     * @param dir              directory of the segment files, created if absent
+     * @param segmentMillis    time after which the active segment is sealed
+     * @param retentionSeconds sealed segments are removed once their newest point is older than this
+     * @param blockPoints      points buffered per series before they are appended as a block
+     */
+    MetricSegmentStore(Path dir, long segmentMillis, long retentionSeconds, int blockPoints) throws IOException {
+        this.dir = dir;
+        this.segmentMillis = segmentMillis;
+        this.retentionSeconds = retentionSeconds;
+        this.blockPoints = blockPoints;
+        Files.createDirectories(dir);
+        this.sealed = Collections.unmodifiableList(loadSegments());
+    }
+
+    synchronized void append(String app, String resource, long second, long pass, long success, long block,
+                             long exception, double rtSum, int cnt, long nowMs) throws IOException {
+        if (activeChannel != null && (nowMs - activeCreatedMs >= segmentMillis || activeSize >= MAX_SEGMENT_BYTES)) {
+            seal();
+        }
+        if (activeChannel == null) {
+            openActive(nowMs);
+        }
+        ActiveSeries series = active.computeIfAbsent(app, e -> new HashMap<>())
+            .computeIfAbsent(resource, e -> new ActiveSeries());
+        series.pending.add(second, pass, success, block, exception, rtSum, cnt);
+        if (series.pending.size() >= blockPoints) {
+            writeBlock(app, resource, series);
+        }
+    }
+
+    /**
+     * Visit the points of given series within {@code [startSecond, endSecond]} in write order,
+     * so a later point of the same second replaces the earlier ones.
+     */
+    void forEach(String app, String resource, long startSecond, long endSecond, MetricRing.Visitor visitor)
+        throws IOException {
+        List<MetricSegment> segments;
+        List<ByteBuffer> activeFrames = new ArrayList<>();
+        MetricBlock activePending = new MetricBlock();
+        synchronized (this) {
+            segments = sealed;
+            Map<String, ActiveSeries> resources = active.get(app);
+            ActiveSeries series = resources == null ? null : resources.get(resource);
+            if (series != null) {
+                for (MetricBlockCodec.Header block : series.blocks) {
+                    if (block.maxSecond >= startSecond && block.minSecond <= endSecond) {
+                        activeFrames.add(readFrame(block));
+                    }
+                }
+                series.pending.forEach(startSecond, endSecond, activePending::add);
+            }
+        }
+        for (MetricSegment segment : segments) {
+            segment.forEach(app, resource, startSecond, endSecond, visitor);
+        }
+        for (ByteBuffer frame : activeFrames) {
+            MetricBlockCodec.decode(frame, startSecond, endSecond, visitor);
+        }
+        activePending.forEach(startSecond, endSecond, visitor);
+    }
+
+    /**
+     * Append all buffered points to the active segment, sealing it first if it is due.
+     */
+    synchronized void flush(long nowMs) throws IOException {
+        if (activeChannel == null) {
+            return;
+        }
+        if (nowMs - activeCreatedMs >= segmentMillis) {
+            seal();
+        } else {
+            flushPending();
+        }
+    }
+
+    /**
+     * Remove the sealed segments whose newest point is out of retention.
+     */
+    synchronized void expire(long nowSecond) {
+        long minSecond = nowSecond - retentionSeconds;
+        List<MetricSegment> kept = new ArrayList<>(sealed.size());
+        for (MetricSegment segment : sealed) {
+            if (segment.getMaxSecond() >= minSecond) {
+                kept.add(segment);
+                continue;
+            }
+            try {
+                Files.deleteIfExists(segment.getFile());
+            } catch (IOException e) {
+                logger.warn("Failed to delete expired metric segment: {}", segment.getFile(), e);
+            }
+        }
+        if (kept.size() != sealed.size()) {
+            sealed = Collections.unmodifiableList(kept);
+        }
+    }
+
+    synchronized int sealedSegmentCount() {
+        return sealed.size();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (activeChannel == null) {
+            return;
+        }
+        flushPending();
+        activeChannel.force(false);
+        activeChannel.close();
+        activeChannel = null;
+        active.clear();
+    }
+
+    private List<MetricSegment> loadSegments() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "*" + SEGMENT_SUFFIX)) {
+            for (Path file : stream) {
+                files.add(file);
+            }
+        }
+        // Named by creation time, so this is the write order.
+        files.sort((f1, f2) -> Long.compare(createdMsOf(f1), createdMsOf(f2)));
+        List<MetricSegment> segments = new ArrayList<>(files.size());
+        for (Path file : files) {
+            MetricSegment segment = MetricSegment.open(file);
+            if (segment.isEmpty()) {
+                Files.deleteIfExists(file);
+            } else {
+                segments.add(segment);
+            }
+        }
+        return segments;
+    }
+
+    private void openActive(long nowMs) throws IOException {
+        long createdMs = nowMs;
+        Path file = dir.resolve(createdMs + SEGMENT_SUFFIX);
+        while (Files.exists(file)) {
+            file = dir.resolve(++createdMs + SEGMENT_SUFFIX);
+        }
+        activeChannel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE,
+            StandardOpenOption.READ);
+        activeFile = file;
+        activeCreatedMs = nowMs;
+        activeSize = 0;
+    }
+
+    private void seal() throws IOException {
+        flushPending();
+        activeChannel.force(false);
+        activeChannel.close();
+        activeChannel = null;
+        active.clear();
+        MetricSegment segment = MetricSegment.open(activeFile);
+        if (segment.isEmpty()) {
+            Files.deleteIfExists(activeFile);
+            return;
+        }
+        List<MetricSegment> segments = new ArrayList<>(sealed.size() + 1);
+        segments.addAll(sealed);
+        segments.add(segment);
+        sealed = Collections.unmodifiableList(segments);
+    }
+
+    private void flushPending() throws IOException {
+        for (Map.Entry<String, Map<String, ActiveSeries>> appEntry : active.entrySet()) {
+            for (Map.Entry<String, ActiveSeries> resourceEntry : appEntry.getValue().entrySet()) {
+                if (resourceEntry.getValue().pending.size() > 0) {
+                    writeBlock(appEntry.getKey(), resourceEntry.getKey(), resourceEntry.getValue());
+                }
+            }
+        }
+    }
+
+    private void writeBlock(String app, String resource, ActiveSeries series) throws IOException {
+        MetricBlock pending = series.pending;
+        ByteBuffer frame = ByteBuffer.wrap(MetricBlockCodec.encode(app, resource, pending));
+        int length = frame.remaining();
+        long position = activeSize;
+        while (frame.hasRemaining()) {
+            position += activeChannel.write(frame, position);
+        }
+        series.blocks.add(new MetricBlockCodec.Header(app, resource, pending.size(), pending.getMinSecond(),
+            pending.getMaxSecond(), (int)activeSize, length));
+        activeSize = position;
+        pending.clear();
+    }
+
+    private ByteBuffer readFrame(MetricBlockCodec.Header block) throws IOException {
+        ByteBuffer frame = ByteBuffer.allocate(block.length);
+        long position = block.offset;
+        while (frame.hasRemaining()) {
+            int read = activeChannel.read(frame, position);
+            if (read < 0) {
+                throw new IOException("Unexpected end of metric segment: " + activeFile);
+            }
+            position += read;
+        }
+        frame.flip();
+        return frame;
+    }
+
+    private static long createdMsOf(Path file) {
+        String name = file.getFileName().toString();
+        try {
+            return Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return Long.MAX_VALUE;
+        }
+    }
+
+    private static final class ActiveSeries {
+
+        final MetricBlock pending = new MetricBlock();
+        final List<MetricBlockCodec.Header> blocks = new ArrayList<>();
+    }
+}
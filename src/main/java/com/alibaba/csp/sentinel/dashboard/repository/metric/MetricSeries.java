@@ -0,0 +1,309 @@
+/*
+ * Copyright 1999-2018 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.repository.metric;
+
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * <p>
+ * Metrics of a single {@code (app, resource)} pair, guarded by its own lock so that writes
+ * to different series never contend with each other.
+ * </p>
+ * <p>
+ * The series also keeps the block/pass totals of the last minute up to date as points arrive,
+ * so ranking resources does not need to scan their points.
+ * </p>
+ * <p>
+ * Besides the per-second ring, every point is rolled up incrementally into one ring per coarser
+ * {@link MetricTier}, so history outlives the per-second retention at a fraction of the points.
+ * </p>
+ */
+final class MetricSeries {
+
+    static final int RANK_WINDOW_SECONDS = 60;
+    /**
+     * Bytes of the series object, its lock and its entry in the map of its app.
+     */
+    private static final int OVERHEAD_BYTES = 160;
+
+    private final StampedLock lock = new StampedLock();
+    /**
+     * Per-second points.
+     */
+    private final MetricRing ring;
+    /**
+     * Rollups of the per-second points, from the finest to the coarsest.
+     */
+    private final MetricRing[] rollups;
+
+    /**
+     * First second of the sliding window the totals below are counted over.
+     */
+    private long windowStart;
+    private long windowBlockQps;
+    private long windowPassQps;
+    private int windowPoints;
+    /**
+     * Newest second when the finer tiers were last dropped, see {@link #downsample()}.
+     */
+    private long downsampledUntil = -1;
+
+    MetricSeries(int retentionSeconds) {
+        this(new MetricTier[] {new MetricTier(1, retentionSeconds)});
+    }
+
+    /**
+     * @param tiers storage tiers, the first one must be per-second
+     */
+    MetricSeries(MetricTier[] tiers) {
+        if (tiers.length == 0 || tiers[0].getResolutionSeconds() != 1) {
+            throw new IllegalArgumentException("The first metric tier must be per-second");
+        }
+        this.ring = tiers[0].newRing();
+        this.rollups = new MetricRing[tiers.length - 1];
+        for (int i = 1; i < tiers.length; i++) {
+            rollups[i - 1] = tiers[i].newRing();
+        }
+    }
+
+    boolean put(long second, long pass, long success, long block, long exception, double rtSum, int cnt,
+                long nowMs) {
+        return write(second, pass, success, block, exception, rtSum, cnt, nowMs, false);
+    }
+
+    /**
+     * Like {@link #put}, but adds to the values of the second if it is present.
+     */
+    boolean merge(long second, long pass, long success, long block, long exception, double rtSum, int cnt,
+                  long nowMs) {
+        return write(second, pass, success, block, exception, rtSum, cnt, nowMs, true);
+    }
+
+    private boolean write(long second, long pass, long success, long block, long exception, double rtSum, int cnt,
+                          long nowMs, boolean merge) {
+        long stamp = lock.writeLock();
+        try {
+            slideWindow(windowStartOf(nowMs));
+            int oldSlot = ring.indexOf(second);
+            long oldPass = 0;
+            long oldSuccess = 0;
+            long oldBlock = 0;
+            long oldException = 0;
+            double oldRt = 0;
+            int oldCount = 0;
+            if (oldSlot >= 0) {
+                oldPass = ring.passQpsAt(oldSlot);
+                oldSuccess = ring.successQpsAt(oldSlot);
+                oldBlock = ring.blockQpsAt(oldSlot);
+                oldException = ring.exceptionQpsAt(oldSlot);
+                oldRt = ring.rtAt(oldSlot);
+                oldCount = ring.countAt(oldSlot);
+                if (merge) {
+                    pass += oldPass;
+                    success += oldSuccess;
+                    block += oldBlock;
+                    exception += oldException;
+                    rtSum += oldRt;
+                    cnt += oldCount;
+                }
+            }
+            if (!ring.put(second, pass, success, block, exception, rtSum, cnt)) {
+                return false;
+            }
+            // Roll up the difference, a replaced second is not a new sample.
+            for (MetricRing rollup : rollups) {
+                rollup.add(second, pass - oldPass, success - oldSuccess, block - oldBlock,
+                    exception - oldException, rtSum - oldRt, cnt - oldCount, oldSlot < 0 ? 1 : 0);
+            }
+            if (ring.getNewestSecond() - ring.getMaxCapacity() >= windowStart) {
+                // The ring may have evicted points that are still counted in the window.
+                recountWindow();
+            } else if (second >= windowStart) {
+                if (oldSlot >= 0) {
+                    windowBlockQps -= oldBlock;
+                    windowPassQps -= oldPass;
+                    windowPoints--;
+                }
+                windowBlockQps += block;
+                windowPassQps += pass;
+                windowPoints++;
+            }
+            return true;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Visit per-second points in {@code [startSecond, endSecond]} under the read lock of this series.
+     * The visitor must not write to this series.
+     */
+    void forEach(long startSecond, long endSecond, MetricRing.Visitor visitor) {
+        long stamp = lock.readLock();
+        try {
+            ring.forEach(startSecond, endSecond, visitor);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Visit points in {@code [startSecond, endSecond]} from the finest tier whose retention still
+     * covers {@code startSecond}, or the coarsest tier if none does. Since a {@link #downsample()}, ranges
+     * starting before it are read from the coarsest tier.
+     *
+     * @param nowSecond current second, the reference of the retention windows
+     */
+    void query(long startSecond, long endSecond, long nowSecond, MetricRing.Visitor visitor) {
+        long stamp = lock.readLock();
+        try {
+            MetricRing source = ring;
+            for (int i = 0; i < rollups.length && (startSecond <= nowSecond - source.getRetentionSeconds()
+                || startSecond <= downsampledUntil); i++) {
+                source = rollups[i];
+            }
+            source.forEach(startSecond, endSecond, visitor);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Get {@code [blockQps, passQps, points]} of the last minute till {@code nowMs}. Only the seconds
+     * that left the window since the last write are visited.
+     */
+    long[] lastMinuteTotals(long nowMs) {
+        long stamp = lock.readLock();
+        try {
+            long[] totals = new long[] {windowBlockQps, windowPassQps, windowPoints};
+            long start = windowStartOf(nowMs);
+            if (start > windowStart) {
+                ring.forEach(windowStart, start - 1,
+                    (second, passQps, successQps, blockQps, exceptionQps, rt, count) -> {
+                        totals[0] -= blockQps;
+                        totals[1] -= passQps;
+                        totals[2]--;
+                    });
+            }
+            return totals;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    long getNewestSecond() {
+        long stamp = lock.tryOptimisticRead();
+        long newest = ring.getNewestSecond();
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                newest = ring.getNewestSecond();
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        return newest;
+    }
+
+    /**
+     * @return number of points kept, over all tiers
+     */
+    int countPoints() {
+        long stamp = lock.readLock();
+        try {
+            int points = ring.size();
+            for (MetricRing rollup : rollups) {
+                points += rollup.size();
+            }
+            return points;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * @return estimate of the heap used by the series, over all tiers
+     */
+    long estimateBytes() {
+        long stamp = lock.readLock();
+        try {
+            long bytes = OVERHEAD_BYTES + ring.estimateBytes();
+            for (MetricRing rollup : rollups) {
+                bytes += rollup.estimateBytes();
+            }
+            return bytes;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Drop the points of all tiers but the coarsest one, which keeps the longest history in the fewest points.
+     * The dropped tiers fill up again with the points written next.
+     *
+     * @return estimate of the heap freed
+     */
+    long downsample() {
+        long stamp = lock.writeLock();
+        try {
+            if (rollups.length == 0) {
+                return 0;
+            }
+            downsampledUntil = Math.max(downsampledUntil, ring.getNewestSecond());
+            long before = ring.estimateBytes();
+            ring.reset();
+            long freed = before - ring.estimateBytes();
+            for (int i = 0; i < rollups.length - 1; i++) {
+                before = rollups[i].estimateBytes();
+                rollups[i].reset();
+                freed += before - rollups[i].estimateBytes();
+            }
+            windowBlockQps = 0;
+            windowPassQps = 0;
+            windowPoints = 0;
+            return freed;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    private void slideWindow(long start) {
+        if (start <= windowStart) {
+            return;
+        }
+        ring.forEach(windowStart, start - 1, (second, passQps, successQps, blockQps, exceptionQps, rt, count) -> {
+            windowBlockQps -= blockQps;
+            windowPassQps -= passQps;
+            windowPoints--;
+        });
+        windowStart = start;
+    }
+
+    private void recountWindow() {
+        windowBlockQps = 0;
+        windowPassQps = 0;
+        windowPoints = 0;
+        ring.forEach(windowStart, Long.MAX_VALUE, (second, passQps, successQps, blockQps, exceptionQps, rt, count) -> {
+            windowBlockQps += blockQps;
+            windowPassQps += passQps;
+            windowPoints++;
+        });
+    }
+
+    static long windowStartOf(long nowMs) {
+        return (nowMs - RANK_WINDOW_SECONDS * 1000L + 999) / 1000;
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright 1999-2018 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.repository.metric;
+
+/**
+ * <p>
+ * Reduces each series passed to a {@link MetricSeriesVisitor} to at most a number of points with
+ * Largest-Triangle-Three-Buckets, so long ranges are charted from as many points as a chart can show.
+ * </p>
+ * <p>
+ * The first and the last points are kept, the others split in equal buckets of which one point is kept each:
+ * the one making the largest triangle with the point kept in the previous bucket and the average of the next
+ * bucket. The area sums the triangles of pass qps and of block qps, each scaled by its range over the series, so
+ * a block spike is kept even on a series of much larger pass qps. Kept points are passed as they are, never
+ * averaged.
+ * </p>
+ * <p>
+ * The points of one series are buffered until its end, the series are still passed one after the other.
+ * </p>
+ */
+public final class MetricSeriesDownsampler implements MetricSeriesVisitor {
+
+    private static final int MIN_POINTS = 3;
+
+    private final MetricSeriesVisitor visitor;
+    private final int maxPoints;
+    private final MetricPointBuffer buffer = new MetricPointBuffer();
+
+    private MetricSeriesDownsampler(MetricSeriesVisitor visitor, int maxPoints) {
+        this.visitor = visitor;
+        this.maxPoints = Math.max(maxPoints, MIN_POINTS);
+    }
+
+    /**
+     * @param maxPoints max number of points of each series, not reduced if null or not positive
+     * @return a visitor passing the reduced series to given visitor
+     */
+    public static MetricSeriesVisitor wrap(MetricSeriesVisitor visitor, Integer maxPoints) {
+        if (maxPoints == null || maxPoints <= 0) {
+            return visitor;
+        }
+        return new MetricSeriesDownsampler(visitor, maxPoints);
+    }
+
+    @Override
+    public void startSeries(String resource) {
+        buffer.clear();
+        visitor.startSeries(resource);
+    }
+
+    @Override
+    public void visitPoint(long timestamp, long gmtCreate, long passQps, long successQps, long blockQps,
+                           long exceptionQps, double rt, int count) {
+        buffer.visitPoint(timestamp, gmtCreate, passQps, successQps, blockQps, exceptionQps, rt, count);
+    }
+
+    @Override
+    public void endSeries(String resource) {
+        int size = buffer.size();
+        if (size <= maxPoints) {
+            buffer.replay(visitor);
+        } else {
+            downsample(size);
+        }
+        visitor.endSeries(resource);
+    }
+
+    private void downsample(int size) {
+        double passScale = scaleOf(true, size);
+        double blockScale = scaleOf(false, size);
+        double every = (double)(size - 2) / (maxPoints - 2);
+
+        int kept = 0;
+        buffer.replay(kept, visitor);
+        for (int bucket = 0; bucket < maxPoints - 2; bucket++) {
+            int start = (int)(bucket * every) + 1;
+            int end = (int)((bucket + 1) * every) + 1;
+
+            // average of the next bucket, the last point for the last bucket
+            int nextStart = end;
+            int nextEnd = Math.min((int)((bucket + 2) * every) + 1, size);
+            if (nextStart >= nextEnd) {
+                nextStart = size - 1;
+                nextEnd = size;
+            }
+            double avgX = 0;
+            double avgPass = 0;
+            double avgBlock = 0;
+            for (int i = nextStart; i < nextEnd; i++) {
+                avgX += buffer.timestampAt(i);
+                avgPass += buffer.passQpsAt(i);
+                avgBlock += buffer.blockQpsAt(i);
+            }
+            int nextCount = nextEnd - nextStart;
+            avgX /= nextCount;
+            avgPass /= nextCount;
+            avgBlock /= nextCount;
+
+            double keptX = buffer.timestampAt(kept);
+            double keptPass = buffer.passQpsAt(kept);
+            double keptBlock = buffer.blockQpsAt(kept);
+            int best = start;
+            double bestArea = -1;
+            for (int i = start; i < end; i++) {
+                double x = buffer.timestampAt(i);
+                double area = Math.abs((keptX - avgX) * (buffer.passQpsAt(i) - keptPass)
+                        - (keptX - x) * (avgPass - keptPass)) * passScale
+                    + Math.abs((keptX - avgX) * (buffer.blockQpsAt(i) - keptBlock)
+                        - (keptX - x) * (avgBlock - keptBlock)) * blockScale;
+                if (area > bestArea) {
+                    bestArea = area;
+                    best = i;
+                }
+            }
+            buffer.replay(best, visitor);
+            kept = best;
+        }
+        buffer.replay(size - 1, visitor);
+    }
+
+    /**
+     * @return the inverse of the range of pass or block qps over the series, 0 if flat
+     */
+    private double scaleOf(boolean pass, int size) {
+        long min = Long.MAX_VALUE;
+        long max = Long.MIN_VALUE;
+        for (int i = 0; i < size; i++) {
+            long value = pass ? buffer.passQpsAt(i) : buffer.blockQpsAt(i);
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+        }
+        return max > min ? 1D / (max - min) : 0D;
+    }
+}
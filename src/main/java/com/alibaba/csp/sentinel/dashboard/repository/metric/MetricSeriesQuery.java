@@ -0,0 +1,109 @@
+/*
+ * Copyright 1999-2018 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.repository.metric;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+import com.alibaba.csp.sentinel.dashboard.datasource.entity.MetricEntity;
+
+/**
+ * Shared implementation of {@link MetricsRepository#queryByAppAndResourcesBetween}.
+ */
+final class MetricSeriesQuery {
+
+    private MetricSeriesQuery() {}
+
+    /**
+     * Reads the points of one resource, only calling {@link MetricSeriesVisitor#visitPoint}.
+     */
+    @FunctionalInterface
+    interface SeriesReader {
+        void read(String resource, MetricSeriesVisitor out);
+    }
+
+    /**
+     * Read the series of given resources, in parallel on the executor if any, and pass them to the visitor in
+     * the order of the resources from the calling thread.
+     */
+    static void run(List<String> resources, Executor executor, SeriesReader reader, MetricSeriesVisitor visitor) {
+        if (executor == null || resources.size() < 2) {
+            for (String resource : resources) {
+                visitor.startSeries(resource);
+                reader.read(resource, visitor);
+                visitor.endSeries(resource);
+            }
+            return;
+        }
+        List<CompletableFuture<MetricPointBuffer>> reads = new ArrayList<>(resources.size());
+        for (String resource : resources) {
+            reads.add(CompletableFuture.supplyAsync(() -> {
+                MetricPointBuffer buffer = new MetricPointBuffer();
+                reader.read(resource, buffer);
+                return buffer;
+            }, executor));
+        }
+        for (int i = 0; i < resources.size(); i++) {
+            String resource = resources.get(i);
+            visitor.startSeries(resource);
+            reads.get(i).join().replay(visitor);
+            visitor.endSeries(resource);
+        }
+    }
+
+    /**
+     * Pass the metrics of given resource in time order, keeping the latest created of each timestamp.
+     */
+    static void visitDistinct(String resource, List<MetricEntity> entities, MetricSeriesVisitor out) {
+        if (entities == null || entities.isEmpty()) {
+            return;
+        }
+        List<MetricEntity> sorted = new ArrayList<>(entities.size());
+        for (MetricEntity entity : entities) {
+            if (resource.equals(entity.getResource())) {
+                sorted.add(entity);
+            }
+        }
+        // stable, the first of equally created metrics of a timestamp wins
+        sorted.sort(Comparator.comparingLong(e -> e.getTimestamp().getTime()));
+        MetricEntity kept = null;
+        for (MetricEntity entity : sorted) {
+            if (kept != null && kept.getTimestamp().getTime() != entity.getTimestamp().getTime()) {
+                visit(kept, out);
+                kept = null;
+            }
+            if (kept == null || entity.getGmtCreate().getTime() > kept.getGmtCreate().getTime()) {
+                kept = entity;
+            }
+        }
+        if (kept != null) {
+            visit(kept, out);
+        }
+    }
+
+    private static void visit(MetricEntity entity, MetricSeriesVisitor out) {
+        out.visitPoint(entity.getTimestamp().getTime(), entity.getGmtCreate().getTime(),
+            nullToZero(entity.getPassQps()), nullToZero(entity.getSuccessQps()), nullToZero(entity.getBlockQps()),
+            nullToZero(entity.getExceptionQps()), entity.getRt(), entity.getCount());
+    }
+
+    private static long nullToZero(Long value) {
+        return value == null ? 0 : value;
+    }
+}
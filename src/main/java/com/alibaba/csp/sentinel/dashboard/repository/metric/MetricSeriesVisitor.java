@@ -0,0 +1,41 @@
+/*
+ * Copyright 1999-2018 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.repository.metric;
+
+/**
+ * Receives the series of a {@link MetricsRepository#queryByAppAndResourcesBetween batch query}, one resource
+ * after the other, without building an object per point.
+ */
+public interface MetricSeriesVisitor {
+
+    /**
+     * Called before the points of each resource, even if it has none.
+     */
+    void startSeries(String resource);
+
+    /**
+     * Called for each point of the current resource, in time order and once per timestamp.
+     *
+     * @param rt sum of the rt of all success qps, see {@code MetricEntity#getRt()}
+     */
+    void visitPoint(long timestamp, long gmtCreate, long passQps, long successQps, long blockQps,
+                    long exceptionQps, double rt, int count);
+
+    /**
+     * Called after the points of each resource.
+     */
+    void endSeries(String resource);
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 1999-2018 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.repository.metric;
+
+import com.alibaba.csp.sentinel.dashboard.config.DashboardConfig;
+
+/**
+ * Resolution and retention of one storage tier of metrics. Tiers are ordered from the finest
+ * (per-second, the raw points) to the coarsest rollup.
+ */
+final class MetricTier {
+
+    /**
+     * Retention configured beyond a year is cut to it.
+     */
+    static final int MAX_RETENTION_SECONDS = 60 * 60 * 24 * 366;
+
+    private final int resolutionSeconds;
+    private final int retentionSeconds;
+
+    MetricTier(int resolutionSeconds, int retentionSeconds) {
+        if (resolutionSeconds <= 0 || retentionSeconds < resolutionSeconds) {
+            throw new IllegalArgumentException("Invalid metric tier: resolution=" + resolutionSeconds
+                + "s, retention=" + retentionSeconds + "s");
+        }
+        this.resolutionSeconds = resolutionSeconds;
+        this.retentionSeconds = retentionSeconds;
+    }
+
+    /**
+     * Tiers configured by {@link DashboardConfig}: 1s, 10s and 1m.
+     */
+    static MetricTier[] defaultTiers() {
+        return new MetricTier[] {
+            new MetricTier(1, retentionSeconds(DashboardConfig.getMetricSecondRetentionMinutes(), 60)),
+            new MetricTier(10, retentionSeconds(DashboardConfig.getMetricTenSecondsRetentionHours(), 60 * 60)),
+            new MetricTier(60, retentionSeconds(DashboardConfig.getMetricMinuteRetentionDays(), 60 * 60 * 24))
+        };
+    }
+
+    /**
+     * @return the configured retention in seconds, at most {@link #MAX_RETENTION_SECONDS}
+     */
+    static int retentionSeconds(int units, int unitSeconds) {
+        return (int)Math.min((long)units * unitSeconds, MAX_RETENTION_SECONDS);
+    }
+
+    MetricRing newRing() {
+        return new MetricRing(resolutionSeconds, retentionSeconds / resolutionSeconds);
+    }
+
+    int getResolutionSeconds() {
+        return resolutionSeconds;
+    }
+
+    int getRetentionSeconds() {
+        return retentionSeconds;
+    }
+}
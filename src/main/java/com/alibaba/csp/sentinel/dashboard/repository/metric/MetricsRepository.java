@@ -15,7 +15,13 @@
  */
 package com.alibaba.csp.sentinel.dashboard.repository.metric;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Executor;
+
+import com.alibaba.csp.sentinel.util.StringUtil;
 
 /**
  * Repository interface for aggregated metrics data.
@@ -39,6 +45,15 @@ public interface MetricsRepository<T> {
      */
     void saveAll(Iterable<T> metrics);
 
+    /**
+     * Merge all metrics into the storage repository: a metric of the same app, resource and timestamp as a
+     * stored one is added to it rather than replacing it, counters are summed and so is the rt weighted by
+     * success qps. Metrics of the same second fetched in several batches add up.
+     *
+     * @param metrics metrics to merge
+     */
+    void mergeAll(Iterable<T> metrics);
+
     /**
      * Get all metrics by {@code appName} and {@code resourceName} between a period of time.
      *
@@ -50,6 +65,22 @@ public interface MetricsRepository<T> {
      */
     List<T> queryByAppAndResourceBetween(String app, String resource, long startTime, long endTime);
 
+    /**
+     * Query the metrics of many resources of an application between a period of time in one pass, streaming
+     * them to the visitor resource after resource in the given order. The metrics of each resource are in time
+     * order and at most one per timestamp, the latest created.
+     *
+     * @param app       application name for Sentinel
+     * @param resources resource names
+     * @param startTime start timestamp
+     * @param endTime   end timestamp
+     * @param executor  if not null, the series are read ahead in parallel on it; the visitor is still called
+     *                  from the calling thread only
+     * @param visitor   receives the series
+     */
+    void queryByAppAndResourcesBetween(String app, List<String> resources, long startTime, long endTime,
+                                       Executor executor, MetricSeriesVisitor visitor);
+
     /**
      * List resource name of provided application name.
      *
@@ -57,4 +88,123 @@ public interface MetricsRepository<T> {
      * @return list of resources
      */
     List<String> listResourcesOfApp(String app);
+
+    /**
+     * List a page of resources of provided application name, ranked by block qps and then pass qps
+     * of the last minute.
+     *
+     * @param app       application name
+     * @param searchKey only resources containing the key are listed, null or empty for all resources
+     * @param offset    number of leading resources to skip
+     * @param limit     max number of resources to list
+     * @param desc      true for the busiest resources first
+     * @return list of resources
+     */
+    default List<String> listTopResourcesOfApp(String app, String searchKey, int offset, int limit, boolean desc) {
+        List<String> resources = searchResources(listResourcesOfApp(app), searchKey);
+        if (!desc) {
+            Collections.reverse(resources);
+        }
+        if (offset >= resources.size()) {
+            return new ArrayList<>();
+        }
+        return new ArrayList<>(resources.subList(offset, Math.min(offset + limit, resources.size())));
+    }
+
+    /**
+     * Count resources of provided application name which would be listed by
+     * {@link #listTopResourcesOfApp(String, String, int, int, boolean)}.
+     *
+     * @param app       application name
+     * @param searchKey only resources containing the key are counted, null or empty for all resources
+     * @return count of resources
+     */
+    default int countResourcesOfApp(String app, String searchKey) {
+        return searchResources(listResourcesOfApp(app), searchKey).size();
+    }
+
+    /**
+     * Get a version of the metrics of provided application name, which changes on every write to them: new
+     * points as well as points merged into stored ones. Equal versions mean queries see the same metrics.
+     *
+     * @param app application name
+     * @return version of the metrics of the app, {@code -1} if not tracked
+     */
+    default long versionOfApp(String app) {
+        return -1;
+    }
+
+    /**
+     * Remove the metrics of given resources of provided application name, such as resources whose metrics are
+     * now folded into another series.
+     *
+     * @param app       application name
+     * @param resources resources to remove
+     */
+    default void removeResourcesOfApp(String app, Collection<String> resources) {
+    }
+
+    /**
+     * Get the search index over the resource names of provided application name, which resources are added to
+     * as they first appear and removed from with their metrics.
+     *
+     * @param app application name
+     * @return index of the resources of the app, null if not indexed
+     */
+    default ResourceSearchIndex resourceIndexOf(String app) {
+        return null;
+    }
+
+    /**
+     * Count the series, one per app and resource, held in memory.
+     *
+     * @return count of series, {@code -1} if unknown
+     */
+    default long countSeries() {
+        return -1;
+    }
+
+    /**
+     * Count the points of all series held in memory.
+     *
+     * @return count of points, {@code -1} if unknown
+     */
+    default long countPoints() {
+        return -1;
+    }
+
+    /**
+     * Get the footprint of the metrics of every app held in memory.
+     *
+     * @param topResources max number of resources with the most points listed for each app
+     * @return footprint of each app, the largest first, empty if not tracked
+     */
+    default List<MetricAppFootprint> footprintOfApps(int topResources) {
+        return Collections.emptyList();
+    }
+
+    /**
+     * Trim the metrics held in memory down to given budget, if over it: the metrics of the apps not queried
+     * lately are downsampled, and then removed, the least recently queried apps first. Apps being viewed are
+     * left as they are, so the budget may still be exceeded.
+     *
+     * @param budgetBytes max heap to be used by the metrics
+     * @return estimate of the heap freed
+     */
+    default long trimToBudget(long budgetBytes) {
+        return 0;
+    }
+
+    static List<String> searchResources(List<String> resources, String searchKey) {
+        if (StringUtil.isEmpty(searchKey)) {
+            return resources;
+        }
+        List<String> searched = new ArrayList<>();
+        for (String resource : resources) {
+            if (resource.contains(searchKey)) {
+                searched.add(resource);
+            }
+        }
+        return searched;
+    }
 }
@@ -0,0 +1,322 @@
+/*
+ * Copyright 1999-2018 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.repository.metric;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
+
+/**
+ * <p>
+ * Substring search over the resource names of one app, through an index of the trigrams of the lower case
+ * names, so that a search key only checks the names holding all of its trigrams rather than every name of
+ * the app. Gateway apps may have tens of thousands of URL resources.
+ * </p>
+ * <p>
+ * Each name added gets the next id and the posting list of a trigram is the ascending ids of the names holding
+ * it. Removed names leave a gap, and the index is rebuilt once most ids are gaps. Candidates are still checked
+ * with {@link String#contains(CharSequence)}, so results are exactly those of a scan; keys shorter than a
+ * trigram scan the names, at least without lower-casing them.
+ * </p>
+ */
+public final class ResourceSearchIndex {
+
+    private static final int GRAM = 3;
+    private static final int MIN_COMPACT_GAPS = 64;
+
+    private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+    private final List<String> names = new ArrayList<>();
+    private final List<String> lowerCaseNames = new ArrayList<>();
+    private final Map<Long, Postings> postings = new HashMap<>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private int gaps;
+    /**
+     * Changed when ids are assigned again by a rebuild.
+     */
+    private volatile int generation;
+
+    /**
+     * @return true if the name was not indexed yet
+     */
+    public boolean add(String resource) {
+        if (resource == null || ids.containsKey(resource)) {
+            return false;
+        }
+        lock.writeLock().lock();
+        try {
+            if (ids.containsKey(resource)) {
+                return false;
+            }
+            doAdd(resource);
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return true if the name was indexed
+     */
+    public boolean remove(String resource) {
+        if (!contains(resource)) {
+            return false;
+        }
+        lock.writeLock().lock();
+        try {
+            Integer id = ids.remove(resource);
+            if (id == null) {
+                return false;
+            }
+            names.set(id, null);
+            lowerCaseNames.set(id, null);
+            if (++gaps >= MIN_COMPACT_GAPS && gaps * 2 > names.size()) {
+                rebuild();
+            }
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void doAdd(String resource) {
+        int id = names.size();
+        String lowerCase = resource.toLowerCase();
+        names.add(resource);
+        lowerCaseNames.add(lowerCase);
+        for (long gram : gramsOf(lowerCase)) {
+            postings.computeIfAbsent(gram, e -> new Postings()).add(id);
+        }
+        ids.put(resource, id);
+    }
+
+    private void rebuild() {
+        List<String> live = new ArrayList<>(ids.size());
+        for (String name : names) {
+            if (name != null) {
+                live.add(name);
+            }
+        }
+        generation++;
+        names.clear();
+        lowerCaseNames.clear();
+        postings.clear();
+        gaps = 0;
+        for (String name : live) {
+            doAdd(name);
+        }
+    }
+
+    public boolean contains(String resource) {
+        return resource != null && ids.containsKey(resource);
+    }
+
+    public int size() {
+        return ids.size();
+    }
+
+    /**
+     * @param searchKey  key to search, null or empty for all names
+     * @param ignoreCase true to compare the lower case name and key, as {@code String#toLowerCase()} does
+     * @return the indexed names containing the key, in the order they were added
+     */
+    public List<String> search(String searchKey, boolean ignoreCase) {
+        lock.readLock().lock();
+        try {
+            return doSearch(searchKey, ignoreCase);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Match names by {@link #search(String, boolean) searching} the index once: indexed names match if found
+     * by the search, names not indexed by then are checked as a scan would.
+     *
+     * @param searchKey  key to search, null or empty to match all names
+     * @param ignoreCase true to compare the lower case name and key
+     * @return the matcher of names
+     */
+    public Predicate<String> matcherOf(String searchKey, boolean ignoreCase) {
+        if (searchKey == null || searchKey.isEmpty()) {
+            return resource -> true;
+        }
+        int indexed;
+        int indexedGeneration;
+        Set<String> found;
+        lock.readLock().lock();
+        try {
+            indexed = names.size();
+            indexedGeneration = generation;
+            found = new HashSet<>(doSearch(searchKey, ignoreCase));
+        } finally {
+            lock.readLock().unlock();
+        }
+        String lowerCaseKey = searchKey.toLowerCase();
+        return resource -> {
+            Integer id = resource == null ? null : ids.get(resource);
+            if (id != null && id < indexed && generation == indexedGeneration) {
+                return found.contains(resource);
+            }
+            return resource != null
+                && (ignoreCase ? resource.toLowerCase().contains(lowerCaseKey) : resource.contains(searchKey));
+        };
+    }
+
+    /**
+     * Match a known number of names, {@link #matcherOf(String, boolean) searching} the index only when they
+     * outnumber the names the search would check; fewer names are simply scanned.
+     *
+     * @param searchKey  key to search, null or empty to match all names
+     * @param ignoreCase true to compare the lower case name and key
+     * @param candidates number of names to be matched
+     * @return the matcher of names
+     */
+    public Predicate<String> matcherOf(String searchKey, boolean ignoreCase, int candidates) {
+        if (searchKey == null || searchKey.isEmpty() || candidates > searchCost(searchKey)) {
+            return matcherOf(searchKey, ignoreCase);
+        }
+        if (!ignoreCase) {
+            return resource -> resource != null && resource.contains(searchKey);
+        }
+        String lowerCaseKey = searchKey.toLowerCase();
+        return resource -> resource != null && resource.toLowerCase().contains(lowerCaseKey);
+    }
+
+    /**
+     * @return number of names a search of given key checks, the shortest posting list of its trigrams
+     */
+    int searchCost(String searchKey) {
+        String lowerCaseKey = searchKey.toLowerCase();
+        lock.readLock().lock();
+        try {
+            if (lowerCaseKey.length() < GRAM) {
+                return names.size();
+            }
+            int cost = Integer.MAX_VALUE;
+            for (long gram : gramsOf(lowerCaseKey)) {
+                Postings list = postings.get(gram);
+                cost = Math.min(cost, list == null ? 0 : list.size);
+            }
+            return cost;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private List<String> doSearch(String searchKey, boolean ignoreCase) {
+        if (searchKey == null || searchKey.isEmpty()) {
+            List<String> results = new ArrayList<>(ids.size());
+            for (String name : names) {
+                if (name != null) {
+                    results.add(name);
+                }
+            }
+            return results;
+        }
+        String lowerCaseKey = searchKey.toLowerCase();
+        List<String> results = new ArrayList<>();
+        if (lowerCaseKey.length() < GRAM) {
+            for (int id = 0; id < names.size(); id++) {
+                addIfContains(id, searchKey, lowerCaseKey, ignoreCase, results);
+            }
+            return results;
+        }
+        Set<Long> grams = gramsOf(lowerCaseKey);
+        Postings[] lists = new Postings[grams.size()];
+        int i = 0;
+        for (long gram : grams) {
+            Postings list = postings.get(gram);
+            if (list == null) {
+                return results;
+            }
+            lists[i++] = list;
+        }
+        // intersect from the shortest list
+        Arrays.sort(lists, (o1, o2) -> Integer.compare(o1.size, o2.size));
+        int[] candidates = Arrays.copyOf(lists[0].ids, lists[0].size);
+        int count = candidates.length;
+        for (i = 1; i < lists.length && count > 0; i++) {
+            count = lists[i].retain(candidates, count);
+        }
+        for (i = 0; i < count; i++) {
+            addIfContains(candidates[i], searchKey, lowerCaseKey, ignoreCase, results);
+        }
+        return results;
+    }
+
+    private void addIfContains(int id, String searchKey, String lowerCaseKey, boolean ignoreCase,
+                               List<String> results) {
+        if (names.get(id) == null) {
+            return;
+        }
+        if (ignoreCase ? lowerCaseNames.get(id).contains(lowerCaseKey) : names.get(id).contains(searchKey)) {
+            results.add(names.get(id));
+        }
+    }
+
+    private static Set<Long> gramsOf(String lowerCase) {
+        Set<Long> grams = new HashSet<>();
+        for (int i = 0; i + GRAM <= lowerCase.length(); i++) {
+            grams.add(((long)lowerCase.charAt(i) << 32) | ((long)lowerCase.charAt(i + 1) << 16)
+                | lowerCase.charAt(i + 2));
+        }
+        return grams;
+    }
+
+    /**
+     * Ascending ids of the names holding a trigram.
+     */
+    private static final class Postings {
+
+        private int[] ids = new int[4];
+        private int size;
+
+        void add(int id) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            ids[size++] = id;
+        }
+
+        /**
+         * Keep the ascending candidates that are in this list too.
+         *
+         * @return count of candidates kept at the head of the array
+         */
+        int retain(int[] candidates, int count) {
+            int kept = 0;
+            int from = 0;
+            for (int i = 0; i < count; i++) {
+                int at = Arrays.binarySearch(ids, from, size, candidates[i]);
+                if (at >= 0) {
+                    candidates[kept++] = candidates[i];
+                    from = at + 1;
+                } else {
+                    from = -at - 1;
+                }
+            }
+            return kept;
+        }
+    }
+}
@@ -0,0 +1,495 @@
+/*
+ * Copyright 1999-2018 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.repository.metric;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+
+import com.alibaba.csp.sentinel.dashboard.config.DashboardConfig;
+import com.alibaba.csp.sentinel.dashboard.datasource.entity.MetricEntity;
+import com.alibaba.csp.sentinel.util.StringUtil;
+import com.alibaba.csp.sentinel.util.TimeUtil;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+/**
+ * <p>Caches metrics data in a period of time in memory, backed by columnar ring buffers.</p>
+ * <p>
+ * Each {@code (app, resource)} series keeps a {@link MetricRing}: one primitive column per counter
+ * indexed by second, instead of a {@code LinkedHashMap<Long, MetricEntity>} holding boxed keys and
+ * full entities. {@link MetricEntity} instances are only materialized for query results.
+ * </p>
+ * <p>
+ * There is no global lock: the maps are concurrent and every series carries its own lock
+ * (see {@link MetricSeries}), so fetch workers writing different apps or resources never contend,
+ * and queries only wait for a writer of the very series they read.
+ * </p>
+ * <p>
+ * Points are rolled up into 10 second and 1 minute tiers as they are written (see {@link MetricTier}),
+ * and a query reads the finest tier whose retention covers its start. Over the memory budget, the apps
+ * not queried lately keep their coarsest tier only, see {@link #trimToBudget(long)}.
+ * </p>
+ * <p>
+ * Resource ranking reads the last minute block/pass totals each series maintains on write,
+ * rather than scanning the points of every resource. Searched resources are looked up in a
+ * {@link ResourceSearchIndex} per app, which new series are added to.
+ * </p>
+ */
+@Component
+@ConditionalOnProperty(name = DashboardConfig.CONFIG_METRIC_REPOSITORY, havingValue = "ring", matchIfMissing = true)
+public class RingBufferMetricsRepository implements MetricsRepository<MetricEntity> {
+
+    /**
+     * {@code app -> resource -> series}
+     */
+    private final Map<String, Map<String, MetricSeries>> allMetrics = new ConcurrentHashMap<>();
+
+    /**
+     * {@code app -> index of the resources of all series}
+     */
+    private final Map<String, ResourceSearchIndex> resourceIndexes = new ConcurrentHashMap<>();
+
+    private final AppVersions versions = new AppVersions();
+
+    private final AppReads reads = new AppReads();
+
+    private final MetricNameDictionary appNames = MetricNameDictionary.shared();
+
+    private final MetricTier[] tiers;
+
+    public RingBufferMetricsRepository() {
+        this(MetricTier.defaultTiers());
+    }
+
+    RingBufferMetricsRepository(MetricTier[] tiers) {
+        this.tiers = tiers;
+    }
+
+    @Override
+    public void save(MetricEntity entity) {
+        if (entity == null || StringUtil.isBlank(entity.getApp())) {
+            return;
+        }
+        doSave(entity);
+        versions.bump(entity.getApp());
+    }
+
+    @Override
+    public void saveAll(Iterable<MetricEntity> metrics) {
+        if (metrics == null) {
+            return;
+        }
+        String app = null;
+        for (MetricEntity entity : metrics) {
+            if (entity == null || StringUtil.isBlank(entity.getApp())) {
+                continue;
+            }
+            doSave(entity);
+            app = versions.bumpOnAppChange(app, entity.getApp());
+        }
+        if (app != null) {
+            versions.bump(app);
+        }
+    }
+
+    @Override
+    public void mergeAll(Iterable<MetricEntity> metrics) {
+        if (metrics == null) {
+            return;
+        }
+        String app = null;
+        for (MetricEntity entity : metrics) {
+            if (entity == null || StringUtil.isBlank(entity.getApp()) || entity.getResource() == null
+                || entity.getTimestamp() == null) {
+                continue;
+            }
+            seriesOf(entity).merge(entity.getTimestamp().getTime() / 1000, nullToZero(entity.getPassQps()),
+                nullToZero(entity.getSuccessQps()), nullToZero(entity.getBlockQps()),
+                nullToZero(entity.getExceptionQps()), entity.getRt(), entity.getCount(),
+                TimeUtil.currentTimeMillis());
+            app = versions.bumpOnAppChange(app, entity.getApp());
+        }
+        if (app != null) {
+            versions.bump(app);
+        }
+    }
+
+    private void doSave(MetricEntity entity) {
+        if (entity.getResource() == null || entity.getTimestamp() == null) {
+            return;
+        }
+        seriesOf(entity).put(entity.getTimestamp().getTime() / 1000, nullToZero(entity.getPassQps()),
+            nullToZero(entity.getSuccessQps()), nullToZero(entity.getBlockQps()),
+            nullToZero(entity.getExceptionQps()), entity.getRt(), entity.getCount(),
+            TimeUtil.currentTimeMillis());
+    }
+
+    /**
+     * Names of new apps and resources are interned in the {@link MetricNameDictionary dictionaries} before
+     * becoming keys.
+     */
+    private MetricSeries seriesOf(MetricEntity entity) {
+        Map<String, MetricSeries> resourceMap = allMetrics.get(entity.getApp());
+        if (resourceMap == null) {
+            resourceMap = allMetrics.computeIfAbsent(appNames.intern(entity.getApp()),
+                e -> new ConcurrentHashMap<>(16));
+        }
+        MetricSeries series = resourceMap.get(entity.getResource());
+        if (series != null) {
+            return series;
+        }
+        String resource = MetricNameDictionary.ofApp(entity.getApp()).intern(entity.getResource());
+        return resourceMap.computeIfAbsent(resource, e -> {
+            resourceIndexes.computeIfAbsent(entity.getApp(), a -> new ResourceSearchIndex()).add(resource);
+            return new MetricSeries(tiers);
+        });
+    }
+
+    @Override
+    public List<MetricEntity> queryByAppAndResourceBetween(String app, String resource,
+                                                           long startTime, long endTime) {
+        List<MetricEntity> results = new ArrayList<>();
+        if (StringUtil.isBlank(app)) {
+            return results;
+        }
+        reads.touch(app, TimeUtil.currentTimeMillis());
+        MetricSeries series = getSeries(app, resource);
+        if (series == null) {
+            return results;
+        }
+        series.query(ceilSecond(startTime), endTime / 1000, TimeUtil.currentTimeMillis() / 1000,
+            (second, passQps, successQps, blockQps, exceptionQps, rt, count) -> {
+                MetricEntity entity = new MetricEntity();
+                Date timestamp = new Date(second * 1000);
+                entity.setApp(app);
+                entity.setResource(resource);
+                entity.setTimestamp(timestamp);
+                entity.setGmtCreate(timestamp);
+                entity.setGmtModified(timestamp);
+                entity.setPassQps(passQps);
+                entity.setSuccessQps(successQps);
+                entity.setBlockQps(blockQps);
+                entity.setExceptionQps(exceptionQps);
+                entity.setRt(rt);
+                entity.setCount(count);
+                results.add(entity);
+            });
+        return results;
+    }
+
+    /**
+     * Points are visited straight from the rings, which hold one point per second already in time order.
+     */
+    @Override
+    public void queryByAppAndResourcesBetween(String app, List<String> resources, long startTime, long endTime,
+                                              Executor executor, MetricSeriesVisitor visitor) {
+        long startSecond = ceilSecond(startTime);
+        long endSecond = endTime / 1000;
+        long nowSecond = TimeUtil.currentTimeMillis() / 1000;
+        if (StringUtil.isNotBlank(app)) {
+            reads.touch(app, nowSecond * 1000);
+        }
+        MetricSeriesQuery.run(resources, executor, (resource, out) -> {
+            MetricSeries series = StringUtil.isBlank(app) ? null : getSeries(app, resource);
+            if (series == null) {
+                return;
+            }
+            series.query(startSecond, endSecond, nowSecond,
+                (second, passQps, successQps, blockQps, exceptionQps, rt, count) -> out.visitPoint(second * 1000,
+                    second * 1000, passQps, successQps, blockQps, exceptionQps, rt, count));
+        }, visitor);
+    }
+
+    @Override
+    public List<String> listResourcesOfApp(String app) {
+        if (StringUtil.isNotBlank(app)) {
+            reads.touch(app, TimeUtil.currentTimeMillis());
+        }
+        List<RankedResource> ranked = rankResources(app, null);
+        ranked.sort(RankedResource.BUSIEST_FIRST);
+        List<String> results = new ArrayList<>(ranked.size());
+        for (RankedResource resource : ranked) {
+            results.add(resource.resource);
+        }
+        return results;
+    }
+
+    /**
+     * Rank from the last minute totals kept by each series, keeping only the needed
+     * {@code offset + limit} resources in a bounded heap instead of sorting all of them.
+     */
+    @Override
+    public List<String> listTopResourcesOfApp(String app, String searchKey, int offset, int limit, boolean desc) {
+        List<String> results = new ArrayList<>();
+        if (offset < 0 || limit <= 0) {
+            return results;
+        }
+        if (StringUtil.isNotBlank(app)) {
+            reads.touch(app, TimeUtil.currentTimeMillis());
+        }
+        Comparator<RankedResource> order = desc ? RankedResource.BUSIEST_FIRST
+            : RankedResource.BUSIEST_FIRST.reversed();
+        int k = offset + limit;
+        // The heap head is the worst of the kept resources.
+        PriorityQueue<RankedResource> heap = new PriorityQueue<>(Math.min(k, 1024), order.reversed());
+        for (RankedResource resource : rankResources(app, searchKey)) {
+            if (heap.size() < k) {
+                heap.offer(resource);
+            } else if (order.compare(resource, heap.peek()) < 0) {
+                heap.poll();
+                heap.offer(resource);
+            }
+        }
+        List<RankedResource> top = new ArrayList<>(heap);
+        top.sort(order);
+        for (int i = offset; i < top.size(); i++) {
+            results.add(top.get(i).resource);
+        }
+        return results;
+    }
+
+    @Override
+    public int countResourcesOfApp(String app, String searchKey) {
+        return rankResources(app, searchKey).size();
+    }
+
+    @Override
+    public long versionOfApp(String app) {
+        if (StringUtil.isBlank(app)) {
+            return -1;
+        }
+        return versions.get(app);
+    }
+
+    /**
+     * Removed from the index first, so that a series created again by a concurrent write is indexed again.
+     */
+    @Override
+    public void removeResourcesOfApp(String app, Collection<String> resources) {
+        Map<String, MetricSeries> resourceMap = StringUtil.isBlank(app) ? null : allMetrics.get(app);
+        if (resourceMap == null) {
+            return;
+        }
+        ResourceSearchIndex index = resourceIndexes.get(app);
+        MetricNameDictionary resourceNames = MetricNameDictionary.ofApp(app);
+        for (String resource : resources) {
+            if (index != null) {
+                index.remove(resource);
+            }
+            if (resourceMap.remove(resource) != null) {
+                resourceNames.remove(resource);
+            }
+        }
+        versions.bump(app);
+    }
+
+    @Override
+    public ResourceSearchIndex resourceIndexOf(String app) {
+        return StringUtil.isBlank(app) ? null : resourceIndexes.get(app);
+    }
+
+    @Override
+    public long countSeries() {
+        long series = 0;
+        for (Map<String, MetricSeries> resourceMap : allMetrics.values()) {
+            series += resourceMap.size();
+        }
+        return series;
+    }
+
+    @Override
+    public long countPoints() {
+        long points = 0;
+        for (Map<String, MetricSeries> resourceMap : allMetrics.values()) {
+            for (MetricSeries series : resourceMap.values()) {
+                points += series.countPoints();
+            }
+        }
+        return points;
+    }
+
+    /**
+     * The names are not counted, they are shared through the {@link MetricNameDictionary}.
+     */
+    @Override
+    public List<MetricAppFootprint> footprintOfApps(int topResources) {
+        List<MetricAppFootprint> footprints = new ArrayList<>(allMetrics.size());
+        for (Map.Entry<String, Map<String, MetricSeries>> entry : allMetrics.entrySet()) {
+            Map<String, Long> pointsOfResources = new HashMap<>(entry.getValue().size());
+            long points = 0;
+            long bytes = 0;
+            for (Map.Entry<String, MetricSeries> series : entry.getValue().entrySet()) {
+                long seriesPoints = series.getValue().countPoints();
+                pointsOfResources.put(series.getKey(), seriesPoints);
+                points += seriesPoints;
+                bytes += series.getValue().estimateBytes();
+            }
+            footprints.add(new MetricAppFootprint(entry.getKey(), pointsOfResources.size(), points, bytes,
+                reads.get(entry.getKey()), MetricAppFootprint.topResourcesOf(pointsOfResources, topResources)));
+        }
+        footprints.sort(MetricAppFootprint.LARGEST_FIRST);
+        return footprints;
+    }
+
+    /**
+     * The series of cold apps are first downsampled to their coarsest tier, which keeps their history, and the
+     * apps are only removed if that is not enough.
+     */
+    @Override
+    public long trimToBudget(long budgetBytes) {
+        Map<String, Long> bytesOfApps = new HashMap<>(allMetrics.size());
+        long total = 0;
+        for (Map.Entry<String, Map<String, MetricSeries>> entry : allMetrics.entrySet()) {
+            long bytes = estimateBytesOf(entry.getValue());
+            bytesOfApps.put(entry.getKey(), bytes);
+            total += bytes;
+        }
+        if (total <= budgetBytes) {
+            return 0;
+        }
+        List<String> coldest = reads.coldestFirst(bytesOfApps, TimeUtil.currentTimeMillis());
+        long freed = 0;
+        for (int i = 0; i < coldest.size() && total - freed > budgetBytes; i++) {
+            freed += downsampleApp(coldest.get(i));
+        }
+        for (int i = 0; i < coldest.size() && total - freed > budgetBytes; i++) {
+            freed += removeApp(coldest.get(i));
+        }
+        return freed;
+    }
+
+    private long downsampleApp(String app) {
+        Map<String, MetricSeries> resourceMap = allMetrics.get(app);
+        if (resourceMap == null) {
+            return 0;
+        }
+        long freed = 0;
+        for (MetricSeries series : resourceMap.values()) {
+            freed += series.downsample();
+        }
+        versions.bump(app);
+        return freed;
+    }
+
+    /**
+     * Removed from the index first, like {@link #removeResourcesOfApp(String, Collection)}.
+     */
+    private long removeApp(String app) {
+        resourceIndexes.remove(app);
+        Map<String, MetricSeries> resourceMap = allMetrics.remove(app);
+        if (resourceMap == null) {
+            return 0;
+        }
+        versions.bump(app);
+        reads.remove(app);
+        MetricNameDictionary.removeApp(app);
+        return estimateBytesOf(resourceMap);
+    }
+
+    private static long estimateBytesOf(Map<String, MetricSeries> resourceMap) {
+        long bytes = 0;
+        for (MetricSeries series : resourceMap.values()) {
+            bytes += series.estimateBytes();
+        }
+        return bytes;
+    }
+
+    /**
+     * Collect the resources of given app that have points within the last minute.
+     */
+    private List<RankedResource> rankResources(String app, String searchKey) {
+        List<RankedResource> results = new ArrayList<>();
+        if (StringUtil.isBlank(app)) {
+            return results;
+        }
+        Map<String, MetricSeries> resourceMap = allMetrics.get(app);
+        if (resourceMap == null) {
+            return results;
+        }
+        Iterable<String> resources = resourceMap.keySet();
+        ResourceSearchIndex index = resourceIndexes.get(app);
+        if (StringUtil.isNotEmpty(searchKey) && index != null) {
+            resources = index.search(searchKey, false);
+        }
+        final long now = TimeUtil.currentTimeMillis();
+        final long minSecond = MetricSeries.windowStartOf(now);
+        for (String resource : resources) {
+            MetricSeries series = resourceMap.get(resource);
+            if (series == null || series.getNewestSecond() < minSecond
+                || (StringUtil.isNotEmpty(searchKey) && !resource.contains(searchKey))) {
+                continue;
+            }
+            long[] totals = series.lastMinuteTotals(now);
+            if (totals[2] > 0) {
+                results.add(new RankedResource(resource, totals[0], totals[1]));
+            }
+        }
+        return results;
+    }
+
+    private MetricSeries getSeries(String app, String resource) {
+        Map<String, MetricSeries> resourceMap = allMetrics.get(app);
+        if (resourceMap == null || resource == null) {
+            return null;
+        }
+        return resourceMap.get(resource);
+    }
+
+    private static final class RankedResource {
+
+        /**
+         * Order by last minute b_qps DESC, then p_qps DESC.
+         */
+        static final Comparator<RankedResource> BUSIEST_FIRST = (o1, o2) -> {
+            int t = Long.compare(o2.blockQps, o1.blockQps);
+            if (t != 0) {
+                return t;
+            }
+            t = Long.compare(o2.passQps, o1.passQps);
+            if (t != 0) {
+                return t;
+            }
+            return o1.resource.compareTo(o2.resource);
+        };
+
+        final String resource;
+        final long blockQps;
+        final long passQps;
+
+        RankedResource(String resource, long blockQps, long passQps) {
+            this.resource = resource;
+            this.blockQps = blockQps;
+            this.passQps = passQps;
+        }
+    }
+
+    private static long ceilSecond(long timeMs) {
+        return (timeMs + 999) / 1000;
+    }
+
+    private static long nullToZero(Long value) {
+        return value == null ? 0 : value;
+    }
+}
@@ -23,6 +23,10 @@ app.controller('MetricCtl', ['$scope', '$stateParams', 'MetricService', '$interv
     $scope.app = $stateParams.app;
     // 数据自动刷新频率
     var DATA_REFRESH_INTERVAL = 1000 * 10;
+    // 图表展示的时间窗口
+    var DATA_WINDOW = 1000 * 60 * 5;
+    // 实时推送数据时，资源排名的刷新频率
+    var RANKING_REFRESH_INTERVAL = 1000 * 60;
 
     $scope.servicePageConfig = {
       pageSize: 6,
@@ -49,14 +53,21 @@ app.controller('MetricCtl', ['$scope', '$stateParams', 'MetricService', '$interv
     reInitIdentityDatas();
     function reInitIdentityDatas() {
       $interval.cancel(intervalId);
+      closeMetricStream();
+      resetMetricCache();
       queryIdentityDatas();
       intervalId = $interval(function () {
+        // 实时推送时只需定期刷新资源排名
+        if (metricStream && new Date().getTime() - lastQueryTime < RANKING_REFRESH_INTERVAL) {
+          return;
+        }
         queryIdentityDatas();
       }, DATA_REFRESH_INTERVAL);
     };
 
     $scope.$on('$destroy', function () {
       $interval.cancel(intervalId);
+      closeMetricStream();
     });
     $scope.initAllChart = function () {
       $.each($scope.metrics, function (idx, metric) {
@@ -170,49 +181,197 @@ app.controller('MetricCtl', ['$scope', '$stateParams', 'MetricService', '$interv
 
     $scope.metrics = [];
     $scope.emptyObjs = [];
+    // 当前页各资源的监控数据，刷新时只查询最新时间戳之后的数据
+    var metricCache;
+    var metricEtag;
+    var metricSince;
+    var lastPageData;
+    var lastQueryTime = 0;
+    function resetMetricCache() {
+      metricCache = null;
+      metricEtag = null;
+      metricSince = null;
+    }
     function queryIdentityDatas() {
       var params = {
         app: $scope.app,
         pageIndex: $scope.servicePageConfig.currentPageIndex,
         pageSize: $scope.servicePageConfig.pageSize,
         desc: $scope.isDescOrder,
-        searchKey: $scope.serviceQuery
+        searchKey: $scope.serviceQuery,
+        since: metricSince,
+        format: 'columnar'
       };
-      MetricService.queryAppSortedIdentities(params).success(function (data) {
-        $scope.metrics = [];
-        $scope.emptyObjs = [];
+      lastQueryTime = new Date().getTime();
+      MetricService.queryAppSortedIdentities(params, metricEtag).success(function (data, status, headers) {
         if (data.code === 0 && data.data) {
-          var metricsObj = data.data.metric;
+          var metricsObj = decodeColumnar(data.data.metric);
           var identityNames = Object.keys(metricsObj);
-          if (identityNames.length < 1) {
-            $scope.emptyServices = true;
-          } else {
-            $scope.emptyServices = false;
+          if (metricCache && !sameKeys(metricCache, identityNames)) {
+            // 当前页的资源有变化，重新查询完整的时间窗口
+            closeMetricStream();
+            resetMetricCache();
+            queryIdentityDatas();
+            return;
           }
-          $scope.servicePageConfig.totalPage = data.data.totalPage;
-          $scope.servicePageConfig.pageSize = data.data.pageSize;
-          var totalCount = data.data.totalCount;
-          $scope.servicePageConfig.totalCount = totalCount;
-          for (i = 0; i < totalCount; i++) {
-            $scope.emptyObjs.push({});
+          metricEtag = headers('ETag');
+          mergeMetrics(metricsObj);
+          lastPageData = data.data;
+          renderIdentityDatas(lastPageData);
+          if (!metricStream && identityNames.length > 0) {
+            openMetricStream(identityNames);
           }
-          $.each(identityNames, function (idx, identityName) {
-            var identityDatas = metricsObj[identityName];
-            var metrics = {};
-            metrics.resource = identityName;
-            // metrics.data = identityDatas;
-            metrics.data = fillZeros(identityDatas);
-            metrics.shortData = lastOfArray(identityDatas, 6);
-            $scope.metrics.push(metrics);
-          });
-          // push an empty element in the last, for ng-init reasons.
-          $scope.metrics.push([]);
         } else {
+          resetMetricCache();
+          $scope.metrics = [];
+          $scope.emptyObjs = [];
           $scope.emptyServices = true;
           console.log(data.msg);
         }
+      }).error(function (data, status) {
+        // 304: 数据没有变化
+        if (status !== 304) {
+          resetMetricCache();
+        }
       });
     };
+    // 订阅当前页资源的实时数据，服务端不支持时继续轮询
+    var metricStream;
+    var metricStreamUnavailable = !window.EventSource;
+    function openMetricStream(identityNames) {
+      if (metricStreamUnavailable) {
+        return;
+      }
+      var url = '/metric/stream?format=columnar&app=' + encodeURIComponent($scope.app);
+      $.each(identityNames, function (idx, identityName) {
+        url += '&resource=' + encodeURIComponent(identityName);
+      });
+      var stream = new EventSource(url);
+      stream.addEventListener('metric', function (event) {
+        $scope.$apply(function () {
+          mergeMetrics(decodeColumnar(JSON.parse(event.data)));
+          renderIdentityDatas(lastPageData);
+        });
+      });
+      stream.addEventListener('unavailable', function () {
+        metricStreamUnavailable = true;
+        closeMetricStream();
+      });
+      stream.onopen = function () {
+        // 补齐订阅之前（或断线期间）写入的数据
+        $scope.$apply(queryIdentityDatas);
+      };
+      stream.onerror = function () {
+        // 浏览器会自动重连，连接被拒绝时才回到轮询
+        if (stream.readyState === EventSource.CLOSED && metricStream === stream) {
+          metricStream = null;
+        }
+      };
+      metricStream = stream;
+    }
+    function closeMetricStream() {
+      if (metricStream) {
+        metricStream.close();
+        metricStream = null;
+      }
+    }
+    // 列式格式：每个资源一个时间戳基准与增量数组，以及各指标的数组
+    function decodeColumnar(metricsObj) {
+      var decoded = {};
+      $.each(metricsObj, function (identityName, series) {
+        var points = [];
+        var timestamp = series.base;
+        for (var i = 0; i < series.delta.length; i++) {
+          timestamp += series.delta[i];
+          points.push({
+            timestamp: timestamp,
+            passQps: series.passQps[i],
+            blockQps: series.blockQps[i],
+            successQps: series.successQps[i],
+            exceptionQps: series.exceptionQps[i],
+            rt: series.rt[i]
+          });
+        }
+        decoded[identityName] = points;
+      });
+      return decoded;
+    }
+    function sameKeys(obj, keys) {
+      if (Object.keys(obj).length !== keys.length) {
+        return false;
+      }
+      for (var i = 0; i < keys.length; i++) {
+        if (!obj.hasOwnProperty(keys[i])) {
+          return false;
+        }
+      }
+      return true;
+    }
+    // 合并新查询到或推送的数据：相同时间戳以新数据为准，并丢弃时间窗口之外的数据
+    function mergeMetrics(metricsObj) {
+      var cache = {};
+      var newest = metricSince || 0;
+      // 推送的数据只含有写入的资源，只合并当前页的资源
+      var identityNames = metricCache ? Object.keys(metricCache) : Object.keys(metricsObj);
+      $.each(identityNames, function (idx, identityName) {
+        var merged = metricCache ? metricCache[identityName].slice() : [];
+        $.each(metricsObj[identityName] || [], function (idx, item) {
+          // 推送的数据可能早于已有的数据，按时间戳插入
+          var pos = merged.length;
+          while (pos > 0 && merged[pos - 1].timestamp > item.timestamp) {
+            pos--;
+          }
+          if (pos > 0 && merged[pos - 1].timestamp === item.timestamp) {
+            merged[pos - 1] = item;
+          } else {
+            merged.splice(pos, 0, item);
+          }
+          if (item.timestamp > newest) {
+            newest = item.timestamp;
+          }
+        });
+        cache[identityName] = merged;
+      });
+      $.each(cache, function (identityName, merged) {
+        var start = 0;
+        while (start < merged.length && merged[start].timestamp < newest - DATA_WINDOW) {
+          start++;
+        }
+        cache[identityName] = merged.slice(start);
+      });
+      metricCache = cache;
+      if (newest > 0) {
+        metricSince = newest;
+      }
+    }
+    function renderIdentityDatas(pageData) {
+      $scope.metrics = [];
+      $scope.emptyObjs = [];
+      var identityNames = Object.keys(metricCache);
+      if (identityNames.length < 1) {
+        $scope.emptyServices = true;
+      } else {
+        $scope.emptyServices = false;
+      }
+      $scope.servicePageConfig.totalPage = pageData.totalPage;
+      $scope.servicePageConfig.pageSize = pageData.pageSize;
+      var totalCount = pageData.totalCount;
+      $scope.servicePageConfig.totalCount = totalCount;
+      for (i = 0; i < totalCount; i++) {
+        $scope.emptyObjs.push({});
+      }
+      $.each(identityNames, function (idx, identityName) {
+        var identityDatas = metricCache[identityName];
+        var metrics = {};
+        metrics.resource = identityName;
+        // metrics.data = identityDatas;
+        metrics.data = fillZeros(identityDatas);
+        metrics.shortData = lastOfArray(identityDatas, 6);
+        $scope.metrics.push(metrics);
+      });
+      // push an empty element in the last, for ng-init reasons.
+      $scope.metrics.push([]);
+    }
     function fillZeros(metricData) {
       if (!metricData || metricData.length == 0) {
         return [];
@@ -2,18 +2,21 @@ var app = angular.module('sentinelDashboardApp');
 
 app.service('MetricService', ['$http', function ($http) {
 
-  this.queryAppSortedIdentities = function (params) {
+  // etag: ETag of the last response to the same query, answered with 304 if nothing changed since
+  this.queryAppSortedIdentities = function (params, etag) {
     return $http({
       url: '/metric/queryTopResourceMetric.json',
       params: params,
+      headers: etag ? { 'If-None-Match': etag } : {},
       method: 'GET'
     });
   };
 
-  this.queryByAppAndIdentity = function (params) {
+  this.queryByAppAndIdentity = function (params, etag) {
     return $http({
       url: '/metric/queryByAppAndResource.json',
       params: params,
+      headers: etag ? { 'If-None-Match': etag } : {},
       method: 'GET'
     });
   };
@@ -0,0 +1,51 @@
+/*
+ * Copyright 1999-2019 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.controller;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import com.alibaba.csp.sentinel.dashboard.domain.Result;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test cases for {@link MetricController}.
+ */
+public class MetricControllerTest {
+
+    @Test
+    public void testForwardedRankingKeepsOrder() {
+        List<String> ranked = new ArrayList<>();
+        StringBuilder metric = new StringBuilder();
+        for (int i = 0; i < 50; i++) {
+            String resource = "resource-" + ((i * 37) % 50);
+            ranked.add(resource);
+            metric.append(i == 0 ? "" : ",").append('"').append(resource).append("\":[]");
+        }
+        String body = "{\"success\":true,\"code\":0,\"msg\":null,\"data\":{\"totalCount\":50,\"metric\":{"
+            + metric + "}}}";
+
+        Result<?> result = MetricController.resultOf(body);
+
+        assertTrue(result.isSuccess());
+        Map<?, ?> data = (Map<?, ?>)result.getData();
+        Map<?, ?> forwarded = (Map<?, ?>)data.get("metric");
+        assertEquals(ranked, new ArrayList<>(forwarded.keySet()));
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 1999-2019 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.domain.vo;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.alibaba.csp.sentinel.dashboard.datasource.entity.MetricEntity;
+import com.alibaba.csp.sentinel.dashboard.repository.metric.InMemoryMetricsRepository;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test cases for {@link MetricSeriesVo}.
+ */
+public class MetricSeriesVoTest {
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    @Test
+    public void testWrittenLikeMetricVos() throws Exception {
+        InMemoryMetricsRepository repository = new InMemoryMetricsRepository();
+        long now = System.currentTimeMillis() / 1000 * 1000;
+        for (int i = 0; i < 5; i++) {
+            repository.save(entity("a", now - i * 1000, i));
+            repository.save(entity("b", now - i * 1000, i * 2));
+        }
+        List<String> resources = Arrays.asList("b", "a", "absent");
+
+        Map<String, List<MetricVo>> expected = new LinkedHashMap<>();
+        for (String resource : resources) {
+            List<MetricVo> vos = MetricVo.fromMetricEntities(
+                repository.queryByAppAndResourceBetween("app", resource, now - 10000, now), resource);
+            vos.sort((x, y) -> Long.compare(x.getTimestamp(), y.getTimestamp()));
+            expected.put(resource, vos);
+        }
+        assertEquals(mapper.writeValueAsString(expected), mapper.writeValueAsString(
+            MetricSeriesVo.byResource(repository, "app", resources, now - 10000, now, null)));
+        assertEquals(mapper.writeValueAsString(expected.get("a")), mapper.writeValueAsString(
+            MetricSeriesVo.of(repository, "app", "a", now - 10000, now)));
+        assertEquals("[]", mapper.writeValueAsString(
+            MetricSeriesVo.of(repository, "app", "absent", now - 10000, now)));
+        assertEquals("{\"metric\":{}}", mapper.writeValueAsString(Collections.singletonMap("metric",
+            MetricSeriesVo.byResource(repository, "app", Collections.emptyList(), now - 10000, now, null))));
+    }
+
+    @Test
+    public void testColumnarLikePoints() throws Exception {
+        InMemoryMetricsRepository repository = new InMemoryMetricsRepository();
+        long now = System.currentTimeMillis() / 1000 * 1000;
+        for (int i = 0; i < 5; i++) {
+            // a gap of a second in the middle
+            long timestamp = now - i * 1000 - (i >= 3 ? 1000 : 0);
+            repository.save(entity("a", timestamp, i));
+        }
+        List<Map<String, Object>> points = mapper.readValue(mapper.writeValueAsString(
+            MetricSeriesVo.of(repository, "app", "a", now - 10000, now)), List.class);
+        Map<String, Object> series = mapper.readValue(mapper.writeValueAsString(
+            MetricSeriesVo.of(repository, "app", "a", now - 10000, now).format(MetricSeriesVo.COLUMNAR_FORMAT)),
+            Map.class);
+        Map<String, List<Object>> columns = (Map)series;
+
+        long timestamp = ((Number)series.get("base")).longValue();
+        assertEquals(points.size(), columns.get("delta").size());
+        for (int i = 0; i < points.size(); i++) {
+            Map<String, Object> point = points.get(i);
+            timestamp += ((Number)columns.get("delta").get(i)).longValue();
+            assertEquals(((Number)point.get("timestamp")).longValue(), timestamp);
+            for (String field : Arrays.asList("passQps", "blockQps", "successQps", "exceptionQps", "rt")) {
+                assertEquals(field, ((Number)point.get(field)).doubleValue(),
+                    ((Number)columns.get(field).get(i)).doubleValue(), 0.0001);
+            }
+        }
+        assertEquals(2000L, ((Number)columns.get("delta").get(2)).longValue());
+    }
+
+    private static MetricEntity entity(String resource, long timestamp, long passQps) {
+        MetricEntity entity = new MetricEntity();
+        entity.setApp("app");
+        entity.setResource(resource);
+        entity.setTimestamp(new Date(timestamp));
+        entity.setGmtCreate(new Date(timestamp + 2000));
+        entity.setGmtModified(new Date(timestamp + 2000));
+        entity.setPassQps(passQps);
+        entity.setSuccessQps(passQps);
+        entity.setBlockQps(1L);
+        entity.setExceptionQps(0L);
+        entity.setRt(passQps * 3.5);
+        entity.setCount(1);
+        return entity;
+    }
+}
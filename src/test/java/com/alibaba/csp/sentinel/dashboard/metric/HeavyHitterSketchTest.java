@@ -0,0 +1,60 @@
+/*
+ * Copyright 1999-2019 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.metric;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test cases for {@link HeavyHitterSketch}.
+ */
+public class HeavyHitterSketchTest {
+
+    @Test
+    public void testHeavyHittersSurviveLongTail() {
+        HeavyHitterSketch sketch = new HeavyHitterSketch(100);
+        for (int i = 0; i < 100_000; i++) {
+            sketch.offer("/order/" + i, 1);
+            if (i % 10 == 0) {
+                sketch.offer("/api/hot", 50);
+                sketch.offer("/api/warm", 5);
+            }
+        }
+        assertEquals(100, sketch.size());
+        assertTrue(sketch.isHeavy("/api/hot"));
+        assertTrue(sketch.isHeavy("/api/warm"));
+        // the count overestimates, by at most the smallest count
+        assertTrue(sketch.countOf("/api/hot") >= 500_000);
+        assertTrue(sketch.countOf("/api/hot") <= 500_000 + 100_000 / 100 + 50);
+        assertFalse(sketch.isHeavy("/order/99999"));
+        assertFalse(sketch.isHeavy("/order/1"));
+    }
+
+    @Test
+    public void testAllHeavyUnderCapacity() {
+        HeavyHitterSketch sketch = new HeavyHitterSketch(100);
+        for (int i = 0; i < 1000; i++) {
+            sketch.offer("resource-" + (i % 100), i % 7);
+        }
+        for (int i = 0; i < 100; i++) {
+            assertTrue(sketch.isHeavy("resource-" + i));
+        }
+        long count = sketch.countOf("resource-42");
+        sketch.decay();
+        assertEquals(count / 2, sketch.countOf("resource-42"));
+    }
+}
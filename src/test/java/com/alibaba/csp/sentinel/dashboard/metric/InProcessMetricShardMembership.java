@@ -0,0 +1,67 @@
+/*
+ * Copyright 1999-2019 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.metric;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * Membership of dashboard nodes living in the same JVM, sharing one set of live members.
+ */
+class InProcessMetricShardMembership implements MetricShardMembership {
+
+    private final String self;
+    private final Set<String> live;
+
+    private InProcessMetricShardMembership(String self, Set<String> live) {
+        this.self = self;
+        this.live = live;
+    }
+
+    /**
+     * @return the membership of each given node, in the same order
+     */
+    static List<InProcessMetricShardMembership> cluster(String... members) {
+        Set<String> live = new ConcurrentSkipListSet<>();
+        Collections.addAll(live, members);
+        List<InProcessMetricShardMembership> cluster = new ArrayList<>();
+        for (String member : members) {
+            cluster.add(new InProcessMetricShardMembership(member, live));
+        }
+        return cluster;
+    }
+
+    void leave() {
+        live.remove(self);
+    }
+
+    void join() {
+        live.add(self);
+    }
+
+    @Override
+    public String self() {
+        return self;
+    }
+
+    @Override
+    public List<String> liveMembers() {
+        return new ArrayList<>(live);
+    }
+}
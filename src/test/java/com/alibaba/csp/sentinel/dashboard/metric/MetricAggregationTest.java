@@ -0,0 +1,135 @@
+/*
+ * Copyright 1999-2019 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.metric;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.alibaba.csp.sentinel.dashboard.datasource.entity.MetricEntity;
+import com.alibaba.csp.sentinel.dashboard.repository.metric.MetricNameDictionary;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test cases for {@link MetricAggregation}.
+ */
+public class MetricAggregationTest {
+
+    @Test
+    public void testAggregateByResourceAndSecond() {
+        MetricAggregation aggregation = new MetricAggregation();
+        long timestamp = 1_600_000_000_000L;
+        int resources = 100;
+        int seconds = 10;
+        int machines = 3;
+        for (int machine = 0; machine < machines; machine++) {
+            for (int s = 0; s < seconds; s++) {
+                for (int r = 0; r < resources; r++) {
+                    // avg rt differs per machine, the aggregated rt is weighted by success qps
+                    aggregation.add("resource-" + r, timestamp + s * 1000, r, 1, machine + 1, 0, machine * 10);
+                }
+            }
+        }
+        assertEquals(resources * seconds, aggregation.size());
+
+        Date gmtCreate = new Date();
+        List<MetricEntity> entities = aggregation.toEntities("app", gmtCreate);
+        assertEquals(resources * seconds, entities.size());
+        Map<String, MetricEntity> byKey = new HashMap<>();
+        for (MetricEntity entity : entities) {
+            assertEquals("app", entity.getApp());
+            assertSame(gmtCreate, entity.getGmtCreate());
+            assertNull(byKey.put(entity.getResource() + "@" + entity.getTimestamp().getTime(), entity));
+        }
+        MetricEntity entity = byKey.get("resource-42@" + (timestamp + 7000));
+        assertEquals(42 * machines, (long)entity.getPassQps());
+        assertEquals(machines, (long)entity.getBlockQps());
+        assertEquals(1 + 2 + 3, (long)entity.getSuccessQps());
+        assertEquals(0 * 1 + 10 * 2 + 20 * 3, entity.getRt(), 0.0001);
+        assertEquals(machines, entity.getCount());
+    }
+
+    @Test
+    public void testSameResourceDifferentSeconds() {
+        MetricAggregation aggregation = new MetricAggregation();
+        aggregation.add("a", 1000, 1, 0, 1, 0, 1);
+        aggregation.add("a", 1999, 1, 0, 1, 0, 1);
+        aggregation.add("a", 2000, 1, 0, 1, 0, 1);
+        aggregation.add("b", 1000, 1, 0, 1, 0, 1);
+        assertEquals(3, aggregation.size());
+    }
+
+    @Test
+    public void testResourcesOfSameHashToldApartByName() {
+        MetricAggregation aggregation = new MetricAggregation();
+        assertEquals("Aa".hashCode(), "BB".hashCode());
+        aggregation.add("Aa", 1000, 1, 0, 1, 0, 1);
+        aggregation.add("BB", 1000, 2, 0, 2, 0, 1);
+        aggregation.add("Aa", 1000, 4, 0, 4, 0, 1);
+        MetricAggregation machine = new MetricAggregation();
+        machine.add("BB", 1000, 8, 0, 8, 0, 1);
+        assertTrue(aggregation.merge(machine));
+        assertEquals(2, aggregation.size());
+        for (MetricEntity entity : aggregation.toEntities("app", new Date())) {
+            assertEquals("Aa".equals(entity.getResource()) ? 5 : 10, (long)entity.getPassQps());
+        }
+    }
+
+    @Test
+    public void testResourceInternedBetweenMachinesSummedOnce() {
+        MetricNameDictionary names = new MetricNameDictionary(1024);
+        MetricAggregation aggregation = new MetricAggregation();
+        MetricAggregation machineA = new MetricAggregation();
+        // decoded by the parser of each machine, not the same instance
+        machineA.add(new String("/api/order"), 1000, 1, 0, 1, 0, 1);
+        // stored by a concurrent write in between
+        names.intern("/api/order");
+        MetricAggregation machineB = new MetricAggregation();
+        machineB.add(new String("/api/order"), 1000, 2, 0, 2, 0, 1);
+        assertTrue(aggregation.merge(machineA));
+        assertTrue(aggregation.merge(machineB));
+
+        List<MetricEntity> entities = aggregation.toEntities("app", new Date());
+        assertEquals(1, entities.size());
+        assertEquals(3, (long)entities.get(0).getPassQps());
+        assertEquals(2, entities.get(0).getCount());
+    }
+
+    @Test
+    public void testMergeUntilSealed() {
+        MetricAggregation aggregation = new MetricAggregation();
+        aggregation.add("a", 1000, 1, 0, 2, 0, 10);
+        MetricAggregation machine = new MetricAggregation();
+        machine.add("a", 1000, 3, 1, 4, 0, 5);
+        machine.add("b", 1000, 1, 0, 1, 0, 1);
+        assertTrue(aggregation.merge(machine));
+        assertEquals(2, aggregation.size());
+        MetricEntity a = aggregation.toEntities("app", new Date()).stream()
+            .filter(e -> "a".equals(e.getResource())).findFirst().get();
+        assertEquals(4, (long)a.getPassQps());
+        assertEquals(6, (long)a.getSuccessQps());
+        assertEquals(2 * 10 + 4 * 5, a.getRt(), 0.0001);
+        assertEquals(2, a.getCount());
+
+        aggregation.seal();
+        assertFalse(aggregation.merge(machine));
+        assertEquals(2, aggregation.size());
+    }
+}
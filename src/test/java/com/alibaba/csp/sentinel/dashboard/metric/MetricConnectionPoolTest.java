@@ -0,0 +1,57 @@
+/*
+ * Copyright 1999-2019 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.metric;
+
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.protocol.HTTP;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test cases for {@link MetricConnectionPool}.
+ */
+public class MetricConnectionPoolTest {
+
+    @Test
+    public void testResizeFromLiveMachines() throws Exception {
+        MetricConnectionPool pool = new MetricConnectionPool(IOReactorConfig.DEFAULT, true);
+        assertEquals(MetricConnectionPool.MAX_PER_ROUTE, pool.getConnectionManager().getDefaultMaxPerRoute());
+        assertEquals(MetricConnectionPool.MIN_TOTAL, pool.getConnectionManager().getMaxTotal());
+
+        pool.resize(1000);
+        assertEquals(1000 * MetricConnectionPool.MAX_PER_ROUTE, pool.getConnectionManager().getMaxTotal());
+        pool.resize(3);
+        assertEquals(MetricConnectionPool.MIN_TOTAL, pool.getConnectionManager().getMaxTotal());
+    }
+
+    @Test
+    public void testCloseConnectionUnlessKeepAlive() throws Exception {
+        HttpGet httpGet = new HttpGet("http://127.0.0.1:8719/metric");
+        new MetricConnectionPool(IOReactorConfig.DEFAULT, true).prepare(httpGet);
+        assertNull(httpGet.getFirstHeader(HTTP.CONN_DIRECTIVE));
+
+        new MetricConnectionPool(IOReactorConfig.DEFAULT, false).prepare(httpGet);
+        assertEquals(HTTP.CONN_CLOSE, httpGet.getFirstHeader(HTTP.CONN_DIRECTIVE).getValue());
+    }
+
+    @Test
+    public void testPulledMachinesNotEvictedAsRemoved() {
+        assertTrue(MetricConnectionPool.REMOVED_MACHINE_IDLE_MS > MetricFetchScheduler.MAX_INTERVAL_MS);
+        assertTrue(MetricConnectionPool.REMOVED_MACHINE_IDLE_MS < MetricConnectionPool.MAX_KEEP_ALIVE_MS);
+    }
+}
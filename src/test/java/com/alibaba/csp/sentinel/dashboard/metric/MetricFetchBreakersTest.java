@@ -0,0 +1,98 @@
+/*
+ * Copyright 1999-2019 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.metric;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.alibaba.csp.sentinel.dashboard.discovery.MachineInfo;
+import com.alibaba.csp.sentinel.dashboard.metric.MachineFetchBreaker.State;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test cases for {@link MetricFetchBreakers}.
+ */
+public class MetricFetchBreakersTest {
+
+    private final AtomicLong now = new AtomicLong(1_600_000_000_000L);
+    private final MetricFetchBreakers breakers = new MetricFetchBreakers(now::get);
+    private final MachineInfo machine = MachineInfo.of("app", "127.0.0.1", 8719);
+
+    @Test
+    public void testOpenAfterConsecutiveFailures() {
+        for (int i = 0; i < MetricFetchBreakers.FAILURE_THRESHOLD - 1; i++) {
+            assertTrue(breakers.tryAcquire(machine));
+            breakers.onFailure(machine);
+        }
+        assertEquals(State.CLOSED, only().getState());
+        assertTrue(breakers.tryAcquire(machine));
+        breakers.onFailure(machine);
+        assertEquals(State.OPEN, only().getState());
+        assertEquals(MetricFetchBreakers.MIN_BACKOFF_MS, only().getBackoffMs());
+        assertFalse(breakers.tryAcquire(machine));
+
+        // a single probe after the backoff
+        now.addAndGet(MetricFetchBreakers.MIN_BACKOFF_MS);
+        assertTrue(breakers.tryAcquire(machine));
+        assertEquals(State.HALF_OPEN, only().getState());
+        assertFalse(breakers.tryAcquire(machine));
+
+        breakers.onSuccess(machine);
+        assertTrue(breakers.snapshot().isEmpty());
+        assertTrue(breakers.tryAcquire(machine));
+    }
+
+    @Test
+    public void testBackoffDoublesUpToMax() {
+        for (int i = 0; i < MetricFetchBreakers.FAILURE_THRESHOLD; i++) {
+            breakers.onFailure(machine);
+        }
+        long backoff = MetricFetchBreakers.MIN_BACKOFF_MS;
+        for (int i = 0; i < 10; i++) {
+            assertEquals(backoff, only().getBackoffMs());
+            now.addAndGet(backoff - 1);
+            assertFalse(breakers.tryAcquire(machine));
+            now.incrementAndGet();
+            assertTrue(breakers.tryAcquire(machine));
+            breakers.onFailure(machine);
+            backoff = Math.min(backoff * 2, MetricFetchBreakers.MAX_BACKOFF_MS);
+        }
+        assertEquals(MetricFetchBreakers.MAX_BACKOFF_MS, only().getBackoffMs());
+        assertEquals(now.get() + MetricFetchBreakers.MAX_BACKOFF_MS, only().getRetryAtMs());
+    }
+
+    @Test
+    public void testSuccessResetsFailures() {
+        breakers.onFailure(machine);
+        breakers.onFailure(machine);
+        breakers.onSuccess(machine);
+        breakers.onFailure(machine);
+        assertEquals(1, only().getFailures());
+        assertEquals(State.CLOSED, only().getState());
+
+        breakers.remove("app", "127.0.0.1", 8719);
+        assertTrue(breakers.snapshot().isEmpty());
+    }
+
+    private MachineFetchBreaker only() {
+        List<MachineFetchBreaker> snapshot = breakers.snapshot();
+        assertEquals(1, snapshot.size());
+        return snapshot.get(0);
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright 1999-2019 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.metric;
+
+import com.alibaba.csp.sentinel.dashboard.discovery.MachineInfo;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test cases for {@link MetricFetchPositions}.
+ */
+public class MetricFetchPositionsTest {
+
+    private static final long END_MS = 1_600_000_000_000L;
+
+    @Test
+    public void testAdvanceOnlyOnSuccess() {
+        MetricFetchPositions positions = new MetricFetchPositions();
+        MachineInfo healthy = MachineInfo.of("app", "127.0.0.1", 8719);
+        MachineInfo failing = MachineInfo.of("app", "127.0.0.1", 8720);
+
+        long start = positions.windowStart(healthy, END_MS);
+        assertEquals(END_MS - MetricFetchPositions.INITIAL_WINDOW_MS + 1000, start);
+        assertEquals(start, positions.windowStart(failing, END_MS));
+        positions.advance(healthy, END_MS);
+
+        // one second later, the healthy machine is only asked for the new second
+        assertEquals(END_MS + 1000, positions.windowStart(healthy, END_MS + 1000));
+        assertTrue(positions.windowStart(healthy, END_MS) > END_MS);
+        // the failing one is asked again from where it was
+        assertEquals(start, positions.windowStart(failing, END_MS + 1000));
+        assertEquals("app", positions.get("app", "127.0.0.1", 8719).getApp());
+        assertEquals(END_MS, positions.get("app", "127.0.0.1", 8719).getLastFetch().getTime());
+
+        positions.remove("app", "127.0.0.1", 8720);
+        assertNull(positions.get("app", "127.0.0.1", 8720));
+        assertEquals(1, positions.size());
+    }
+
+    @Test
+    public void testCatchUpIsBounded() {
+        MetricFetchPositions positions = new MetricFetchPositions();
+        MachineInfo machine = MachineInfo.of("app", "127.0.0.1", 8719);
+        positions.advance(machine, END_MS);
+
+        long endTime = END_MS + MetricFetchPositions.MAX_CATCH_UP_MS * 2;
+        long start = positions.windowStart(machine, endTime);
+        assertEquals(endTime - MetricFetchPositions.MAX_CATCH_UP_MS, start);
+        long end = MetricFetchPositions.windowEnd(start, endTime);
+        assertEquals(start + MetricFetchPositions.MAX_WINDOW_MS - 1000, end);
+
+        positions.advance(machine, end);
+        // never moves back
+        positions.advance(machine, END_MS);
+        assertEquals(end + 1000, positions.windowStart(machine, endTime));
+        assertEquals(endTime, MetricFetchPositions.windowEnd(endTime - 1000, endTime));
+    }
+}
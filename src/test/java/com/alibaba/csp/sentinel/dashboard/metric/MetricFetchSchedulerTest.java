@@ -0,0 +1,160 @@
+/*
+ * Copyright 1999-2019 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.metric;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test cases for {@link MetricFetchScheduler}.
+ */
+public class MetricFetchSchedulerTest {
+
+    private static final long START_MS = 1_600_000_000_000L;
+
+    private final Map<String, List<Long>> fired = new HashMap<>();
+    private long nowMs = START_MS;
+
+    private MetricFetchScheduler newScheduler(MetricFetchScheduler.FetchAction action) {
+        return new MetricFetchScheduler(app -> {
+            fired.computeIfAbsent(app, k -> new ArrayList<>()).add(nowMs);
+            return action.fetch(app);
+        }, () -> nowMs);
+    }
+
+    private void runUntil(MetricFetchScheduler scheduler, long endMs) {
+        while (nowMs < endMs) {
+            nowMs += MetricFetchScheduler.TICK_MS;
+            scheduler.advance(nowMs);
+        }
+    }
+
+    @Test
+    public void testAppsAreStaggered() {
+        MetricFetchScheduler scheduler = newScheduler(app -> CompletableFuture.completedFuture(1));
+        List<String> apps = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            apps.add("app-" + i);
+        }
+        scheduler.syncApps(apps, nowMs);
+        runUntil(scheduler, START_MS + MetricFetchScheduler.DEFAULT_INTERVAL_MS);
+
+        assertEquals(apps.size(), fired.size());
+        Set<Long> ticks = new HashSet<>();
+        for (List<Long> times : fired.values()) {
+            assertEquals(1, times.size());
+            ticks.add(times.get(0));
+        }
+        // spread over the interval rather than fired on the same tick
+        assertTrue(ticks.size() > 30);
+    }
+
+    @Test
+    public void testViewedAppsEverySecondOthersBackOff() {
+        MetricFetchScheduler scheduler = newScheduler(
+            app -> CompletableFuture.completedFuture(app.startsWith("idle") ? 0 : 1));
+        scheduler.syncApps(Arrays.asList("viewed", "busy", "idle"), nowMs);
+        scheduler.markViewed("viewed", nowMs);
+        runUntil(scheduler, START_MS + 20_000);
+        scheduler.markViewed("viewed", nowMs);
+        runUntil(scheduler, START_MS + 40_000);
+
+        assertIntervals(fired.get("viewed"), MetricFetchScheduler.VIEWED_INTERVAL_MS);
+        assertIntervals(fired.get("busy"), MetricFetchScheduler.DEFAULT_INTERVAL_MS);
+        List<Long> idle = fired.get("idle");
+        assertEquals(MetricFetchScheduler.MAX_INTERVAL_MS, idle.get(idle.size() - 1) - idle.get(idle.size() - 2));
+
+        // no longer viewed
+        runUntil(scheduler, START_MS + 80_000);
+        List<Long> viewed = fired.get("viewed");
+        assertEquals(MetricFetchScheduler.DEFAULT_INTERVAL_MS,
+            viewed.get(viewed.size() - 1) - viewed.get(viewed.size() - 2));
+    }
+
+    @Test
+    public void testBackOffCappedUntilMetricsReturn() {
+        int[] points = {0};
+        MetricFetchScheduler scheduler = newScheduler(app -> CompletableFuture.completedFuture(points[0]));
+        scheduler.syncApps(Arrays.asList("app"), nowMs);
+        runUntil(scheduler, START_MS + 120_000);
+
+        List<Long> times = fired.get("app");
+        assertIntervals(times.subList(1, times.size()), MetricFetchScheduler.MAX_INTERVAL_MS);
+
+        points[0] = 1;
+        runUntil(scheduler, START_MS + 180_000);
+        List<Long> busy = times.subList(times.size() - 5, times.size());
+        assertIntervals(busy, MetricFetchScheduler.DEFAULT_INTERVAL_MS);
+    }
+
+    @Test
+    public void testViewingBringsNextFetchForward() {
+        MetricFetchScheduler scheduler = newScheduler(app -> CompletableFuture.completedFuture(0));
+        scheduler.syncApps(Arrays.asList("app"), nowMs);
+        runUntil(scheduler, START_MS + 30_000);
+        int fetches = fired.get("app").size();
+
+        scheduler.markViewed("app", nowMs);
+        runUntil(scheduler, nowMs + MetricFetchScheduler.VIEWED_INTERVAL_MS);
+        assertEquals(fetches + 1, fired.get("app").size());
+        assertTrue(scheduler.snapshot(nowMs).get(0).isViewed());
+    }
+
+    @Test
+    public void testNoConcurrentFetchOfApp() {
+        List<CompletableFuture<Integer>> pending = new ArrayList<>();
+        MetricFetchScheduler scheduler = newScheduler(app -> {
+            CompletableFuture<Integer> future = new CompletableFuture<>();
+            pending.add(future);
+            return future;
+        });
+        scheduler.syncApps(Arrays.asList("slow"), nowMs);
+        scheduler.markViewed("slow", nowMs);
+        runUntil(scheduler, START_MS + 10_000);
+        assertEquals(1, fired.get("slow").size());
+        AppFetchSchedule schedule = scheduler.snapshot(nowMs).get(0);
+        assertEquals("slow", schedule.getApp());
+        assertTrue(schedule.isFetching());
+
+        // completes with a lag of several seconds, the interval follows
+        pending.get(0).complete(1);
+        assertFalse(scheduler.snapshot(nowMs).get(0).isFetching());
+        assertTrue(scheduler.snapshot(nowMs).get(0).getLagMs() > 0);
+        scheduler.syncApps(Arrays.asList("slow"), nowMs);
+        assertEquals(1, scheduler.snapshot(nowMs).size());
+        scheduler.syncApps(new ArrayList<>(), nowMs);
+        assertTrue(scheduler.snapshot(nowMs).isEmpty());
+        runUntil(scheduler, nowMs + 20_000);
+        assertEquals(1, fired.get("slow").size());
+    }
+
+    private static void assertIntervals(List<Long> times, long intervalMs) {
+        assertTrue(times.size() > 2);
+        for (int i = 1; i < times.size(); i++) {
+            assertEquals(intervalMs, times.get(i) - times.get(i - 1));
+        }
+    }
+}
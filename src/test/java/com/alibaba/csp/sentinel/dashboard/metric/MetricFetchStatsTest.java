@@ -0,0 +1,85 @@
+/*
+ * Copyright 1999-2019 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.metric;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test cases for {@link MetricFetchStats}.
+ */
+public class MetricFetchStatsTest {
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testLatencyHistogram() {
+        MetricFetchStats stats = new MetricFetchStats();
+        stats.recordLatency(0);
+        stats.recordLatency(5);
+        stats.recordLatency(6);
+        stats.recordLatency(4999);
+        stats.recordLatency(60_000);
+        Map<String, Object> histogram = (Map<String, Object>)stats.report().get("pullLatencyMs");
+        assertEquals(5L, histogram.get("count"));
+        assertEquals(0L + 5 + 6 + 4999 + 60_000, histogram.get("sum"));
+        Map<String, Long> buckets = (Map<String, Long>)histogram.get("buckets");
+        assertEquals(MetricFetchStats.LATENCY_BOUNDS_MS.length + 1, buckets.size());
+        assertEquals(2L, (long)buckets.get("le5"));
+        assertEquals(1L, (long)buckets.get("le10"));
+        assertEquals(1L, (long)buckets.get("le5000"));
+        assertEquals(1L, (long)buckets.get("inf"));
+    }
+
+    @Test
+    public void testAppCyclesAndLag() {
+        MetricFetchStats stats = new MetricFetchStats();
+        stats.recordCycle("b", 100);
+        stats.recordCycle("b", 300);
+        stats.recordCycle("gone", 1);
+        stats.retainApps(Collections.singletonList("b"));
+
+        List<Map<String, Object>> apps = stats.appReport(Collections.singletonMap("a", 2000L));
+        assertEquals(2, apps.size());
+        assertEquals("a", apps.get(0).get("app"));
+        assertEquals(2000L, apps.get(0).get("lagMs"));
+        assertNull(apps.get(0).get("cycles"));
+        Map<String, Object> b = apps.get(1);
+        assertEquals(2L, b.get("cycles"));
+        assertEquals(300L, b.get("lastCycleMs"));
+        assertEquals(200L, b.get("avgCycleMs"));
+        assertEquals(300L, b.get("maxCycleMs"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testLinesPerSecond() {
+        MetricFetchStats stats = new MetricFetchStats();
+        stats.tick(0);
+        stats.linesParsed.add(5000);
+        stats.tick(500);
+        stats.tick(2000);
+        Map<String, Object> lines = (Map<String, Object>)stats.report().get("lines");
+        assertEquals(5000L, lines.get("parsed"));
+        assertEquals(2500L, lines.get("perSecond"));
+        long average = (Long)lines.get("perSecondAvg1m");
+        assertTrue(average > 0 && average < 2500);
+    }
+}
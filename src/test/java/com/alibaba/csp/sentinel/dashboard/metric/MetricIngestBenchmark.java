@@ -0,0 +1,201 @@
+/*
+ * Copyright 1999-2019 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.metric;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import com.alibaba.csp.sentinel.node.metric.MetricNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Ingest load test: the cost per metric line for the dashboard to take one second of metrics of an app with
+ * {@link #MACHINES} machines, over local HTTP.
+ * <ul>
+ * <li>{@code pull}: a request to each machine, sent in parallel like {@link MetricFetcher} does, each response
+ * parsed into a machine aggregation merged into the one of the app;</li>
+ * <li>{@code push}: a single gzip batch holding the lines of all machines, posted by a reporter and parsed into
+ * the {@link MetricPushBuffer}.</li>
+ * </ul>
+ * <p>
+ * Run {@link #main(String[])} from the IDE, or with the test classpath.
+ * </p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MetricIngestBenchmark {
+
+    private static final int MACHINES = 50;
+    private static final int RESOURCES = 100;
+    private static final int LINES = MACHINES * RESOURCES;
+
+    private HttpServer server;
+    private ExecutorService serverExecutor;
+    private ExecutorService pullExecutor;
+    private String baseUrl;
+    private byte[] machineBody;
+    private byte[] pushBody;
+
+    private final MetricPushBuffer pushBuffer = new MetricPushBuffer(new MetricFetchPositions());
+
+    @Setup
+    public void setUp() throws IOException {
+        long timestamp = System.currentTimeMillis() / 1000 * 1000;
+        StringBuilder sb = new StringBuilder();
+        for (int r = 0; r < RESOURCES; r++) {
+            MetricNode node = new MetricNode();
+            node.setTimestamp(timestamp);
+            node.setResource("com.alibaba.csp.sentinel.demo.Service:method" + r + "(java.lang.String)");
+            node.setPassQps(100 + r % 17);
+            node.setBlockQps(r % 3);
+            node.setSuccessQps(100 + r % 17);
+            node.setExceptionQps(r % 2);
+            node.setRt(5 + r % 11);
+            sb.append(node.toThinString()).append('\n');
+        }
+        machineBody = sb.toString().getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream batch = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(batch)) {
+            for (int m = 0; m < MACHINES; m++) {
+                out.write(machineBody);
+            }
+        }
+        pushBody = batch.toByteArray();
+
+        // answer without waiting for delayed acks, which would dominate both modes
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        serverExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        pullExecutor = Executors.newFixedThreadPool(MACHINES);
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 1024);
+        server.createContext("/metric", exchange -> respond(exchange, machineBody));
+        server.createContext("/registry/metric", exchange -> {
+            MetricAggregation aggregation = new MetricAggregation();
+            try (InputStream in = new GZIPInputStream(exchange.getRequestBody())) {
+                parse(in, aggregation);
+            }
+            pushBuffer.offer("app", null, aggregation, System.currentTimeMillis());
+            respond(exchange, "{\"success\":true}".getBytes(StandardCharsets.UTF_8));
+        });
+        server.setExecutor(serverExecutor);
+        server.start();
+        baseUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    @TearDown
+    public void tearDown() {
+        server.stop(0);
+        serverExecutor.shutdownNow();
+        pullExecutor.shutdownNow();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public int pull() {
+        MetricAggregation aggregation = new MetricAggregation();
+        CompletableFuture<?>[] pulls = new CompletableFuture[MACHINES];
+        for (int m = 0; m < MACHINES; m++) {
+            pulls[m] = CompletableFuture.runAsync(() -> {
+                try {
+                    HttpURLConnection connection = (HttpURLConnection)new URL(baseUrl + "/metric").openConnection();
+                    MetricAggregation machine = new MetricAggregation();
+                    try (InputStream in = connection.getInputStream()) {
+                        parse(in, machine);
+                    }
+                    aggregation.merge(machine);
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            }, pullExecutor);
+        }
+        CompletableFuture.allOf(pulls).join();
+        return aggregation.size();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public int push() throws IOException {
+        HttpURLConnection connection = (HttpURLConnection)new URL(baseUrl + "/registry/metric").openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setRequestProperty("Content-Type", "text/plain");
+        connection.setRequestProperty("Content-Encoding", "gzip");
+        connection.setFixedLengthStreamingMode(pushBody.length);
+        try (OutputStream out = connection.getOutputStream()) {
+            out.write(pushBody);
+        }
+        try (InputStream in = connection.getInputStream()) {
+            while (in.read() != -1) {
+                // drain the response
+            }
+        }
+        return pushBuffer.drain(System.currentTimeMillis()).size();
+    }
+
+    private void parse(InputStream in, MetricAggregation aggregation) throws IOException {
+        new MetricLineParser().parse(in, StandardCharsets.UTF_8,
+            (timestamp, resource, passQps, blockQps, successQps, exceptionQps, rt) -> aggregation.add(
+                resource, timestamp, passQps, blockQps, successQps, exceptionQps, rt));
+    }
+
+    private static void respond(HttpExchange exchange, byte[] body) throws IOException {
+        exchange.getRequestBody().close();
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+            .include(MetricIngestBenchmark.class.getSimpleName())
+            .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 1999-2019 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.metric;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import com.alibaba.csp.sentinel.node.metric.MetricNode;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Cost per line of parsing a {@code metric} response: splitting the decoded body and
+ * {@link MetricNode#fromThinString(String)} as before, against {@link MetricLineParser}.
+ * <p>
+ * Run {@link #main(String[])} from the IDE, or with the test classpath; add {@code -prof gc}
+ * through the options to compare the allocation per line.
+ * </p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class MetricLineParserBenchmark {
+
+    private static final int LINES = 4000;
+    private static final int RESOURCES = 200;
+
+    private byte[] body;
+    private MetricLineParser parser;
+
+    @Setup
+    public void setUp() {
+        StringBuilder sb = new StringBuilder();
+        long timestamp = System.currentTimeMillis() / 1000 * 1000;
+        for (int i = 0; i < LINES; i++) {
+            MetricNode node = new MetricNode();
+            node.setTimestamp(timestamp + (i / RESOURCES) * 1000L);
+            node.setResource("com.alibaba.csp.sentinel.demo.Service:method" + (i % RESOURCES) + "(java.lang.String)");
+            node.setPassQps(100 + i % 17);
+            node.setBlockQps(i % 3);
+            node.setSuccessQps(100 + i % 17);
+            node.setExceptionQps(i % 2);
+            node.setRt(5 + i % 11);
+            sb.append(node.toThinString()).append('\n');
+        }
+        body = sb.toString().getBytes(StandardCharsets.UTF_8);
+        parser = new MetricLineParser();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public void splitAndFromThinString(Blackhole blackhole) {
+        String text = new String(body, StandardCharsets.UTF_8);
+        for (String line : text.split("\n")) {
+            MetricNode node = MetricNode.fromThinString(line);
+            blackhole.consume(node.getResource());
+            blackhole.consume(node.getTimestamp() + node.getPassQps() + node.getBlockQps() + node.getSuccessQps()
+                + node.getExceptionQps() + node.getRt());
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public void streamingParser(Blackhole blackhole) throws IOException {
+        parser.parse(new ByteArrayInputStream(body), StandardCharsets.UTF_8,
+            (timestamp, resource, passQps, blockQps, successQps, exceptionQps, rt) -> {
+                blackhole.consume(resource);
+                blackhole.consume(timestamp + passQps + blockQps + successQps + exceptionQps + rt);
+            });
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+            .include(MetricLineParserBenchmark.class.getSimpleName())
+            .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright 1999-2019 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.metric;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.alibaba.csp.sentinel.node.metric.MetricNode;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test cases for {@link MetricLineParser}.
+ */
+public class MetricLineParserTest {
+
+    @Test
+    public void testParseLikeMetricNode() throws IOException {
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            MetricNode node = new MetricNode();
+            node.setTimestamp(1_600_000_000_000L + i * 1000);
+            node.setResource("resource|" + (i % 7) + "-资源");
+            node.setPassQps(i);
+            node.setBlockQps(i * 2);
+            node.setSuccessQps(i * 3);
+            node.setExceptionQps(i % 5);
+            node.setRt(i * 7);
+            node.setConcurrency(i);
+            body.append(node.toThinString()).append('\n');
+        }
+        List<String> expected = new ArrayList<>();
+        for (String line : body.toString().split("\n")) {
+            MetricNode node = MetricNode.fromThinString(line);
+            expected.add(format(node.getTimestamp(), node.getResource(), node.getPassQps(), node.getBlockQps(),
+                node.getSuccessQps(), node.getExceptionQps(), node.getRt()));
+        }
+
+        // a tiny buffer makes lines span reads
+        List<String> parsed = new ArrayList<>();
+        int lines = new MetricLineParser(16).parse(stream(body.toString()), StandardCharsets.UTF_8,
+            (timestamp, resource, passQps, blockQps, successQps, exceptionQps, rt) ->
+                parsed.add(format(timestamp, resource, passQps, blockQps, successQps, exceptionQps, rt)));
+        assertEquals(100, lines);
+        assertEquals(expected, parsed);
+    }
+
+    @Test
+    public void testResourceNamesAreReused() throws IOException {
+        MetricLineParser parser = new MetricLineParser();
+        List<String> resources = new ArrayList<>();
+        MetricLineParser.Handler handler = (timestamp, resource, passQps, blockQps, successQps, exceptionQps, rt) ->
+            resources.add(resource);
+        parser.parse(stream("1|res|1|0|1|0|1\n2|res|1|0|1|0|1"), StandardCharsets.UTF_8, handler);
+        parser.parse(stream("3|res|1|0|1|0|1\n"), StandardCharsets.UTF_8, handler);
+        assertEquals(3, resources.size());
+        assertSame(resources.get(0), resources.get(1));
+        assertSame(resources.get(0), resources.get(2));
+    }
+
+    @Test
+    public void testSkipMalformedLines() throws IOException {
+        List<String> parsed = new ArrayList<>();
+        List<String> malformed = new ArrayList<>();
+        int lines = new MetricLineParser().parse(
+            stream("1000|a|1|2|3|4|5.5|0|0|0\r\n\n2000|b|x|2|3|4|5\n3000|c|1\n4000||1|2|3|4|5\n5000|d|1|2|3|4|5|0"),
+            StandardCharsets.UTF_8, new MetricLineParser.Handler() {
+                @Override
+                public void handle(long timestamp, String resource, long passQps, long blockQps, long successQps,
+                                   long exceptionQps, double rt) {
+                    parsed.add(format(timestamp, resource, passQps, blockQps, successQps, exceptionQps, rt));
+                }
+
+                @Override
+                public void onMalformedLine(String line) {
+                    malformed.add(line);
+                }
+            });
+        assertEquals(2, lines);
+        assertEquals("1000,a,1,2,3,4,5.5", parsed.get(0));
+        assertEquals("5000,d,1,2,3,4,5.0", parsed.get(1));
+        assertEquals(3, malformed.size());
+        assertEquals("2000|b|x|2|3|4|5", malformed.get(0));
+    }
+
+    @Test
+    public void testNoMetrics() throws IOException {
+        int lines = new MetricLineParser().parse(stream(MetricFetcher.NO_METRICS + "\n"), StandardCharsets.UTF_8,
+            (timestamp, resource, passQps, blockQps, successQps, exceptionQps, rt) -> fail());
+        assertEquals(0, lines);
+        assertEquals(0, new MetricLineParser().parse(stream(""), StandardCharsets.UTF_8,
+            (timestamp, resource, passQps, blockQps, successQps, exceptionQps, rt) -> fail()));
+    }
+
+    private static String format(long timestamp, String resource, long passQps, long blockQps, long successQps,
+                                 long exceptionQps, double rt) {
+        return timestamp + "," + resource + "," + passQps + "," + blockQps + "," + successQps + ","
+            + exceptionQps + "," + rt;
+    }
+
+    private static ByteArrayInputStream stream(String body) {
+        return new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright 1999-2019 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.metric;
+
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.alibaba.csp.sentinel.dashboard.datasource.entity.MetricEntity;
+import com.alibaba.csp.sentinel.dashboard.discovery.MachineInfo;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test cases for {@link MetricPushBuffer}.
+ */
+public class MetricPushBufferTest {
+
+    @Test
+    public void testBatchesOfMachinesAreAggregated() {
+        MetricPushBuffer buffer = new MetricPushBuffer(new MetricFetchPositions());
+        long now = 1_600_000_000_000L;
+        assertFalse(buffer.isPushing("app", now));
+        buffer.offer("app", null, batch(1), now);
+        buffer.offer("app", MachineInfo.of("app", "10.0.0.2", 8719), batch(2), now);
+        buffer.offer("other", null, batch(1), now);
+        assertTrue(buffer.isPushing("app", now));
+
+        Map<String, MetricAggregation> drained = buffer.drain(now);
+        assertEquals(2, drained.size());
+        MetricEntity entity = drained.get("app").toEntities("app", new Date()).get(0);
+        assertEquals(3, (long)entity.getPassQps());
+        assertEquals(2, entity.getCount());
+        assertTrue(buffer.drain(now).isEmpty());
+    }
+
+    @Test
+    public void testStopPushing() {
+        MetricPushBuffer buffer = new MetricPushBuffer(new MetricFetchPositions());
+        long now = 1_600_000_000_000L;
+        buffer.offer("app", null, batch(1), now);
+        long later = now + MetricPushBuffer.PUSH_TTL_MS + 1;
+        assertFalse(buffer.isPushing("app", later));
+        // the pending batch is still drained once
+        assertEquals(1, buffer.drain(later).size());
+        assertTrue(buffer.drain(later).isEmpty());
+        buffer.offer("app", null, batch(1), later);
+        assertTrue(buffer.isPushing("app", later));
+    }
+
+    @Test
+    public void testOnlyMachinesPushingThemselvesArePushing() {
+        MetricPushBuffer buffer = new MetricPushBuffer(new MetricFetchPositions());
+        MachineInfo machine = MachineInfo.of("app", "10.0.0.1", 8719);
+        long now = 1_600_000_000_000L;
+        buffer.offer("app", null, batch(1), now);
+        assertTrue(buffer.isPushing("app", now));
+        assertFalse(buffer.isPushing("app", machine, now));
+
+        buffer.offer("app", machine, batch(1), now);
+        assertTrue(buffer.isPushing("app", machine, now));
+        assertFalse(buffer.isPushing("app", MachineInfo.of("app", "10.0.0.2", 8719), now));
+        assertFalse(buffer.isPushing("other", MachineInfo.of("other", "10.0.0.1", 8719), now));
+
+        long later = now + MetricPushBuffer.PUSH_TTL_MS + 1;
+        buffer.drain(later);
+        assertFalse(buffer.isPushing("app", machine, later));
+    }
+
+    @Test
+    public void testPullResumesAfterPushedSeconds() {
+        MetricFetchPositions positions = new MetricFetchPositions();
+        MetricPushBuffer buffer = new MetricPushBuffer(positions);
+        MachineInfo machine = MachineInfo.of("app", "10.0.0.1", 8719);
+        long now = 1_600_000_060_000L;
+        // pulled until a minute ago, then pushing every second since
+        positions.advance(machine, now - 60_000);
+        for (long second = now - 59_000; second <= now; second += 1000) {
+            buffer.offer("app", machine, batch(1, second), second);
+        }
+        long later = now + MetricPushBuffer.PUSH_TTL_MS + 1;
+        assertFalse(buffer.isPushing("app", machine, later));
+        // pulled again only for the seconds not pushed
+        assertEquals(now + 1000, positions.windowStart(machine, later));
+
+        // a batch of no given machine moves no position
+        buffer.offer("app", null, batch(1, later), later);
+        assertEquals(now + 1000, positions.windowStart(machine, later));
+    }
+
+    @Test
+    public void testNoBatchLostWhileDraining() throws InterruptedException {
+        MetricPushBuffer buffer = new MetricPushBuffer(new MetricFetchPositions());
+        int threads = 4;
+        int batches = 5000;
+        CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            new Thread(() -> {
+                for (int i = 0; i < batches; i++) {
+                    buffer.offer("app", null, batch(1), 0);
+                }
+                done.countDown();
+            }).start();
+        }
+        AtomicLong pass = new AtomicLong();
+        while (done.getCount() > 0) {
+            drainInto(buffer, pass);
+        }
+        drainInto(buffer, pass);
+        assertEquals(threads * batches, pass.get());
+    }
+
+    private static void drainInto(MetricPushBuffer buffer, AtomicLong pass) {
+        for (MetricAggregation aggregation : buffer.drain(0).values()) {
+            for (MetricEntity entity : aggregation.toEntities("app", new Date())) {
+                pass.addAndGet(entity.getPassQps());
+            }
+        }
+    }
+
+    private static MetricAggregation batch(long pass) {
+        return batch(pass, 1_600_000_000_000L);
+    }
+
+    private static MetricAggregation batch(long pass, long timestamp) {
+        MetricAggregation batch = new MetricAggregation();
+        batch.add("resource", timestamp, pass, 0, pass, 0, 1);
+        return batch;
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 1999-2019 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.metric;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test cases for {@link MetricShardRouter}.
+ */
+public class MetricShardRouterTest {
+
+    private static final int APPS = 3000;
+
+    @Test
+    public void testEachAppHasOneOwner() {
+        List<MetricShardRouter> routers = routers(InProcessMetricShardMembership.cluster("a:8080", "b:8080",
+            "c:8080"));
+        Map<String, Integer> appsPerNode = new HashMap<>();
+        for (int i = 0; i < APPS; i++) {
+            String app = "app-" + i;
+            String owner = routers.get(0).ownerOf(app);
+            int local = 0;
+            for (MetricShardRouter router : routers) {
+                assertEquals(owner, router.ownerOf(app));
+                if (router.isLocal(app)) {
+                    local++;
+                }
+            }
+            assertEquals(1, local);
+            appsPerNode.merge(owner, 1, Integer::sum);
+        }
+        assertEquals(3, appsPerNode.size());
+        for (int apps : appsPerNode.values()) {
+            // evenly spread by the virtual nodes
+            assertTrue(String.valueOf(apps), apps > APPS / 3 * 0.8 && apps < APPS / 3 * 1.2);
+        }
+    }
+
+    @Test
+    public void testOnlyAppsOfLeavingNodeMove() {
+        List<InProcessMetricShardMembership> cluster = InProcessMetricShardMembership.cluster("a:8080", "b:8080",
+            "c:8080");
+        List<MetricShardRouter> routers = routers(cluster);
+        MetricShardRouter router = routers.get(0);
+        Map<String, String> before = owners(router);
+
+        cluster.get(2).leave();
+        Map<String, String> after = owners(router);
+        for (Map.Entry<String, String> entry : before.entrySet()) {
+            String owner = after.get(entry.getKey());
+            assertFalse("c:8080".equals(owner));
+            if (!"c:8080".equals(entry.getValue())) {
+                assertEquals(entry.getValue(), owner);
+            }
+        }
+
+        cluster.get(2).join();
+        assertEquals(before, owners(router));
+    }
+
+    @Test
+    public void testDisabledOwnsEverything() {
+        MetricShardRouter router = new MetricShardRouter(null, null);
+        assertFalse(router.isEnabled());
+        assertTrue(router.isLocal("app"));
+        assertNull(router.ownerOf("app"));
+        assertTrue(router.liveMembers().isEmpty());
+        assertFalse(router.isValidToken(null));
+        assertFalse(router.isValidToken("token"));
+    }
+
+    @Test
+    public void testToken() {
+        MetricShardRouter router = routers(InProcessMetricShardMembership.cluster("a:8080")).get(0);
+        assertTrue(router.isValidToken("secret"));
+        assertFalse(router.isValidToken("secreT"));
+        assertFalse(router.isValidToken(null));
+        assertTrue(router.isLocal("app"));
+    }
+
+    private static List<MetricShardRouter> routers(List<InProcessMetricShardMembership> cluster) {
+        List<MetricShardRouter> routers = new ArrayList<>();
+        for (InProcessMetricShardMembership membership : cluster) {
+            routers.add(new MetricShardRouter(membership, "secret"));
+        }
+        return routers;
+    }
+
+    private static Map<String, String> owners(MetricShardRouter router) {
+        Map<String, String> owners = new HashMap<>();
+        for (int i = 0; i < APPS; i++) {
+            owners.put("app-" + i, router.ownerOf("app-" + i));
+        }
+        return owners;
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright 1999-2019 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.metric;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import com.alibaba.csp.sentinel.dashboard.datasource.entity.MetricEntity;
+import com.alibaba.csp.sentinel.dashboard.domain.vo.MetricSeriesVo;
+import com.alibaba.csp.sentinel.dashboard.repository.metric.RingBufferMetricsRepository;
+import com.alibaba.fastjson.JSON;
+
+import org.junit.After;
+import org.junit.Test;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter.DataWithMediaType;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test cases for {@link MetricStreamHub}.
+ */
+public class MetricStreamHubTest {
+
+    private final RingBufferMetricsRepository repository = new RingBufferMetricsRepository();
+    private final MetricStreamHub hub = new MetricStreamHub(repository);
+
+    @After
+    public void tearDown() {
+        hub.close();
+    }
+
+    @Test
+    public void testPublishOncePerResourceSet() throws Exception {
+        CapturingEmitter pageA = new CapturingEmitter();
+        CapturingEmitter pageB = new CapturingEmitter();
+        CapturingEmitter all = new CapturingEmitter();
+        CapturingEmitter otherApp = new CapturingEmitter();
+        CapturingEmitter columnar = new CapturingEmitter();
+        hub.subscribe("app", Arrays.asList("a", "b"), null, pageA);
+        hub.subscribe("app", Arrays.asList("b", "a"), null, pageB);
+        hub.subscribe("app", Arrays.asList("a", "b"), MetricSeriesVo.COLUMNAR_FORMAT, columnar);
+        hub.subscribe("app", null, null, all);
+        hub.subscribe("other", null, null, otherApp);
+        assertEquals(5, hub.getSubscriberCount());
+
+        long now = System.currentTimeMillis() / 1000 * 1000;
+        List<MetricEntity> written = Arrays.asList(entity("a", now, 1), entity("b", now, 2), entity("c", now, 3));
+        repository.saveAll(written);
+        hub.publish("app", written);
+
+        pageA.await(1);
+        pageB.await(1);
+        all.await(1);
+        // one payload for the pages showing the same resources
+        assertSame(pageA.events.get(0), pageB.events.get(0));
+        Map<?, ?> metrics = JSON.parseObject(pageA.events.get(0), Map.class);
+        assertEquals(2, metrics.size());
+        assertEquals(1, ((List<?>)metrics.get("a")).size());
+        assertEquals(3, JSON.parseObject(all.events.get(0), Map.class).size());
+        columnar.await(1);
+        Map<?, ?> columns = (Map<?, ?>)JSON.parseObject(columnar.events.get(0), Map.class).get("b");
+        assertEquals(now, ((Number)columns.get("base")).longValue());
+        assertEquals(Collections.singletonList(2), columns.get("passQps"));
+        assertTrue(otherApp.events.isEmpty());
+    }
+
+    @Test
+    public void testLateSecondsAreSentAsStored() throws Exception {
+        CapturingEmitter page = new CapturingEmitter();
+        hub.subscribe("app", Collections.singletonList("a"), null, page);
+        long now = System.currentTimeMillis() / 1000 * 1000;
+        repository.save(entity("a", now, 1));
+        MetricEntity late = entity("a", now, 2);
+        repository.mergeAll(Collections.singletonList(late));
+        hub.publish("app", Collections.singletonList(late));
+
+        page.await(1);
+        List<?> points = (List<?>)JSON.parseObject(page.events.get(0), Map.class).get("a");
+        assertEquals(3, ((Map<?, ?>)points.get(0)).get("passQps"));
+    }
+
+    @Test
+    public void testFailedSubscriberIsDropped() throws Exception {
+        CapturingEmitter gone = new CapturingEmitter();
+        gone.fail = true;
+        CapturingEmitter page = new CapturingEmitter();
+        hub.subscribe("app", null, null, gone);
+        hub.subscribe("app", null, null, page);
+        MetricEntity entity = entity("a", System.currentTimeMillis(), 1);
+        repository.save(entity);
+        hub.publish("app", Collections.singletonList(entity));
+
+        page.await(1);
+        assertEquals(1, hub.getSubscriberCount());
+        assertEquals(Collections.singleton("app"), hub.getSubscribedApps());
+    }
+
+    @Test
+    public void testBlockedSubscriberDelaysNoOtherAndIsDropped() throws Exception {
+        MetricStreamHub hub = new MetricStreamHub(repository, 200);
+        try {
+            BlockingEmitter blocked = new BlockingEmitter();
+            CapturingEmitter page = new CapturingEmitter();
+            hub.subscribe("app", null, null, blocked);
+            hub.subscribe("app", null, null, page);
+            MetricEntity entity = entity("a", System.currentTimeMillis(), 1);
+            repository.save(entity);
+            hub.publish("app", Collections.singletonList(entity));
+
+            page.await(1);
+            assertTrue(blocked.sending.await(5, TimeUnit.SECONDS));
+            // the blocked send is interrupted past the timeout and the stream ended
+            assertTrue(blocked.interrupted.await(5, TimeUnit.SECONDS));
+            assertEquals(1, hub.getSubscriberCount());
+
+            MetricEntity next = entity("a", System.currentTimeMillis() + 1000, 2);
+            repository.save(next);
+            hub.publish("app", Collections.singletonList(next));
+            page.await(2);
+        } finally {
+            hub.close();
+        }
+    }
+
+    private static MetricEntity entity(String resource, long timestamp, long passQps) {
+        MetricEntity entity = new MetricEntity();
+        entity.setApp("app");
+        entity.setResource(resource);
+        entity.setTimestamp(new Date(timestamp));
+        entity.setGmtCreate(new Date(timestamp));
+        entity.setGmtModified(new Date(timestamp));
+        entity.setPassQps(passQps);
+        entity.setSuccessQps(passQps);
+        entity.setBlockQps(0L);
+        entity.setExceptionQps(0L);
+        entity.setRt(passQps);
+        entity.setCount(1);
+        return entity;
+    }
+
+    /**
+     * Blocks in its first send, like a page which stopped reading, until interrupted.
+     */
+    private static final class BlockingEmitter extends SseEmitter {
+
+        final CountDownLatch sending = new CountDownLatch(1);
+        final CountDownLatch interrupted = new CountDownLatch(1);
+
+        @Override
+        public void send(SseEventBuilder builder) throws IOException {
+            sending.countDown();
+            try {
+                new CountDownLatch(1).await();
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+                throw new IOException("interrupted");
+            }
+        }
+    }
+
+    private static final class CapturingEmitter extends SseEmitter {
+
+        final List<String> events = new CopyOnWriteArrayList<>();
+        volatile boolean fail;
+
+        @Override
+        public void send(SseEventBuilder builder) throws IOException {
+            if (fail) {
+                throw new IOException("closed");
+            }
+            // the event name and line breaks are text, the data itself is the only part without a media type
+            for (DataWithMediaType data : builder.build()) {
+                if (data.getMediaType() == null) {
+                    events.add((String)data.getData());
+                }
+            }
+        }
+
+        void await(int count) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + 5000;
+            while (events.size() < count && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(count, events.size());
+        }
+    }
+}
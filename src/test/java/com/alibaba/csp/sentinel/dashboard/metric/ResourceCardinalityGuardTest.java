@@ -0,0 +1,149 @@
+/*
+ * Copyright 1999-2019 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.metric;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.alibaba.csp.sentinel.dashboard.datasource.entity.MetricEntity;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test cases for {@link ResourceCardinalityGuard}.
+ */
+public class ResourceCardinalityGuardTest {
+
+    private static final long NOW = 1_600_000_000_000L;
+
+    @Test
+    public void testAppsUnderLimitNotAffected() {
+        ResourceCardinalityGuard guard = new ResourceCardinalityGuard(100);
+        List<MetricEntity> entities = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            entities.add(entity("resource-" + (i % 100), NOW - 1000 * (i / 100), 10));
+        }
+        List<String> released = new ArrayList<>();
+        assertEquals(entities, guard.guard("app", entities, NOW, released));
+        assertTrue(released.isEmpty());
+
+        Map<String, Long> report = guard.report().get("app");
+        assertEquals(100, (long)report.get("series"));
+        assertEquals(0, (long)report.get("foldedPoints"));
+        assertEquals(100, report.get("cardinality"), 3);
+    }
+
+    @Test
+    public void testResourcesKeptUnderLimitWhateverTheSketch() {
+        ResourceCardinalityGuard guard = new ResourceCardinalityGuard(100);
+        // three times the size of the sketch of distinct light resources, which churns it
+        List<MetricEntity> entities = new ArrayList<>();
+        for (int i = 0; i < 600; i++) {
+            entities.add(entity("/order/" + i, NOW, 1));
+        }
+        List<String> released = new ArrayList<>();
+        List<MetricEntity> written = guard.guard("app", entities, NOW, released);
+        // the first 100 are kept while there is room, the others folded
+        assertEquals(101, written.size());
+        for (int i = 0; i < 100; i++) {
+            assertEquals("/order/" + i, written.get(i).getResource());
+        }
+        assertEquals(ResourceCardinalityGuard.OTHERS_RESOURCE, written.get(100).getResource());
+        assertEquals(500, (long)written.get(100).getPassQps());
+        assertTrue(released.isEmpty());
+        assertEquals(100, (long)guard.report().get("app").get("series"));
+    }
+
+    @Test
+    public void testLongTailFoldedIntoOthers() {
+        ResourceCardinalityGuard guard = new ResourceCardinalityGuard(100);
+        List<String> released = new ArrayList<>();
+        Set<String> written = new HashSet<>();
+        long passQps = 0;
+        long writtenPassQps = 0;
+        int orders = 0;
+        for (int write = 0; write < 100; write++) {
+            long now = NOW + write * 1000L;
+            List<MetricEntity> entities = new ArrayList<>();
+            entities.add(entity("/api/hot", now, 1000));
+            for (int i = 0; i < 100; i++) {
+                entities.add(entity("/order/" + orders++, now, 1));
+            }
+            for (MetricEntity entity : entities) {
+                passQps += entity.getPassQps();
+            }
+            for (MetricEntity entity : guard.guard("app", entities, now, released)) {
+                written.add(entity.getResource());
+                writtenPassQps += entity.getPassQps();
+            }
+        }
+        assertTrue(written.contains("/api/hot"));
+        assertTrue(written.contains(ResourceCardinalityGuard.OTHERS_RESOURCE));
+        // at most the kept resources and the others series, no metric lost
+        assertTrue(written.size() <= 101);
+        assertEquals(passQps, writtenPassQps);
+        assertTrue(released.isEmpty());
+
+        Map<String, Long> report = guard.report().get("app");
+        assertEquals(100, (long)report.get("series"));
+        assertEquals(orders - 99, (long)report.get("foldedPoints"));
+        assertEquals(orders + 1, report.get("cardinality"), (orders + 1) * 0.05);
+    }
+
+    @Test
+    public void testIdleResourceReleasedForHeavyHitter() {
+        ResourceCardinalityGuard guard = new ResourceCardinalityGuard(100);
+        List<MetricEntity> entities = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            entities.add(entity("resource-" + i, NOW, 1));
+        }
+        List<String> released = new ArrayList<>();
+        guard.guard("app", entities, NOW, released);
+
+        long later = NOW + ResourceCardinalityGuard.RELEASE_IDLE_MS;
+        List<MetricEntity> written = guard.guard("app", singleton(entity("/api/new", later, 10)), later, released);
+        assertEquals("/api/new", written.get(0).getResource());
+        assertEquals(1, released.size());
+        assertEquals("resource-0", released.get(0));
+    }
+
+    private static List<MetricEntity> singleton(MetricEntity entity) {
+        List<MetricEntity> entities = new ArrayList<>();
+        entities.add(entity);
+        return entities;
+    }
+
+    private static MetricEntity entity(String resource, long timestamp, long passQps) {
+        MetricEntity entity = new MetricEntity();
+        entity.setApp("app");
+        entity.setResource(resource);
+        entity.setTimestamp(new Date(timestamp));
+        entity.setGmtCreate(new Date(timestamp));
+        entity.setPassQps(passQps);
+        entity.setBlockQps(0L);
+        entity.setSuccessQps(passQps);
+        entity.setExceptionQps(0L);
+        entity.setRt(passQps * 5D);
+        entity.setCount(1);
+        return entity;
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright 1999-2019 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.repository.metric;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import com.alibaba.csp.sentinel.dashboard.datasource.entity.MetricEntity;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test cases for {@link FileMetricsRepository} and its segment files.
+ */
+public class FileMetricsRepositoryTest {
+
+    private final static String DEFAULT_APP = "defaultApp";
+    private final static String DEFAULT_RESOURCE = "defaultResource";
+    private static final long SEGMENT_MILLIS = 60 * 1000;
+    private static final long RETENTION_SECONDS = 60 * 60;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path dir;
+    private MetricSegmentStore store;
+    private FileMetricsRepository repository;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = folder.newFolder("metrics").toPath();
+        store = new MetricSegmentStore(dir, SEGMENT_MILLIS, RETENTION_SECONDS, 8);
+        repository = new FileMetricsRepository(store);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        store.close();
+    }
+
+    @Test
+    public void testSaveAndQuery() {
+        long now = System.currentTimeMillis() / 1000 * 1000;
+        for (int i = 0; i < 20; i++) {
+            repository.save(newEntity(DEFAULT_APP, DEFAULT_RESOURCE, now - i * 1000, i));
+        }
+        // a replaced second, the last write wins
+        repository.save(newEntity(DEFAULT_APP, DEFAULT_RESOURCE, now - 3000, 100));
+
+        List<MetricEntity> list = repository.queryByAppAndResourceBetween(DEFAULT_APP, DEFAULT_RESOURCE,
+            now - 9000, now);
+        assertEquals(10, list.size());
+        for (int i = 0; i < list.size(); i++) {
+            long passQps = i == 6 ? 100 : 9 - i;
+            assertEquals(now - (9 - i) * 1000, list.get(i).getTimestamp().getTime());
+            assertEquals(passQps, (long)list.get(i).getPassQps());
+            assertEquals(passQps * 10.5, list.get(i).getRt(), 0);
+            assertEquals(DEFAULT_APP, list.get(i).getApp());
+        }
+        assertEquals(DEFAULT_RESOURCE, repository.listResourcesOfApp(DEFAULT_APP).get(0));
+    }
+
+    @Test
+    public void testMergeSameSecondAdds() {
+        long now = System.currentTimeMillis() / 1000 * 1000;
+        repository.save(newEntity(DEFAULT_APP, DEFAULT_RESOURCE, now - 1000, 2));
+        repository.mergeAll(Arrays.asList(newEntity(DEFAULT_APP, DEFAULT_RESOURCE, now - 1000, 3),
+            newEntity(DEFAULT_APP, DEFAULT_RESOURCE, now - 1000, 4), newEntity(DEFAULT_APP, DEFAULT_RESOURCE, now, 1)));
+
+        List<MetricEntity> list = repository.queryByAppAndResourceBetween(DEFAULT_APP, DEFAULT_RESOURCE,
+            now - 1000, now);
+        assertEquals(2, list.size());
+        assertEquals(9L, (long)list.get(0).getPassQps());
+        assertEquals(9 * 10.5, list.get(0).getRt(), 0.0001);
+        assertEquals(3, list.get(0).getCount());
+        assertEquals(1L, (long)list.get(1).getPassQps());
+    }
+
+    @Test
+    public void testHistorySurvivesRestart() throws IOException {
+        long nowMs = 1_600_000_000_000L;
+        long second = nowMs / 1000;
+        // irregular seconds exercise the delta-of-delta encoding
+        long[] seconds = {second, second + 1, second + 2, second + 5, second + 6, second + 100, second + 99,
+            second + 101, second + 3000};
+        for (int i = 0; i < seconds.length; i++) {
+            store.append(DEFAULT_APP, DEFAULT_RESOURCE, seconds[i], i, i, -i, 0, i * 1.25, i, nowMs);
+        }
+        store.append("otherApp", DEFAULT_RESOURCE, second, 7, 7, 0, 0, 7, 1, nowMs);
+        store.close();
+
+        store = new MetricSegmentStore(dir, SEGMENT_MILLIS, RETENTION_SECONDS, 8);
+        assertEquals(1, store.sealedSegmentCount());
+        StringBuilder points = new StringBuilder();
+        store.forEach(DEFAULT_APP, DEFAULT_RESOURCE, 0, Long.MAX_VALUE,
+            (s, passQps, successQps, blockQps, exceptionQps, rt, count) ->
+                points.append(s - second).append(':').append(passQps).append(',').append(blockQps).append(',')
+                    .append(rt).append(',').append(count).append(' '));
+        assertEquals("0:0,0,0.0,0 1:1,-1,1.25,1 2:2,-2,2.5,2 5:3,-3,3.75,3 6:4,-4,5.0,4 100:5,-5,6.25,5 "
+            + "99:6,-6,7.5,6 101:7,-7,8.75,7 3000:8,-8,10.0,8 ", points.toString());
+    }
+
+    @Test
+    public void testSegmentsRollAndExpire() throws IOException {
+        long nowMs = 1_600_000_000_000L;
+        for (int i = 0; i < 5 * 60; i++) {
+            long ms = nowMs + i * 1000L;
+            store.append(DEFAULT_APP, DEFAULT_RESOURCE, ms / 1000, i, i, 0, 0, i, 1, ms);
+        }
+        store.flush(nowMs + 5 * 60 * 1000);
+        // sealed every minute, the last one once it is due
+        assertEquals(5, store.sealedSegmentCount());
+        assertEquals(5, listSegmentFiles().length);
+
+        int[] points = new int[1];
+        store.forEach(DEFAULT_APP, DEFAULT_RESOURCE, 0, Long.MAX_VALUE,
+            (s, passQps, successQps, blockQps, exceptionQps, rt, count) -> points[0]++);
+        assertEquals(5 * 60, points[0]);
+
+        // only the last minute is still within retention
+        store.expire(nowMs / 1000 + RETENTION_SECONDS + 4 * 60);
+        assertEquals(1, store.sealedSegmentCount());
+        assertEquals(1, listSegmentFiles().length);
+        points[0] = 0;
+        store.forEach(DEFAULT_APP, DEFAULT_RESOURCE, 0, Long.MAX_VALUE,
+            (s, passQps, successQps, blockQps, exceptionQps, rt, count) -> points[0]++);
+        assertEquals(60, points[0]);
+    }
+
+    @Test
+    public void testTruncatedSegmentKeepsValidBlocks() throws IOException {
+        long nowMs = 1_600_000_000_000L;
+        for (int i = 0; i < 20; i++) {
+            store.append(DEFAULT_APP, DEFAULT_RESOURCE, nowMs / 1000 + i, i, i, 0, 0, i, 1, nowMs);
+        }
+        store.close();
+        // a partial frame, as left by a crash
+        Path file = listSegmentFiles()[0].toPath();
+        Files.write(file, new byte[] {0, 0, 0, 100, 1, 2, 3}, StandardOpenOption.APPEND);
+
+        store = new MetricSegmentStore(dir, SEGMENT_MILLIS, RETENTION_SECONDS, 8);
+        int[] points = new int[1];
+        store.forEach(DEFAULT_APP, DEFAULT_RESOURCE, 0, Long.MAX_VALUE,
+            (s, passQps, successQps, blockQps, exceptionQps, rt, count) -> points[0]++);
+        assertEquals(20, points[0]);
+    }
+
+    @Test
+    public void testBlockIsCompressed() {
+        long second = System.currentTimeMillis() / 1000;
+        MetricBlock block = new MetricBlock();
+        for (int i = 0; i < 60; i++) {
+            block.add(second + i, 100 + i % 3, 100 + i % 3, i % 2, 0, (100 + i % 3) * 12, 1);
+        }
+        byte[] frame = MetricBlockCodec.encode(DEFAULT_APP, DEFAULT_RESOURCE, block);
+        // 7 columns of 8 bytes (4 for count) per point uncompressed
+        assertTrue("frame size: " + frame.length, frame.length < 60 * 52 / 4);
+
+        ByteBuffer buffer = ByteBuffer.wrap(frame);
+        MetricBlockCodec.Header header = MetricBlockCodec.readHeader(buffer);
+        assertNotNull(header);
+        assertEquals(DEFAULT_RESOURCE, header.resource);
+        assertEquals(60, header.points);
+        assertEquals(second + 59, header.maxSecond);
+        assertFalse(buffer.hasRemaining());
+
+        frame[frame.length - 1]++;
+        assertNull(MetricBlockCodec.readHeader(ByteBuffer.wrap(frame)));
+    }
+
+    private File[] listSegmentFiles() {
+        return dir.toFile().listFiles((d, name) -> name.endsWith(MetricSegmentStore.SEGMENT_SUFFIX));
+    }
+
+    private MetricEntity newEntity(String app, String resource, long timestamp, long passQps) {
+        MetricEntity entry = new MetricEntity();
+        entry.setApp(app);
+        entry.setResource(resource);
+        entry.setTimestamp(new Date(timestamp));
+        entry.setPassQps(passQps);
+        entry.setExceptionQps(0L);
+        entry.setBlockQps(0L);
+        entry.setSuccessQps(passQps);
+        entry.setRt(passQps * 10.5);
+        entry.setCount(1);
+        return entry;
+    }
+}
@@ -78,6 +78,57 @@ public class InMemoryMetricsRepositoryTest {
         Assert.assertTrue(resources.size() == 1 && "testResource".equals(resources.get(0)));
     }
 
+    @Test
+    public void testSaveKeepsNamesOfEntity() {
+        String app = new String("testSaveKeepsNames");
+        String resource = new String("testResource");
+        MetricEntity entry = new MetricEntity();
+        entry.setApp(app);
+        entry.setResource(resource);
+        entry.setTimestamp(new Date(System.currentTimeMillis()));
+        entry.setPassQps(1L);
+        inMemoryMetricsRepository.save(entry);
+        assertSame(app, entry.getApp());
+        assertSame(resource, entry.getResource());
+        // the keys are interned instead
+        assertSame(MetricNameDictionary.ofApp(app).intern(new String(resource)),
+            inMemoryMetricsRepository.listResourcesOfApp(app).get(0));
+        MetricNameDictionary.removeApp(app);
+    }
+
+
+    @Test
+    public void testMergeAll() {
+        long now = System.currentTimeMillis();
+        List<MetricEntity> batch = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            MetricEntity entry = new MetricEntity();
+            entry.setApp("testMergeAll");
+            entry.setResource("testResource");
+            entry.setTimestamp(new Date(now));
+            entry.setPassQps(1L + i);
+            entry.setExceptionQps(0L);
+            entry.setBlockQps(1L);
+            entry.setSuccessQps(1L + i);
+            entry.setRt(10d * (1 + i));
+            entry.setCount(1);
+            batch.add(entry);
+        }
+        inMemoryMetricsRepository.save(batch.get(0));
+        MetricEntity saved = inMemoryMetricsRepository.queryByAppAndResourceBetween("testMergeAll", "testResource",
+            now, now).get(0);
+        inMemoryMetricsRepository.mergeAll(batch.subList(1, 2));
+
+        List<MetricEntity> list = inMemoryMetricsRepository.queryByAppAndResourceBetween("testMergeAll",
+            "testResource", now, now);
+        assertEquals(1, list.size());
+        assertEquals(3L, (long)list.get(0).getPassQps());
+        assertEquals(2L, (long)list.get(0).getBlockQps());
+        assertEquals(30d, list.get(0).getRt(), 0.0001);
+        assertEquals(2, list.get(0).getCount());
+        // entities handed out before are left untouched
+        assertEquals(1L, (long)saved.getPassQps());
+    }
 
     @Test
     public void testSaveAll() {
@@ -0,0 +1,125 @@
+/*
+ * Copyright 1999-2019 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.repository.metric;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import com.alibaba.csp.sentinel.dashboard.config.DashboardConfig;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test cases for {@link MetricNameDictionary}.
+ */
+public class MetricNameDictionaryTest {
+
+    @Test
+    public void testSingleInstanceAndDenseIds() {
+        MetricNameDictionary names = new MetricNameDictionary(100);
+        String name = names.intern(new String("resource"));
+        assertSame(name, names.intern(new String("resource")));
+        assertEquals(names.idOf(name), names.idOf(new String("resource")));
+
+        Set<Integer> ids = new HashSet<>();
+        for (int i = 0; i < 99; i++) {
+            ids.add(names.idOf(names.intern("resource-" + i)));
+        }
+        ids.add(names.idOf(name));
+        assertEquals(100, ids.size());
+        for (int id : ids) {
+            assertTrue(id >= 0 && id < 100);
+        }
+    }
+
+    @Test
+    public void testBoundedCapacity() {
+        MetricNameDictionary names = new MetricNameDictionary(10);
+        for (int i = 0; i < 10; i++) {
+            assertFalse(names.idOf(names.intern("resource-" + i)) == MetricNameDictionary.NO_ID);
+        }
+        names.intern("resource-10");
+        assertEquals(MetricNameDictionary.NO_ID, names.idOf("resource-10"));
+        String other = new String("resource-11");
+        assertSame(other, names.intern(other));
+        assertEquals(10, names.size());
+        assertEquals(2, names.getRejected());
+        // names already held are still found
+        assertEquals(3, names.idOf("resource-3"));
+    }
+
+    @Test
+    public void testRemovedNamesMakeRoom() {
+        MetricNameDictionary names = new MetricNameDictionary(10);
+        for (int i = 0; i < 10; i++) {
+            names.intern("resource-" + i);
+        }
+        int id = names.idOf("resource-3");
+        names.remove("resource-3");
+        names.remove("resource-3");
+        assertEquals(MetricNameDictionary.NO_ID, names.idOf("resource-3"));
+        assertEquals(9, names.size());
+
+        names.intern("resource-10");
+        assertEquals(id, names.idOf("resource-10"));
+        names.intern("resource-11");
+        assertEquals(MetricNameDictionary.NO_ID, names.idOf("resource-11"));
+        assertEquals(10, names.size());
+        assertEquals(1, names.getRejected());
+    }
+
+    @Test
+    public void testLookupDoesNotAdd() {
+        MetricNameDictionary names = new MetricNameDictionary(10);
+        assertEquals(MetricNameDictionary.NO_ID, names.idOf("resource"));
+        assertEquals(0, names.size());
+        assertEquals(0, names.getRejected());
+    }
+
+    @Test
+    public void testFloodOfOneAppLeavesIdsOfOthers() {
+        String floodApp = "floodApp-" + System.nanoTime();
+        String otherApp = "otherApp-" + System.nanoTime();
+        MetricNameDictionary flood = MetricNameDictionary.ofApp(floodApp);
+        assertSame(flood, MetricNameDictionary.ofApp(floodApp));
+        for (int i = 0; i <= DashboardConfig.getMetricMaxNames(); i++) {
+            flood.intern("/order/" + i);
+        }
+        assertEquals(MetricNameDictionary.NO_ID, flood.idOf("/order/" + DashboardConfig.getMetricMaxNames()));
+        assertEquals(1, flood.getRejected());
+
+        MetricNameDictionary other = MetricNameDictionary.ofApp(otherApp);
+        assertFalse(other == flood);
+        assertEquals(0, other.idOf(other.intern("/order/1")));
+        assertEquals(MetricNameDictionary.NO_ID, MetricNameDictionary.ofApp(otherApp).idOf("/order/2"));
+
+        // the ids of an app are reclaimed with the app
+        MetricNameDictionary.removeApp(floodApp);
+        assertEquals(0, MetricNameDictionary.ofApp(floodApp).size());
+        MetricNameDictionary.removeApp(floodApp);
+        MetricNameDictionary.removeApp(otherApp);
+    }
+
+    @Test
+    public void testNull() {
+        MetricNameDictionary names = new MetricNameDictionary(10);
+        assertEquals(MetricNameDictionary.NO_ID, names.idOf(null));
+        assertNull(names.intern(null));
+        assertEquals(0, names.getRejected());
+    }
+}
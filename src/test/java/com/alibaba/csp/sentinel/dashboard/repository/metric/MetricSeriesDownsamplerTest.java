@@ -0,0 +1,97 @@
+/*
+ * Copyright 1999-2019 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.repository.metric;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test cases for {@link MetricSeriesDownsampler}.
+ */
+public class MetricSeriesDownsamplerTest {
+
+    @Test
+    public void testDownsampleKeepsEndsAndSpikes() {
+        List<long[]> points = new ArrayList<>();
+        List<String> series = new ArrayList<>();
+        MetricSeriesVisitor visitor = MetricSeriesDownsampler.wrap(recorder(points, series), 60);
+        visitor.startSeries("a");
+        for (int i = 0; i < 3600; i++) {
+            // large smooth pass qps, a single block spike at 2000
+            visitor.visitPoint(i * 1000L, 0, 10000 + i % 10, 10000, i == 2000 ? 3 : 0, 0, 1, 1);
+        }
+        visitor.endSeries("a");
+
+        assertEquals(2, series.size());
+        assertEquals(60, points.size());
+        assertEquals(0, points.get(0)[0]);
+        assertEquals(3599000, points.get(59)[0]);
+        boolean spike = false;
+        for (int i = 0; i < points.size(); i++) {
+            if (i > 0) {
+                assertTrue(points.get(i)[0] > points.get(i - 1)[0]);
+            }
+            spike |= points.get(i)[0] == 2000000 && points.get(i)[1] == 3;
+        }
+        assertTrue(spike);
+    }
+
+    @Test
+    public void testShortSeriesPassedAsIs() {
+        List<long[]> points = new ArrayList<>();
+        List<String> series = new ArrayList<>();
+        MetricSeriesVisitor recorder = recorder(points, series);
+        assertSame(recorder, MetricSeriesDownsampler.wrap(recorder, null));
+        assertSame(recorder, MetricSeriesDownsampler.wrap(recorder, 0));
+
+        MetricSeriesVisitor visitor = MetricSeriesDownsampler.wrap(recorder, 10);
+        for (String resource : new String[] {"a", "b"}) {
+            visitor.startSeries(resource);
+            for (int i = 0; i < 10; i++) {
+                visitor.visitPoint(i * 1000L, 0, i, i, 0, 0, 1, 1);
+            }
+            visitor.endSeries(resource);
+        }
+        assertEquals(20, points.size());
+        assertEquals(4, series.size());
+        assertEquals("end:a", series.get(1));
+        assertEquals(9000, points.get(19)[0]);
+    }
+
+    private static MetricSeriesVisitor recorder(List<long[]> points, List<String> series) {
+        return new MetricSeriesVisitor() {
+            @Override
+            public void startSeries(String resource) {
+                series.add("start:" + resource);
+            }
+
+            @Override
+            public void visitPoint(long timestamp, long gmtCreate, long passQps, long successQps, long blockQps,
+                                   long exceptionQps, double rt, int count) {
+                points.add(new long[] {timestamp, blockQps});
+            }
+
+            @Override
+            public void endSeries(String resource) {
+                series.add("end:" + resource);
+            }
+        };
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 1999-2019 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.repository.metric;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import com.alibaba.csp.sentinel.dashboard.datasource.entity.MetricEntity;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test cases for {@link MetricSeriesQuery}.
+ */
+public class MetricSeriesQueryTest {
+
+    @Test
+    public void testVisitDistinctSortsAndKeepsLatestCreated() {
+        List<MetricEntity> entities = Arrays.asList(
+            entity("a", 3000, 1, 30),
+            entity("a", 1000, 1, 10),
+            entity("a", 2000, 1, 20),
+            entity("a", 2000, 5, 21),
+            entity("a", 2000, 5, 22),
+            entity("other", 1500, 1, 15),
+            entity("a", 1000, 0, 11));
+        List<String> visited = new ArrayList<>();
+        MetricSeriesQuery.visitDistinct("a", entities, recorder(visited));
+        assertEquals(Arrays.asList("1000:10", "2000:21", "3000:30"), visited);
+
+        visited.clear();
+        MetricSeriesQuery.visitDistinct("a", null, recorder(visited));
+        assertTrue(visited.isEmpty());
+    }
+
+    private static MetricEntity entity(String resource, long timestamp, long gmtCreate, long passQps) {
+        MetricEntity entity = new MetricEntity();
+        entity.setApp("app");
+        entity.setResource(resource);
+        entity.setTimestamp(new Date(timestamp));
+        entity.setGmtCreate(new Date(gmtCreate));
+        entity.setPassQps(passQps);
+        entity.setSuccessQps(passQps);
+        entity.setBlockQps(0L);
+        entity.setExceptionQps(0L);
+        return entity;
+    }
+
+    private static MetricSeriesVisitor recorder(List<String> visited) {
+        return new MetricSeriesVisitor() {
+            @Override
+            public void startSeries(String resource) {}
+
+            @Override
+            public void visitPoint(long timestamp, long gmtCreate, long passQps, long successQps, long blockQps,
+                                   long exceptionQps, double rt, int count) {
+                visited.add(timestamp + ":" + passQps);
+            }
+
+            @Override
+            public void endSeries(String resource) {}
+        };
+    }
+}
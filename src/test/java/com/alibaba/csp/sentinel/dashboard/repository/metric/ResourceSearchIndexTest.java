@@ -0,0 +1,132 @@
+/*
+ * Copyright 1999-2019 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.repository.metric;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Predicate;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test cases for {@link ResourceSearchIndex}.
+ */
+public class ResourceSearchIndexTest {
+
+    @Test
+    public void testSearchLikeScan() {
+        String[] parts = {"/api", "/Order", "/user", "/v1", "/v2", "/Pay", "/query", "/detail", "GET:", "POST:"};
+        Random random = new Random(42);
+        ResourceSearchIndex index = new ResourceSearchIndex();
+        List<String> resources = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            StringBuilder resource = new StringBuilder();
+            for (int j = random.nextInt(4); j >= 0; j--) {
+                resource.append(parts[random.nextInt(parts.length)]);
+            }
+            resource.append('/').append(random.nextInt(500));
+            if (index.add(resource.toString())) {
+                resources.add(resource.toString());
+            }
+        }
+        assertFalse(index.add(resources.get(0)));
+        assertEquals(resources.size(), index.size());
+
+        for (String key : Arrays.asList("order", "Order", "/v1/pay", "GET:/api/", "/4", "42", "o", "", "absent")) {
+            assertEquals(key, scan(resources, key, false), index.search(key, false));
+            assertEquals(key, scan(resources, key, true), index.search(key, true));
+        }
+        assertEquals(resources, index.search(null, true));
+    }
+
+    @Test
+    public void testMatcherChecksResourcesNotIndexed() {
+        ResourceSearchIndex index = new ResourceSearchIndex();
+        index.add("/api/order");
+        index.add("/api/user");
+        Predicate<String> matcher = index.matcherOf("ORDER", true);
+        index.add("/order/detail");
+
+        assertTrue(matcher.test("/api/order"));
+        assertFalse(matcher.test("/api/user"));
+        assertTrue(matcher.test("/order/detail"));
+        assertTrue(matcher.test("/Order/pay"));
+        assertFalse(matcher.test("machine-root"));
+        assertFalse(index.matcherOf("ORDER", false).test("/api/order"));
+        assertTrue(index.matcherOf("", false).test("machine-root"));
+    }
+
+    @Test
+    public void testFewCandidatesAreScanned() {
+        ResourceSearchIndex index = new ResourceSearchIndex();
+        for (int i = 0; i < 100; i++) {
+            index.add("/order/" + i);
+        }
+        index.add("/api/user");
+        assertEquals(100, index.searchCost("ORDER"));
+        assertEquals(1, index.searchCost("user"));
+        assertEquals(0, index.searchCost("missing"));
+        assertEquals(101, index.searchCost("or"));
+
+        // matched by a scan or from the index alike
+        for (int candidates : new int[] {1, 100, 1000}) {
+            Predicate<String> matcher = index.matcherOf("ORDER", true, candidates);
+            assertTrue(matcher.test("/order/7"));
+            assertTrue(matcher.test("/Order/pay"));
+            assertFalse(matcher.test("/api/user"));
+            assertFalse(index.matcherOf("ORDER", false, candidates).test("/order/7"));
+            assertTrue(index.matcherOf("", false, candidates).test("machine-root"));
+        }
+    }
+
+    @Test
+    public void testRemoveAndRebuild() {
+        ResourceSearchIndex index = new ResourceSearchIndex();
+        List<String> resources = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            resources.add("/order/" + i);
+            index.add("/order/" + i);
+        }
+        Predicate<String> matcher = index.matcherOf("order/1", false);
+        for (int i = 0; i < 150; i++) {
+            assertTrue(index.remove("/order/" + i));
+        }
+        assertFalse(index.remove("/order/0"));
+        List<String> live = resources.subList(150, 200);
+        assertEquals(50, index.size());
+        assertEquals(scan(live, "order/1", false), index.search("order/1", false));
+        assertEquals(live, index.search("", false));
+        assertTrue(index.add("/order/0"));
+        assertEquals(1, index.search("order/0", false).size());
+        // ids assigned again by the rebuild, the matcher checks all resources as a scan would
+        assertTrue(matcher.test("/order/199"));
+        assertFalse(matcher.test("/order/20"));
+    }
+
+    private static List<String> scan(List<String> resources, String key, boolean ignoreCase) {
+        List<String> results = new ArrayList<>();
+        for (String resource : resources) {
+            if (ignoreCase ? resource.toLowerCase().contains(key.toLowerCase()) : resource.contains(key)) {
+                results.add(resource);
+            }
+        }
+        return results;
+    }
+}
@@ -0,0 +1,619 @@
+/*
+ * Copyright 1999-2019 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.csp.sentinel.dashboard.repository.metric;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.alibaba.csp.sentinel.dashboard.datasource.entity.MetricEntity;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test cases for {@link RingBufferMetricsRepository}.
+ */
+public class RingBufferMetricsRepositoryTest {
+
+    private final static String DEFAULT_APP = "defaultApp";
+    private final static String DEFAULT_RESOURCE = "defaultResource";
+    private static final long EXPIRE_TIME = 1000 * 60 * 5L;
+
+    private RingBufferMetricsRepository repository;
+    private ExecutorService executorService;
+
+    @Before
+    public void setUp() {
+        repository = new RingBufferMetricsRepository(new MetricTier[] {
+            new MetricTier(1, 60 * 5), new MetricTier(10, 60 * 60), new MetricTier(60, 60 * 60 * 24)});
+        executorService = Executors.newFixedThreadPool(16);
+    }
+
+    @After
+    public void tearDown() {
+        executorService.shutdownNow();
+    }
+
+    @Test
+    public void testSaveAndQuery() {
+        long now = System.currentTimeMillis() / 1000 * 1000;
+        for (int i = 0; i < 10; i++) {
+            repository.save(newEntity(DEFAULT_APP, DEFAULT_RESOURCE, now - i * 1000, i));
+        }
+        List<MetricEntity> list = repository.queryByAppAndResourceBetween(DEFAULT_APP, DEFAULT_RESOURCE,
+            now - 4000, now);
+        assertEquals(5, list.size());
+        for (int i = 0; i < list.size(); i++) {
+            // time ordered
+            assertEquals(now - (4 - i) * 1000, list.get(i).getTimestamp().getTime());
+            assertEquals(4 - i, (long)list.get(i).getPassQps());
+            assertEquals(DEFAULT_RESOURCE, list.get(i).getResource());
+            assertEquals(DEFAULT_APP, list.get(i).getApp());
+        }
+    }
+
+    @Test
+    public void testResourceNamesInternedPerApp() {
+        String app = "internApp-" + System.nanoTime();
+        MetricNameDictionary names = MetricNameDictionary.ofApp(app);
+        assertEquals(MetricNameDictionary.NO_ID, names.idOf(DEFAULT_RESOURCE));
+        repository.save(newEntity(app, new String(DEFAULT_RESOURCE), System.currentTimeMillis(), 1));
+        assertFalse(names.idOf(DEFAULT_RESOURCE) == MetricNameDictionary.NO_ID);
+        assertSame(names.intern(new String(DEFAULT_RESOURCE)), repository.listResourcesOfApp(app).get(0));
+        assertEquals(MetricNameDictionary.NO_ID, MetricNameDictionary.ofApp(app + "-other").idOf(DEFAULT_RESOURCE));
+        MetricNameDictionary.removeApp(app);
+        MetricNameDictionary.removeApp(app + "-other");
+    }
+
+    @Test
+    public void testRemovedResourceNamesFreed() {
+        String app = "freeApp-" + System.nanoTime();
+        MetricNameDictionary names = MetricNameDictionary.ofApp(app);
+        repository.save(newEntity(app, DEFAULT_RESOURCE, System.currentTimeMillis(), 1));
+        assertEquals(1, names.size());
+        repository.removeResourcesOfApp(app, Arrays.asList(DEFAULT_RESOURCE));
+        assertEquals(0, names.size());
+        assertEquals(MetricNameDictionary.NO_ID, names.idOf(DEFAULT_RESOURCE));
+        MetricNameDictionary.removeApp(app);
+    }
+
+    @Test
+    public void testSaveSameSecondReplaces() {
+        long now = System.currentTimeMillis();
+        repository.save(newEntity(DEFAULT_APP, DEFAULT_RESOURCE, now, 1));
+        repository.save(newEntity(DEFAULT_APP, DEFAULT_RESOURCE, now, 7));
+        List<MetricEntity> list = repository.queryByAppAndResourceBetween(DEFAULT_APP, DEFAULT_RESOURCE,
+            now - 1000, now);
+        assertEquals(1, list.size());
+        assertEquals(7L, (long)list.get(0).getPassQps());
+    }
+
+    @Test
+    public void testMergeSameSecondAdds() {
+        long now = System.currentTimeMillis() / 1000 * 1000;
+        repository.save(newEntity(DEFAULT_APP, DEFAULT_RESOURCE, now, 1));
+        MetricEntity late = newEntity(DEFAULT_APP, DEFAULT_RESOURCE, now, 3);
+        late.setRt(3 * 30d);
+        repository.mergeAll(Arrays.asList(late, newEntity(DEFAULT_APP, DEFAULT_RESOURCE, now - 1000, 5)));
+
+        List<MetricEntity> list = repository.queryByAppAndResourceBetween(DEFAULT_APP, DEFAULT_RESOURCE,
+            now - 1000, now);
+        assertEquals(2, list.size());
+        assertEquals(5L, (long)list.get(0).getPassQps());
+        MetricEntity merged = list.get(1);
+        assertEquals(4L, (long)merged.getPassQps());
+        assertEquals(4L, (long)merged.getSuccessQps());
+        assertEquals(2, merged.getCount());
+        // rt weighted by success qps: (1 * 10 + 3 * 30) / 4
+        assertEquals(25, merged.getRt() / merged.getSuccessQps(), 0.0001);
+        assertEquals(DEFAULT_RESOURCE, repository.listTopResourcesOfApp(DEFAULT_APP, null, 0, 1, true).get(0));
+    }
+
+    @Test
+    public void testCountSeriesAndPoints() {
+        assertEquals(0, repository.countSeries());
+        assertEquals(0, repository.countPoints());
+        // a whole minute ago, so the 30 seconds fall in 3 buckets of 10s and 1 of 60s
+        long start = System.currentTimeMillis() / 60000 * 60000 - 60000;
+        for (int i = 0; i < 30; i++) {
+            repository.save(newEntity(DEFAULT_APP, "a", start + i * 1000, 1));
+            repository.save(newEntity("otherApp", "b", start + i * 1000, 1));
+        }
+        assertEquals(2, repository.countSeries());
+        assertEquals(2 * (30 + 3 + 1), repository.countPoints());
+    }
+
+    @Test
+    public void testVersionChangesOnEveryWrite() {
+        long now = System.currentTimeMillis();
+        assertEquals(0, repository.versionOfApp(DEFAULT_APP));
+        repository.save(newEntity(DEFAULT_APP, DEFAULT_RESOURCE, now, 1));
+        long saved = repository.versionOfApp(DEFAULT_APP);
+        assertTrue(saved > 0);
+        assertEquals(saved, repository.versionOfApp(DEFAULT_APP));
+
+        repository.save(newEntity("otherApp", DEFAULT_RESOURCE, now, 1));
+        assertEquals(saved, repository.versionOfApp(DEFAULT_APP));
+
+        // merged into the newest stored second, which stays the same
+        repository.mergeAll(Collections.singletonList(newEntity(DEFAULT_APP, DEFAULT_RESOURCE, now, 1)));
+        long merged = repository.versionOfApp(DEFAULT_APP);
+        assertFalse(merged == saved);
+
+        repository.saveAll(Arrays.asList(newEntity(DEFAULT_APP, "a", now, 1), newEntity("otherApp", "a", now, 1),
+            newEntity(DEFAULT_APP, "b", now, 1)));
+        assertFalse(repository.versionOfApp(DEFAULT_APP) == merged);
+    }
+
+    @Test
+    public void testBatchQueryLikeSingleQueries() {
+        long now = System.currentTimeMillis() / 1000 * 1000;
+        List<String> resources = new ArrayList<>();
+        for (int r = 0; r < 10; r++) {
+            resources.add("resource" + r);
+            for (int i = 0; i < 30; i++) {
+                repository.save(newEntity(DEFAULT_APP, "resource" + r, now - i * 1000, r * 100 + i));
+            }
+        }
+        resources.add("absent");
+        List<String> expected = new ArrayList<>();
+        for (String resource : resources) {
+            expected.add("[" + resource);
+            for (MetricEntity entity : repository.queryByAppAndResourceBetween(DEFAULT_APP, resource,
+                now - 20000, now)) {
+                expected.add(entity.getTimestamp().getTime() + ":" + entity.getPassQps());
+            }
+            expected.add("]");
+        }
+        assertEquals(10 * 21 + 11 * 2, expected.size());
+        assertEquals(expected, batchQuery(resources, now - 20000, now, null));
+        assertEquals(expected, batchQuery(resources, now - 20000, now, executorService));
+    }
+
+    private List<String> batchQuery(List<String> resources, long startTime, long endTime, Executor executor) {
+        List<String> visited = new ArrayList<>();
+        repository.queryByAppAndResourcesBetween(DEFAULT_APP, resources, startTime, endTime, executor,
+            new MetricSeriesVisitor() {
+                @Override
+                public void startSeries(String resource) {
+                    visited.add("[" + resource);
+                }
+
+                @Override
+                public void visitPoint(long timestamp, long gmtCreate, long passQps, long successQps,
+                                       long blockQps, long exceptionQps, double rt, int count) {
+                    visited.add(timestamp + ":" + passQps);
+                }
+
+                @Override
+                public void endSeries(String resource) {
+                    visited.add("]");
+                }
+            });
+        return visited;
+    }
+
+    @Test
+    public void testSaveAllAndListResources() {
+        long now = System.currentTimeMillis();
+        List<MetricEntity> entities = new ArrayList<>(10000);
+        for (int i = 0; i < 10000; i++) {
+            entities.add(newEntity("testSaveAll", "testResource" + i, now, 1));
+        }
+        repository.saveAll(entities);
+        assertEquals(entities.size(), repository.listResourcesOfApp("testSaveAll").size());
+    }
+
+    @Test
+    public void testListResourcesOrderedByBlockQps() {
+        long now = System.currentTimeMillis();
+        MetricEntity low = newEntity(DEFAULT_APP, "low", now, 100);
+        low.setBlockQps(1L);
+        MetricEntity high = newEntity(DEFAULT_APP, "high", now, 1);
+        high.setBlockQps(10L);
+        MetricEntity stale = newEntity(DEFAULT_APP, "stale", now - 1000 * 120, 1000);
+        repository.save(low);
+        repository.save(high);
+        repository.save(stale);
+        List<String> resources = repository.listResourcesOfApp(DEFAULT_APP);
+        assertEquals(2, resources.size());
+        assertEquals("high", resources.get(0));
+        assertEquals("low", resources.get(1));
+    }
+
+    @Test
+    public void testListTopResourcesPagesLikeFullRanking() {
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < 50; i++) {
+            MetricEntity entity = newEntity(DEFAULT_APP, "res-" + i, now, i);
+            entity.setBlockQps((long)(i % 7));
+            repository.save(entity);
+        }
+        List<String> all = repository.listResourcesOfApp(DEFAULT_APP);
+        assertEquals(50, all.size());
+        assertEquals(50, repository.countResourcesOfApp(DEFAULT_APP, null));
+        assertEquals(all.subList(0, 6), repository.listTopResourcesOfApp(DEFAULT_APP, null, 0, 6, true));
+        assertEquals(all.subList(12, 18), repository.listTopResourcesOfApp(DEFAULT_APP, null, 12, 6, true));
+        assertEquals(all.subList(48, 50), repository.listTopResourcesOfApp(DEFAULT_APP, null, 48, 6, true));
+
+        List<String> reversed = new ArrayList<>(all);
+        Collections.reverse(reversed);
+        assertEquals(reversed.subList(6, 12), repository.listTopResourcesOfApp(DEFAULT_APP, null, 6, 6, false));
+
+        assertEquals(11, repository.countResourcesOfApp(DEFAULT_APP, "res-1"));
+        for (String resource : repository.listTopResourcesOfApp(DEFAULT_APP, "res-1", 0, 20, true)) {
+            assertTrue(resource.contains("res-1"));
+        }
+        assertTrue(repository.listTopResourcesOfApp(DEFAULT_APP, null, 60, 6, true).isEmpty());
+    }
+
+    @Test
+    public void testRemoveResources() {
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < 20; i++) {
+            repository.save(newEntity(DEFAULT_APP, "res-" + i, now, i + 1));
+        }
+        long version = repository.versionOfApp(DEFAULT_APP);
+        repository.removeResourcesOfApp(DEFAULT_APP, Arrays.asList("res-1", "res-10", "res-11"));
+        assertFalse(version == repository.versionOfApp(DEFAULT_APP));
+        assertEquals(17, repository.countSeries());
+        assertEquals(8, repository.countResourcesOfApp(DEFAULT_APP, "res-1"));
+        assertFalse(repository.resourceIndexOf(DEFAULT_APP).contains("res-10"));
+        assertTrue(repository.queryByAppAndResourceBetween(DEFAULT_APP, "res-10", now - 1000, now + 1000).isEmpty());
+
+        repository.save(newEntity(DEFAULT_APP, "res-10", now, 1));
+        assertEquals(9, repository.countResourcesOfApp(DEFAULT_APP, "res-1"));
+    }
+
+    @Test
+    public void testFootprintOfApps() {
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < 30; i++) {
+            for (int r = 0; r < 3; r++) {
+                if (i < (r + 1) * 10) {
+                    repository.save(newEntity(DEFAULT_APP, "res-" + r, now - i * 1000, 1));
+                }
+            }
+        }
+        repository.save(newEntity("smallApp", DEFAULT_RESOURCE, now, 1));
+
+        List<MetricAppFootprint> footprints = repository.footprintOfApps(2);
+        assertEquals(2, footprints.size());
+        MetricAppFootprint footprint = footprints.get(0);
+        assertEquals(DEFAULT_APP, footprint.getApp());
+        assertEquals(3, footprint.getSeries());
+        assertEquals(repository.countPoints() - footprints.get(1).getPoints(), footprint.getPoints());
+        assertTrue(footprint.getEstimatedBytes() > footprints.get(1).getEstimatedBytes());
+        assertEquals(0, footprint.getLastReadMs());
+        assertEquals(Arrays.asList("res-2", "res-1"), new ArrayList<>(footprint.getTopResources().keySet()));
+        assertTrue(footprint.getTopResources().get("res-2") > footprint.getTopResources().get("res-1"));
+
+        repository.queryByAppAndResourceBetween(DEFAULT_APP, "res-0", now - 1000, now);
+        assertTrue(repository.footprintOfApps(0).get(0).getLastReadMs() > 0);
+        assertTrue(repository.footprintOfApps(0).get(0).getTopResources().isEmpty());
+    }
+
+    @Test
+    public void testTrimToBudgetDownsamplesThenRemovesColdApps() {
+        long now = System.currentTimeMillis() / 1000;
+        for (long second = now - 20 * 60 + 1; second <= now; second++) {
+            repository.save(newEntity("coldApp", DEFAULT_RESOURCE, second * 1000, 10));
+            repository.save(newEntity("viewedApp", DEFAULT_RESOURCE, second * 1000, 10));
+        }
+        repository.listTopResourcesOfApp("viewedApp", null, 0, 10, true);
+        long total = 0;
+        for (MetricAppFootprint footprint : repository.footprintOfApps(0)) {
+            total += footprint.getEstimatedBytes();
+        }
+        assertEquals(0, repository.trimToBudget(total));
+
+        // downsampling the cold app is enough, it keeps its coarsest tier
+        assertTrue(repository.trimToBudget(total - 1) > 0);
+        assertEquals(2, repository.countSeries());
+        List<MetricAppFootprint> footprints = repository.footprintOfApps(0);
+        assertEquals("viewedApp", footprints.get(0).getApp());
+        assertEquals(300 + 120 + 20, footprints.get(0).getPoints(), 2);
+        assertEquals(20, footprints.get(1).getPoints(), 1);
+
+        // querying it would make it viewed, the cold app is removed next, the viewed one is kept even over the budget
+        long version = repository.versionOfApp("coldApp");
+        assertTrue(repository.trimToBudget(0) > 0);
+        assertFalse(version == repository.versionOfApp("coldApp"));
+        assertEquals(1, repository.countSeries());
+        assertEquals("viewedApp", repository.footprintOfApps(0).get(0).getApp());
+        assertNull(repository.resourceIndexOf("coldApp"));
+        assertTrue(repository.listResourcesOfApp("coldApp").isEmpty());
+    }
+
+    @Test
+    public void testLastMinuteTotalsSlideWithTime() {
+        long nowMs = System.currentTimeMillis() / 1000 * 1000;
+        long now = nowMs / 1000;
+        MetricSeries series = new MetricSeries(300);
+        for (int i = 0; i < 90; i++) {
+            // block = 1 per second, pass = second offset
+            series.put(now - 89 + i, i, i, 1, 0, 0, 1, nowMs);
+        }
+        long[] totals = series.lastMinuteTotals(nowMs);
+        // seconds [now - 60, now], both side inclusive
+        assertEquals(61, totals[0]);
+        assertEquals(61, totals[2]);
+        // overwriting a point replaces its contribution
+        series.put(now, 89, 89, 11, 0, 0, 1, nowMs);
+        assertEquals(71, series.lastMinuteTotals(nowMs)[0]);
+        // 30 seconds later only [now - 30, now] is left
+        totals = series.lastMinuteTotals(nowMs + 30 * 1000);
+        assertEquals(41, totals[0]);
+        assertEquals(31, totals[2]);
+        // a write later on slides the stored window as well
+        series.put(now + 30, 0, 0, 5, 0, 0, 1, nowMs + 30 * 1000);
+        totals = series.lastMinuteTotals(nowMs + 30 * 1000);
+        assertEquals(46, totals[0]);
+        assertEquals(32, totals[2]);
+        assertEquals(0, series.lastMinuteTotals(nowMs + 120 * 1000)[2]);
+    }
+
+    @Test
+    public void testExpireMetric() {
+        repository = new RingBufferMetricsRepository(new MetricTier[] {new MetricTier(1, 60 * 5)});
+        long now = System.currentTimeMillis();
+        repository.save(newEntity(DEFAULT_APP, DEFAULT_RESOURCE, now - EXPIRE_TIME - 1000L, 1));
+        repository.save(newEntity(DEFAULT_APP, DEFAULT_RESOURCE, now, 1));
+
+        List<MetricEntity> list = repository.queryByAppAndResourceBetween(
+            DEFAULT_APP, DEFAULT_RESOURCE, now - EXPIRE_TIME * 2, now);
+        assertEquals(1, list.size());
+        assertEquals(now / 1000 * 1000, list.get(0).getTimestamp().getTime());
+    }
+
+    @Test
+    public void testQueryReadsFinestTierCoveringRange() {
+        long now = System.currentTimeMillis() / 1000;
+        // 20 minutes of points, pass qps = 10 every second
+        for (long second = now - 20 * 60 + 1; second <= now; second++) {
+            repository.save(newEntity(DEFAULT_APP, DEFAULT_RESOURCE, second * 1000, 10));
+        }
+        // within the per-second retention
+        List<MetricEntity> list = repository.queryByAppAndResourceBetween(DEFAULT_APP, DEFAULT_RESOURCE,
+            (now - 59) * 1000, now * 1000);
+        assertEquals(60, list.size());
+
+        // beyond the per-second retention, 10s buckets are read
+        list = repository.queryByAppAndResourceBetween(DEFAULT_APP, DEFAULT_RESOURCE,
+            (now - 15 * 60) * 1000, now * 1000);
+        assertTrue(list.size() >= 90 && list.size() <= 91);
+        long last = 0;
+        for (MetricEntity entity : list) {
+            assertEquals(0, entity.getTimestamp().getTime() % 10000);
+            assertTrue(entity.getTimestamp().getTime() > last);
+            last = entity.getTimestamp().getTime();
+            // per-second average of the bucket
+            assertEquals(10L, (long)entity.getPassQps());
+            assertEquals(10d, entity.getRt() / entity.getSuccessQps(), 0.0001);
+        }
+        // the first bucket starts within the range
+        assertTrue(list.get(0).getTimestamp().getTime() >= (now - 15 * 60) * 1000);
+    }
+
+    @Test
+    public void testRollupFollowsReplacedSeconds() {
+        long nowMs = System.currentTimeMillis();
+        long base = nowMs / 1000 / 60 * 60 - 120;
+        MetricSeries series = new MetricSeries(new MetricTier[] {new MetricTier(1, 300), new MetricTier(60, 3600)});
+        for (int i = 0; i < 60; i++) {
+            series.put(base + i, 4, 4, 2, 0, 40, 2, nowMs);
+        }
+        // replacing a second must not count it twice
+        series.put(base, 64, 64, 2, 0, 640, 32, nowMs);
+        long[] pass = new long[2];
+        series.query(base, base + 59, base + 60 * 60, (second, passQps, successQps, blockQps, exceptionQps, rt, count) -> {
+            assertEquals(base, second);
+            pass[0] = passQps;
+            pass[1] = count;
+        });
+        // (59 * 4 + 64) / 60
+        assertEquals(5, pass[0]);
+        // the count is averaged like the qps: (59 * 2 + 32) / 60
+        assertEquals(3, pass[1]);
+    }
+
+    @Test
+    public void testRetentionCutRatherThanOverflowing() {
+        assertEquals(60 * 60 * 24 * 7, MetricTier.retentionSeconds(7, 60 * 60 * 24));
+        // 30000 days in seconds overflows an int
+        assertEquals(MetricTier.MAX_RETENTION_SECONDS, MetricTier.retentionSeconds(30000, 60 * 60 * 24));
+        assertEquals(MetricTier.MAX_RETENTION_SECONDS, MetricTier.retentionSeconds(Integer.MAX_VALUE, 60));
+    }
+
+    @Test
+    public void testDownsampleReadsCoarsestTier() {
+        long nowMs = System.currentTimeMillis();
+        long now = nowMs / 1000;
+        MetricSeries series = new MetricSeries(new MetricTier[] {
+            new MetricTier(1, 60 * 5), new MetricTier(10, 60 * 60), new MetricTier(60, 60 * 60 * 24)});
+        for (long second = now - 20 * 60 + 1; second <= now; second++) {
+            series.put(second, 10, 10, 0, 0, 100, 1, nowMs);
+        }
+        long bytes = series.estimateBytes();
+        long freed = series.downsample();
+        assertTrue(freed > 0);
+        assertEquals(bytes - freed, series.estimateBytes());
+        assertEquals(0, series.lastMinuteTotals(nowMs)[2]);
+
+        List<Long> seconds = new ArrayList<>();
+        series.query(now - 59, now, now, (second, passQps, successQps, blockQps, exceptionQps, rt, count) -> {
+            assertEquals(0, second % 60);
+            assertEquals(10, passQps);
+            seconds.add(second);
+        });
+        assertEquals(1, seconds.size(), 1);
+
+        // points written since are read from the per-second tier again
+        series.put(now + 1, 10, 10, 0, 0, 100, 1, nowMs + 1000);
+        seconds.clear();
+        series.query(now + 1, now + 1, now + 1,
+            (second, passQps, successQps, blockQps, exceptionQps, rt, count) -> seconds.add(second));
+        assertEquals(Collections.singletonList(now + 1), seconds);
+    }
+
+    @Test
+    public void testRingGrowsOnlyWhenNeeded() {
+        MetricRing ring = new MetricRing(300);
+        long base = System.currentTimeMillis() / 1000;
+        // sparse points do not collide, ring stays small
+        ring.put(base, 1, 1, 0, 0, 1, 1);
+        ring.put(base + 1, 1, 1, 0, 0, 1, 1);
+        assertTrue(ring.capacity() < 300);
+        for (int i = 0; i < 300; i++) {
+            ring.put(base + i, i, i, 0, 0, i, 1);
+        }
+        assertEquals(300, ring.capacity());
+        long[] seen = new long[1];
+        ring.forEach(base, base + 299, (second, passQps, successQps, blockQps, exceptionQps, rt, count) -> {
+            assertEquals(second - base, passQps);
+            seen[0]++;
+        });
+        assertEquals(300, seen[0]);
+        // writing past the window evicts the oldest point only
+        ring.put(base + 300, 1, 1, 0, 0, 1, 1);
+        seen[0] = 0;
+        ring.forEach(base, base + 300, (second, passQps, successQps, blockQps, exceptionQps, rt, count) -> seen[0]++);
+        assertEquals(300, seen[0]);
+        assertFalse(ring.put(base, 1, 1, 0, 0, 1, 1));
+    }
+
+    /**
+     * Writers hammer shared and private series while readers keep querying. Every point carries
+     * the same value in all of its columns, so a reader seeing a torn point (columns from two writes)
+     * or a point out of time order fails the test. At the end every written second must be readable.
+     */
+    @Test
+    public void testConcurrentWriteAndReadStayConsistent() throws Exception {
+        final int writers = 8;
+        final int readers = 8;
+        final int seconds = 200;
+        final long base = System.currentTimeMillis() / 1000 - seconds;
+        final CyclicBarrier barrier = new CyclicBarrier(writers + readers);
+        final AtomicBoolean writing = new AtomicBoolean(true);
+        final AtomicReference<String> error = new AtomicReference<>();
+        List<CompletableFuture<Void>> writerFutures = new ArrayList<>();
+        List<CompletableFuture<Void>> readerFutures = new ArrayList<>();
+
+        for (int w = 0; w < writers; w++) {
+            final String ownResource = "resource-" + w;
+            writerFutures.add(CompletableFuture.runAsync(() -> {
+                await(barrier);
+                for (int round = 0; round < 20; round++) {
+                    for (int i = 0; i < seconds; i++) {
+                        long value = round * 1000L + i;
+                        repository.save(consistentEntity(ownResource, (base + i) * 1000, value));
+                        repository.save(consistentEntity(DEFAULT_RESOURCE, (base + i) * 1000, value));
+                    }
+                }
+            }, executorService));
+        }
+        for (int r = 0; r < readers; r++) {
+            final String resource = r % 2 == 0 ? DEFAULT_RESOURCE : "resource-" + r;
+            readerFutures.add(CompletableFuture.runAsync(() -> {
+                await(barrier);
+                while (writing.get()) {
+                    long last = -1;
+                    for (MetricEntity e : repository.queryByAppAndResourceBetween(DEFAULT_APP, resource,
+                        base * 1000, (base + seconds) * 1000)) {
+                        long value = e.getPassQps();
+                        if (e.getSuccessQps() != value || e.getBlockQps() != value
+                            || e.getExceptionQps() != value || e.getCount() != value || e.getRt() != value) {
+                            error.compareAndSet(null, "torn point: " + e);
+                        }
+                        if (e.getTimestamp().getTime() <= last) {
+                            error.compareAndSet(null, "out of order point: " + e);
+                        }
+                        last = e.getTimestamp().getTime();
+                    }
+                    repository.listResourcesOfApp(DEFAULT_APP);
+                }
+            }, executorService));
+        }
+
+        CompletableFuture.allOf(writerFutures.toArray(new CompletableFuture[0])).get(30, TimeUnit.SECONDS);
+        writing.set(false);
+        CompletableFuture.allOf(readerFutures.toArray(new CompletableFuture[0])).get(30, TimeUnit.SECONDS);
+
+        assertNull(error.get());
+        for (int w = 0; w < writers; w++) {
+            List<MetricEntity> list = repository.queryByAppAndResourceBetween(DEFAULT_APP, "resource-" + w,
+                base * 1000, (base + seconds) * 1000);
+            assertEquals(seconds, list.size());
+            for (int i = 0; i < seconds; i++) {
+                // last round wins
+                assertEquals(19 * 1000L + i, (long)list.get(i).getPassQps());
+            }
+        }
+        assertEquals(seconds, repository.queryByAppAndResourceBetween(DEFAULT_APP, DEFAULT_RESOURCE,
+            base * 1000, (base + seconds) * 1000).size());
+        assertEquals(writers + 1, repository.listResourcesOfApp(DEFAULT_APP).size());
+    }
+
+    private static void await(CyclicBarrier barrier) {
+        try {
+            barrier.await();
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private MetricEntity consistentEntity(String resource, long timestamp, long value) {
+        MetricEntity entry = new MetricEntity();
+        entry.setApp(DEFAULT_APP);
+        entry.setResource(resource);
+        entry.setTimestamp(new Date(timestamp));
+        entry.setPassQps(value);
+        entry.setSuccessQps(value);
+        entry.setBlockQps(value);
+        entry.setExceptionQps(value);
+        entry.setRt(value);
+        entry.setCount((int)value);
+        return entry;
+    }
+
+    private MetricEntity newEntity(String app, String resource, long timestamp, long passQps) {
+        MetricEntity entry = new MetricEntity();
+        entry.setApp(app);
+        entry.setResource(resource);
+        entry.setTimestamp(new Date(timestamp));
+        entry.setPassQps(passQps);
+        entry.setExceptionQps(0L);
+        entry.setBlockQps(0L);
+        entry.setSuccessQps(passQps);
+        entry.setRt(passQps * 10d);
+        entry.setCount(1);
+        return entry;
+    }
+}